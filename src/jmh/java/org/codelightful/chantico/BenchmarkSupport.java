@@ -0,0 +1,40 @@
+package org.codelightful.chantico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Utilities shared by the benchmarks to run against an isolated home folder */
+public class BenchmarkSupport {
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Creates a temporal home folder and configures it as the Chantico home. It must be invoked before any other
+	 * class reads the configuration (every benchmark runs in its own forked JVM)
+	 * @return Path to the created home folder
+	 */
+	public static Path createHome() throws IOException {
+		Path home = Files.createTempDirectory("chantico-jmh");
+		Path configFolder = Files.createDirectories(home.resolve("config"));
+		Files.write(configFolder.resolve("chantico.properties"), "port=0\n".getBytes(StandardCharsets.UTF_8));
+		System.setProperty("home", home.toString());
+		return home;
+	}
+
+	/**
+	 * Removes a folder created by the benchmarks
+	 * @param folder Folder to remove
+	 */
+	public static void delete(Path folder) throws IOException {
+		if (folder != null && Files.exists(folder)) {
+			try (Stream<Path> paths = Files.walk(folder)) {
+				paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.BenchmarkSupport;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures the time to store and retrieve artifacts of different sizes in the local repository */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArtifactRepositoryBenchmark {
+	@Param({"1024", "65536", "1048576", "16777216"})
+	private int size;
+	private Path home;
+	private byte[] content;
+	private ArtifactRequest readRequest;
+	private ArtifactRequest writeRequest;
+	/** Output that discards the content so only the repository side is measured */
+	private final OutputStream discard = new OutputStream() {
+		@Override
+		public void write(int value) {
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) {
+		}
+	};
+
+	@Setup
+	public void setup() throws Exception {
+		home = BenchmarkSupport.createHome();
+		content = new byte[size];
+		new Random(size).nextBytes(content);
+		readRequest = ArtifactRequest.parse("/org/codelightful/bench/read/1.0/read-1.0.jar");
+		writeRequest = ArtifactRequest.parse("/org/codelightful/bench/write/1.0/write-1.0.jar");
+		ArtifactRepository.getInstance().storeArtifact(readRequest, new ByteArrayInputStream(content));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		BenchmarkSupport.delete(home);
+	}
+
+	@Benchmark
+	public boolean retrieveArtifact() {
+		return ArtifactRepository.getInstance().retrieveArtifact(readRequest, discard);
+	}
+
+	@Benchmark
+	public boolean artifactExists() {
+		return ArtifactRepository.getInstance().retrieveArtifact(readRequest, null);
+	}
+
+	@Benchmark
+	public void storeArtifact() {
+		ArtifactRepository.getInstance().storeArtifact(writeRequest, new ByteArrayInputStream(content));
+	}
+}
@@ -0,0 +1,56 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.BenchmarkSupport;
+import org.codelightful.chantico.Chantico;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Measures the authentication of users, which includes the database lookup and the password decryption */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServiceBenchmark {
+	private static final String EMAIL = "bench@chantico";
+	private static final String PASSWORD = "benchmark-password";
+	private Path home;
+	private Chantico chantico;
+
+	@Setup
+	public void setup() throws Exception {
+		home = BenchmarkSupport.createHome();
+		chantico = new Chantico();
+		chantico.start();
+		UserService.getInstance().createUser(EMAIL, null, Chantico.encrypt(PASSWORD));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		chantico.stop();
+		BenchmarkSupport.delete(home);
+	}
+
+	@Benchmark
+	public String authenticateValid() {
+		return UserService.getInstance().authenticate(EMAIL, PASSWORD);
+	}
+
+	@Benchmark
+	public String authenticateUnknownUser() {
+		return UserService.getInstance().authenticate("unknown@chantico", PASSWORD);
+	}
+}
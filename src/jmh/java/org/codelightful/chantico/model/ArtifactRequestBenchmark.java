@@ -0,0 +1,35 @@
+package org.codelightful.chantico.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Measures the cost of decomposing a request URI into the artifact coordinates */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArtifactRequestBenchmark {
+	private String versionedPath = "/org/codelightful/chantico/chantico-server/1.0.0/chantico-server-1.0.0.jar";
+	private String metadataPath = "/org/codelightful/chantico/chantico-server/maven-metadata.xml";
+
+	@Benchmark
+	public ArtifactRequest parseVersionedFile() {
+		return ArtifactRequest.parse(versionedPath);
+	}
+
+	@Benchmark
+	public ArtifactRequest parseMetadataFile() {
+		return ArtifactRequest.parse(metadataPath);
+	}
+}
@@ -0,0 +1,59 @@
+package org.codelightful.chantico.persistence;
+
+import org.codelightful.chantico.BenchmarkSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Measures the query path of the persistent operations against the embedded database */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationBenchmark {
+	private Path home;
+
+	@Setup
+	public void setup() throws Exception {
+		home = BenchmarkSupport.createHome();
+		PersistenceManager.getInstance().migrate();
+		for (int idx = 0; idx < 1000; idx++) {
+			Operation.Update.from("INSERT INTO chantico_users (user_email, user_name, user_password) VALUES (?, ?, ?)",
+					"user" + idx + "@bench", null, "password").execute();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		BenchmarkSupport.delete(home);
+	}
+
+	@Benchmark
+	public int queryByEmail() {
+		AtomicInteger count = new AtomicInteger();
+		Operation.Query.from("SELECT user_password FROM chantico_users WHERE user_email = ?", "user500@bench")
+				.execute(rs -> count.incrementAndGet());
+		return count.get();
+	}
+
+	@Benchmark
+	public int countUsers() {
+		AtomicInteger count = new AtomicInteger();
+		Operation.Query.from("SELECT COUNT(*) FROM chantico_users").execute(rs -> count.set(rs.getInt(1)));
+		return count.get();
+	}
+}
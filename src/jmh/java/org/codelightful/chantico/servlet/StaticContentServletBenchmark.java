@@ -0,0 +1,89 @@
+package org.codelightful.chantico.servlet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to serve static resources from the classpath. Only non HTML resources are used because the HTML
+ * pages require the database to determine if there are users defined
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StaticContentServletBenchmark {
+	@Param({"/css/chantico.css", "/js/chantico.js", "/libs/bulma/bulma.min.css"})
+	private String uri;
+	private StaticContentServlet servlet;
+	private HttpServletRequest request;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setup() {
+		servlet = new StaticContentServlet();
+		request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "getRequestURI":
+							return uri;
+						case "getParameterMap":
+							return Collections.emptyMap();
+						case "getMethod":
+							return "GET";
+						default:
+							return null;
+					}
+				});
+		ServletOutputStream output = new ServletOutputStream() {
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+
+			@Override
+			public void write(int value) {
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) {
+			}
+		};
+		response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+				(proxy, method, args) -> {
+					if ("getOutputStream".equals(method.getName())) {
+						return output;
+					} else if ("getStatus".equals(method.getName())) {
+						return HttpServletResponse.SC_OK;
+					}
+					return null;
+				});
+	}
+
+	@Benchmark
+	public void serveResource() throws Exception {
+		servlet.doServe(request, response);
+	}
+}
@@ -0,0 +1,206 @@
+package org.codelightful.chantico.loadtest;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.codelightful.chantico.Chantico;
+import org.codelightful.chantico.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generation harness that starts an in-process server on a random port, seeds its repository with a synthetic
+ * dependency graph and replays the requests a Maven client issues to resolve it from many concurrent agents. The
+ * options are read from system properties prefixed with loadtest. and a JSON summary is written at the end
+ */
+public class LoadTest {
+	/** Types of request replayed, used to break down the latency */
+	enum RequestType {
+		METADATA, POM, JAR, CHECKSUM, HEAD, MISS
+	}
+
+	private final int concurrency = Integer.getInteger("loadtest.concurrency", 200);
+	private final int durationSeconds = Integer.getInteger("loadtest.duration", 30);
+	private final int warmupSeconds = Integer.getInteger("loadtest.warmup", 5);
+	private final int artifactCount = Integer.getInteger("loadtest.artifacts", 500);
+	private final int versionCount = Integer.getInteger("loadtest.versions", 3);
+	private final int jarSize = Integer.getInteger("loadtest.jarSize", 64 * 1024);
+	private final double missRatio = Double.parseDouble(System.getProperty("loadtest.missRatio", "0.05"));
+	private final String output = System.getProperty("loadtest.output", "loadtest-summary.json");
+
+	private final Map<RequestType, Histogram> latencies = new LinkedHashMap<>();
+	private final Histogram totalLatency = new Histogram();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private SyntheticGraph graph;
+	private String baseUrl;
+	private volatile boolean recording;
+	private volatile boolean running = true;
+
+	public static void main(String[] args) throws Exception {
+		String logLevel = System.getProperty("loadtest.logLevel", "OFF");
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.toLevel(logLevel));
+		new LoadTest().run();
+		System.exit(0);
+	}
+
+	LoadTest() {
+		for (RequestType type : RequestType.values()) {
+			latencies.put(type, new Histogram());
+		}
+	}
+
+	/** Executes the whole load test: start, seed, replay and report */
+	void run() throws Exception {
+		Path home = Files.createTempDirectory("chantico-loadtest");
+		Files.createDirectories(home.resolve("config"));
+		Files.write(home.resolve("config").resolve("chantico.properties"), "port=0\n".getBytes(StandardCharsets.UTF_8));
+		System.setProperty("home", home.toString());
+		System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+		Chantico chantico = new Chantico();
+		chantico.start();
+		baseUrl = "http://localhost:" + chantico.getPort() + "/artifact/";
+		System.out.println("Server listening on port " + chantico.getPort() + ", seeding " + artifactCount + " artifacts");
+
+		graph = new SyntheticGraph(artifactCount, versionCount, jarSize);
+		graph.seed();
+
+		System.out.println("Replaying with " + concurrency + " agents for " + durationSeconds + "s after a " + warmupSeconds + "s warm up");
+		ExecutorService agents = Executors.newFixedThreadPool(concurrency);
+		for (int idx = 0; idx < concurrency; idx++) {
+			agents.submit(this::agentLoop);
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+		recording = true;
+		long startTime = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		recording = false;
+		long elapsedNanos = System.nanoTime() - startTime;
+		running = false;
+		agents.shutdown();
+		agents.awaitTermination(30, TimeUnit.SECONDS);
+
+		writeSummary(elapsedNanos);
+		chantico.stop();
+	}
+
+	/** Loop executed by every agent: resolves the dependency graph of random root artifacts until the test ends */
+	private void agentLoop() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (running) {
+			for (SyntheticGraph.Coordinate coordinate : graph.resolutionOrder(random.nextInt(graph.size()))) {
+				if (!running) {
+					return;
+				}
+				String base = coordinate.path();
+				request(RequestType.METADATA, "GET", coordinate.metadataPath(), 200);
+				request(RequestType.CHECKSUM, "GET", coordinate.metadataPath() + ".sha1", 200);
+				request(RequestType.POM, "GET", base + ".pom", 200);
+				request(RequestType.CHECKSUM, "GET", base + ".pom.sha1", 200);
+				request(RequestType.HEAD, "HEAD", base + ".jar", 200);
+				request(RequestType.JAR, "GET", base + ".jar", 200);
+				request(RequestType.CHECKSUM, "GET", base + ".jar.sha1", 200);
+				if (random.nextDouble() < missRatio) {
+					// a sources or javadoc lookup that does not exist, as IDEs do
+					request(RequestType.MISS, "GET", base + "-sources.jar", 404);
+				}
+			}
+		}
+	}
+
+	/** Executes a single request recording its latency and verifying the status */
+	private void request(RequestType type, String method, String path, int expectedStatus) {
+		long startTime = System.nanoTime();
+		boolean failed = false;
+		long received = 0;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setRequestMethod(method);
+			int status = connection.getResponseCode();
+			failed = status != expectedStatus;
+			try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				if (input != null) {
+					byte[] buffer = new byte[16 * 1024];
+					int read;
+					while ((read = input.read(buffer)) >= 0) {
+						received += read;
+					}
+				}
+			}
+		} catch (Exception ex) {
+			failed = true;
+		}
+		if (recording) {
+			long elapsedMicros = (System.nanoTime() - startTime) / 1000;
+			latencies.get(type).record(elapsedMicros);
+			totalLatency.record(elapsedMicros);
+			bytes.add(received);
+			if (failed) {
+				errors.increment();
+			}
+		}
+	}
+
+	/** Writes the machine readable summary and prints it */
+	private void writeSummary(long elapsedNanos) throws Exception {
+		double seconds = elapsedNanos / 1e9;
+		long requests = totalLatency.getCount();
+		Map<String, Object> summary = new LinkedHashMap<>();
+		Map<String, Object> settings = new LinkedHashMap<>();
+		settings.put("concurrency", concurrency);
+		settings.put("durationSeconds", durationSeconds);
+		settings.put("artifacts", artifactCount);
+		settings.put("versions", versionCount);
+		settings.put("jarSize", jarSize);
+		settings.put("missRatio", missRatio);
+		summary.put("settings", settings);
+		summary.put("requests", requests);
+		summary.put("throughput", requests / seconds);
+		summary.put("bytesPerSecond", bytes.sum() / seconds);
+		summary.put("errors", errors.sum());
+		summary.put("errorRate", requests == 0 ? 0d : errors.sum() / (double) requests);
+		summary.put("latencyMillis", latencySummary(totalLatency));
+		Map<String, Object> byType = new LinkedHashMap<>();
+		for (Map.Entry<RequestType, Histogram> entry : latencies.entrySet()) {
+			Map<String, Object> typeSummary = latencySummary(entry.getValue());
+			typeSummary.put("requests", entry.getValue().getCount());
+			byType.put(entry.getKey().name().toLowerCase(), typeSummary);
+		}
+		summary.put("byType", byType);
+
+		ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+		File outputFile = new File(output);
+		if (outputFile.getParentFile() != null) {
+			outputFile.getParentFile().mkdirs();
+		}
+		mapper.writeValue(outputFile, summary);
+		System.out.println(mapper.writeValueAsString(summary));
+		System.out.println("Summary written to " + outputFile.getAbsolutePath());
+	}
+
+	/** Internal method to produce the percentiles of a histogram recorded in microseconds */
+	private Map<String, Object> latencySummary(Histogram histogram) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("p50", histogram.getValueAtPercentile(50) / 1000d);
+		result.put("p99", histogram.getValueAtPercentile(99) / 1000d);
+		result.put("p999", histogram.getValueAtPercentile(99.9) / 1000d);
+		result.put("mean", histogram.getCount() == 0 ? 0d : histogram.getSum() / (double) histogram.getCount() / 1000d);
+		return result;
+	}
+}
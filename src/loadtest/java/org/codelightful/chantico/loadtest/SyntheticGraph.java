@@ -0,0 +1,143 @@
+package org.codelightful.chantico.loadtest;
+
+import org.codelightful.chantico.engine.ArtifactRepository;
+import org.codelightful.chantico.model.ArtifactRequest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic set of artifacts where every artifact depends on a few artifacts created before it, so resolving one of
+ * them requires to resolve a dependency graph as a real build does
+ */
+class SyntheticGraph {
+	/** Maximum number of direct dependencies of an artifact */
+	private static final int MAX_DEPENDENCIES = 4;
+	/** Maximum number of artifacts resolved for a single root */
+	private static final int MAX_RESOLVED = 40;
+	private final List<Coordinate> coordinates = new ArrayList<>();
+	private final int[][] dependencies;
+	private final int versionCount;
+	private final int jarSize;
+
+	SyntheticGraph(int artifactCount, int versionCount, int jarSize) {
+		this.versionCount = versionCount;
+		this.jarSize = jarSize;
+		Random random = new Random(artifactCount);
+		dependencies = new int[artifactCount][];
+		for (int idx = 0; idx < artifactCount; idx++) {
+			coordinates.add(new Coordinate("org.loadtest.group" + (idx % 50), "artifact" + idx, "1.0." + (versionCount - 1)));
+			int count = idx == 0 ? 0 : random.nextInt(Math.min(idx, MAX_DEPENDENCIES) + 1);
+			dependencies[idx] = new int[count];
+			for (int ddx = 0; ddx < count; ddx++) {
+				dependencies[idx][ddx] = random.nextInt(idx);
+			}
+		}
+	}
+
+	/** Number of artifacts in the graph */
+	int size() {
+		return coordinates.size();
+	}
+
+	/**
+	 * Obtains the artifacts to resolve for a root artifact, in breadth first order and without duplicates
+	 * @param root Index of the root artifact
+	 */
+	List<Coordinate> resolutionOrder(int root) {
+		Set<Integer> visited = new LinkedHashSet<>();
+		Deque<Integer> pending = new ArrayDeque<>();
+		pending.add(root);
+		while (!pending.isEmpty() && visited.size() < MAX_RESOLVED) {
+			int current = pending.poll();
+			if (visited.add(current)) {
+				for (int dependency : dependencies[current]) {
+					pending.add(dependency);
+				}
+			}
+		}
+		List<Coordinate> result = new ArrayList<>(visited.size());
+		for (int index : visited) {
+			result.add(coordinates.get(index));
+		}
+		return result;
+	}
+
+	/** Stores all the files of the graph in the repository */
+	void seed() throws Exception {
+		byte[] jarContent = new byte[jarSize];
+		new Random(jarSize).nextBytes(jarContent);
+		for (int idx = 0; idx < coordinates.size(); idx++) {
+			Coordinate coordinate = coordinates.get(idx);
+			StringBuilder versions = new StringBuilder();
+			for (int version = 0; version < versionCount; version++) {
+				String versionLabel = "1.0." + version;
+				versions.append("<version>").append(versionLabel).append("</version>");
+				Coordinate versioned = new Coordinate(coordinate.group, coordinate.artifact, versionLabel);
+				store(versioned.path() + ".pom", pom(versioned, idx).getBytes(StandardCharsets.UTF_8));
+				store(versioned.path() + ".jar", jarContent);
+			}
+			String metadata = "<metadata><groupId>" + coordinate.group + "</groupId><artifactId>" + coordinate.artifact
+					+ "</artifactId><versioning><latest>" + coordinate.version + "</latest><release>" + coordinate.version
+					+ "</release><versions>" + versions + "</versions></versioning></metadata>";
+			store(coordinate.metadataPath(), metadata.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/** Internal method to produce the POM of an artifact including its dependencies */
+	private String pom(Coordinate coordinate, int index) {
+		StringBuilder pom = new StringBuilder("<project><modelVersion>4.0.0</modelVersion>");
+		pom.append("<groupId>").append(coordinate.group).append("</groupId>");
+		pom.append("<artifactId>").append(coordinate.artifact).append("</artifactId>");
+		pom.append("<version>").append(coordinate.version).append("</version><dependencies>");
+		for (int dependency : dependencies[index]) {
+			Coordinate target = coordinates.get(dependency);
+			pom.append("<dependency><groupId>").append(target.group).append("</groupId><artifactId>")
+					.append(target.artifact).append("</artifactId><version>").append(target.version).append("</version></dependency>");
+		}
+		return pom.append("</dependencies></project>").toString();
+	}
+
+	/** Internal method to store a file and its SHA-1 checksum */
+	private void store(String path, byte[] content) throws Exception {
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		repository.storeArtifact(ArtifactRequest.parse(path), new ByteArrayInputStream(content));
+		StringBuilder checksum = new StringBuilder();
+		for (byte value : MessageDigest.getInstance("SHA-1").digest(content)) {
+			checksum.append(String.format("%02x", value));
+		}
+		repository.storeArtifact(ArtifactRequest.parse(path + ".sha1"),
+				new ByteArrayInputStream(checksum.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/** Coordinates of an artifact in the graph */
+	static class Coordinate {
+		final String group;
+		final String artifact;
+		final String version;
+
+		Coordinate(String group, String artifact, String version) {
+			this.group = group;
+			this.artifact = artifact;
+			this.version = version;
+		}
+
+		/** Path of the files of the artifact without the extension */
+		String path() {
+			return group.replace('.', '/') + "/" + artifact + "/" + version + "/" + artifact + "-" + version;
+		}
+
+		/** Path of the metadata file of the artifact */
+		String metadataPath() {
+			return group.replace('.', '/') + "/" + artifact + "/maven-metadata.xml";
+		}
+	}
+}
@@ -1,16 +1,28 @@
 package org.codelightful.chantico;
 
+import org.codelightful.chantico.engine.CatalogService;
+import org.codelightful.chantico.engine.ChunkedUploadService;
+import org.codelightful.chantico.engine.MaintenanceService;
+import org.codelightful.chantico.engine.MavenIndexService;
+import org.codelightful.chantico.engine.MirrorService;
+import org.codelightful.chantico.engine.PopularityTracker;
+import org.codelightful.chantico.engine.ReplicationService;
+import org.codelightful.chantico.metrics.MetricsRegistry;
 import org.codelightful.chantico.persistence.PersistenceManager;
 import org.codelightful.harpo.RSAUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class Chantico {
 	private static final Logger logger = LoggerFactory.getLogger("server");
@@ -19,7 +31,9 @@ public class Chantico {
 	/** Reference to the embedded application server */
 	private EmbeddedServer server;
 	/** Contains the reference to the key pair used to execute encryption operations */
-	private KeyPair keyPair;
+	private volatile KeyPair keyPair;
+	/** Time in milliseconds since the JVM was launched until the server was ready to accept requests */
+	private volatile long startupMillis = -1;
 
 	/** Entry point to start the artifact server */
 	public static void main(String[] args) throws Exception {
@@ -32,8 +46,14 @@ public class Chantico {
 		System.out.println("\r\n Artifact Server v1.0.0"); // TODO: set the version dynamically
 		System.out.println("--------------------------------------------------------------------------------");
 		try {
-			chantico = new Chantico();
-			chantico.start();
+			Chantico instance = new Chantico();
+			if (instance.start()) {
+				if (Boolean.getBoolean("chantico.trainingRun")) {
+					instance.train();
+					System.exit(0);
+				}
+				instance.await();
+			}
 		} catch (Exception ex) {
 			logger.error("An error has occurred trying to start the server", ex);
 		} finally {
@@ -47,14 +67,89 @@ public class Chantico {
 	}
 
 	/**
-	 * Starts the Chantico server
+	 * Starts the Chantico server. The method returns as soon as the server is accepting requests
+	 * @return A boolean value to determine if the server has been started
 	 */
-	public void start() throws Exception {
-		if (canStart()) {
-			configure();
-			server = new EmbeddedServer();
-			server.start();
+	public boolean start() throws Exception {
+		if (!canStart()) {
+			return false;
 		}
+		chantico = this;
+		configure();
+		Configuration configuration = Configuration.getInstance();
+		configuration.watch();
+		if (configuration.getBoolean("server.fastStart", false)) {
+			// the key pair is only needed once the first user logs in so it is loaded while the server starts
+			CompletableFuture.runAsync(this::getKeyPair).exceptionally(ex -> {
+				logger.error("An error has occurred trying to preload the key pair: {}", ex.getMessage());
+				return null;
+			});
+		}
+		// the popular files are warmed up while the server starts
+		PopularityTracker.getInstance().start();
+		server = new EmbeddedServer();
+		server.start();
+		startupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+		MetricsRegistry.getInstance().gauge("chantico_startup_seconds", "Time since the JVM was launched until the server was ready",
+				() -> startupMillis / 1000d);
+		logger.info("Server started in {} ms. port={}", startupMillis, server.getPort());
+		CatalogService.getInstance().start();
+		ChunkedUploadService.getInstance().start();
+		MaintenanceService.getInstance().start();
+		ReplicationService.getInstance().start();
+		MirrorService.getInstance().start();
+		MavenIndexService.getInstance().start();
+		return true;
+	}
+
+	/** Blocks the current thread until the server is shutdown */
+	public void await() {
+		server.await();
+	}
+
+	/** Stops the Chantico server */
+	public void stop() throws Exception {
+		MaintenanceService.getInstance().stop();
+		ReplicationService.getInstance().stop();
+		MirrorService.getInstance().stop();
+		MavenIndexService.getInstance().stop();
+		PopularityTracker.getInstance().stop();
+		ChunkedUploadService.getInstance().stop();
+		if (server != null) {
+			server.stop();
+		}
+		CatalogService.getInstance().stop();
+	}
+
+	/** Obtains the time in milliseconds since the JVM was launched until the server was ready or -1 if not started */
+	public long getStartupMillis() {
+		return startupMillis;
+	}
+
+	/** Obtains the port the server is listening on */
+	public int getPort() {
+		return server.getPort();
+	}
+
+	/**
+	 * Executes a minimum set of requests against the running server so the classes used to serve them are loaded.
+	 * It is used by the training run that produces the class data sharing archive
+	 */
+	private void train() {
+		String[] uris = new String[] { "/", "/css/chantico.css", "/api/status", "/artifact/org/codelightful/training/1.0/training-1.0.pom" };
+		for (String uri : uris) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + getPort() + uri).openConnection();
+				try (InputStream input = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+					while (input != null && input.read() >= 0) {
+						// the content is not relevant, only the classes loaded to serve it
+					}
+				}
+			} catch (Exception ex) {
+				logger.warn("A training request has failed. uri={} cause={}", uri, ex.getMessage());
+			}
+		}
+		logger.info("Training run completed");
 	}
 
 	/** Obtains the reference to the control file used to prevent multiple instances */
@@ -104,7 +199,8 @@ public class Chantico {
 
 	/**
 	 * Determines if the server is being started by first time and creates the default configuration file and any
-	 * other activity required to initialize the application
+	 * other activity required to initialize the application. The database schema is migrated on every start so
+	 * existing installations receive the objects introduced by newer versions
 	 */
 	private void configure() {
 		Configuration configuration = Configuration.getInstance();
@@ -113,15 +209,22 @@ public class Chantico {
 			try {
 				logger.info("Starting the server for the first time");
 				configuration.setValue("server.key", UUID.randomUUID().toString());
-				configuration.setValue("port", "8080");
+				if (configuration.getString("port", null) == null) {
+					configuration.setValue("port", "8080");
+				}
 
-				PersistenceManager.getInstance().createDatabase();
-				RSAUtil.getInstance().createKeyPair(1024, getRSAKeyStorage());
+				// the key generation is independent of the database so both are executed in parallel
+				CompletableFuture<Void> keyGeneration = CompletableFuture.runAsync(
+						() -> RSAUtil.getInstance().createKeyPair(1024, getRSAKeyStorage()));
+				PersistenceManager.getInstance().migrate();
+				keyGeneration.join();
 
 				configuration.store();
 			} catch (Exception ex) {
 				throw new RuntimeException("An error has occurred trying to configure the application", ex);
 			}
+		} else {
+			PersistenceManager.getInstance().migrate();
 		}
 	}
 
@@ -7,13 +7,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Configuration {
 	private static final Logger logger = LoggerFactory.getLogger("config");
 	private static String homeDirectory;
-	private static Configuration instance;
-	private final Properties properties = new Properties();
+	private static volatile Configuration instance;
+	/** Configuration file or null to use the one of the home */
+	private final File configurationFile;
+	/** Immutable view of the current values. It is replaced as a whole on every change so reads never lock */
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap());
+	/** Components that are notified every time a new snapshot is published */
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	/** Watcher that reloads the configuration when the file is modified (null while not watching) */
+	private ConfigurationWatcher watcher;
 
 	/** Allows to obtain the home folder used to store the configuration and other execution files */
 	public static String getHome() {
@@ -56,37 +69,46 @@ public class Configuration {
 		return Paths.get(Configuration.getHome(), location).toFile();
 	}
 
+	private Configuration() {
+		this(null);
+	}
+
+	/** @param configurationFile Configuration file or null to use the one of the home */
+	Configuration(File configurationFile) {
+		this.configurationFile = configurationFile;
+	}
+
 	/** Obtains the singleton instance of the configuration */
 	public static Configuration getInstance() {
 		if (instance == null) {
 			synchronized (Configuration.class) {
 				if (instance == null) {
-					instance = new Configuration();
-					instance.load();
+					Configuration configuration = new Configuration();
+					configuration.load();
+					instance = configuration;
 				}
 			}
 		}
 		return instance;
 	}
 
-	private File getConfigurationFile() {
+	File getConfigurationFile() {
+		if (configurationFile != null) {
+			return configurationFile;
+		}
 		return Paths.get(getHome(), "config", "chantico.properties").toFile();
 	}
 
 	/** Loads the configuration from the filesystem */
 	private synchronized void load() {
-		if (!properties.isEmpty()) {
-			properties.clear();
-		}
 		File configFile = getConfigurationFile();
 		try {
 			if (!configFile.exists()) {
-					configFile.getParentFile().mkdirs();
+				configFile.getParentFile().mkdirs();
 				configFile.createNewFile();
+				publish(new Snapshot(Collections.emptyMap()));
 			} else {
-				try (FileInputStream stream = new FileInputStream(configFile)) {
-					properties.load(stream);
-				}
+				publish(new Snapshot(readProperties(configFile)));
 			}
 		} catch (Exception ex) {
 			logger.error("An error has occurred trying to load the configuration file. location={} cause={}",
@@ -95,6 +117,37 @@ public class Configuration {
 		}
 	}
 
+	/**
+	 * Reads the configuration file again and publishes a new snapshot if any value has changed. Unlike the initial
+	 * load an invalid file does not produce an error, the previous snapshot is kept instead
+	 */
+	synchronized void reload() {
+		File configFile = getConfigurationFile();
+		try {
+			Map<String, String> values = configFile.exists() ? readProperties(configFile) : Collections.emptyMap();
+			if (!values.equals(snapshot.values)) {
+				logger.info("The configuration file has been modified, reloading it. location={}", configFile.getAbsolutePath());
+				publish(new Snapshot(values));
+			}
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to reload the configuration file, the previous values will be kept. location={} cause={}",
+					configFile.getAbsolutePath(), ex.getMessage());
+		}
+	}
+
+	/** Internal method to read the content of a properties file */
+	private Map<String, String> readProperties(File configFile) throws Exception {
+		Properties properties = new Properties();
+		try (FileInputStream stream = new FileInputStream(configFile)) {
+			properties.load(stream);
+		}
+		Map<String, String> values = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			values.put(key, properties.getProperty(key));
+		}
+		return values;
+	}
+
 	/** Stores the configuration values in the filesystem */
 	synchronized void store() {
 		File configFile = getConfigurationFile();
@@ -103,6 +156,8 @@ public class Configuration {
 				configFile.getParentFile().mkdirs();
 				configFile.createNewFile();
 			}
+			Properties properties = new Properties();
+			properties.putAll(snapshot.values);
 			try (FileOutputStream stream = new FileOutputStream(configFile)) {
 				properties.store(stream, "Chantico Configuration File");
 			}
@@ -113,35 +168,77 @@ public class Configuration {
 		}
 	}
 
+	/**
+	 * Starts watching the configuration file so any modification is published without restarting the server. Calling
+	 * this method more than once has no effect
+	 */
+	public synchronized void watch() {
+		if (watcher == null) {
+			watcher = new ConfigurationWatcher(this);
+			watcher.start();
+		}
+	}
+
 	/**
 	 * Sets a configuration value for a specific key
 	 * @param key Key or property to set the value for it
 	 * @param value Value to set
 	 */
-	void setValue(String key, String value) {
+	synchronized void setValue(String key, String value) {
 		if (key != null && !key.isEmpty()) {
-			if (value == null && this.properties.containsKey(key)) {
-				this.properties.remove(key);
+			Map<String, String> values = new HashMap<>(snapshot.values);
+			if (value == null) {
+				values.remove(key);
 			} else {
-				this.properties.put(key, value);
+				values.put(key, value);
 			}
+			publish(new Snapshot(values));
+		}
+	}
+
+	/** Internal method to replace the current snapshot and notify the listeners about it */
+	private void publish(Snapshot current) {
+		Snapshot previous = snapshot;
+		snapshot = current;
+		for (Listener listener : listeners) {
+			try {
+				listener.configurationChanged(previous, current);
+			} catch (Exception ex) {
+				logger.error("An error has occurred notifying a configuration change. listener={} cause={}", listener, ex.getMessage());
+			}
+		}
+	}
+
+	/** Obtains the current immutable snapshot of the configuration values */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Registers a component to be notified every time the configuration changes
+	 * @param listener Listener to register
+	 */
+	public void addListener(Listener listener) {
+		if (listener != null) {
+			listeners.add(listener);
 		}
 	}
 
+	/**
+	 * Removes a component previously registered to be notified about configuration changes
+	 * @param listener Listener to remove
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
 	/**
 	 * Get a configuration value as a String
 	 * @param key Configuration value to obtain
 	 * @param defaultValue Default value to assign if the entry does not exist
 	 */
 	public String getString(String key, String defaultValue) {
-		if (key == null || key.isEmpty()) {
-			throw new IllegalArgumentException("Unable to extract a configuration entry without a valid key");
-		}
-		String value = properties.getProperty(key);
-		if (value == null || value.isEmpty()) {
-			return defaultValue;
-		}
-		return value;
+		return snapshot.getString(key, defaultValue);
 	}
 
 	/**
@@ -150,15 +247,16 @@ public class Configuration {
 	 * @param defaultValue Default value to assign if the entry does not exist
 	 */
 	public int getInt(String key, int defaultValue) {
-		String value = getString(key, null);
-		if (value != null && !value.isEmpty()) {
-			try {
-				return Integer.parseInt(value);
-			} catch (Exception ex) {
-				logger.error("An error has occurred trying to consume a configuration value as an integer. key={} value={}", key, value);
-			}
-		}
-		return defaultValue;
+		return snapshot.getInt(key, defaultValue);
+	}
+
+	/**
+	 * Get a configuration value as a long
+	 * @param key Configuration value to obtain
+	 * @param defaultValue Default value to assign if the entry does not exist
+	 */
+	public long getLong(String key, long defaultValue) {
+		return snapshot.getLong(key, defaultValue);
 	}
 
 	/**
@@ -167,14 +265,130 @@ public class Configuration {
 	 * @param defaultValue Default value to assign if the entry does not exist
 	 */
 	public boolean getBoolean(String key, boolean defaultValue) {
-		String value = getString(key, null);
-		if (value != null && !value.isEmpty()) {
-			try {
-				return Boolean.parseBoolean(value);
-			} catch (Exception ex) {
-				logger.error("An error has occurred trying to consume a configuration value as a boolean. key={} value={}", key, value);
+		return snapshot.getBoolean(key, defaultValue);
+	}
+
+	/** Functional interface implemented by the components that need to react to configuration changes */
+	@FunctionalInterface
+	public interface Listener {
+		/**
+		 * Invoked after a new set of values has been published
+		 * @param previous Snapshot that was replaced
+		 * @param current Snapshot that is now in use
+		 */
+		void configurationChanged(Snapshot previous, Snapshot current);
+	}
+
+	/**
+	 * Immutable set of configuration values. Numeric and boolean values are parsed once when the snapshot is created
+	 * so the typed accessors are simple map lookups
+	 */
+	public static final class Snapshot {
+		/** Raw values as they are defined in the configuration file */
+		private final Map<String, String> values;
+		/** Values that could be parsed as integers */
+		private final Map<String, Integer> integers = new HashMap<>();
+		/** Values that could be parsed as longs */
+		private final Map<String, Long> longs = new HashMap<>();
+		/** Values parsed as booleans */
+		private final Map<String, Boolean> booleans = new HashMap<>();
+
+		Snapshot(Map<String, String> values) {
+			this.values = Collections.unmodifiableMap(new HashMap<>(values));
+			for (Map.Entry<String, String> entry : this.values.entrySet()) {
+				String value = entry.getValue();
+				if (value == null || value.isEmpty()) {
+					continue;
+				}
+				value = value.trim();
+				booleans.put(entry.getKey(), Boolean.parseBoolean(value));
+				try {
+					long longValue = Long.parseLong(value);
+					longs.put(entry.getKey(), longValue);
+					if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+						integers.put(entry.getKey(), (int) longValue);
+					}
+				} catch (NumberFormatException ex) {
+					// not a numeric value, only available as a string or boolean
+				}
+			}
+		}
+
+		/** Internal method to validate the key received by the accessors */
+		private static void validateKey(String key) {
+			if (key == null || key.isEmpty()) {
+				throw new IllegalArgumentException("Unable to extract a configuration entry without a valid key");
+			}
+		}
+
+		/**
+		 * Get a configuration value as a String
+		 * @param key Configuration value to obtain
+		 * @param defaultValue Default value to assign if the entry does not exist
+		 */
+		public String getString(String key, String defaultValue) {
+			validateKey(key);
+			String value = values.get(key);
+			if (value == null || value.isEmpty()) {
+				return defaultValue;
+			}
+			return value;
+		}
+
+		/**
+		 * Get a configuration value as an integer
+		 * @param key Configuration value to obtain
+		 * @param defaultValue Default value to assign if the entry does not exist
+		 */
+		public int getInt(String key, int defaultValue) {
+			validateKey(key);
+			Integer value = integers.get(key);
+			if (value != null) {
+				return value;
 			}
+			String rawValue = values.get(key);
+			if (rawValue != null && !rawValue.isEmpty()) {
+				logger.error("An error has occurred trying to consume a configuration value as an integer. key={} value={}", key, rawValue);
+			}
+			return defaultValue;
+		}
+
+		/**
+		 * Get a configuration value as a long
+		 * @param key Configuration value to obtain
+		 * @param defaultValue Default value to assign if the entry does not exist
+		 */
+		public long getLong(String key, long defaultValue) {
+			validateKey(key);
+			Long value = longs.get(key);
+			if (value != null) {
+				return value;
+			}
+			String rawValue = values.get(key);
+			if (rawValue != null && !rawValue.isEmpty()) {
+				logger.error("An error has occurred trying to consume a configuration value as a long. key={} value={}", key, rawValue);
+			}
+			return defaultValue;
+		}
+
+		/**
+		 * Get a configuration value as a boolean
+		 * @param key Configuration value to obtain
+		 * @param defaultValue Default value to assign if the entry does not exist
+		 */
+		public boolean getBoolean(String key, boolean defaultValue) {
+			validateKey(key);
+			Boolean value = booleans.get(key);
+			return value != null ? value : defaultValue;
+		}
+
+		/**
+		 * Allows to determine if a specific entry has a different value in another snapshot
+		 * @param other Snapshot to compare with
+		 * @param key Configuration entry to compare
+		 */
+		public boolean isModified(Snapshot other, String key) {
+			return other == null || !Objects.equals(values.get(key), other.values.get(key));
 		}
-		return defaultValue;
 	}
 }
@@ -0,0 +1,61 @@
+package org.codelightful.chantico;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/** Background thread that watches the configuration file and reloads it every time it is modified */
+class ConfigurationWatcher extends Thread {
+	private static final Logger logger = LoggerFactory.getLogger("config");
+	/** Time to wait after a change is detected so editors that write the file in several steps are reloaded once */
+	private static final long SETTLE_TIME_MILLIS = 200;
+	/** Configuration instance to reload */
+	private final Configuration configuration;
+
+	ConfigurationWatcher(Configuration configuration) {
+		super("config-watcher");
+		this.configuration = configuration;
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		File configFile = configuration.getConfigurationFile();
+		Path folder = configFile.getParentFile().toPath();
+		Path fileName = configFile.toPath().getFileName();
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			logger.debug("Watching the configuration file for changes. location={}", configFile.getAbsolutePath());
+			while (!isInterrupted()) {
+				WatchKey key = watchService.take();
+				boolean modified = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (fileName.equals(event.context())) {
+						modified = true;
+					}
+				}
+				if (modified) {
+					Thread.sleep(SETTLE_TIME_MILLIS);
+					// discard the events produced while the file was still being written
+					key.pollEvents();
+					configuration.reload();
+				}
+				if (!key.reset()) {
+					logger.error("The configuration folder can not be watched anymore. location={}", folder);
+					break;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (Exception ex) {
+			logger.error("An error has occurred watching the configuration file, changes will require a restart. cause={}", ex.getMessage());
+		}
+	}
+}
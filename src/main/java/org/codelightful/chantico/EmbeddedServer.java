@@ -1,15 +1,18 @@
 package org.codelightful.chantico;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.session.StandardManager;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+import org.codelightful.chantico.servlet.AdmissionFilter;
 import org.codelightful.chantico.servlet.ArtifactServlet;
 import org.codelightful.chantico.servlet.RestApiServlet;
 import org.codelightful.chantico.servlet.StaticContentServlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.Paths;
-
 /** Wraps the embedded application server */
 public class EmbeddedServer {
 	private static final Logger logger = LoggerFactory.getLogger("server");
@@ -34,13 +37,22 @@ public class EmbeddedServer {
 		configureContext();
 	}
 
-	/** Starts the application server */
+	/** Starts the application server. The method returns as soon as the server is accepting requests */
 	public void start() throws Exception {
 		java.util.logging.Logger.getLogger("org.apache").setLevel(java.util.logging.Level.WARNING);
 		tomcat.start();
+	}
+
+	/** Blocks the current thread until the application server is shutdown */
+	public void await() {
 		tomcat.getServer().await();
 	}
 
+	/** Obtains the port the server is listening on (useful when the port is configured as 0 to pick a random one) */
+	public int getPort() {
+		return tomcat.getConnector().getLocalPort();
+	}
+
 	/** Stops the application server */
 	public void stop() throws Exception {
 		tomcat.stop();
@@ -57,14 +69,56 @@ public class EmbeddedServer {
 		logger.debug("Deploying server context on: {}", contextDir);
 		tomcat.setBaseDir(contextDir);
 		Context context = tomcat.addContext("", contextDir);
+		if (Configuration.getInstance().getBoolean("server.fastStart", false)) {
+			configureFastStart(context);
+		}
 
 		tomcat.addServlet(context, "StaticContextServlet", new StaticContentServlet());
 		context.addServletMappingDecoded(StaticContentServlet.SERVLET_CONTEXT, "StaticContextServlet");
 
-		tomcat.addServlet(context, "RestApiServlet", new RestApiServlet());
+		// the API streams the recent activity asynchronously
+		tomcat.addServlet(context, "RestApiServlet", new RestApiServlet()).setAsyncSupported(true);
 		context.addServletMappingDecoded(RestApiServlet.SERVLET_CONTEXT + "*", "RestApiServlet");
 
 		tomcat.addServlet(context, "ArtifactServlet", new ArtifactServlet());
 		context.addServletMappingDecoded(ArtifactServlet.SERVLET_CONTEXT, "ArtifactServlet");
+
+		// the artifact transfers are admitted according to the concurrency and bandwidth of every client
+		FilterDef admissionFilter = new FilterDef();
+		admissionFilter.setFilterName("AdmissionFilter");
+		admissionFilter.setFilter(new AdmissionFilter());
+		admissionFilter.setAsyncSupported(Boolean.TRUE.toString());
+		context.addFilterDef(admissionFilter);
+		FilterMap admissionMapping = new FilterMap();
+		admissionMapping.setFilterName("AdmissionFilter");
+		admissionMapping.addURLPatternDecoded(ArtifactServlet.SERVLET_CONTEXT);
+		admissionMapping.addURLPatternDecoded(RestApiServlet.SERVLET_CONTEXT + "resolve");
+		admissionMapping.addURLPatternDecoded(RestApiServlet.SERVLET_CONTEXT + "uploads/*");
+		context.addFilterMap(admissionMapping);
+	}
+
+	/**
+	 * Removes the container features that are not used by the application and only add time to the startup: there
+	 * are no JSPs, web fragments or annotated components to discover (servlets are registered programmatically) and
+	 * sessions are not persisted between restarts
+	 */
+	private void configureFastStart(Context context) {
+		logger.debug("Applying the fast start profile");
+		tomcat.getHost().setAutoDeploy(false);
+		tomcat.getHost().setDeployOnStartup(false);
+
+		StandardJarScanner jarScanner = new StandardJarScanner();
+		jarScanner.setScanClassPath(false);
+		jarScanner.setScanManifest(false);
+		jarScanner.setScanAllDirectories(false);
+		jarScanner.setScanAllFiles(false);
+		context.setJarScanner(jarScanner);
+		context.setAddWebinfClassesResources(false);
+		context.setXmlValidation(false);
+		context.setXmlNamespaceAware(false);
+
+		StandardManager sessionManager = new StandardManager();
+		sessionManager.setPathname(null);
+		context.setManager(sessionManager);
 	}
 }
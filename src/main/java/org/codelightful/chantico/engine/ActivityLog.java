@@ -0,0 +1,96 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ActivityEvent;
+import org.codelightful.chantico.model.ArtifactRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size ring buffer with the recent activity of a repository. Writers claim a sequence with a single atomic
+ * increment and publish the event in its slot, so recording never blocks and never waits for the readers. Readers
+ * validate the sequence of every slot and skip the events that have been overwritten or are not published yet
+ */
+public class ActivityLog {
+	/** Name of the repository the activity belongs to */
+	private final String repository;
+	private final AtomicReferenceArray<ActivityEvent> slots;
+	private final int mask;
+	/** Next sequence to assign */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * @param repository Name of the repository
+	 * @param capacity Number of events kept, rounded up to a power of two
+	 */
+	public ActivityLog(String repository, int capacity) {
+		int size = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+		this.repository = repository;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/** Obtains the name of the repository */
+	public String getRepository() {
+		return repository;
+	}
+
+	/**
+	 * Records an event
+	 * @param type Kind of activity
+	 * @param request Artifact involved (null for events not related to an artifact)
+	 * @param user User that executed the operation
+	 * @param client Address of the client
+	 */
+	public void record(ActivityEvent.Type type, ArtifactRequest request, String user, String client) {
+		long eventSequence = sequence.getAndIncrement();
+		slots.set((int) (eventSequence & mask), new ActivityEvent(eventSequence, type, repository, request, user, client));
+	}
+
+	/** Obtains the sequence that will be assigned to the next event */
+	public long getNextSequence() {
+		return sequence.get();
+	}
+
+	/**
+	 * Obtains a page of events from the newest to the oldest
+	 * @param before Only events with a lower sequence are returned (use a negative value to start from the newest)
+	 * @param limit Maximum number of events to return
+	 */
+	public List<ActivityEvent> getPage(long before, int limit) {
+		long last = sequence.get();
+		long from = before < 0 || before > last ? last : before;
+		long oldest = Math.max(0, last - slots.length());
+		List<ActivityEvent> result = new ArrayList<>(Math.max(0, Math.min(limit, slots.length())));
+		for (long eventSequence = from - 1; eventSequence >= oldest && result.size() < limit; eventSequence--) {
+			ActivityEvent event = slots.get((int) (eventSequence & mask));
+			if (event != null && event.sequence == eventSequence) {
+				result.add(event);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Obtains the events recorded after a specific sequence from the oldest to the newest
+	 * @param after Only events with a higher sequence are returned (use a negative value to get all the events)
+	 * @param limit Maximum number of events to return
+	 */
+	public List<ActivityEvent> getSince(long after, int limit) {
+		long last = sequence.get();
+		long from = Math.max(Math.max(0, after + 1), last - slots.length());
+		List<ActivityEvent> result = new ArrayList<>();
+		for (long eventSequence = from; eventSequence < last && result.size() < limit; eventSequence++) {
+			ActivityEvent event = slots.get((int) (eventSequence & mask));
+			if (event == null || event.sequence < eventSequence) {
+				// claimed but not published yet, the next poll will return it in order
+				break;
+			} else if (event.sequence == eventSequence) {
+				result.add(event);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,293 @@
+package org.codelightful.chantico.engine;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Sequential reader of the entries of a ZIP or TAR archive. The archive is read as a stream, so only the entry being
+ * read is available and its content has to be consumed before moving to the next one
+ */
+abstract class ArchiveReader implements Closeable {
+	/**
+	 * Creates a reader for an archive
+	 * @param format Format of the archive
+	 * @param input Stream with the archive content
+	 */
+	static ArchiveReader open(BulkImporter.Format format, InputStream input) throws IOException {
+		switch (format) {
+			case ZIP:
+				return new ZipReader(input);
+			case TAR_GZIP:
+				return new TarReader(new GZIPInputStream(input, 64 * 1024));
+			default:
+				return new TarReader(input);
+		}
+	}
+
+	/**
+	 * Moves to the next entry of the archive, skipping the content of the current one that has not been read
+	 * @return Next entry or null at the end of the archive
+	 */
+	abstract Entry next() throws IOException;
+
+	/** Obtains a stream with the content of the current entry, closing it does not close the archive */
+	abstract InputStream getContent();
+
+	/** Entry of an archive */
+	static class Entry {
+		/** Name of the entry, using / as separator */
+		final String name;
+		/** Size of the content or -1 if it is not known until the content is read */
+		final long size;
+		final boolean directory;
+
+		Entry(String name, long size, boolean directory) {
+			this.name = name;
+			this.size = size;
+			this.directory = directory;
+		}
+	}
+
+	/** Stream that does not close the stream it wraps */
+	private static class EntryStream extends FilterInputStream {
+		private EntryStream(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/** Reader of ZIP archives */
+	private static class ZipReader extends ArchiveReader {
+		private final ZipInputStream zip;
+
+		private ZipReader(InputStream input) {
+			this.zip = new ZipInputStream(input, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		Entry next() throws IOException {
+			ZipEntry entry = zip.getNextEntry();
+			return entry == null ? null : new Entry(entry.getName(), entry.getSize(), entry.isDirectory());
+		}
+
+		@Override
+		InputStream getContent() {
+			return new EntryStream(zip);
+		}
+
+		@Override
+		public void close() throws IOException {
+			zip.close();
+		}
+	}
+
+	/** Reader of TAR archives (ustar, with the GNU and PAX long names) */
+	private static class TarReader extends ArchiveReader {
+		private static final int BLOCK_SIZE = 512;
+		private final InputStream input;
+		private final byte[] header = new byte[BLOCK_SIZE];
+		/** Bytes of the current entry (including the padding up to a block) that have not been read yet */
+		private long remaining;
+		/** Bytes of the current entry content that have not been read yet */
+		private long contentRemaining;
+
+		private TarReader(InputStream input) {
+			this.input = input;
+		}
+
+		@Override
+		Entry next() throws IOException {
+			String longName = null;
+			while (true) {
+				skip(remaining);
+				if (!readBlock(header)) {
+					return null;
+				}
+				long size = parseNumber(header, 124, 12);
+				contentRemaining = size;
+				remaining = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+				char type = (char) header[156];
+				if (type == 'L') {
+					longName = readString(size).trim();
+				} else if (type == 'x') {
+					String paxName = parsePaxPath(readString(size));
+					longName = paxName != null ? paxName : longName;
+				} else if (type == 'g') {
+					readString(size);
+				} else {
+					String name = longName != null ? longName : getHeaderName();
+					boolean directory = type == '5' || name.endsWith("/");
+					if (type != '0' && type != '\0' && !directory) {
+						// links and special files do not hold any content to store
+						longName = null;
+						continue;
+					}
+					return new Entry(name, directory ? 0 : size, directory);
+				}
+			}
+		}
+
+		@Override
+		InputStream getContent() {
+			return new InputStream() {
+				@Override
+				public int read() throws IOException {
+					byte[] single = new byte[1];
+					return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					if (contentRemaining <= 0) {
+						return -1;
+					}
+					int read = input.read(buffer, offset, (int) Math.min(length, contentRemaining));
+					if (read < 0) {
+						throw new EOFException("Unexpected end of the archive");
+					}
+					contentRemaining -= read;
+					remaining -= read;
+					return read;
+				}
+			};
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+
+		/** Obtains the name of the current header, joining the ustar prefix when it is present */
+		private String getHeaderName() {
+			String name = cString(header, 0, 100);
+			if ("ustar".equals(cString(header, 257, 6).trim())) {
+				String prefix = cString(header, 345, 155);
+				if (!prefix.isEmpty()) {
+					name = prefix + "/" + name;
+				}
+			}
+			return name;
+		}
+
+		/** Reads the content of the current entry as a string */
+		private String readString(long size) throws IOException {
+			if (size > 1024 * 1024) {
+				throw new IOException("Invalid archive, the extended header is too big");
+			}
+			byte[] content = new byte[(int) size];
+			readFully(content);
+			remaining -= size;
+			contentRemaining = 0;
+			return new String(content, StandardCharsets.UTF_8);
+		}
+
+		/** Obtains the path of a PAX extended header (records with the format "length key=value\n") */
+		private String parsePaxPath(String records) {
+			int position = 0;
+			while (position < records.length()) {
+				int space = records.indexOf(' ', position);
+				if (space < 0) {
+					break;
+				}
+				int length = Integer.parseInt(records.substring(position, space));
+				String record = records.substring(space + 1, Math.min(records.length(), position + length - 1));
+				if (record.startsWith("path=")) {
+					return record.substring(5);
+				}
+				position += length;
+			}
+			return null;
+		}
+
+		/**
+		 * Reads a block
+		 * @return Boolean value to determine if a block has been read, false at the end of the archive
+		 */
+		private boolean readBlock(byte[] block) throws IOException {
+			int total = 0;
+			while (total < block.length) {
+				int read = input.read(block, total, block.length - total);
+				if (read < 0) {
+					if (total == 0) {
+						return false;
+					}
+					throw new EOFException("Unexpected end of the archive");
+				}
+				total += read;
+			}
+			for (byte value : block) {
+				if (value != 0) {
+					return true;
+				}
+			}
+			// an empty block marks the end of the archive
+			return false;
+		}
+
+		private void readFully(byte[] content) throws IOException {
+			int total = 0;
+			while (total < content.length) {
+				int read = input.read(content, total, content.length - total);
+				if (read < 0) {
+					throw new EOFException("Unexpected end of the archive");
+				}
+				total += read;
+			}
+		}
+
+		private void skip(long count) throws IOException {
+			while (count > 0) {
+				long skipped = input.skip(count);
+				if (skipped <= 0) {
+					if (input.read() < 0) {
+						throw new EOFException("Unexpected end of the archive");
+					}
+					skipped = 1;
+				}
+				count -= skipped;
+			}
+			remaining = 0;
+			contentRemaining = 0;
+		}
+
+		/** Parses a numeric header field, written in octal or in base-256 when the first bit is set */
+		private static long parseNumber(byte[] block, int offset, int length) {
+			long value = 0;
+			if ((block[offset] & 0x80) != 0) {
+				for (int idx = offset + 1; idx < offset + length; idx++) {
+					value = (value << 8) | (block[idx] & 0xFF);
+				}
+				return value;
+			}
+			for (int idx = offset; idx < offset + length; idx++) {
+				byte digit = block[idx];
+				if (digit >= '0' && digit <= '7') {
+					value = (value << 3) + (digit - '0');
+				} else if (digit != ' ' || value != 0) {
+					// the value ends with a zero byte or a space
+					break;
+				}
+			}
+			return value;
+		}
+
+		/** Obtains a string field terminated by a zero byte */
+		private static String cString(byte[] block, int offset, int length) {
+			int end = offset;
+			while (end < offset + length && block[end] != 0) {
+				end++;
+			}
+			return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+		}
+	}
+}
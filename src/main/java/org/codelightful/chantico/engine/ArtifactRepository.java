@@ -1,22 +1,102 @@
 package org.codelightful.chantico.engine;
 
 import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.metrics.RequestTrace;
+import org.codelightful.chantico.model.ActivityEvent;
 import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.storage.CompressedStorage;
+import org.codelightful.chantico.storage.FileSystemStorage;
+import org.codelightful.chantico.storage.PackedStorage;
+import org.codelightful.chantico.storage.Storage;
+import org.codelightful.chantico.storage.TieredStorage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 public class ArtifactRepository {
 	private static final Logger logger = LoggerFactory.getLogger("artifact");
 	public static ArtifactRepository repository = new ArtifactRepository();
+	/** Size of the buffer used to copy the artifact content */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final Counter bytesOut = MetricsRegistry.getInstance().counter("chantico_artifact_bytes_total",
+			"Number of artifact bytes transferred", "direction", "out");
+	private final Counter bytesIn = MetricsRegistry.getInstance().counter("chantico_artifact_bytes_total",
+			"Number of artifact bytes transferred", "direction", "in");
+
+	/** Extensions of the files stored compressed when the compression is enabled and no extensions are configured */
+	private static final String DEFAULT_COMPRESSED_EXTENSIONS = "pom,xml,md5,sha1,sha256,sha512";
+	/** Number of locks used to serialize the publications and the deletions of the same file */
+	private static final int LOCK_COUNT = 64;
+	/** Configuration entry with the number of coordinates kept in the request pool */
+	private static final String POOL_SIZE_KEY = "artifact.coordinatePool.size";
+	/** Backend that keeps the content of the repository */
+	private final Storage storage;
+	/** Name used to identify the repository */
+	private final String name;
+	/** Recent activity of the repository */
+	private final ActivityLog activityLog;
+	/** Versions of the artifacts of the repository */
+	private final VersionIndex versionIndex;
+	/** Bus that delivers the operations executed over the artifacts to the components that process them */
+	private final EventBus eventBus;
+	/** Counters with the number of events processed by type */
+	private final Counter[] eventCounters = new Counter[RepositoryEvent.Type.values().length];
+	/** Locks that keep the usage consistent when the same file is published or deleted concurrently */
+	private final Object[] locks = new Object[LOCK_COUNT];
 
 	private ArtifactRepository() {
+		Configuration configuration = Configuration.getInstance();
+		name = configuration.getString("repository.name", "default");
+		storage = createStorage(configuration, name);
+		for (int idx = 0; idx < LOCK_COUNT; idx++) {
+			locks[idx] = new Object();
+		}
+		UsageService.getInstance().load(name);
+		ChangeLog.getInstance().load(name);
+		activityLog = new ActivityLog(name, configuration.getInt("activity.size", 1024));
+		ArtifactRequest.setPoolSize(configuration.getInt(POOL_SIZE_KEY, ArtifactRequest.DEFAULT_POOL_SIZE));
+		for (RepositoryEvent.Type type : RepositoryEvent.Type.values()) {
+			eventCounters[type.ordinal()] = MetricsRegistry.getInstance().counter("chantico_repository_events_total",
+					"Number of repository events processed by type", "repository", name, "type", type.name().toLowerCase());
+		}
+		MetadataGenerator metadataGenerator = new MetadataGenerator(storage);
+		versionIndex = new VersionIndex(name, storage);
+		versionIndex.load();
+		eventBus = new EventBus(name);
+		// the served events are only queued for the cheap consumers, so the downloads never wait for the database
+		Set<RepositoryEvent.Type> all = EnumSet.allOf(RepositoryEvent.Type.class);
+		Set<RepositoryEvent.Type> changes = EnumSet.of(RepositoryEvent.Type.STORED, RepositoryEvent.Type.DELETED);
+		subscribe("activity", EventBus.OverflowPolicy.DROP_OLDEST, all, this::recordActivity);
+		subscribe("statistics", EventBus.OverflowPolicy.DROP_NEWEST, all, this::countEvents);
+		subscribe("access", EventBus.OverflowPolicy.DROP_OLDEST, EnumSet.of(RepositoryEvent.Type.SERVED),
+				CatalogService.getInstance()::recordAccesses);
+		subscribe("catalog", EventBus.OverflowPolicy.BLOCK, changes, CatalogService.getInstance()::consume);
+		subscribe("metadata", EventBus.OverflowPolicy.BLOCK, changes, metadataGenerator::consume);
+		subscribe("versions", EventBus.OverflowPolicy.BLOCK, changes, versionIndex::consume);
+		subscribe("index", EventBus.OverflowPolicy.BLOCK, changes, MavenIndexService.getInstance()::consume);
+		configuration.addListener((previous, current) -> {
+			if (current.isModified(previous, POOL_SIZE_KEY)) {
+				ArtifactRequest.setPoolSize(current.getInt(POOL_SIZE_KEY, ArtifactRequest.DEFAULT_POOL_SIZE));
+			}
+		});
 	}
 
 	public static ArtifactRepository getInstance() {
@@ -24,66 +104,367 @@ public class ArtifactRepository {
 	}
 
 	/**
-	 * Allows to obtain the path and file for a specific artifact request
-	 * @param request Object with the details for the artifact to obtain the file for it
-	 * @return File representing the path and filename for the requested artifact
+	 * Internal method to create the storage backend configured for the repository. The files are kept in the
+	 * repository folder of the home (storage.location) and, when storage.type is tiered, the files that are not
+	 * accessed for storage.cold.demoteAfterDays are moved compressed to storage.cold.location (their last access is
+	 * kept in the storage-access.dat file of the home). When
+	 * storage.compression.enabled is set, the files with the storage.compression.extensions (plus the jar files when
+	 * storage.compression.jars is set) are stored compressed. When storage.pack.enabled is set, the files smaller than
+	 * storage.pack.threshold bytes are packed into the segments of storage.pack.location
 	 */
-	private File getArtifactFile(ArtifactRequest request) {
-		String repoFolder = Configuration.getFileFromHome("repository").getAbsolutePath();
-		String baseFolder = Paths.get(repoFolder, request.groupParts).toString();
-		if (request.version == null) {
-			return Paths.get(baseFolder, request.artifact, request.fileName).toFile();
+	private static Storage createStorage(Configuration configuration, String name) {
+		Path location = Paths.get(configuration.getString("storage.location", Configuration.getFileFromHome("repository").getPath()));
+		String storageType = configuration.getString("storage.type", "filesystem");
+		Storage storage;
+		if ("tiered".equals(storageType)) {
+			Path coldLocation = Paths.get(configuration.getString("storage.cold.location",
+					Configuration.getFileFromHome("repository-cold").getPath()));
+			long demoteAfter = TimeUnit.DAYS.toMillis(configuration.getLong("storage.cold.demoteAfterDays", 30));
+			long demoteInterval = TimeUnit.MINUTES.toMillis(configuration.getLong("storage.cold.demoteIntervalMinutes", 60));
+			logger.info("Using a tiered storage. location={} coldLocation={}", location, coldLocation);
+			storage = new TieredStorage(new FileSystemStorage(location), new FileSystemStorage(coldLocation), demoteAfter, demoteInterval,
+					Configuration.getFileFromHome("storage-access.dat").toPath());
 		} else {
-			return Paths.get(baseFolder, request.artifact, request.version, request.fileName).toFile();
+			if (!"filesystem".equals(storageType)) {
+				logger.error("An invalid storage type has been configured, the file system will be used. type={}", storageType);
+			}
+			storage = new FileSystemStorage(location);
+		}
+		if (configuration.getBoolean("storage.pack.enabled", false)) {
+			Path packLocation = Paths.get(configuration.getString("storage.pack.location", Configuration.getFileFromHome("packs").getPath()));
+			int threshold = configuration.getInt("storage.pack.threshold", 32 * 1024);
+			long segmentSize = configuration.getLong("storage.pack.segmentSize", 64L * 1024 * 1024);
+			double compactRatio = configuration.getInt("storage.pack.compactPercent", 50) / 100d;
+			long compactInterval = TimeUnit.MINUTES.toMillis(configuration.getLong("storage.pack.compactIntervalMinutes", 10));
+			logger.info("Packing the small files. location={} threshold={}", packLocation, threshold);
+			try {
+				storage = new PackedStorage(storage, packLocation, threshold, segmentSize, compactRatio, compactInterval);
+			} catch (IOException ex) {
+				logger.error("Unable to open the pack storage. location={} cause={}", packLocation, ex.getMessage());
+				throw new RuntimeException("Unable to open the pack storage", ex);
+			}
+		}
+
+		// the compressed files stored before are served even if the compression is disabled now
+		List<String> extensions = new ArrayList<>();
+		if (configuration.getBoolean("storage.compression.enabled", false)) {
+			extensions.addAll(Arrays.asList(configuration.getString("storage.compression.extensions", DEFAULT_COMPRESSED_EXTENSIONS).split(",")));
+			if (configuration.getBoolean("storage.compression.jars", false)) {
+				extensions.add("jar");
+			}
+		}
+		return new CompressedStorage(storage, name, extensions);
+	}
+
+	/** Obtains the backend that keeps the content of the repository */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/** Obtains the name used to identify the repository */
+	public String getName() {
+		return name;
+	}
+
+	/** Obtains the log with the recent activity of the repository */
+	public ActivityLog getActivityLog() {
+		return activityLog;
+	}
+
+	/** Obtains the index with the versions of the artifacts of the repository */
+	public VersionIndex getVersionIndex() {
+		return versionIndex;
+	}
+
+	/** Obtains the bus that delivers the operations executed over the artifacts */
+	public EventBus getEventBus() {
+		return eventBus;
+	}
+
+	/**
+	 * Publishes an operation executed over an artifact, the event is processed asynchronously by the consumers. The
+	 * caller never waits for the consumers, so it is the method used by the request threads. The consumers that must
+	 * not lose events queue it beyond their capacity when their queue is full
+	 * @param type Kind of operation
+	 * @param request Artifact involved in the operation
+	 * @param user User that executed the operation (null for anonymous requests)
+	 * @param client Address of the client that executed the operation
+	 */
+	public void publish(RepositoryEvent.Type type, ArtifactRequest request, String user, String client) {
+		eventBus.publish(new RepositoryEvent(type, name, request, user, client), false);
+	}
+
+	/**
+	 * Publishes an operation executed by a background task or a bulk operation, waiting for room in the queues of the
+	 * consumers that must not lose events
+	 * @param type Kind of operation
+	 * @param request Artifact involved in the operation
+	 * @param user User that executed the operation (null for anonymous requests)
+	 * @param client Address of the client that executed the operation
+	 */
+	public void publishAndWait(RepositoryEvent.Type type, ArtifactRequest request, String user, String client) {
+		eventBus.publish(new RepositoryEvent(type, name, request, user, client), true);
+	}
+
+	/**
+	 * Internal method to register an event consumer. The queue size, batch size and overflow policy can be configured
+	 * by consumer (events.[consumer].queueSize, events.[consumer].batchSize and events.[consumer].overflow)
+	 */
+	private void subscribe(String consumerName, EventBus.OverflowPolicy defaultPolicy, Set<RepositoryEvent.Type> types,
+			EventBus.Consumer consumer) {
+		Configuration configuration = Configuration.getInstance();
+		String prefix = "events." + consumerName + ".";
+		int queueSize = configuration.getInt(prefix + "queueSize", configuration.getInt("events.queueSize", 4096));
+		int batchSize = configuration.getInt(prefix + "batchSize", configuration.getInt("events.batchSize", 256));
+		EventBus.OverflowPolicy policy = defaultPolicy;
+		String policyName = configuration.getString(prefix + "overflow", null);
+		if (policyName != null) {
+			try {
+				policy = EventBus.OverflowPolicy.valueOf(policyName.trim().toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				logger.error("An invalid overflow policy has been configured for an event consumer. consumer={} policy={}", consumerName, policyName);
+			}
+		}
+		eventBus.subscribe(consumerName, queueSize, batchSize, policy, types, consumer);
+	}
+
+	/** Internal event consumer that records the operations in the recent activity */
+	private void recordActivity(List<RepositoryEvent> events) {
+		for (RepositoryEvent event : events) {
+			ActivityEvent.Type type;
+			switch (event.type) {
+				case STORED:
+					type = ActivityEvent.Type.UPLOAD;
+					break;
+				case SERVED:
+					type = ActivityEvent.Type.DOWNLOAD;
+					break;
+				case MISSED:
+					type = ActivityEvent.Type.MISS;
+					break;
+				default:
+					type = ActivityEvent.Type.DELETE;
+			}
+			activityLog.record(type, event.request, event.user, event.client);
+		}
+	}
+
+	/** Internal event consumer that keeps the statistics of the repository operations */
+	private void countEvents(List<RepositoryEvent> events) {
+		for (RepositoryEvent event : events) {
+			eventCounters[event.type.ordinal()].inc();
 		}
 	}
 
 	public boolean retrieveArtifact(ArtifactRequest request, OutputStream output) {
-		File sourceFile = getArtifactFile(request);
-		if (!sourceFile.exists()) {
-			if (!Configuration.getInstance().getBoolean("proxy", false)) {
-				logger.error("An artifact could not be found in the local repository. group={} artifact={} version={} file={}",
-						request.group, request.artifact, request.version, request.fileName);
-			} else {
-				//https://mvnrepository.com/artifact/
+		try {
+			if (storage.stat(request.path) == null) {
+				if (!Configuration.getInstance().getBoolean("proxy", false)) {
+					logger.error("An artifact could not be found in the local repository. group={} artifact={} version={} file={}",
+							request.group, request.artifact, request.version, request.fileName);
+				} else {
+					//https://mvnrepository.com/artifact/
+				}
+				return false;
 			}
-		} else {
 			if (output != null) {
-				try (InputStream input = new FileInputStream(sourceFile)) {
-					int readByte;
-					do {
-						readByte = input.read();
-						if (readByte >= 0) {
-							output.write(readByte);
-						}
-					} while (readByte >= 0);
-				} catch (Exception ex) {
-					logger.error("An error has occurred trying to load an artifact file. group={} artifact={} version={} file={}: {}",
-							request.group, request.artifact, request.version, request.fileName, ex.getMessage());
-					throw new RuntimeException("Error reading artifact", ex);
+				try (InputStream input = storage.openStream(request.path)) {
+					RequestTrace.mark(RequestTrace.Phase.STORAGE_OPEN);
+					bytesOut.add(copy(input, output));
 				}
 			}
 			return true;
+		} catch (NoSuchFileException ex) {
+			// removed after it was found
+			return false;
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to load an artifact file. group={} artifact={} version={} file={}: {}",
+					request.group, request.artifact, request.version, request.fileName, ex.getMessage());
+			throw new RuntimeException("Error reading artifact", ex);
 		}
-		return false;
 	}
 
-	public void storeArtifact(ArtifactRequest request, InputStream input) {
-		File targetFile = getArtifactFile(request);
-		targetFile.getParentFile().mkdirs();
+	/**
+	 * Writes the content of an artifact exactly as it is kept compressed with gzip, without decompressing it
+	 * @param request Object with the details for the artifact
+	 * @param output Provider of the stream to write the content to, it is only invoked if the artifact is kept compressed
+	 * @return Boolean value to determine if the artifact is kept compressed and has been written, otherwise it has to
+	 * be retrieved with {@link #retrieveArtifact(ArtifactRequest, OutputStream)}
+	 */
+	public boolean retrieveCompressedArtifact(ArtifactRequest request, Callable<OutputStream> output) {
+		try (InputStream input = storage.openGzipStream(request.path)) {
+			if (input == null) {
+				return false;
+			}
+			RequestTrace.mark(RequestTrace.Phase.STORAGE_OPEN);
+			bytesOut.add(copy(input, output.call()));
+			return true;
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to load a compressed artifact file. group={} artifact={} version={} file={}: {}",
+					request.group, request.artifact, request.version, request.fileName, ex.getMessage());
+			throw new RuntimeException("Error reading artifact", ex);
+		}
+	}
 
-		try (FileOutputStream output = new FileOutputStream(targetFile)) {
-			int readByte;
-			do {
-				readByte = input.read();
-				if (readByte >= 0) {
-					output.write(readByte);
-				}
-			} while (readByte >= 0);
+	/**
+	 * Stores the content of an artifact file, replacing the existing one
+	 * @param request Object with the details for the artifact
+	 * @param input Stream with the content to store
+	 * @return Number of bytes stored
+	 */
+	public long storeArtifact(ArtifactRequest request, InputStream input) {
+		long size = store(request, input, null, null);
+		ChangeLog.getInstance().append(ChangeLog.Type.STORED, request.path, size);
+		return size;
+	}
+
+	/**
+	 * Stores the content of an artifact file only when it matches a checksum, replacing the existing one
+	 * @param request Object with the details for the artifact
+	 * @param input Stream with the content to store
+	 * @param algorithm Name of the digest algorithm of the checksum (for example SHA-1 or SHA-256)
+	 * @param checksum Hexadecimal checksum of the content
+	 * @return Number of bytes stored or -1 if the content does not match the checksum
+	 */
+	public long storeArtifact(ArtifactRequest request, InputStream input, String algorithm, String checksum) {
+		long size = store(request, input, algorithm, checksum);
+		if (size >= 0) {
+			ChangeLog.getInstance().append(ChangeLog.Type.STORED, request.path, size);
+		}
+		return size;
+	}
+
+	/**
+	 * Stores the content of an artifact file received from another instance by the replication. The content is only
+	 * published when it matches the checksum and it is not registered in the change log, so it is not replicated back
+	 * @param request Object with the details for the artifact
+	 * @param input Stream with the content to store
+	 * @param sha1 Hexadecimal SHA-1 checksum of the content or null to do not verify it
+	 * @return Boolean value to determine if the content has been stored, false if it does not match the checksum
+	 */
+	public boolean storeReplica(ArtifactRequest request, InputStream input, String sha1) {
+		return store(request, input, sha1 == null ? null : "SHA-1", sha1) >= 0;
+	}
+
+	/**
+	 * Internal method to store the content of an artifact file
+	 * @return Number of bytes stored or -1 if the content does not match the expected checksum
+	 */
+	private long store(ArtifactRequest request, InputStream input, String algorithm, String checksum) {
+		try (Storage.Upload upload = storage.create(request.path)) {
+			RequestTrace.mark(RequestTrace.Phase.STORAGE_OPEN);
+			MessageDigest digest = null;
+			if (checksum != null) {
+				digest = MessageDigest.getInstance(algorithm);
+				input = new DigestInputStream(input, digest);
+			}
+			long size = copy(input, upload.getOutputStream());
+			if (digest != null && !checksum.equalsIgnoreCase(toHex(digest.digest()))) {
+				logger.error("The content of an artifact does not match its checksum. group={} id={} version={} file={}",
+						request.group, request.artifact, request.version, request.fileName);
+				return -1;
+			}
+			bytesIn.add(size);
+			synchronized (lock(request.path)) {
+				Storage.Entry previous = storage.stat(request.path);
+				upload.publish();
+				UsageService.getInstance().record(request.path, previous == null ? 1 : 0, previous == null ? size : size - previous.size);
+			}
+			return size;
 		} catch (Exception ex) {
-			logger.error("An error has occurred trying to store an artifact. group={} id={} version={} file={} targetFile={}: {}",
-					request.group, request.artifact, request.version, request.fileName, targetFile, ex.getMessage());
+			logger.error("An error has occurred trying to store an artifact. group={} id={} version={} file={}: {}",
+					request.group, request.artifact, request.version, request.fileName, ex.getMessage());
 			throw new RuntimeException("Artifact store error", ex);
 		}
 	}
+
+	/** Obtains the lock that serializes the publications and the deletions of a file */
+	private Object lock(Path path) {
+		return locks[(path.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
+	}
+
+	/**
+	 * Removes an artifact file from the repository. The folders that are left empty are also removed
+	 * @param request Object with the details for the artifact to remove
+	 * @return Boolean value to determine if the artifact existed and has been removed
+	 */
+	public boolean deleteArtifact(ArtifactRequest request) {
+		if (!deleteReplica(request)) {
+			return false;
+		}
+		ChangeLog.getInstance().append(ChangeLog.Type.DELETED, request.path, 0);
+		return true;
+	}
+
+	/**
+	 * Removes an artifact file by a request of the replication, without registering it in the change log
+	 * @param request Object with the details for the artifact to remove
+	 * @return Boolean value to determine if the artifact existed and has been removed
+	 */
+	public boolean deleteReplica(ArtifactRequest request) {
+		try {
+			synchronized (lock(request.path)) {
+				Storage.Entry entry = storage.stat(request.path);
+				if (entry == null || entry.directory || !storage.delete(request.path)) {
+					logger.error("An artifact to delete could not be found in the local repository. group={} artifact={} version={} file={}",
+							request.group, request.artifact, request.version, request.fileName);
+					return false;
+				}
+				UsageService.getInstance().record(request.path, -1, -entry.size);
+			}
+			return true;
+		} catch (Exception ex) {
+			logger.error("An artifact could not be deleted. group={} artifact={} version={} file={}: {}",
+					request.group, request.artifact, request.version, request.fileName, ex.getMessage());
+			throw new RuntimeException("Artifact delete error", ex);
+		}
+	}
+
+	/** Registers the bytes of artifact content sent to the clients outside of the retrieve methods */
+	void countBytesOut(long bytes) {
+		bytesOut.add(bytes);
+	}
+
+	/**
+	 * Obtains the size of an artifact file
+	 * @param request Object with the details for the artifact
+	 * @return Size in bytes or -1 if the artifact does not exist
+	 */
+	public long getArtifactSize(ArtifactRequest request) {
+		try {
+			Storage.Entry entry = storage.stat(request.path);
+			return entry == null || entry.directory ? -1 : entry.size;
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to obtain the size of an artifact. group={} artifact={} version={} file={}: {}",
+					request.group, request.artifact, request.version, request.fileName, ex.getMessage());
+			throw new RuntimeException("Error reading artifact", ex);
+		}
+	}
+
+	/** Internal method to convert a digest to its hexadecimal representation */
+	private static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte value : digest) {
+			hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Internal method to copy the content from a stream to another one
+	 * @return Number of bytes copied
+	 */
+	private long copy(InputStream input, OutputStream output) throws Exception {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long total = 0;
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+			if (total == 0) {
+				RequestTrace.mark(RequestTrace.Phase.FIRST_BYTE);
+			}
+			total += read;
+		}
+		return total;
+	}
 }
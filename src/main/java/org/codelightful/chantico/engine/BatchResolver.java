@@ -0,0 +1,344 @@
+package org.codelightful.chantico.engine;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes many artifact files as a single ZIP archive. The files are read in parallel (resolve.threads) and every one is
+ * added to the archive as soon as it is ready, no matter the order they were requested. The files up to
+ * resolve.maxBufferedFile bytes are read into memory, limited by the bytes buffered at the same time
+ * (resolve.bufferBytes), and added without compression since their checksum is already known; the bigger files are
+ * compressed directly from the storage.
+ *
+ * The last entry of the archive is a manifest with the files included and the ones that could not be resolved
+ */
+public class BatchResolver {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	private static BatchResolver instance = new BatchResolver();
+	/** Name of the archive entry with the manifest */
+	public static final String MANIFEST_NAME = "manifest.json";
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	private final ExecutorService workers;
+	/** Maximum number of bytes of the files buffered in memory at the same time */
+	private final int bufferBytes;
+	/** Files bigger than this number of bytes are written directly from the storage */
+	private final int maxBufferedFile;
+	private final Counter resolvedFiles = MetricsRegistry.getInstance().counter("chantico_batch_files_total",
+			"Number of files requested through the batch resolve", "result", "resolved");
+	private final Counter missingFiles = MetricsRegistry.getInstance().counter("chantico_batch_files_total",
+			"Number of files requested through the batch resolve", "result", "missing");
+
+	private BatchResolver() {
+		Configuration configuration = Configuration.getInstance();
+		AtomicInteger threadCount = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(Math.max(1, configuration.getInt("resolve.threads", 4)), runnable -> {
+			Thread thread = new Thread(runnable, "resolve-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		bufferBytes = Math.max(1024 * 1024, configuration.getInt("resolve.bufferBytes", 32 * 1024 * 1024));
+		maxBufferedFile = Math.min(bufferBytes, configuration.getInt("resolve.maxBufferedFile", 4 * 1024 * 1024));
+	}
+
+	public static BatchResolver getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Writes the files of a list of coordinates as a ZIP archive
+	 * @param coordinates Paths of the files in the repository (group/artifact/version/file) or Maven coordinates
+	 *                    (groupId:artifactId[:extension[:classifier]]:version)
+	 * @param output Stream to write the archive to
+	 * @param user User that requests the files (null for anonymous requests)
+	 * @param client Address of the client that requests the files
+	 * @return Summary of the files written
+	 * @throws IOException If the archive could not be written, usually because the client has disconnected
+	 */
+	public Result resolve(List<String> coordinates, OutputStream output, String user, String client) throws IOException {
+		long startTime = System.currentTimeMillis();
+		Result result = new Result();
+		Map<String, String> paths = new LinkedHashMap<>();
+		for (String coordinate : coordinates) {
+			String path = toPath(coordinate);
+			if (path == null) {
+				result.missing.add(missing(coordinate, "invalid coordinate"));
+			} else {
+				paths.putIfAbsent(path, coordinate);
+			}
+		}
+
+		Storage storage = ArtifactRepository.getInstance().getStorage();
+		Semaphore memory = new Semaphore(bufferBytes);
+		CompletionService<File> completion = new ExecutorCompletionService<>(workers);
+		List<Future<File>> pending = new ArrayList<>();
+		for (Map.Entry<String, String> entry : paths.entrySet()) {
+			pending.add(completion.submit(() -> read(storage, memory, entry.getKey(), entry.getValue())));
+		}
+
+		List<ArtifactRequest> served = new ArrayList<>();
+		List<ArtifactRequest> missed = new ArrayList<>();
+		ZipOutputStream zip = new ZipOutputStream(output);
+		try {
+			for (int idx = 0; idx < pending.size(); idx++) {
+				File file = take(completion);
+				try {
+					if (file.error != null) {
+						result.missing.add(missing(file.coordinate, file.error));
+						if (file.request != null && file.notFound) {
+							missed.add(file.request);
+						}
+						continue;
+					}
+					long size = write(zip, storage, file);
+					if (size < 0) {
+						result.missing.add(missing(file.coordinate, "not found"));
+						missed.add(file.request);
+						continue;
+					}
+					Map<String, Object> manifestEntry = new LinkedHashMap<>();
+					manifestEntry.put("coordinate", file.coordinate);
+					manifestEntry.put("path", file.path);
+					manifestEntry.put("size", size);
+					result.files.add(manifestEntry);
+					result.bytes += size;
+					served.add(file.request);
+				} finally {
+					if (file.content != null) {
+						memory.release(file.content.length);
+					}
+				}
+			}
+			result.timeMillis = System.currentTimeMillis() - startTime;
+			zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+			JSON_MAPPER.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(zip, result);
+			zip.closeEntry();
+			zip.finish();
+			zip.flush();
+		} catch (IOException ex) {
+			for (Future<File> future : pending) {
+				future.cancel(true);
+			}
+			throw ex;
+		} finally {
+			ArtifactRepository repository = ArtifactRepository.getInstance();
+			resolvedFiles.add(served.size());
+			missingFiles.add(missed.size());
+			for (ArtifactRequest request : served) {
+				repository.publish(RepositoryEvent.Type.SERVED, request, user, client);
+			}
+			for (ArtifactRequest request : missed) {
+				repository.publish(RepositoryEvent.Type.MISSED, request, user, client);
+			}
+		}
+		logger.info("Batch resolve completed. requested={} files={} missing={} bytes={} time={}ms", coordinates.size(),
+				result.files.size(), result.missing.size(), result.bytes, System.currentTimeMillis() - startTime);
+		return result;
+	}
+
+	/**
+	 * Obtains the repository path of a coordinate
+	 * @return Path without the leading separator or null if the coordinate is not valid
+	 */
+	static String toPath(String coordinate) {
+		if (coordinate == null || coordinate.trim().isEmpty()) {
+			return null;
+		}
+		coordinate = coordinate.trim();
+		String path;
+		if (coordinate.indexOf(':') < 0) {
+			path = coordinate.replace('\\', '/');
+			while (path.startsWith("/")) {
+				path = path.substring(1);
+			}
+		} else {
+			String[] parts = coordinate.split(":", -1);
+			if (parts.length < 3 || parts.length > 5) {
+				return null;
+			}
+			for (String part : parts) {
+				if (part.isEmpty() || part.indexOf('/') >= 0 || part.indexOf('\\') >= 0) {
+					return null;
+				}
+			}
+			String artifact = parts[1];
+			String version = parts[parts.length - 1];
+			String extension = parts.length > 3 ? parts[2] : "jar";
+			String classifier = parts.length > 4 ? "-" + parts[3] : "";
+			path = parts[0].replace('.', '/') + "/" + artifact + "/" + version + "/" + artifact + "-" + version + classifier
+					+ "." + extension;
+		}
+		for (String segment : path.split("/")) {
+			if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+				return null;
+			}
+		}
+		return path;
+	}
+
+	/** Internal method executed by the workers to find a file and read it when it is small enough to be buffered */
+	private File read(Storage storage, Semaphore memory, String path, String coordinate) {
+		File file = new File(path, coordinate);
+		try {
+			file.request = ArtifactRequest.parse(path);
+			Storage.Entry entry = storage.stat(file.request.path);
+			if (entry == null || entry.directory) {
+				file.notFound();
+				return file;
+			}
+			if (entry.size > maxBufferedFile) {
+				return file;
+			}
+			int size = (int) entry.size;
+			memory.acquire(size);
+			byte[] content = new byte[size];
+			try (InputStream input = storage.openStream(file.request.path)) {
+				int total = 0;
+				int read;
+				while (total < size && (read = input.read(content, total, size - total)) >= 0) {
+					total += read;
+				}
+				if (total < size || input.read() >= 0) {
+					// replaced while it was read, it is written directly from the storage
+					memory.release(size);
+					return file;
+				}
+			} catch (Exception ex) {
+				memory.release(size);
+				throw ex;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(content, 0, size);
+			file.crc = crc.getValue();
+			file.content = content;
+		} catch (NoSuchFileException ex) {
+			file.notFound();
+		} catch (IllegalArgumentException ex) {
+			file.error = "invalid coordinate";
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to read a file of a batch resolve. path={} cause={}", path, ex.getMessage());
+			file.error = "read error";
+		}
+		return file;
+	}
+
+	/**
+	 * Internal method to add a file to the archive
+	 * @return Number of bytes of the file or -1 if it has been removed before it could be written
+	 */
+	private long write(ZipOutputStream zip, Storage storage, File file) throws IOException {
+		ZipEntry entry = new ZipEntry(file.path);
+		if (file.content != null) {
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(file.content.length);
+			entry.setCompressedSize(file.content.length);
+			entry.setCrc(file.crc);
+			zip.putNextEntry(entry);
+			zip.write(file.content);
+			zip.closeEntry();
+			ArtifactRepository.getInstance().countBytesOut(file.content.length);
+			return file.content.length;
+		}
+		InputStream input;
+		try {
+			input = storage.openStream(file.request.path);
+		} catch (NoSuchFileException ex) {
+			return -1;
+		}
+		long total = 0;
+		try {
+			zip.putNextEntry(entry);
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				zip.write(buffer, 0, read);
+				total += read;
+			}
+			zip.closeEntry();
+		} finally {
+			input.close();
+		}
+		ArtifactRepository.getInstance().countBytesOut(total);
+		return total;
+	}
+
+	/** Waits for the next file read by the workers */
+	private File take(CompletionService<File> completion) throws IOException {
+		try {
+			return completion.take().get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the files", ex);
+		} catch (ExecutionException ex) {
+			throw new IOException("Unable to read a file", ex.getCause());
+		}
+	}
+
+	private static Map<String, String> missing(String coordinate, String reason) {
+		Map<String, String> missing = new LinkedHashMap<>();
+		missing.put("coordinate", coordinate);
+		missing.put("reason", reason);
+		return missing;
+	}
+
+	/** File requested in a batch */
+	private static class File {
+		private final String path;
+		private final String coordinate;
+		private ArtifactRequest request;
+		/** Content of the file or null when it has to be written directly from the storage */
+		private byte[] content;
+		private long crc;
+		/** Reason the file could not be resolved or null if it has been found */
+		private String error;
+		private boolean notFound;
+
+		private File(String path, String coordinate) {
+			this.path = path;
+			this.coordinate = coordinate;
+		}
+
+		private void notFound() {
+			error = "not found";
+			notFound = true;
+		}
+	}
+
+	/** Summary of a batch resolve, written as the manifest of the archive */
+	public static class Result {
+		/** Files included in the archive with their coordinate, path and size */
+		public final List<Map<String, Object>> files = new ArrayList<>();
+		/** Coordinates that could not be resolved with the reason */
+		public final List<Map<String, String>> missing = new ArrayList<>();
+		/** Number of bytes of the files included */
+		public long bytes;
+		public long timeMillis;
+	}
+}
@@ -0,0 +1,331 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores all the files of an archive laid out as a Maven repository. The archive is read as a stream: the small
+ * entries are read into memory and stored in parallel (bulk.threads), limited by the number of bytes buffered at the
+ * same time (bulk.bufferBytes), while the big entries are stored directly from the archive.
+ *
+ * The MD5 and SHA-1 checksums of every file are calculated while it is stored. The checksum files included in the
+ * archive are verified against them and the missing ones are generated. The stored events are published once all the
+ * files have been stored, so the metadata of every artifact is regenerated once instead of once per file
+ */
+public class BulkImporter {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	private static BulkImporter instance = new BulkImporter();
+	/** Checksum algorithms calculated for every file, by the extension of their checksum files */
+	private static final String[][] CHECKSUMS = { { "md5", "MD5" }, { "sha1", "SHA-1" } };
+	/** Extensions of the checksum and signature files, which do not have checksums of their own */
+	private static final String[] COMPANION_EXTENSIONS = { ".md5", ".sha1", ".sha256", ".sha512", ".asc" };
+	private final ExecutorService workers;
+	/** Maximum number of bytes of the entries buffered in memory at the same time */
+	private final int bufferBytes;
+	/** Entries bigger than this number of bytes are stored directly from the archive */
+	private final int maxBufferedEntry;
+	private final Counter storedEntries = MetricsRegistry.getInstance().counter("chantico_bulk_entries_total",
+			"Number of archive entries processed by the bulk uploads", "result", "stored");
+	private final Counter failedEntries = MetricsRegistry.getInstance().counter("chantico_bulk_entries_total",
+			"Number of archive entries processed by the bulk uploads", "result", "failed");
+
+	private BulkImporter() {
+		Configuration configuration = Configuration.getInstance();
+		AtomicInteger threadCount = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(Math.max(1, configuration.getInt("bulk.threads", 4)), runnable -> {
+			Thread thread = new Thread(runnable, "bulk-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		bufferBytes = Math.max(1024 * 1024, configuration.getInt("bulk.bufferBytes", 64 * 1024 * 1024));
+		maxBufferedEntry = Math.min(bufferBytes, configuration.getInt("bulk.maxBufferedEntry", 4 * 1024 * 1024));
+	}
+
+	/** Archive formats supported */
+	public enum Format {
+		ZIP, TAR, TAR_GZIP
+	}
+
+	public static BulkImporter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Stores all the files of an archive
+	 * @param format Format of the archive
+	 * @param prefix Folder of the repository the entries are relative to (empty for the root)
+	 * @param input Stream with the archive
+	 * @param user User that uploads the archive (null for anonymous requests)
+	 * @param client Address of the client that uploads the archive
+	 * @return Summary of the files stored and the entries that could not be stored
+	 * @throws IOException If the archive is malformed, the entries already read are kept
+	 */
+	public Result importArchive(Format format, String prefix, InputStream input, String user, String client) throws IOException {
+		long startTime = System.currentTimeMillis();
+		Import current = new Import();
+		List<Future<?>> pending = new ArrayList<>();
+		try (ArchiveReader reader = ArchiveReader.open(format, input)) {
+			ArchiveReader.Entry entry;
+			int entries = 0;
+			while ((entry = reader.next()) != null) {
+				entries++;
+				if (entry.directory) {
+					continue;
+				}
+				String path = resolve(prefix, entry.name);
+				if (path == null) {
+					current.fail(entry.name, "invalid path");
+					continue;
+				}
+				ArtifactRequest request;
+				try {
+					request = ArtifactRequest.parse(path);
+				} catch (IllegalArgumentException ex) {
+					current.fail(path, "invalid path");
+					continue;
+				}
+				String exceededQuota = entry.size < 0 ? null : UsageService.getInstance().checkQuota(request, entry.size,
+						ArtifactRepository.getInstance().getArtifactSize(request));
+				if (exceededQuota != null) {
+					current.fail(path, exceededQuota);
+				} else if (entry.size < 0 || entry.size > maxBufferedEntry) {
+					current.store(path, request, reader.getContent());
+				} else {
+					int size = (int) entry.size;
+					current.memory.acquireUninterruptibly(size);
+					byte[] content;
+					try {
+						content = readFully(reader.getContent(), size);
+					} catch (IOException ex) {
+						current.memory.release(size);
+						throw ex;
+					}
+					pending.add(workers.submit(() -> {
+						try {
+							current.store(path, request, new ByteArrayInputStream(content));
+						} finally {
+							current.memory.release(size);
+						}
+					}));
+				}
+			}
+			if (entries == 0) {
+				// the ZIP reader does not fail when the content is not an archive
+				throw new IOException("The archive does not contain any entry");
+			}
+		} finally {
+			for (Future<?> future : pending) {
+				try {
+					future.get();
+				} catch (Exception ex) {
+					// the failures are registered by the task itself
+				}
+			}
+		}
+		current.completeChecksums();
+
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		for (ArtifactRequest request : current.stored) {
+			repository.publishAndWait(RepositoryEvent.Type.STORED, request, user, client);
+		}
+		Result result = current.result;
+		result.timeMillis = System.currentTimeMillis() - startTime;
+		logger.info("Bulk upload completed. prefix={} files={} bytes={} generatedChecksums={} failures={} time={}ms", prefix,
+				result.stored, result.bytes, result.generatedChecksums, result.failures.size(), result.timeMillis);
+		return result;
+	}
+
+	/**
+	 * Obtains the repository path of an archive entry
+	 * @return Path without the leading separator or null if the entry is outside of the prefix
+	 */
+	private String resolve(String prefix, String name) {
+		StringBuilder path = new StringBuilder();
+		for (String segment : (prefix + "/" + name.replace('\\', '/')).split("/")) {
+			if (segment.isEmpty() || segment.equals(".")) {
+				continue;
+			} else if (segment.equals("..")) {
+				return null;
+			}
+			if (path.length() > 0) {
+				path.append('/');
+			}
+			path.append(segment);
+		}
+		return path.length() == 0 ? null : path.toString();
+	}
+
+	private static boolean isCompanion(String path) {
+		for (String extension : COMPANION_EXTENSIONS) {
+			if (path.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] readFully(InputStream input, int size) throws IOException {
+		byte[] content = new byte[size];
+		int total = 0;
+		while (total < size) {
+			int read = input.read(content, total, size - total);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of the archive");
+			}
+			total += read;
+		}
+		return content;
+	}
+
+	private static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte value : digest) {
+			hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/** State of an archive being imported */
+	private class Import {
+		private final Semaphore memory = new Semaphore(bufferBytes);
+		private final Result result = new Result();
+		/** Requests of the files stored, in the order they were stored */
+		private final List<ArtifactRequest> stored = Collections.synchronizedList(new ArrayList<>());
+		/** Checksums calculated by path of the file they belong to, in the order of the extensions */
+		private final Map<String, String[]> checksums = new ConcurrentHashMap<>();
+		/** Content of the checksum files included in the archive by path */
+		private final Map<String, String> providedChecksums = new ConcurrentHashMap<>();
+
+		/** Stores a file calculating its checksums */
+		private void store(String path, ArtifactRequest request, InputStream content) {
+			try {
+				ArtifactRepository repository = ArtifactRepository.getInstance();
+				if (isCompanion(path)) {
+					byte[] value = readChecksum(content);
+					String checksum = new String(value, StandardCharsets.US_ASCII).trim();
+					// some tools append the file name after the checksum
+					providedChecksums.put(path, checksum.split("\\s+")[0].toLowerCase());
+					repository.storeArtifact(request, new ByteArrayInputStream(value));
+					stored(request, value.length);
+					return;
+				}
+				MessageDigest[] digests = new MessageDigest[CHECKSUMS.length];
+				InputStream input = content;
+				for (int idx = 0; idx < CHECKSUMS.length; idx++) {
+					digests[idx] = MessageDigest.getInstance(CHECKSUMS[idx][1]);
+					input = new DigestInputStream(input, digests[idx]);
+				}
+				long size = repository.storeArtifact(request, input);
+				String[] values = new String[CHECKSUMS.length];
+				for (int idx = 0; idx < CHECKSUMS.length; idx++) {
+					values[idx] = toHex(digests[idx].digest());
+				}
+				checksums.put(path, values);
+				stored(request, size);
+			} catch (Exception ex) {
+				fail(path, ex.getMessage());
+			}
+		}
+
+		/** Verifies the checksum files included in the archive and generates the missing ones */
+		private void completeChecksums() {
+			ArtifactRepository repository = ArtifactRepository.getInstance();
+			for (Map.Entry<String, String[]> entry : checksums.entrySet()) {
+				for (int idx = 0; idx < CHECKSUMS.length; idx++) {
+					String checksumPath = entry.getKey() + "." + CHECKSUMS[idx][0];
+					String calculated = entry.getValue()[idx];
+					String provided = providedChecksums.get(checksumPath);
+					if (provided == null) {
+						try {
+							byte[] value = calculated.getBytes(StandardCharsets.US_ASCII);
+							ArtifactRequest request = ArtifactRequest.parse(checksumPath);
+							repository.storeArtifact(request, new ByteArrayInputStream(value));
+							stored(request, value.length);
+							synchronized (result) {
+								result.generatedChecksums++;
+							}
+						} catch (Exception ex) {
+							fail(checksumPath, ex.getMessage());
+						}
+					} else if (!provided.equals(calculated)) {
+						fail(entry.getKey(), CHECKSUMS[idx][0] + " checksum mismatch");
+					}
+				}
+			}
+		}
+
+		private void stored(ArtifactRequest request, long size) {
+			stored.add(request);
+			storedEntries.inc();
+			synchronized (result) {
+				result.stored++;
+				result.bytes += size;
+			}
+		}
+
+		private void fail(String path, String error) {
+			failedEntries.inc();
+			logger.error("An entry of a bulk upload could not be stored. path={} cause={}", path, error);
+			Map<String, String> failure = new LinkedHashMap<>();
+			failure.put("path", path);
+			failure.put("error", error);
+			synchronized (result) {
+				result.failures.add(failure);
+			}
+		}
+
+		/** Reads the content of a checksum file, whose size may not be known */
+		private byte[] readChecksum(InputStream input) throws IOException {
+			int maxSize = 1024;
+			byte[] buffer = new byte[maxSize];
+			int total = 0;
+			int read;
+			while (total < maxSize && (read = input.read(buffer, total, maxSize - total)) >= 0) {
+				total += read;
+			}
+			if (total == maxSize && input.read() >= 0) {
+				throw new IOException("Checksum file too big");
+			}
+			byte[] content = new byte[total];
+			System.arraycopy(buffer, 0, content, 0, total);
+			return content;
+		}
+	}
+
+	/** Summary of a bulk upload */
+	public static class Result {
+		/** Number of files stored, including the generated checksums */
+		public int stored;
+		/** Number of bytes stored */
+		public long bytes;
+		/** Number of checksum files generated because they were not included in the archive */
+		public int generatedChecksums;
+		/** Entries that could not be stored, with their path and the error */
+		public final List<Map<String, String>> failures = new ArrayList<>();
+		public long timeMillis;
+	}
+}
@@ -0,0 +1,193 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.persistence.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the catalog table with the files stored in the repositories, it is updated from the repository events. The
+ * last access of the files is coalesced in memory and written every catalog.accessFlushSeconds, so the downloads never
+ * cause a write to the database
+ */
+public class CatalogService {
+    private static final Logger logger = LoggerFactory.getLogger("artifact");
+    private static CatalogService instance = new CatalogService();
+    /** Last access of the files that has not been written yet, keyed by repository and catalog path */
+    private final Map<Access, Long> accesses = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public static CatalogService getInstance() {
+        return instance;
+    }
+
+    /** Starts writing the last access of the files periodically */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-access");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, Configuration.getInstance().getLong("catalog.accessFlushSeconds", 30));
+        scheduler.scheduleWithFixedDelay(this::flushAccesses, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /** Stops the periodic writes, writing the last access pending */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            flushAccesses();
+        }
+    }
+
+    /**
+     * Registers the last access of the files served, executed by the event bus. Only the latest access of every file
+     * is kept until it is written
+     * @param events Served events
+     */
+    public void recordAccesses(List<RepositoryEvent> events) {
+        for (RepositoryEvent event : events) {
+            if (event.type == RepositoryEvent.Type.SERVED && event.request != null) {
+                accesses.merge(new Access(event.repository, getCatalogPath(event.request)), event.date, Math::max);
+            }
+        }
+    }
+
+    /** Writes the last access of the files registered since the previous execution in a single transaction */
+    public void flushAccesses() {
+        if (accesses.isEmpty()) {
+            return;
+        }
+        Operation.Batch batch = Operation.Batch.create();
+        int count = 0;
+        for (Access access : accesses.keySet()) {
+            Long date = accesses.remove(access);
+            if (date != null) {
+                batch.add("UPDATE chantico_catalog SET catalog_accessed_on = ? WHERE catalog_repository = ? AND catalog_path = ?",
+                        new Timestamp(date), access.repository, access.path);
+                count++;
+            }
+        }
+        try {
+            batch.execute();
+            logger.debug("Last access of the catalog files written. files={}", count);
+        } catch (Exception ex) {
+            logger.error("The last access of the catalog files could not be written. files={} cause={}", count, ex.getMessage());
+        }
+    }
+
+    /**
+     * Applies a batch of stored and deleted events to the catalog in a single transaction
+     * @param events Events to apply in the order they were published
+     */
+    public void consume(List<RepositoryEvent> events) {
+        ArtifactRepository repository = ArtifactRepository.getInstance();
+        Operation.Batch batch = Operation.Batch.create();
+        for (RepositoryEvent event : events) {
+            ArtifactRequest request = event.request;
+            String path = getCatalogPath(request);
+            if (event.type == RepositoryEvent.Type.STORED) {
+                long size = repository.getArtifactSize(request);
+                if (size >= 0) {
+                    batch.add("MERGE INTO chantico_catalog (catalog_repository, catalog_path, catalog_group, catalog_artifact, "
+                                    + "catalog_version, catalog_file, catalog_size, catalog_stored_on) KEY (catalog_repository, catalog_path) "
+                                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)", event.repository, path, request.group, request.artifact,
+                            request.version, request.fileName, size, new Timestamp(event.date));
+                }
+            } else if (event.type == RepositoryEvent.Type.DELETED) {
+                batch.add("DELETE FROM chantico_catalog WHERE catalog_repository = ? AND catalog_path = ?", event.repository, path);
+            }
+        }
+        batch.execute();
+    }
+
+    /**
+     * Obtains the last time any file of a version has been downloaded
+     * @param repository Name of the repository
+     * @param group Group of the artifact
+     * @param artifact Identifier of the artifact
+     * @param version Version of the artifact
+     * @return Time in milliseconds of the last download or zero if no file has been downloaded
+     */
+    public long getLastAccess(String repository, String group, String artifact, String version) {
+        flushAccesses();
+        long[] lastAccess = new long[1];
+        Operation.Query.from("SELECT MAX(catalog_accessed_on) FROM chantico_catalog WHERE catalog_repository = ? "
+                + "AND catalog_group = ? AND catalog_artifact = ? AND catalog_version = ?", repository, group, artifact, version)
+                .execute(rs -> {
+                    Timestamp accessedOn = rs.getTimestamp(1);
+                    lastAccess[0] = accessedOn == null ? 0 : accessedOn.getTime();
+                });
+        return lastAccess[0];
+    }
+
+    /**
+     * Obtains a page of the files registered in the catalog of a repository
+     * @param repository Name of the repository
+     * @param afterId Identifier of the last record of the previous page (zero for the first page)
+     * @param limit Maximum number of records to return
+     * @return Map with the paths of the files by record identifier, in the order of the identifiers
+     */
+    public Map<Long, String> getPaths(String repository, long afterId, int limit) {
+        Map<Long, String> paths = new LinkedHashMap<>();
+        Operation.Query.from("SELECT catalog_id, catalog_path FROM chantico_catalog WHERE catalog_repository = ? "
+                + "AND catalog_id > ? ORDER BY catalog_id LIMIT ?", repository, afterId, limit)
+                .execute(rs -> paths.put(rs.getLong(1), rs.getString(2)));
+        return paths;
+    }
+
+    /**
+     * Removes the record of a file from the catalog
+     * @param repository Name of the repository
+     * @param path Path of the file as it is registered in the catalog
+     */
+    public void remove(String repository, String path) {
+        Operation.Update.from("DELETE FROM chantico_catalog WHERE catalog_repository = ? AND catalog_path = ?", repository, path).execute();
+    }
+
+    /** Obtains the path of an artifact file as it is registered in the catalog */
+    private String getCatalogPath(ArtifactRequest request) {
+        return request.path.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Key of the last access of a file */
+    private static class Access {
+        private final String repository;
+        private final String path;
+
+        private Access(String repository, String path) {
+            this.repository = repository;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Access)) {
+                return false;
+            }
+            Access access = (Access) other;
+            return repository.equals(access.repository) && path.equals(access.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * repository.hashCode() + path.hashCode();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.persistence.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable and ordered log of the files stored and deleted in the repository, kept in the chantico_changes table. The
+ * changes are appended before the operation returns to the client, one at a time so their identifiers follow the
+ * order they were committed, which allows a reader to resume from the last identifier it has processed.
+ *
+ * The log is only kept while there is any replication peer configured (replication.peers) or the change feed read by
+ * the mirrors is enabled (replication.feed.enabled)
+ */
+public class ChangeLog {
+	private static final Logger logger = LoggerFactory.getLogger("replication");
+	private static ChangeLog instance = new ChangeLog();
+	private volatile String repository;
+	/** Identifier of the last change appended */
+	private volatile long lastId;
+	private final Object appended = new Object();
+
+	/** Operations registered in the log */
+	public enum Type {
+		STORED, DELETED
+	}
+
+	public static ChangeLog getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts keeping the changes of a repository when there is any replication peer configured or the feed is enabled
+	 * @param repositoryName Name of the repository
+	 */
+	synchronized void load(String repositoryName) {
+		Configuration configuration = Configuration.getInstance();
+		if (repository != null || (configuration.getString("replication.peers", "").trim().isEmpty()
+				&& !configuration.getBoolean("replication.feed.enabled", false))) {
+			return;
+		}
+		long[] last = new long[1];
+		Operation.Query.from("SELECT MAX(change_id) FROM chantico_changes WHERE change_repository = ?", repositoryName)
+				.execute(rs -> last[0] = rs.getLong(1));
+		lastId = last[0];
+		repository = repositoryName;
+		logger.info("Change log loaded. repository={} lastChange={}", repositoryName, lastId);
+	}
+
+	/** Allows to determine if the changes are being registered */
+	public boolean isEnabled() {
+		return repository != null;
+	}
+
+	/**
+	 * Registers a change, nothing is done when the log is not enabled
+	 * @param type Operation executed
+	 * @param key Relative path of the file
+	 * @param size Size of the file stored (zero for the deleted files)
+	 */
+	synchronized void append(Type type, Path key, long size) {
+		String repositoryName = repository;
+		if (repositoryName == null) {
+			return;
+		}
+		lastId = Operation.Update.from("INSERT INTO chantico_changes (change_repository, change_type, change_path, change_size, "
+						+ "change_created_on) VALUES (?, ?, ?, ?, ?)", repositoryName, type.name(),
+				key.toString().replace(File.separatorChar, '/'), size, new Timestamp(System.currentTimeMillis())).executeForKey();
+		synchronized (appended) {
+			appended.notifyAll();
+		}
+	}
+
+	/** Obtains the identifier of the last change appended or zero if there is none */
+	public long getLastId() {
+		return lastId;
+	}
+
+	/** Obtains the identifier of the oldest change kept or the next identifier if there is none */
+	public long getFirstId() {
+		long[] first = new long[1];
+		Operation.Query.from("SELECT MIN(change_id) FROM chantico_changes WHERE change_repository = ?", repository)
+				.execute(rs -> first[0] = rs.getLong(1));
+		return first[0] == 0 ? lastId + 1 : first[0];
+	}
+
+	/**
+	 * Obtains the changes appended after a position
+	 * @param afterId Identifier of the last change already processed
+	 * @param limit Maximum number of changes to return
+	 * @return Changes ordered by identifier
+	 */
+	public List<Change> read(long afterId, int limit) {
+		List<Change> changes = new ArrayList<>();
+		Operation.Query.from("SELECT change_id, change_type, change_path, change_size, change_created_on FROM chantico_changes "
+				+ "WHERE change_repository = ? AND change_id > ? ORDER BY change_id LIMIT ?", repository, afterId, limit).execute(rs ->
+				changes.add(new Change(rs.getLong(1), Type.valueOf(rs.getString(2)), rs.getString(3), rs.getLong(4),
+						rs.getTimestamp(5).getTime())));
+		return changes;
+	}
+
+	/**
+	 * Waits until a change is appended after a position
+	 * @param afterId Identifier of the last change already processed
+	 * @param timeoutMillis Maximum time to wait
+	 */
+	void await(long afterId, long timeoutMillis) throws InterruptedException {
+		synchronized (appended) {
+			if (lastId <= afterId) {
+				appended.wait(timeoutMillis);
+			}
+		}
+	}
+
+	/**
+	 * Removes the changes that are no longer needed
+	 * @param upToId Identifier of the last change that can be removed
+	 * @param createdBefore Only the changes registered before this time are removed
+	 */
+	void prune(long upToId, long createdBefore) {
+		int removed = Operation.Update.from("DELETE FROM chantico_changes WHERE change_repository = ? AND change_id <= ? "
+				+ "AND change_created_on < ?", repository, upToId, new Timestamp(createdBefore)).execute();
+		if (removed > 0) {
+			logger.debug("Changes no longer needed removed. upTo={} count={}", upToId, removed);
+		}
+	}
+
+	/** Change registered in the log */
+	public static class Change {
+		public final long id;
+		public final Type type;
+		/** Relative path of the file using / as separator */
+		public final String path;
+		public final long size;
+		public final long createdOn;
+
+		Change(long id, Type type, String path, long size, long createdOn) {
+			this.id = id;
+			this.type = type;
+			this.path = path;
+			this.size = size;
+			this.createdOn = createdOn;
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads of big artifact files in chunks. A session reserves a temporary file of the declared size in the uploads
+ * folder of the home, every chunk is written at its offset with positional writes (the chunks can be sent in parallel
+ * and sent again after a failure) and the session keeps the ranges received, so a client that loses the connection
+ * only resends the missing ranges. When every byte has been received the session is completed with a checksum: the
+ * file is verified while it is copied to the storage and it is published atomically only if it matches.
+ *
+ * The sessions without activity for upload.sessionTimeoutMinutes are discarded with their temporary files
+ */
+public class ChunkedUploadService {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	private static ChunkedUploadService instance = new ChunkedUploadService();
+	/** Extension of the temporary files of the sessions */
+	private static final String PART_EXTENSION = ".part";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Folder with the temporary files of the sessions */
+	private final File folder;
+	private final Publisher publisher;
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private final Counter completedUploads = MetricsRegistry.getInstance().counter("chantico_chunked_uploads_total",
+			"Number of chunked upload sessions finished", "result", "completed");
+	private final Counter failedUploads = MetricsRegistry.getInstance().counter("chantico_chunked_uploads_total",
+			"Number of chunked upload sessions finished", "result", "failed");
+	private final Counter expiredUploads = MetricsRegistry.getInstance().counter("chantico_chunked_uploads_total",
+			"Number of chunked upload sessions finished", "result", "expired");
+	private ScheduledExecutorService expirer;
+
+	/** Result of the completion of a session */
+	public enum Result {
+		/** The file has been verified and published */
+		STORED,
+		/** Some ranges of the file have not been received yet */
+		INCOMPLETE,
+		/** The content does not match the checksum, the session is discarded */
+		MISMATCH
+	}
+
+	/** Functional interface implemented by the component that stores the content of the completed uploads */
+	@FunctionalInterface
+	interface Publisher {
+		/**
+		 * Verifies the content of an upload while it is stored and publishes it only if it matches the checksum
+		 * @return Number of bytes stored or a negative value if the content does not match the checksum
+		 */
+		long publish(Session session, InputStream input, String algorithm, String checksum) throws IOException;
+	}
+
+	private ChunkedUploadService() {
+		this(Configuration.getFileFromHome("uploads"), ChunkedUploadService::store);
+	}
+
+	/**
+	 * @param folder Folder with the temporary files of the sessions
+	 * @param publisher Component that stores the content of the completed uploads
+	 */
+	ChunkedUploadService(File folder, Publisher publisher) {
+		this.folder = folder;
+		this.publisher = publisher;
+	}
+
+	public static ChunkedUploadService getInstance() {
+		return instance;
+	}
+
+	/** Removes the temporary files left by a previous execution and starts discarding the expired sessions */
+	public synchronized void start() {
+		if (expirer != null) {
+			return;
+		}
+		File[] leftovers = folder.listFiles((dir, name) -> name.endsWith(PART_EXTENSION));
+		if (leftovers != null) {
+			for (File leftover : leftovers) {
+				if (!leftover.delete()) {
+					logger.warn("A temporary file of an upload could not be removed. file={}", leftover);
+				}
+			}
+		}
+		MetricsRegistry.getInstance().gauge("chantico_chunked_upload_sessions", "Number of chunked upload sessions in progress", sessions::size);
+		expirer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "upload-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		expirer.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/** Stops discarding the expired sessions */
+	public synchronized void stop() {
+		if (expirer != null) {
+			expirer.shutdownNow();
+			expirer = null;
+		}
+	}
+
+	/**
+	 * Creates a session to upload a file
+	 * @param request Object with the details for the artifact to store
+	 * @param size Number of bytes of the whole file
+	 * @param user User that uploads the file (null for anonymous requests)
+	 * @param client Address of the client
+	 * @return Session created
+	 * @throws IllegalStateException If there are too many sessions in progress (upload.maxSessions)
+	 */
+	public Session create(ArtifactRequest request, long size, String user, String client) throws IOException {
+		if (sessions.size() >= Configuration.getInstance().getInt("upload.maxSessions", 100)) {
+			throw new IllegalStateException("Too many upload sessions in progress");
+		}
+		String id = UUID.randomUUID().toString().replace("-", "");
+		Session session = new Session(id, request, size, user, client, new File(folder, id + PART_EXTENSION));
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Unable to create the uploads folder " + folder);
+		}
+		session.channel = FileChannel.open(session.file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		sessions.put(session.id, session);
+		logger.debug("Upload session created. id={} path={} size={}", session.id, session.path, size);
+		return session;
+	}
+
+	/** Obtains a session in progress or null if it does not exist or it has finished */
+	public Session get(String id) {
+		return id == null ? null : sessions.get(id);
+	}
+
+	/**
+	 * Writes a chunk of the file. The bytes received before a failure are kept, so only the rest has to be sent again
+	 * @param session Session of the upload
+	 * @param offset Position of the first byte of the chunk in the file
+	 * @param length Number of bytes of the chunk
+	 * @param input Stream with the content of the chunk
+	 * @throws IllegalArgumentException If the chunk is outside of the file
+	 * @throws IllegalStateException If the session has been completed or discarded
+	 * @throws IOException If the chunk could not be read completely
+	 */
+	public void write(Session session, long offset, long length, InputStream input) throws IOException {
+		if (offset < 0 || length <= 0 || offset + length > session.size) {
+			throw new IllegalArgumentException("The chunk is outside of the file. offset=" + offset + " length=" + length);
+		}
+		synchronized (session) {
+			if (!session.live) {
+				throw new IllegalStateException("The upload session has finished. id=" + session.id);
+			}
+		}
+		session.touch();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] array = buffer.array();
+		long position = offset;
+		long end = offset + length;
+		try {
+			while (position < end) {
+				int read = input.read(array, 0, (int) Math.min(array.length, end - position));
+				if (read < 0) {
+					throw new IOException("The chunk has ended before its length. received=" + (position - offset) + " length=" + length);
+				}
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining()) {
+					position += session.channel.write(buffer, position);
+				}
+			}
+		} catch (ClosedChannelException ex) {
+			// completed or discarded by another request while the chunk was being written
+			throw new IllegalStateException("The upload session has finished. id=" + session.id);
+		} finally {
+			session.received(offset, position);
+		}
+	}
+
+	/**
+	 * Completes a session when every byte of the file has been received
+	 * @param session Session of the upload
+	 * @param algorithm Name of the digest algorithm of the checksum (for example SHA-1 or SHA-256)
+	 * @param checksum Hexadecimal checksum of the whole file
+	 */
+	public Result complete(Session session, String algorithm, String checksum) throws IOException {
+		synchronized (session) {
+			if (session.getReceived() < session.size) {
+				return Result.INCOMPLETE;
+			}
+			if (sessions.remove(session.id) == null) {
+				// completed or discarded by another request
+				return Result.MISMATCH;
+			}
+			session.live = false;
+		}
+		long size;
+		try (InputStream input = Channels.newInputStream(session.channel.position(0))) {
+			size = publisher.publish(session, input, algorithm, checksum);
+		} finally {
+			discard(session);
+		}
+		if (size < 0) {
+			failedUploads.inc();
+			return Result.MISMATCH;
+		}
+		completedUploads.inc();
+		logger.info("Chunked upload completed. path={} size={} time={}ms", session.path, size, System.currentTimeMillis() - session.createdOn);
+		return Result.STORED;
+	}
+
+	/**
+	 * Discards a session and its temporary file
+	 * @return Boolean value to determine if the session was in progress
+	 */
+	public boolean abort(Session session) {
+		if (sessions.remove(session.id) == null) {
+			return false;
+		}
+		discard(session);
+		failedUploads.inc();
+		return true;
+	}
+
+	/** Internal method executed periodically to discard the sessions without recent activity */
+	private void expire() {
+		expire(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(Configuration.getInstance().getLong("upload.sessionTimeoutMinutes", 60)));
+	}
+
+	/**
+	 * Discards the sessions without activity since a time
+	 * @param expiredBefore Time in milliseconds of the last activity of the sessions to discard
+	 */
+	void expire(long expiredBefore) {
+		for (Session session : sessions.values()) {
+			if (session.lastActivity < expiredBefore && sessions.remove(session.id, session)) {
+				discard(session);
+				expiredUploads.inc();
+				logger.warn("An upload session has expired. id={} path={} received={} size={}", session.id, session.path,
+						session.getReceived(), session.size);
+			}
+		}
+	}
+
+	private void discard(Session session) {
+		synchronized (session) {
+			session.live = false;
+		}
+		try {
+			session.channel.close();
+		} catch (IOException ex) {
+			logger.debug("The temporary file of an upload could not be closed. file={} cause={}", session.file, ex.getMessage());
+		}
+		if (session.file.exists() && !session.file.delete()) {
+			logger.warn("The temporary file of an upload could not be removed. file={}", session.file);
+		}
+	}
+
+	/** Stores the content of a completed upload in the repository, publishing its event when it matches the checksum */
+	private static long store(Session session, InputStream input, String algorithm, String checksum) {
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		long size = repository.storeArtifact(session.request, input, algorithm, checksum);
+		if (size >= 0) {
+			repository.publish(RepositoryEvent.Type.STORED, session.request, session.user, session.client);
+		}
+		return size;
+	}
+
+	/** Upload in progress */
+	public static class Session {
+		public final String id;
+		/** Relative path of the file using / as separator */
+		public final String path;
+		public final long size;
+		private final ArtifactRequest request;
+		private final String user;
+		private final String client;
+		private final File file;
+		private final long createdOn = System.currentTimeMillis();
+		private volatile long lastActivity = createdOn;
+		private FileChannel channel;
+		/** Boolean value to determine if the session accepts chunks, it is cleared once it is completed or discarded */
+		private boolean live = true;
+		/** Ranges received keyed by their first byte with the position after their last byte, they never overlap */
+		private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+		private Session(String id, ArtifactRequest request, long size, String user, String client, File file) {
+			this.id = id;
+			this.path = request.path.toString().replace(File.separatorChar, '/');
+			this.size = size;
+			this.request = request;
+			this.user = user;
+			this.client = client;
+			this.file = file;
+		}
+
+		/** Determines if the user of a request is the one that created the session */
+		public boolean isOwnedBy(String user) {
+			return user != null && user.equals(this.user);
+		}
+
+		private void touch() {
+			lastActivity = System.currentTimeMillis();
+		}
+
+		/** Registers a range received, merging it with the adjacent and overlapping ones */
+		synchronized void received(long start, long end) {
+			touch();
+			if (end <= start) {
+				return;
+			}
+			Map.Entry<Long, Long> previous = ranges.floorEntry(start);
+			if (previous != null && previous.getValue() >= start) {
+				start = previous.getKey();
+				end = Math.max(end, previous.getValue());
+			}
+			Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+			while (next != null && next.getKey() <= end) {
+				end = Math.max(end, next.getValue());
+				ranges.remove(next.getKey());
+				next = ranges.ceilingEntry(start);
+			}
+			ranges.put(start, end);
+		}
+
+		/** Obtains the number of bytes received */
+		public synchronized long getReceived() {
+			long received = 0;
+			for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+				received += range.getValue() - range.getKey();
+			}
+			return received;
+		}
+
+		/** Describes the session with the ranges received and the ones that are missing */
+		public synchronized Map<String, Object> toMap() {
+			List<long[]> received = new ArrayList<>();
+			List<long[]> missing = new ArrayList<>();
+			long position = 0;
+			for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+				if (range.getKey() > position) {
+					missing.add(new long[]{position, range.getKey()});
+				}
+				received.add(new long[]{range.getKey(), range.getValue()});
+				position = range.getValue();
+			}
+			if (position < size) {
+				missing.add(new long[]{position, size});
+			}
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("id", id);
+			values.put("path", path);
+			values.put("size", size);
+			values.put("received", getReceived());
+			values.put("receivedRanges", received);
+			values.put("missingRanges", missing);
+			values.put("createdOn", createdOn);
+			return values;
+		}
+	}
+}
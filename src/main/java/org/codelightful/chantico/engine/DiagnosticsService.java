@@ -0,0 +1,201 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Captures performance evidence from the running server: Flight Recorder recordings, thread dumps and the usage of the
+ * heap, the garbage collectors and the direct buffers. The JDK is driven through its diagnostic command MBean (the
+ * same commands executed by jcmd), so nothing has to be installed or attached to the process.
+ *
+ * The recordings are written to the diagnostics folder of the home, keeping only the newest diagnostics.maxRecordings
+ */
+public class DiagnosticsService {
+	private static final Logger logger = LoggerFactory.getLogger("server");
+	private static DiagnosticsService instance = new DiagnosticsService();
+	private static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+	/** Settings of the JDK accepted for a recording: default has a low overhead and profile adds the method sampling */
+	private static final List<String> SETTINGS = Arrays.asList("default", "profile");
+	/** Format of the names of the recordings, also used to validate the files requested */
+	private static final Pattern RECORDING_NAME = Pattern.compile("chantico-\\d{8}-\\d{6}(-\\d+)?");
+	private static final String RECORDING_EXTENSION = ".jfr";
+
+	public static DiagnosticsService getInstance() {
+		return instance;
+	}
+
+	/** Obtains the usage of the memory, the garbage collectors, the buffer pools and the threads */
+	public Map<String, Object> getReport() {
+		Map<String, Object> report = new LinkedHashMap<>();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		report.put("heap", usageToMap(memory.getHeapMemoryUsage()));
+		report.put("nonHeap", usageToMap(memory.getNonHeapMemoryUsage()));
+		List<Map<String, Object>> collectors = new ArrayList<>();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("name", collector.getName());
+			values.put("collections", collector.getCollectionCount());
+			values.put("timeMillis", collector.getCollectionTime());
+			collectors.add(values);
+		}
+		report.put("gc", collectors);
+		List<Map<String, Object>> bufferPools = new ArrayList<>();
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("name", pool.getName());
+			values.put("count", pool.getCount());
+			values.put("usedBytes", pool.getMemoryUsed());
+			values.put("capacityBytes", pool.getTotalCapacity());
+			bufferPools.add(values);
+		}
+		report.put("bufferPools", bufferPools);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Map<String, Object> threadValues = new LinkedHashMap<>();
+		threadValues.put("live", threads.getThreadCount());
+		threadValues.put("daemon", threads.getDaemonThreadCount());
+		threadValues.put("peak", threads.getPeakThreadCount());
+		report.put("threads", threadValues);
+		report.put("processors", Runtime.getRuntime().availableProcessors());
+		report.put("uptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime());
+		return report;
+	}
+
+	/** Obtains a dump of the stack of every thread, in the same format as jstack */
+	public String getThreadDump() {
+		return execute("threadPrint", "-l");
+	}
+
+	/**
+	 * Starts a Flight Recorder recording that is written to the diagnostics folder when its duration expires or when it
+	 * is stopped
+	 * @param settings Settings of the JDK to use (default or profile)
+	 * @param durationSeconds Duration of the recording, limited to diagnostics.maxRecordingSeconds
+	 * @return Name of the recording, which is also the name of its file without the extension
+	 */
+	public synchronized String startRecording(String settings, long durationSeconds) {
+		if (!SETTINGS.contains(settings)) {
+			throw new IllegalArgumentException("Invalid recording settings: " + settings);
+		}
+		long maxSeconds = Configuration.getInstance().getLong("diagnostics.maxRecordingSeconds", 3600);
+		long duration = Math.max(1, Math.min(maxSeconds, durationSeconds));
+		String name = "chantico-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		for (int idx = 2; getRecordingFile(name).exists(); idx++) {
+			name = name.replaceFirst("(-\\d{6})(-\\d+)?$", "$1-" + idx);
+		}
+		removeOldRecordings();
+		File file = getRecordingFile(name);
+		file.getParentFile().mkdirs();
+		execute("jfrStart", "name=" + name, "settings=" + settings, "duration=" + duration + "s", "filename=" + file.getAbsolutePath());
+		logger.info("Flight recording started. name={} settings={} durationSeconds={}", name, settings, duration);
+		return name;
+	}
+
+	/**
+	 * Stops a recording before its duration expires and writes its file
+	 * @param name Name of the recording
+	 * @return Output of the JDK, which reports if the recording was not in progress
+	 */
+	public synchronized String stopRecording(String name) {
+		if (!RECORDING_NAME.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid recording name: " + name);
+		}
+		String output = execute("jfrStop", "name=" + name, "filename=" + getRecordingFile(name).getAbsolutePath());
+		logger.info("Flight recording stopped. name={}", name);
+		return output;
+	}
+
+	/** Obtains the state of the recordings in progress, as reported by the JDK */
+	public String getActiveRecordings() {
+		return execute("jfrCheck");
+	}
+
+	/** Obtains the recordings written to the diagnostics folder, from the newest to the oldest */
+	public List<Map<String, Object>> getRecordings() {
+		List<Map<String, Object>> recordings = new ArrayList<>();
+		for (File file : listRecordingFiles()) {
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("name", file.getName().substring(0, file.getName().length() - RECORDING_EXTENSION.length()));
+			values.put("size", file.length());
+			values.put("modifiedOn", file.lastModified());
+			recordings.add(values);
+		}
+		return recordings;
+	}
+
+	/**
+	 * Obtains the file of a recording
+	 * @param name Name of the recording
+	 * @return File or null if the name is not valid or the recording has not been written yet
+	 */
+	public File getRecording(String name) {
+		if (name == null || !RECORDING_NAME.matcher(name).matches()) {
+			return null;
+		}
+		File file = getRecordingFile(name);
+		return file.isFile() ? file : null;
+	}
+
+	private static File getRecordingFile(String name) {
+		return Configuration.getFileFromHome("diagnostics", name + RECORDING_EXTENSION);
+	}
+
+	private static List<File> listRecordingFiles() {
+		File[] files = Configuration.getFileFromHome("diagnostics").listFiles((dir, fileName) -> fileName.endsWith(RECORDING_EXTENSION)
+				&& RECORDING_NAME.matcher(fileName.substring(0, fileName.length() - RECORDING_EXTENSION.length())).matches());
+		List<File> result = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+		result.sort(Comparator.comparing(File::getName).reversed());
+		return result;
+	}
+
+	/** Removes the oldest recordings so there is room for a new one */
+	private void removeOldRecordings() {
+		int maxRecordings = Math.max(1, Configuration.getInstance().getInt("diagnostics.maxRecordings", 10));
+		List<File> files = listRecordingFiles();
+		for (int idx = maxRecordings - 1; idx < files.size(); idx++) {
+			if (files.get(idx).delete()) {
+				logger.debug("Old flight recording removed. file={}", files.get(idx).getName());
+			}
+		}
+	}
+
+	/** Executes a diagnostic command of the JDK and returns its output */
+	private String execute(String command, String... arguments) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Object output = server.invoke(new ObjectName(DIAGNOSTIC_COMMAND), command, new Object[]{arguments},
+					new String[]{String[].class.getName()});
+			return output == null ? "" : output.toString();
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to execute a diagnostic command. command={} cause={}", command, ex.getMessage());
+			throw new RuntimeException("Unable to execute the diagnostic command " + command, ex);
+		}
+	}
+
+	private static Map<String, Object> usageToMap(MemoryUsage usage) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("usedBytes", usage.getUsed());
+		values.put("committedBytes", usage.getCommitted());
+		values.put("maxBytes", usage.getMax());
+		return values;
+	}
+}
@@ -0,0 +1,237 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-process bus that delivers the repository events to its consumers. Every consumer owns a queue that is shared by
+ * all the producers and a thread that drains it in batches, so publishing an event only costs an enqueue per consumer
+ * and a slow consumer never delays the others. Only the producers that are not request threads wait for the
+ * consumers, a request thread never blocks on a full queue
+ */
+public class EventBus {
+	private static final Logger logger = LoggerFactory.getLogger("events");
+	/** Maximum time a producer waits for room in the queue of a consumer with the {@link OverflowPolicy#BLOCK} policy */
+	private static final long BLOCK_TIMEOUT_MILLIS = 5000;
+	/** Name of the repository the events belong to */
+	private final String repository;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	/** Determines what happens with an event published when the queue of a consumer is full */
+	public enum OverflowPolicy {
+		/** The event being published is discarded */
+		DROP_NEWEST,
+		/** The oldest event waiting in the queue is discarded to make room for the new one */
+		DROP_OLDEST,
+		/**
+		 * No event is ever discarded. The producers that publish with {@link #publish(RepositoryEvent, boolean)} wait
+		 * until there is room in the queue (up to a timeout), the events of any other producer and the ones that
+		 * timed out are queued beyond the capacity
+		 */
+		BLOCK
+	}
+
+	/** Functional interface implemented by the components that process the repository events */
+	@FunctionalInterface
+	public interface Consumer {
+		/**
+		 * Processes a batch of events in the same order they were published
+		 * @param events Non empty list with the events to process
+		 */
+		void consume(List<RepositoryEvent> events) throws Exception;
+	}
+
+	/** @param repository Name of the repository the events belong to */
+	public EventBus(String repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Registers a consumer and starts the thread that delivers the events to it
+	 * @param name Name used to identify the consumer in the logs and the metrics
+	 * @param capacity Maximum number of events waiting to be consumed, it is only a threshold for the producers to wait
+	 * with the {@link OverflowPolicy#BLOCK} policy
+	 * @param batchSize Maximum number of events delivered in a single invocation of the consumer
+	 * @param policy Action to take when the queue is full
+	 * @param consumer Consumer to invoke
+	 */
+	public void subscribe(String name, int capacity, int batchSize, OverflowPolicy policy, Consumer consumer) {
+		subscribe(name, capacity, batchSize, policy, EnumSet.allOf(RepositoryEvent.Type.class), consumer);
+	}
+
+	/**
+	 * Registers a consumer of some kinds of events and starts the thread that delivers them to it
+	 * @param name Name used to identify the consumer in the logs and the metrics
+	 * @param capacity Maximum number of events waiting to be consumed, it is only a threshold for the producers to wait
+	 * with the {@link OverflowPolicy#BLOCK} policy
+	 * @param batchSize Maximum number of events delivered in a single invocation of the consumer
+	 * @param policy Action to take when the queue is full
+	 * @param types Kinds of events delivered to the consumer, the other ones are never queued for it
+	 * @param consumer Consumer to invoke
+	 */
+	public void subscribe(String name, int capacity, int batchSize, OverflowPolicy policy, Set<RepositoryEvent.Type> types,
+			Consumer consumer) {
+		Subscription subscription = new Subscription(name, Math.max(1, capacity), Math.max(1, batchSize), policy, types, consumer);
+		subscriptions.add(subscription);
+		subscription.start();
+		logger.debug("Event consumer registered. repository={} consumer={} capacity={} batchSize={} policy={} types={}",
+				repository, name, capacity, batchSize, policy, types);
+	}
+
+	/**
+	 * Publishes an event to all the consumers without waiting for room in their queues, so it can be invoked from the
+	 * request threads. This method never executes a consumer in the calling thread
+	 * @param event Event to publish
+	 */
+	public void publish(RepositoryEvent event) {
+		publish(event, false);
+	}
+
+	/**
+	 * Publishes an event to all the consumers. This method never executes a consumer in the calling thread
+	 * @param event Event to publish
+	 * @param wait Boolean value to determine if the producer waits for room in the queues of the consumers with the
+	 * {@link OverflowPolicy#BLOCK} policy, it must only be set by the producers that are not request threads
+	 */
+	public void publish(RepositoryEvent event, boolean wait) {
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(event, wait);
+		}
+	}
+
+	/** Stops the delivery threads, the events that were not consumed are discarded */
+	public void shutdown() {
+		for (Subscription subscription : subscriptions) {
+			subscription.interrupt();
+		}
+		subscriptions.clear();
+	}
+
+	/** Thread that owns the queue of a single consumer and delivers its events in batches */
+	private class Subscription extends Thread {
+		private final String name;
+		private final BlockingQueue<RepositoryEvent> queue;
+		private final int capacity;
+		/** Monitor the waiting producers are notified on when the consumer takes events from the queue */
+		private final Object room = new Object();
+		private final int batchSize;
+		private final OverflowPolicy policy;
+		private final Set<RepositoryEvent.Type> types;
+		private final Consumer consumer;
+		private final Counter published;
+		private final Counter dropped;
+		private final Counter failed;
+
+		private Subscription(String name, int capacity, int batchSize, OverflowPolicy policy, Set<RepositoryEvent.Type> types,
+				Consumer consumer) {
+			super("events-" + name);
+			this.name = name;
+			// the queue of a blocking consumer is unbounded, so the events of the producers that can not wait are kept
+			this.queue = policy == OverflowPolicy.BLOCK ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(capacity);
+			this.capacity = capacity;
+			this.batchSize = batchSize;
+			this.policy = policy;
+			this.types = types.isEmpty() ? EnumSet.noneOf(RepositoryEvent.Type.class) : EnumSet.copyOf(types);
+			this.consumer = consumer;
+			setDaemon(true);
+			MetricsRegistry registry = MetricsRegistry.getInstance();
+			String help = "Number of repository events by consumer and result";
+			published = registry.counter("chantico_events_total", help, "consumer", name, "result", "published");
+			dropped = registry.counter("chantico_events_total", help, "consumer", name, "result", "dropped");
+			failed = registry.counter("chantico_events_total", help, "consumer", name, "result", "failed");
+			registry.gauge("chantico_event_queue_depth", "Number of repository events waiting to be consumed", queue::size, "consumer", name);
+		}
+
+		/** Enqueues an event applying the overflow policy when the queue is full */
+		private void offer(RepositoryEvent event, boolean wait) {
+			if (!types.contains(event.type)) {
+				return;
+			}
+			if (policy == OverflowPolicy.BLOCK) {
+				if (wait && !awaitRoom()) {
+					logger.warn("Timeout waiting for room in the consumer queue, the event is queued beyond its capacity. consumer={} type={}",
+							name, event.type);
+				}
+				queue.add(event);
+				published.inc();
+				return;
+			}
+			boolean accepted = queue.offer(event);
+			if (!accepted && policy == OverflowPolicy.DROP_OLDEST) {
+				while (!accepted) {
+					if (queue.poll() != null) {
+						dropped.inc();
+					}
+					accepted = queue.offer(event);
+				}
+			}
+			if (accepted) {
+				published.inc();
+			} else {
+				dropped.inc();
+				logger.warn("A repository event has been discarded because the consumer queue is full. consumer={} type={}", name, event.type);
+			}
+		}
+
+		/**
+		 * Waits until the number of queued events is below the capacity
+		 * @return Boolean value to determine if there is room in the queue, false if the wait timed out or was interrupted
+		 */
+		private boolean awaitRoom() {
+			long deadline = System.currentTimeMillis() + BLOCK_TIMEOUT_MILLIS;
+			synchronized (room) {
+				while (queue.size() >= capacity) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return false;
+					}
+					try {
+						room.wait(remaining);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			List<RepositoryEvent> batch = new ArrayList<>(batchSize);
+			while (!isInterrupted()) {
+				try {
+					batch.add(queue.take());
+					queue.drainTo(batch, batchSize - 1);
+				} catch (InterruptedException ex) {
+					break;
+				}
+				if (policy == OverflowPolicy.BLOCK) {
+					synchronized (room) {
+						room.notifyAll();
+					}
+				}
+				try {
+					consumer.consume(batch);
+				} catch (Exception ex) {
+					failed.add(batch.size());
+					logger.error("An error has occurred trying to consume a batch of repository events. repository={} consumer={} size={}",
+							repository, name, batch.size(), ex);
+				}
+				batch.clear();
+			}
+		}
+	}
+}
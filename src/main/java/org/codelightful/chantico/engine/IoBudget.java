@@ -0,0 +1,52 @@
+package org.codelightful.chantico.engine;
+
+/**
+ * Token bucket that limits the number of bytes per second consumed by background work. The tokens are refilled at the
+ * configured rate up to one second of burst, and a caller that takes more tokens than available waits until the debt
+ * is paid, so concurrent callers share the rate fairly
+ */
+public class IoBudget {
+	/** Number of bytes per second (zero or negative for an unlimited budget) */
+	private volatile long bytesPerSecond;
+	/** Number of tokens available, negative when the budget is in debt */
+	private double available;
+	private long lastRefill = System.nanoTime();
+
+	/** @param bytesPerSecond Number of bytes per second (zero or negative for an unlimited budget) */
+	public IoBudget(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.available = Math.max(0, bytesPerSecond);
+	}
+
+	/** Changes the number of bytes per second, the callers already waiting keep their current wait */
+	public void setRate(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/** Obtains the number of bytes per second (zero or negative for an unlimited budget) */
+	public long getRate() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Takes a number of bytes from the budget, waiting until they are available
+	 * @param bytes Number of bytes to consume
+	 */
+	public void acquire(long bytes) throws InterruptedException {
+		long rate = bytesPerSecond;
+		if (rate <= 0 || bytes <= 0) {
+			return;
+		}
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			available = Math.min(rate, available + (now - lastRefill) * rate / 1e9);
+			lastRefill = now;
+			available -= bytes;
+			waitNanos = available < 0 ? (long) (-available * 1e9 / rate) : 0;
+		}
+		if (waitNanos > 0) {
+			Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+		}
+	}
+}
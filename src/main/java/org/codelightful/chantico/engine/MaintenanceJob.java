@@ -0,0 +1,198 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class of the tasks executed by the maintenance service. Every storage operation executed by a job consumes the
+ * shared I/O budget, and the files removed by a job are published as deleted events so the catalog and the metadata
+ * are updated as if they had been deleted by a client
+ */
+abstract class MaintenanceJob {
+	protected static final Logger logger = LoggerFactory.getLogger("maintenance");
+	/** Number of bytes charged to the budget by an operation that only touches the file system metadata */
+	private static final long METADATA_COST = 4096;
+	/** User reported in the events of the files removed by the jobs */
+	private static final String MAINTENANCE_USER = "maintenance";
+	/** Key of the root folder of the repository */
+	protected static final Path ROOT = Paths.get("");
+
+	/** Execution states of a job */
+	public enum State {
+		PENDING, RUNNING, COMPLETED, FAILED
+	}
+
+	private final String name;
+	protected final ArtifactRepository repository;
+	protected final Storage storage;
+	private final IoBudget budget;
+	private volatile State state = State.PENDING;
+	private volatile long startedOn;
+	private volatile long finishedOn;
+	private volatile String error;
+	private final AtomicLong scanned = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong freedBytes = new AtomicLong();
+
+	/**
+	 * @param name Name used to identify the job in the logs and the status
+	 * @param repository Repository to maintain
+	 * @param budget Budget consumed by the storage operations of the job
+	 */
+	MaintenanceJob(String name, ArtifactRepository repository, IoBudget budget) {
+		this.name = name;
+		this.repository = repository;
+		this.storage = repository.getStorage();
+		this.budget = budget;
+	}
+
+	/** Executes the work of the job */
+	protected abstract void execute() throws Exception;
+
+	/** Executes the job keeping track of its state, the errors are logged and reported in the status */
+	final void run() {
+		startedOn = System.currentTimeMillis();
+		state = State.RUNNING;
+		try {
+			execute();
+			state = State.COMPLETED;
+		} catch (InterruptedException ex) {
+			error = "interrupted";
+			state = State.FAILED;
+			Thread.currentThread().interrupt();
+		} catch (Exception ex) {
+			logger.error("A maintenance job has failed. job={} cause={}", name, ex.getMessage());
+			error = ex.getMessage();
+			state = State.FAILED;
+		} finally {
+			finishedOn = System.currentTimeMillis();
+		}
+		logger.info("Maintenance job finished. job={} state={} folders={} deleted={} freedBytes={} time={}ms", name, state,
+				scanned.get(), deleted.get(), freedBytes.get(), finishedOn - startedOn);
+	}
+
+	/**
+	 * Visits every folder of the repository below a folder, including the folder itself
+	 * @param folder Folder to start from (an empty path for the root)
+	 * @param visitor Visitor to invoke with the content of every folder
+	 */
+	protected void walk(Path folder, FolderVisitor visitor) throws Exception {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		budget.acquire(METADATA_COST);
+		List<Storage.Entry> entries = storage.list(folder);
+		scanned.incrementAndGet();
+		visitor.visit(folder, entries, isVersionFolder(folder, entries));
+		for (Storage.Entry entry : entries) {
+			if (entry.directory) {
+				walk(entry.key, visitor);
+			}
+		}
+	}
+
+	/**
+	 * Allows to determine if a folder holds the files of an artifact version, which happens when it contains a file
+	 * whose name starts with the artifact and the version (the folder names)
+	 */
+	private boolean isVersionFolder(Path folder, List<Storage.Entry> entries) {
+		if (folder.getNameCount() < 3) {
+			return false;
+		}
+		String prefix = folder.getParent().getFileName() + "-" + getBaseVersion(folder.getFileName().toString());
+		for (Storage.Entry entry : entries) {
+			if (!entry.directory && entry.key.getFileName().toString().startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Obtains a version without the snapshot suffix */
+	protected static String getBaseVersion(String version) {
+		return isSnapshot(version) ? version.substring(0, version.length() - "-SNAPSHOT".length()) : version;
+	}
+
+	/** Allows to determine if a version is a snapshot */
+	protected static boolean isSnapshot(String version) {
+		return version.endsWith("-SNAPSHOT");
+	}
+
+	/** Removes a file from the repository and publishes the deletion */
+	protected void delete(Storage.Entry entry) throws Exception {
+		budget.acquire(METADATA_COST);
+		if (storage.delete(entry.key)) {
+			deleted.incrementAndGet();
+			freedBytes.addAndGet(entry.size);
+			UsageService.getInstance().record(entry.key, -1, -entry.size);
+			logger.debug("A file has been removed by a maintenance job. job={} key={}", name, entry.key);
+			try {
+				ArtifactRequest request = ArtifactRequest.parse(entry.key.toString().replace(File.separatorChar, '/'));
+				repository.publishAndWait(RepositoryEvent.Type.DELETED, request, MAINTENANCE_USER, null);
+			} catch (IllegalArgumentException ex) {
+				// files outside of the artifact structure are not registered anywhere
+			}
+		}
+	}
+
+	/** Consumes the budget of an operation executed by a job without the helper methods */
+	protected void charge(long bytes) throws InterruptedException {
+		budget.acquire(METADATA_COST + bytes);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/** Obtains a snapshot of the state and progress of the job */
+	Status getStatus() {
+		Status status = new Status();
+		status.name = name;
+		status.state = state;
+		status.startedOn = startedOn;
+		status.finishedOn = finishedOn;
+		status.folders = scanned.get();
+		status.deleted = deleted.get();
+		status.freedBytes = freedBytes.get();
+		status.error = error;
+		return status;
+	}
+
+	/** Functional interface invoked with the content of every folder walked */
+	@FunctionalInterface
+	protected interface FolderVisitor {
+		/**
+		 * @param folder Relative path of the folder
+		 * @param entries Files and folders directly contained in the folder
+		 * @param versionFolder Determines if the folder holds the files of an artifact version
+		 */
+		void visit(Path folder, List<Storage.Entry> entries, boolean versionFolder) throws Exception;
+	}
+
+	/** State and progress of a job as reported by the API */
+	public static class Status {
+		public String name;
+		public State state;
+		/** Time in milliseconds the job started (zero if it has not started) */
+		public long startedOn;
+		/** Time in milliseconds the job finished (zero if it has not finished) */
+		public long finishedOn;
+		/** Number of folders scanned */
+		public long folders;
+		/** Number of files removed */
+		public long deleted;
+		/** Number of bytes of the files removed */
+		public long freedBytes;
+		/** Message of the error that stopped the job */
+		public String error;
+	}
+}
@@ -0,0 +1,167 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the maintenance jobs of the repository in the background: retention of the snapshot builds, removal of the
+ * unused versions and cleanup of the orphan files. The jobs run in parallel on low priority threads and share an I/O
+ * budget (maintenance.ioBytesPerSecond), so the maintenance never competes with the requests being served.
+ *
+ * A run is started every maintenance.intervalMinutes or on demand, and a new run is never started while another one
+ * is in progress
+ */
+public class MaintenanceService {
+	private static final Logger logger = LoggerFactory.getLogger("maintenance");
+	private static final String IO_BUDGET_KEY = "maintenance.ioBytesPerSecond";
+	private static final long DEFAULT_IO_BUDGET = 8L * 1024 * 1024;
+	private static MaintenanceService instance = new MaintenanceService();
+	private final IoBudget budget;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private ScheduledExecutorService scheduler;
+	private ExecutorService workers;
+	/** Jobs of the current or last run */
+	private volatile List<MaintenanceJob> jobs = Collections.emptyList();
+	private volatile long lastStart;
+	private volatile long lastEnd;
+
+	private MaintenanceService() {
+		Configuration configuration = Configuration.getInstance();
+		budget = new IoBudget(configuration.getLong(IO_BUDGET_KEY, DEFAULT_IO_BUDGET));
+		configuration.addListener((previous, current) -> {
+			if (current.isModified(previous, IO_BUDGET_KEY)) {
+				budget.setRate(current.getLong(IO_BUDGET_KEY, DEFAULT_IO_BUDGET));
+			}
+		});
+	}
+
+	public static MaintenanceService getInstance() {
+		return instance;
+	}
+
+	/** Starts the threads that execute the maintenance, unless it is disabled (maintenance.enabled) */
+	public synchronized void start() {
+		Configuration configuration = Configuration.getInstance();
+		if (scheduler != null || !configuration.getBoolean("maintenance.enabled", true)) {
+			return;
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(Math.max(1, configuration.getInt("maintenance.threads", 2)), runnable -> {
+			Thread thread = new Thread(runnable, "maintenance-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "maintenance-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1, configuration.getLong("maintenance.intervalMinutes", 60));
+		scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MINUTES);
+		logger.info("Maintenance scheduled. intervalMinutes={} ioBytesPerSecond={}", interval, budget.getRate());
+	}
+
+	/** Stops the maintenance threads, interrupting the jobs in progress */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			workers.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Starts a maintenance run in the background
+	 * @return Boolean value to determine if the run has been started, false if another run is in progress or the
+	 * maintenance is not started
+	 */
+	public synchronized boolean trigger() {
+		if (scheduler == null || running.get()) {
+			return false;
+		}
+		scheduler.execute(this::run);
+		return true;
+	}
+
+	/** Executes all the enabled jobs in parallel and waits until they finish */
+	private void run() {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<MaintenanceJob> runJobs = createJobs();
+			jobs = runJobs;
+			lastStart = System.currentTimeMillis();
+			lastEnd = 0;
+			logger.info("Maintenance run started. jobs={}", runJobs.size());
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (MaintenanceJob job : runJobs) {
+				futures.add(CompletableFuture.runAsync(job::run, workers));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+			lastEnd = System.currentTimeMillis();
+			logger.info("Maintenance run finished. time={}ms", lastEnd - lastStart);
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to execute the maintenance. cause={}", ex.getMessage());
+		} finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Creates the jobs enabled in the configuration: maintenance.snapshots.keep (builds kept for every snapshot
+	 * version, zero to keep all of them), maintenance.unused.days (days without use after which a snapshot version is
+	 * removed, zero to keep them, plus maintenance.unused.releases to remove release versions too) and
+	 * maintenance.orphans.enabled
+	 */
+	private List<MaintenanceJob> createJobs() {
+		Configuration configuration = Configuration.getInstance();
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		List<MaintenanceJob> result = new ArrayList<>();
+		int keep = configuration.getInt("maintenance.snapshots.keep", 10);
+		if (keep > 0) {
+			result.add(new SnapshotRetentionJob(repository, budget, keep));
+		}
+		long unusedDays = configuration.getLong("maintenance.unused.days", 0);
+		if (unusedDays > 0) {
+			result.add(new UnusedVersionPurgeJob(repository, budget, TimeUnit.DAYS.toMillis(unusedDays),
+					configuration.getBoolean("maintenance.unused.releases", false)));
+		}
+		if (configuration.getBoolean("maintenance.orphans.enabled", true)) {
+			long minAge = TimeUnit.MINUTES.toMillis(configuration.getLong("maintenance.orphans.minAgeMinutes", 60));
+			result.add(new OrphanCleanupJob(repository, budget, minAge));
+		}
+		return result;
+	}
+
+	/** Obtains the state of the maintenance and the progress of the jobs of the current or last run */
+	public Map<String, Object> getStatus() {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("enabled", scheduler != null);
+		status.put("running", running.get());
+		status.put("lastStart", lastStart);
+		status.put("lastEnd", lastEnd);
+		status.put("ioBytesPerSecond", budget.getRate());
+		List<MaintenanceJob.Status> jobStatus = new ArrayList<>();
+		for (MaintenanceJob job : jobs) {
+			jobStatus.add(job.getStatus());
+		}
+		status.put("jobs", jobStatus);
+		return status;
+	}
+}
@@ -0,0 +1,533 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.persistence.Operation;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Publishes a Maven repository index in the .index folder of the repository, so the IDEs and the indexer tools can
+ * download it to search the artifacts. The versions affected by the stored and deleted files are collected from the
+ * repository events and written every index.chunkIntervalMinutes as an incremental chunk with only their documents,
+ * keeping the last index.maxChunks chunks listed in the properties file. Every index.consolidateHours the full index is
+ * regenerated from the catalog on the same background thread, so the clients that are too far behind download a single
+ * file. The versions stored while the server was stopped are recovered from the catalog at startup.
+ *
+ * The index is only published when index.enabled is set
+ */
+public class MavenIndexService {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	private static MavenIndexService instance = new MavenIndexService();
+	/** Folder of the repository with the index files */
+	private static final Path INDEX_FOLDER = Paths.get(".index");
+	/** Base name of the index files */
+	private static final String INDEX_NAME = "nexus-maven-repository-index";
+	private static final Path FULL_INDEX = INDEX_FOLDER.resolve(INDEX_NAME + ".gz");
+	private static final Path PROPERTIES = INDEX_FOLDER.resolve(INDEX_NAME + ".properties");
+	private static final String PROPERTY_PREFIX = "nexus.index.";
+	/** Format of the timestamp of the properties file */
+	private static final String TIMESTAMP_FORMAT = "yyyyMMddHHmmss.SSS Z";
+	/** Extensions of the files that only describe another file, they are not documents of the index */
+	private static final String[] COMPANION_EXTENSIONS = { ".md5", ".sha1", ".sha256", ".sha512", ".asc" };
+	/** Timestamp and build number of the files of a snapshot build (for example 20200130.101520-3) */
+	private static final Pattern SNAPSHOT_BUILD = Pattern.compile("\\d{8}\\.\\d{6}-\\d+");
+	private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+	/** Versions changed since the last chunk keyed by their folder, with the keys of the files stored or deleted */
+	private final Map<Path, PendingVersion> pending = new LinkedHashMap<>();
+	private final AtomicBoolean consolidating = new AtomicBoolean();
+	private final Counter chunkPublications = MetricsRegistry.getInstance().counter("chantico_index_publications_total",
+			"Number of Maven index files published", "type", "chunk");
+	private final Counter fullPublications = MetricsRegistry.getInstance().counter("chantico_index_publications_total",
+			"Number of Maven index files published", "type", "full");
+	private volatile ScheduledExecutorService scheduler;
+	private volatile String chainId;
+	/** Numbers of the chunks listed in the properties, from the newest to the oldest */
+	private volatile List<Integer> chunks = new ArrayList<>();
+	private volatile long lastPublication;
+	private volatile long lastConsolidation;
+	private volatile String lastError;
+
+	public static MavenIndexService getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts publishing the index when index.enabled is set. The full index is generated right away when it does not
+	 * exist, otherwise the versions stored after the last publication are written in the next chunk
+	 */
+	public synchronized void start() {
+		Configuration configuration = Configuration.getInstance();
+		if (scheduler != null || !configuration.getBoolean("index.enabled", false)) {
+			return;
+		}
+		Storage storage = ArtifactRepository.getInstance().getStorage();
+		try {
+			loadProperties(storage);
+		} catch (Exception ex) {
+			logger.error("The properties of the Maven index could not be read, a new index will be generated. cause={}", ex.getMessage());
+			chainId = null;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "maven-index");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		if (chainId == null) {
+			chainId = "chantico-" + System.currentTimeMillis();
+			chunks = new ArrayList<>();
+			consolidate();
+		} else {
+			scheduler.execute(this::recover);
+		}
+		long interval = Math.max(1, configuration.getLong("index.chunkIntervalMinutes", 10));
+		scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MINUTES);
+		logger.info("Maven index publication scheduled. chainId={} chunks={} intervalMinutes={}", chainId, chunks.size(), interval);
+	}
+
+	/** Stops publishing the index, the pending changes are written in the next execution from the catalog */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Requests the regeneration of the full index in the background
+	 * @return Boolean value to determine if the regeneration has been requested, false if it is disabled or running
+	 */
+	public synchronized boolean consolidate() {
+		if (scheduler == null || !consolidating.compareAndSet(false, true)) {
+			return false;
+		}
+		scheduler.execute(() -> {
+			try {
+				publishFull();
+			} catch (Exception ex) {
+				logger.error("The full Maven index could not be published. cause={}", ex.getMessage());
+				lastError = ex.getMessage();
+			} finally {
+				consolidating.set(false);
+			}
+		});
+		return true;
+	}
+
+	/** Obtains the state of the publication of the index */
+	public Map<String, Object> getStatus() {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("enabled", scheduler != null);
+		status.put("chainId", chainId);
+		List<Integer> listed = chunks;
+		status.put("lastIncremental", listed.isEmpty() ? null : listed.get(0));
+		status.put("chunks", listed.size());
+		synchronized (pending) {
+			status.put("pendingVersions", pending.size());
+		}
+		status.put("consolidating", consolidating.get());
+		status.put("lastPublication", lastPublication);
+		status.put("lastConsolidation", lastConsolidation);
+		status.put("lastError", lastError);
+		return status;
+	}
+
+	/** Collects the versions affected by a batch of repository events, executed by the event bus */
+	void consume(List<RepositoryEvent> events) {
+		if (scheduler == null) {
+			return;
+		}
+		synchronized (pending) {
+			for (RepositoryEvent event : events) {
+				ArtifactRequest request = event.request;
+				if ((event.type == RepositoryEvent.Type.STORED || event.type == RepositoryEvent.Type.DELETED)
+						&& request.version != null && request.group != null) {
+					pending.computeIfAbsent(request.path.getParent(), key -> new PendingVersion(request.group, request.artifact,
+							request.version)).touched.add(request.fileName);
+				}
+			}
+		}
+	}
+
+	/** Internal method executed periodically to write the pending changes and to consolidate the index when it is due */
+	private void run() {
+		try {
+			publishChunk();
+			long consolidateMillis = TimeUnit.HOURS.toMillis(Math.max(1, Configuration.getInstance().getLong("index.consolidateHours", 24)));
+			if (System.currentTimeMillis() - lastConsolidation >= consolidateMillis && consolidating.compareAndSet(false, true)) {
+				try {
+					publishFull();
+				} finally {
+					consolidating.set(false);
+				}
+			}
+			lastError = null;
+		} catch (Exception ex) {
+			logger.error("The Maven index could not be published. cause={}", ex.getMessage());
+			lastError = ex.getMessage();
+		}
+	}
+
+	/** Internal method to queue the versions stored in the catalog after the last publication */
+	private void recover() {
+		int[] files = new int[1];
+		synchronized (pending) {
+			Operation.Query.from("SELECT catalog_group, catalog_artifact, catalog_version, catalog_path FROM chantico_catalog "
+					+ "WHERE catalog_repository = ? AND catalog_stored_on > ?", ArtifactRepository.getInstance().getName(),
+					new Timestamp(lastPublication)).execute(rs -> {
+				String group = rs.getString(1);
+				String artifact = rs.getString(2);
+				String version = rs.getString(3);
+				Path path = Paths.get(rs.getString(4));
+				if (version != null && path.getParent() != null) {
+					pending.computeIfAbsent(path.getParent(), key -> new PendingVersion(group, artifact, version))
+							.touched.add(path.getFileName().toString());
+					files[0]++;
+				}
+			});
+		}
+		logger.info("Files stored after the last publication of the Maven index queued. files={}", files[0]);
+	}
+
+	/** Writes the documents of the versions changed since the last chunk as a new chunk */
+	private void publishChunk() throws Exception {
+		Map<Path, PendingVersion> changes;
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			changes = new LinkedHashMap<>(pending);
+			pending.clear();
+		}
+		long startTime = System.currentTimeMillis();
+		Storage storage = ArtifactRepository.getInstance().getStorage();
+		List<Integer> listed = chunks;
+		int number = listed.isEmpty() ? 1 : listed.get(0) + 1;
+		int documents;
+		try (Storage.Upload upload = storage.create(INDEX_FOLDER.resolve(INDEX_NAME + "." + number + ".gz"))) {
+			MavenIndexWriter writer = new MavenIndexWriter(upload.getOutputStream(), startTime, ArtifactRepository.getInstance().getName());
+			for (Map.Entry<Path, PendingVersion> entry : changes.entrySet()) {
+				PendingVersion version = entry.getValue();
+				Set<String> current = new HashSet<>();
+				for (MavenIndexWriter.Artifact artifact : describe(storage, version.group, version.artifact, version.version,
+						storage.list(entry.getKey()))) {
+					writer.writeArtifact(artifact, startTime);
+					current.add(artifact.getUinfo());
+				}
+				for (String fileName : version.touched) {
+					String[] parts = parseFileName(version.artifact, version.version, fileName);
+					if (parts != null) {
+						String uinfo = new MavenIndexWriter.Artifact(version.group, version.artifact, version.version, parts[0],
+								parts[1]).getUinfo();
+						if (current.add(uinfo)) {
+							writer.writeDeletion(uinfo, startTime);
+						}
+					}
+				}
+			}
+			writer.close();
+			documents = writer.getDocuments();
+			upload.publish();
+		} catch (Exception ex) {
+			// the versions are written again in the next chunk
+			synchronized (pending) {
+				for (Map.Entry<Path, PendingVersion> entry : changes.entrySet()) {
+					pending.merge(entry.getKey(), entry.getValue(), PendingVersion::merge);
+				}
+			}
+			throw ex;
+		}
+		List<Integer> updated = new ArrayList<>();
+		updated.add(number);
+		int maxChunks = Math.max(1, Configuration.getInstance().getInt("index.maxChunks", 30));
+		for (Integer chunk : listed) {
+			if (updated.size() < maxChunks) {
+				updated.add(chunk);
+			} else {
+				storage.delete(INDEX_FOLDER.resolve(INDEX_NAME + "." + chunk + ".gz"));
+			}
+		}
+		chunks = updated;
+		lastPublication = startTime;
+		writeProperties(storage);
+		chunkPublications.inc();
+		logger.info("Maven index chunk published. number={} versions={} documents={} time={}ms", number, changes.size(),
+				documents, System.currentTimeMillis() - startTime);
+	}
+
+	/** Regenerates the full index from the catalog */
+	private void publishFull() throws Exception {
+		long startTime = System.currentTimeMillis();
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		Storage storage = repository.getStorage();
+		int documents;
+		try (Storage.Upload upload = storage.create(FULL_INDEX)) {
+			MavenIndexWriter writer = new MavenIndexWriter(upload.getOutputStream(), startTime, repository.getName());
+			List<Storage.Entry> files = new ArrayList<>();
+			String[] current = new String[3];
+			Operation.Query.from("SELECT catalog_group, catalog_artifact, catalog_version, catalog_path, catalog_size, catalog_stored_on "
+					+ "FROM chantico_catalog WHERE catalog_repository = ? AND catalog_version IS NOT NULL "
+					+ "ORDER BY catalog_group, catalog_artifact, catalog_version", repository.getName()).execute(rs -> {
+				String group = rs.getString(1);
+				String artifact = rs.getString(2);
+				String version = rs.getString(3);
+				if (!group.equals(current[0]) || !artifact.equals(current[1]) || !version.equals(current[2])) {
+					writeVersion(writer, storage, current, files, startTime);
+					current[0] = group;
+					current[1] = artifact;
+					current[2] = version;
+				}
+				files.add(new Storage.Entry(Paths.get(rs.getString(4)), rs.getLong(5), rs.getTimestamp(6).getTime(), false));
+			});
+			writeVersion(writer, storage, current, files, startTime);
+			writer.close();
+			documents = writer.getDocuments();
+			upload.publish();
+		}
+		lastConsolidation = startTime;
+		if (lastPublication < startTime) {
+			lastPublication = startTime;
+		}
+		writeProperties(storage);
+		fullPublications.inc();
+		logger.info("Full Maven index published. documents={} time={}ms", documents, System.currentTimeMillis() - startTime);
+	}
+
+	/** Internal method to write the documents of the files of a version collected from the catalog */
+	private static void writeVersion(MavenIndexWriter writer, Storage storage, String[] version, List<Storage.Entry> files,
+			long modified) throws IOException {
+		if (files.isEmpty()) {
+			return;
+		}
+		for (MavenIndexWriter.Artifact artifact : describe(storage, version[0], version[1], version[2], files)) {
+			writer.writeArtifact(artifact, modified);
+		}
+		files.clear();
+	}
+
+	/**
+	 * Obtains the documents of the files of a version. The main file is the one without classifier that is not the pom,
+	 * or the pom when there is no other, and its extension is used as packaging. For the snapshots the latest build of
+	 * every file is described
+	 * @param storage Backend of the repository, used to read the SHA-1 checksums of the files
+	 * @param files Files of the version folder
+	 */
+	static List<MavenIndexWriter.Artifact> describe(Storage storage, String group, String artifact, String version,
+			List<Storage.Entry> files) throws IOException {
+		Set<String> names = new HashSet<>();
+		for (Storage.Entry file : files) {
+			if (!file.directory) {
+				names.add(file.key.getFileName().toString());
+			}
+		}
+		// latest file keyed by classifier|extension, the main files have an empty classifier
+		Map<String, Storage.Entry> selected = new LinkedHashMap<>();
+		for (Storage.Entry file : files) {
+			String fileName = file.key.getFileName().toString();
+			if (file.directory || isCompanion(fileName)) {
+				continue;
+			}
+			String[] parts = parseFileName(artifact, version, fileName);
+			if (parts != null) {
+				String key = (parts[0] == null ? "" : parts[0]) + "|" + parts[1];
+				Storage.Entry previous = selected.get(key);
+				if (previous == null || file.lastModified > previous.lastModified) {
+					selected.put(key, file);
+				}
+			}
+		}
+		String mainKey = null;
+		boolean sources = false;
+		boolean javadoc = false;
+		for (String key : selected.keySet()) {
+			if (mainKey == null && key.startsWith("|") && !key.equals("|pom")) {
+				mainKey = key;
+			}
+			sources |= key.startsWith("sources|");
+			javadoc |= key.startsWith("javadoc|");
+		}
+		if (mainKey == null && selected.containsKey("|pom")) {
+			mainKey = "|pom";
+		}
+		List<MavenIndexWriter.Artifact> result = new ArrayList<>();
+		for (Map.Entry<String, Storage.Entry> entry : selected.entrySet()) {
+			String key = entry.getKey();
+			if (key.startsWith("|") && !key.equals(mainKey)) {
+				continue;
+			}
+			int separator = key.indexOf('|');
+			Storage.Entry file = entry.getValue();
+			String fileName = file.key.getFileName().toString();
+			MavenIndexWriter.Artifact document = new MavenIndexWriter.Artifact(group, artifact, version,
+					separator == 0 ? null : key.substring(0, separator), key.substring(separator + 1));
+			document.packaging = mainKey == null ? null : mainKey.substring(1);
+			document.lastModified = file.lastModified;
+			document.size = file.size;
+			document.sources = sources;
+			document.javadoc = javadoc;
+			document.signature = names.contains(fileName + ".asc");
+			if (names.contains(fileName + ".sha1")) {
+				document.sha1 = readChecksum(storage, file.key.resolveSibling(fileName + ".sha1"));
+			}
+			result.add(document);
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the name of a file of a version in its classifier and extension
+	 * @return Array with the classifier (null for the main file) and the extension, or null if the file does not belong
+	 *         to the version
+	 */
+	static String[] parseFileName(String artifact, String version, String fileName) {
+		String prefix = artifact + "-";
+		if (!fileName.startsWith(prefix)) {
+			return null;
+		}
+		String remaining = fileName.substring(prefix.length());
+		if (remaining.startsWith(version)) {
+			remaining = remaining.substring(version.length());
+		} else if (version.endsWith(SNAPSHOT_SUFFIX)
+				&& remaining.startsWith(version.substring(0, version.length() - SNAPSHOT_SUFFIX.length() + 1))) {
+			Matcher matcher = SNAPSHOT_BUILD.matcher(remaining);
+			matcher.region(version.length() - SNAPSHOT_SUFFIX.length() + 1, remaining.length());
+			if (!matcher.lookingAt()) {
+				return null;
+			}
+			remaining = remaining.substring(matcher.end());
+		} else {
+			return null;
+		}
+		if (remaining.length() > 1 && remaining.charAt(0) == '.') {
+			return new String[]{null, remaining.substring(1)};
+		}
+		int dot = remaining.indexOf('.');
+		if (remaining.startsWith("-") && dot > 1 && dot < remaining.length() - 1) {
+			return new String[]{remaining.substring(1, dot), remaining.substring(dot + 1)};
+		}
+		return null;
+	}
+
+	private static boolean isCompanion(String fileName) {
+		for (String extension : COMPANION_EXTENSIONS) {
+			if (fileName.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Reads a checksum file, which may include the file name after the hexadecimal value */
+	private static String readChecksum(Storage storage, Path key) {
+		try (InputStream input = storage.openStream(key)) {
+			byte[] buffer = new byte[128];
+			int length = 0;
+			int read;
+			while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) >= 0) {
+				length += read;
+			}
+			String checksum = new String(buffer, 0, length, StandardCharsets.US_ASCII).trim().split("\\s+")[0].toLowerCase();
+			return checksum.matches("[0-9a-f]{40}") ? checksum : null;
+		} catch (IOException ex) {
+			logger.debug("A checksum file could not be read. key={} cause={}", key, ex.getMessage());
+			return null;
+		}
+	}
+
+	/** Internal method to read the chain, the chunks and the last publication from the properties file */
+	private void loadProperties(Storage storage) throws IOException, ParseException {
+		Storage.Entry entry = storage.stat(PROPERTIES);
+		Storage.Entry full = storage.stat(FULL_INDEX);
+		if (entry == null || full == null) {
+			chainId = null;
+			return;
+		}
+		Properties properties = new Properties();
+		try (InputStream input = storage.openStream(PROPERTIES)) {
+			properties.load(input);
+		}
+		List<Integer> listed = new ArrayList<>();
+		for (int idx = 0; properties.getProperty(PROPERTY_PREFIX + "incremental-" + idx) != null; idx++) {
+			listed.add(Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "incremental-" + idx)));
+		}
+		chunks = listed;
+		lastPublication = createTimestampFormat().parse(properties.getProperty(PROPERTY_PREFIX + "timestamp")).getTime();
+		lastConsolidation = full.lastModified;
+		chainId = properties.getProperty(PROPERTY_PREFIX + "chain-id");
+	}
+
+	/** Internal method to replace the properties file, which is what the clients read first */
+	private void writeProperties(Storage storage) throws IOException {
+		List<Integer> listed = chunks;
+		StringBuilder content = new StringBuilder();
+		content.append(PROPERTY_PREFIX).append("id=").append(ArtifactRepository.getInstance().getName()).append('\n');
+		content.append(PROPERTY_PREFIX).append("chain-id=").append(chainId).append('\n');
+		content.append(PROPERTY_PREFIX).append("timestamp=").append(createTimestampFormat().format(new Date(lastPublication))).append('\n');
+		if (!listed.isEmpty()) {
+			content.append(PROPERTY_PREFIX).append("last-incremental=").append(listed.get(0)).append('\n');
+		}
+		for (int idx = 0; idx < listed.size(); idx++) {
+			content.append(PROPERTY_PREFIX).append("incremental-").append(idx).append('=').append(listed.get(idx)).append('\n');
+		}
+		try (Storage.Upload upload = storage.create(PROPERTIES)) {
+			upload.getOutputStream().write(content.toString().getBytes(StandardCharsets.ISO_8859_1));
+			upload.publish();
+		}
+	}
+
+	private static SimpleDateFormat createTimestampFormat() {
+		SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	/** Version changed since the last chunk */
+	private static class PendingVersion {
+		private final String group;
+		private final String artifact;
+		private final String version;
+		/** Names of the files stored or deleted, the ones that no longer exist are written as deletions */
+		private final Set<String> touched = new LinkedHashSet<>();
+
+		private PendingVersion(String group, String artifact, String version) {
+			this.group = group;
+			this.artifact = artifact;
+			this.version = version;
+		}
+
+		private static PendingVersion merge(PendingVersion current, PendingVersion previous) {
+			current.touched.addAll(previous.touched);
+			return current;
+		}
+	}
+}
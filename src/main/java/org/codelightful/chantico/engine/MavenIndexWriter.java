@@ -0,0 +1,169 @@
+package org.codelightful.chantico.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the documents of a Maven repository index in the transfer format read by the IDEs and the indexer tools
+ * (nexus-maven-repository-index.gz): a gzip stream with a version byte, the timestamp of the index and every document
+ * as its number of fields followed by the flags, name and value of every field. The descriptor document is written
+ * first and the lists of groups of the artifacts written are appended when the writer is closed
+ */
+class MavenIndexWriter implements Closeable {
+	/** Version of the transfer format */
+	private static final int FORMAT_VERSION = 1;
+	/** Version of the index reported in the descriptor */
+	private static final String INDEX_VERSION = "1.0";
+	private static final int FLAG_INDEXED = 1;
+	private static final int FLAG_STORED = 4;
+	/** Separator of the values packed in a single field */
+	private static final String SEPARATOR = "|";
+	/** Value used for the classifiers and packagings that are not present */
+	static final String NOT_AVAILABLE = "NA";
+	private final GZIPOutputStream compressed;
+	private final DataOutputStream output;
+	private final TreeSet<String> groups = new TreeSet<>();
+	private final TreeSet<String> rootGroups = new TreeSet<>();
+	private int documents;
+
+	/**
+	 * @param output Stream to write the index to, it is left open when the writer is closed
+	 * @param timestamp Time in milliseconds of the index
+	 * @param repository Identifier of the repository reported in the descriptor
+	 */
+	MavenIndexWriter(OutputStream output, long timestamp, String repository) throws IOException {
+		this.compressed = new GZIPOutputStream(output, 8192);
+		this.output = new DataOutputStream(new BufferedOutputStream(compressed, 64 * 1024));
+		this.output.writeByte(FORMAT_VERSION);
+		this.output.writeLong(timestamp);
+		this.output.writeInt(2);
+		writeField("DESCRIPTOR", "NexusIndex", FLAG_INDEXED | FLAG_STORED);
+		writeField("IDXINFO", INDEX_VERSION + SEPARATOR + repository, FLAG_STORED);
+	}
+
+	/**
+	 * Writes the document of an artifact file
+	 * @param artifact Description of the file
+	 * @param modified Time in milliseconds when the document has been generated
+	 */
+	void writeArtifact(Artifact artifact, long modified) throws IOException {
+		output.writeInt(artifact.sha1 == null ? 3 : 4);
+		writeField("u", artifact.getUinfo(), FLAG_INDEXED | FLAG_STORED);
+		writeField("m", String.valueOf(modified), FLAG_STORED);
+		writeField("i", artifact.getInfo(), FLAG_STORED);
+		if (artifact.sha1 != null) {
+			writeField("1", artifact.sha1, FLAG_INDEXED | FLAG_STORED);
+		}
+		groups.add(artifact.group);
+		int separator = artifact.group.indexOf('.');
+		rootGroups.add(separator < 0 ? artifact.group : artifact.group.substring(0, separator));
+		documents++;
+	}
+
+	/**
+	 * Writes the document that removes an artifact file from the index of the clients
+	 * @param uinfo Unique key of the file (see {@link Artifact#getUinfo()})
+	 * @param modified Time in milliseconds of the deletion
+	 */
+	void writeDeletion(String uinfo, long modified) throws IOException {
+		output.writeInt(2);
+		writeField("del", uinfo, FLAG_INDEXED | FLAG_STORED);
+		writeField("m", String.valueOf(modified), FLAG_STORED);
+		documents++;
+	}
+
+	/** Obtains the number of artifact and deletion documents written */
+	int getDocuments() {
+		return documents;
+	}
+
+	/** Writes the lists of groups and finishes the gzip stream */
+	@Override
+	public void close() throws IOException {
+		output.writeInt(2);
+		writeField("allGroups", "allGroups", FLAG_INDEXED | FLAG_STORED);
+		writeField("allGroupsList", String.join(SEPARATOR, groups), FLAG_STORED);
+		output.writeInt(2);
+		writeField("rootGroups", "rootGroups", FLAG_INDEXED | FLAG_STORED);
+		writeField("rootGroupsList", String.join(SEPARATOR, rootGroups), FLAG_STORED);
+		output.flush();
+		compressed.finish();
+		compressed.flush();
+	}
+
+	private void writeField(String name, String value, int flags) throws IOException {
+		output.writeByte(flags);
+		output.writeUTF(name);
+		writeString(value);
+	}
+
+	/** Writes a value in modified UTF-8 preceded by its length as an integer, since the values may exceed 64 KB */
+	private void writeString(String value) throws IOException {
+		int length = 0;
+		for (int idx = 0; idx < value.length(); idx++) {
+			char character = value.charAt(idx);
+			length += character >= 0x0001 && character <= 0x007F ? 1 : character > 0x07FF ? 3 : 2;
+		}
+		byte[] bytes = new byte[length];
+		int position = 0;
+		for (int idx = 0; idx < value.length(); idx++) {
+			char character = value.charAt(idx);
+			if (character >= 0x0001 && character <= 0x007F) {
+				bytes[position++] = (byte) character;
+			} else if (character > 0x07FF) {
+				bytes[position++] = (byte) (0xE0 | ((character >> 12) & 0x0F));
+				bytes[position++] = (byte) (0x80 | ((character >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (character & 0x3F));
+			} else {
+				bytes[position++] = (byte) (0xC0 | ((character >> 6) & 0x1F));
+				bytes[position++] = (byte) (0x80 | (character & 0x3F));
+			}
+		}
+		output.writeInt(length);
+		output.write(bytes);
+	}
+
+	/** Artifact file described by a document of the index */
+	static class Artifact {
+		final String group;
+		final String artifact;
+		final String version;
+		/** Classifier of the file or null for the main file */
+		final String classifier;
+		final String extension;
+		/** Packaging of the version (the extension of its main file) */
+		String packaging;
+		long lastModified;
+		long size;
+		/** Hexadecimal SHA-1 checksum of the file or null if it is not known */
+		String sha1;
+		boolean sources;
+		boolean javadoc;
+		boolean signature;
+
+		Artifact(String group, String artifact, String version, String classifier, String extension) {
+			this.group = group;
+			this.artifact = artifact;
+			this.version = version;
+			this.classifier = classifier;
+			this.extension = extension;
+		}
+
+		/** Obtains the unique key of the file, the extension is only part of it for the classified files */
+		String getUinfo() {
+			return group + SEPARATOR + artifact + SEPARATOR + version + SEPARATOR
+					+ (classifier == null ? NOT_AVAILABLE : classifier + SEPARATOR + extension);
+		}
+
+		/** Obtains the packed details of the file: packaging, modification, size, availability of the companions and extension */
+		String getInfo() {
+			return (packaging == null ? NOT_AVAILABLE : packaging) + SEPARATOR + lastModified + SEPARATOR + size + SEPARATOR
+					+ (sources ? 1 : 0) + SEPARATOR + (javadoc ? 1 : 0) + SEPARATOR + (signature ? 1 : 0) + SEPARATOR + extension;
+		}
+	}
+}
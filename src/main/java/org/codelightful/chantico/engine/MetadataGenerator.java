@@ -0,0 +1,180 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Regenerates the artifact level maven-metadata.xml files from the version folders available in the repository. It is
+ * executed from the repository events when a version is deleted or when a version that is not listed in the metadata
+ * is stored (clients that deploy their own metadata overwrite the generated file)
+ */
+class MetadataGenerator {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	/** Name of the metadata file */
+	private static final String METADATA_FILE = "maven-metadata.xml";
+	/** Backend that keeps the content of the repository */
+	private final Storage storage;
+
+	MetadataGenerator(Storage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Regenerates the metadata of the artifacts affected by a batch of events. Every artifact is regenerated once
+	 * no matter how many events of the batch it has
+	 */
+	void consume(List<RepositoryEvent> events) throws Exception {
+		Map<Path, ArtifactRequest> artifactFolders = new LinkedHashMap<>();
+		for (RepositoryEvent event : events) {
+			ArtifactRequest request = event.request;
+			// a versioned file without a group does not follow the repository layout and has no artifact metadata
+			if (request.version == null || request.group == null || request.artifact == null) {
+				continue;
+			}
+			Path artifactFolder = request.path.getParent().getParent();
+			if (event.type == RepositoryEvent.Type.DELETED
+					|| (event.type == RepositoryEvent.Type.STORED && request.fileName.endsWith(".pom")
+					&& !isListed(artifactFolder.resolve(METADATA_FILE), request.version))) {
+				artifactFolders.put(artifactFolder, request);
+			}
+		}
+		for (Map.Entry<Path, ArtifactRequest> entry : artifactFolders.entrySet()) {
+			generate(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/** Allows to determine if a version is listed in an existing metadata file */
+	private boolean isListed(Path metadataFile, String version) throws Exception {
+		Storage.Entry entry = storage.stat(metadataFile);
+		if (entry == null || entry.directory) {
+			return false;
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream((int) entry.size);
+		try (InputStream input = storage.openStream(metadataFile)) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				content.write(buffer, 0, read);
+			}
+		}
+		return new String(content.toByteArray(), StandardCharsets.UTF_8).contains("<version>" + version + "</version>");
+	}
+
+	/**
+	 * Writes the metadata file and its checksums for an artifact, or removes them when no version is left
+	 * @param artifactFolder Folder of the artifact
+	 * @param request Any request for the artifact, used to obtain the group and artifact identifiers
+	 */
+	private void generate(Path artifactFolder, ArtifactRequest request) throws Exception {
+		List<String> versions = getVersions(artifactFolder);
+		Path metadataFile = artifactFolder.resolve(METADATA_FILE);
+		if (versions.isEmpty()) {
+			delete(metadataFile);
+			delete(artifactFolder.resolve(METADATA_FILE + ".md5"));
+			delete(artifactFolder.resolve(METADATA_FILE + ".sha1"));
+			logger.debug("The metadata of an artifact without versions has been removed. group={} artifact={}", request.group, request.artifact);
+			return;
+		}
+
+		String release = null;
+		for (String version : versions) {
+			if (!version.endsWith("-SNAPSHOT")) {
+				release = version;
+			}
+		}
+		SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyyMMddHHmmss");
+		timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+		xml.append("  <groupId>").append(request.group).append("</groupId>\n");
+		xml.append("  <artifactId>").append(request.artifact).append("</artifactId>\n");
+		xml.append("  <versioning>\n");
+		xml.append("    <latest>").append(versions.get(versions.size() - 1)).append("</latest>\n");
+		if (release != null) {
+			xml.append("    <release>").append(release).append("</release>\n");
+		}
+		xml.append("    <versions>\n");
+		for (String version : versions) {
+			xml.append("      <version>").append(version).append("</version>\n");
+		}
+		xml.append("    </versions>\n");
+		xml.append("    <lastUpdated>").append(timestampFormat.format(new Date())).append("</lastUpdated>\n");
+		xml.append("  </versioning>\n</metadata>\n");
+
+		byte[] content = xml.toString().getBytes(StandardCharsets.UTF_8);
+		write(artifactFolder.resolve(METADATA_FILE + ".md5"), checksum("MD5", content));
+		write(artifactFolder.resolve(METADATA_FILE + ".sha1"), checksum("SHA-1", content));
+		write(metadataFile, content);
+		logger.debug("The metadata of an artifact has been regenerated. group={} artifact={} versions={}", request.group, request.artifact, versions.size());
+	}
+
+	/**
+	 * Obtains the versions of an artifact ordered by the time they were first stored. A folder is considered a version
+	 * when it contains at least one file
+	 */
+	private List<String> getVersions(Path artifactFolder) throws Exception {
+		Map<String, Long> versions = new LinkedHashMap<>();
+		for (Storage.Entry versionFolder : storage.list(artifactFolder)) {
+			if (!versionFolder.directory) {
+				continue;
+			}
+			long firstStored = Long.MAX_VALUE;
+			for (Storage.Entry file : storage.list(versionFolder.key)) {
+				if (!file.directory) {
+					firstStored = Math.min(firstStored, file.lastModified);
+				}
+			}
+			if (firstStored != Long.MAX_VALUE) {
+				versions.put(versionFolder.key.getFileName().toString(), firstStored);
+			}
+		}
+		List<String> result = new ArrayList<>(versions.keySet());
+		result.sort(Comparator.comparing(versions::get));
+		return result;
+	}
+
+	/** Generates the hexadecimal checksum of a content */
+	private byte[] checksum(String algorithm, byte[] content) throws Exception {
+		byte[] digest = MessageDigest.getInstance(algorithm).digest(content);
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte value : digest) {
+			hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+		}
+		return hex.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/** Replaces the content of a file atomically, so clients never read a partially written file */
+	private void write(Path file, byte[] content) throws Exception {
+		try (Storage.Upload upload = storage.create(file)) {
+			upload.getOutputStream().write(content);
+			Storage.Entry previous = storage.stat(file);
+			upload.publish();
+			UsageService.getInstance().record(file, previous == null ? 1 : 0, content.length - (previous == null ? 0 : previous.size));
+		}
+	}
+
+	/** Removes a file, updating the usage of the repository */
+	private void delete(Path file) throws Exception {
+		Storage.Entry entry = storage.stat(file);
+		if (entry != null && !entry.directory && storage.delete(file)) {
+			UsageService.getInstance().record(file, -1, -entry.size);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.persistence.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the repository as a read-only mirror of a primary instance (mirror.primary, the base URL of the primary). The
+ * change feed of the primary is read incrementally and the files stored there are downloaded in parallel
+ * (mirror.parallelism), so the reads are served locally; a file that is not available locally yet is downloaded from
+ * the primary when it is requested. The position of the last change applied is kept in the chantico_replication
+ * table, so the mirror resumes from it after a restart.
+ *
+ * The primary has to enable its feed (replication.feed.enabled) and the mirror sends the token configured in
+ * mirror.token when the primary requires one
+ */
+public class MirrorService {
+	private static final Logger logger = LoggerFactory.getLogger("replication");
+	private static MirrorService instance = new MirrorService();
+	/** Name of the user of the repository events published for the files downloaded from the primary */
+	private static final String MIRROR_USER = "mirror";
+	/** Maximum time to wait between the retries of a feed page that has failed */
+	private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	/** Client of the primary, null when the repository is not a mirror */
+	private volatile PeerClient primary;
+	private ExecutorService fetchers;
+	private Thread thread;
+	private volatile boolean running;
+	/** Identifier of the last change of the primary applied */
+	private volatile long position;
+	/** Identifier of the last change of the primary when the feed was read */
+	private volatile long primaryLastChange;
+	private volatile long lastFetch;
+	private volatile String lastError;
+	private final Counter fetchedFiles = MetricsRegistry.getInstance().counter("chantico_mirror_files_total",
+			"Number of changes of the primary applied by the mirror", "result", "applied");
+	private final Counter failedFiles = MetricsRegistry.getInstance().counter("chantico_mirror_files_total",
+			"Number of changes of the primary applied by the mirror", "result", "failed");
+	private final Counter fallbackHits = MetricsRegistry.getInstance().counter("chantico_mirror_fallback_total",
+			"Number of files not available in the mirror requested to the primary", "result", "found");
+	private final Counter fallbackMisses = MetricsRegistry.getInstance().counter("chantico_mirror_fallback_total",
+			"Number of files not available in the mirror requested to the primary", "result", "missing");
+
+	public static MirrorService getInstance() {
+		return instance;
+	}
+
+	/** Allows to determine if the repository is a read-only mirror */
+	public boolean isEnabled() {
+		return primary != null;
+	}
+
+	/** Starts reading the change feed of the primary, nothing is done when mirror.primary is not configured */
+	public synchronized void start() {
+		Configuration configuration = Configuration.getInstance();
+		String primaryUrl = configuration.getString("mirror.primary", "").trim();
+		if (running || primaryUrl.isEmpty()) {
+			return;
+		}
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		int timeoutMillis = (int) TimeUnit.SECONDS.toMillis(configuration.getInt("mirror.timeoutSeconds", 30));
+		PeerClient client = new PeerClient(primaryUrl, repository.getName(), timeoutMillis, configuration.getString("mirror.token", null));
+		int batchSize = Math.max(1, configuration.getInt("mirror.batchSize", 500));
+		int parallelism = Math.max(1, configuration.getInt("mirror.parallelism", 4));
+		long pollMillis = Math.max(10, configuration.getLong("mirror.pollMillis", 1000));
+		Operation.Query.from("SELECT replication_position FROM chantico_replication WHERE replication_repository = ? "
+				+ "AND replication_peer = ?", repository.getName(), client.getUrl()).execute(rs -> position = rs.getLong(1));
+		AtomicInteger threadCount = new AtomicInteger();
+		fetchers = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread fetcher = new Thread(runnable, "mirror-fetch-" + threadCount.incrementAndGet());
+			fetcher.setDaemon(true);
+			return fetcher;
+		});
+		MetricsRegistry.getInstance().gauge("chantico_mirror_lag_changes", "Number of changes of the primary not applied by the mirror",
+				() -> Math.max(0, primaryLastChange - position));
+		primary = client;
+		running = true;
+		thread = new Thread(() -> follow(batchSize, parallelism, pollMillis), "mirror-feed");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Mirror started. primary={} position={}", client.getUrl(), position);
+	}
+
+	/** Stops reading the change feed, the repository is still a read-only mirror */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		thread.interrupt();
+		fetchers.shutdownNow();
+	}
+
+	/** Obtains the state of the mirror or null if the repository is not a mirror */
+	public Map<String, Object> getStatus() {
+		PeerClient client = primary;
+		if (client == null) {
+			return null;
+		}
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("primary", client.getUrl());
+		status.put("position", position);
+		status.put("primaryLastChange", primaryLastChange);
+		status.put("lastFetch", lastFetch);
+		status.put("lastError", lastError);
+		return status;
+	}
+
+	/**
+	 * Downloads from the primary a file that is not available in the mirror
+	 * @param request Object with the details for the artifact
+	 * @return Boolean value to determine if the file has been downloaded, false if the primary does not have it either
+	 */
+	public boolean fetch(ArtifactRequest request) {
+		PeerClient client = primary;
+		if (client == null) {
+			return false;
+		}
+		String path = request.path.toString().replace(File.separatorChar, '/');
+		try {
+			if (download(client, request, path)) {
+				fallbackHits.inc();
+				return true;
+			}
+		} catch (Exception ex) {
+			logger.error("A file could not be downloaded from the primary. path={} cause={}", path, ex.getMessage());
+		}
+		fallbackMisses.inc();
+		return false;
+	}
+
+	/** Internal method executed by the feed thread to apply the changes of the primary as they are registered */
+	private void follow(int batchSize, int parallelism, long pollMillis) {
+		int failures = 0;
+		while (running) {
+			try {
+				Map<String, Object> feed = primary.getChanges(position, batchSize);
+				primaryLastChange = ((Number) feed.get("lastChange")).longValue();
+				long firstChange = ((Number) feed.get("firstChange")).longValue();
+				if (firstChange > position + 1) {
+					logger.warn("Some changes of the primary were removed before the mirror applied them, the missing files are "
+							+ "downloaded when they are requested. position={} firstChange={}", position, firstChange);
+				}
+				@SuppressWarnings("unchecked")
+				List<Map<String, Object>> changes = (List<Map<String, Object>>) feed.get("changes");
+				if (changes.isEmpty()) {
+					if (primaryLastChange > position) {
+						// every change after the position has been removed from the primary
+						acknowledge(primaryLastChange);
+					}
+					Thread.sleep(pollMillis);
+					continue;
+				}
+				apply(changes, parallelism);
+				acknowledge(((Number) changes.get(changes.size() - 1).get("id")).longValue());
+				failures = 0;
+				lastError = null;
+			} catch (InterruptedException ex) {
+				break;
+			} catch (Exception ex) {
+				if (!running) {
+					break;
+				}
+				failures++;
+				lastError = ex.getMessage();
+				long retryMillis = Math.min(MAX_RETRY_MILLIS, 500L << Math.min(failures, 10));
+				logger.warn("The change feed of the primary could not be applied, it will be retried. position={} retryMillis={} cause={}",
+						position, retryMillis, ex.getMessage());
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException interrupted) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies a page of changes in parallel. When a file has several changes in the page only the last one is applied
+	 * @throws Exception If any change could not be applied, the whole page is applied again
+	 */
+	private void apply(List<Map<String, Object>> changes, int parallelism) throws Exception {
+		Map<String, Map<String, Object>> latest = new LinkedHashMap<>();
+		for (Map<String, Object> change : changes) {
+			String path = (String) change.get("path");
+			latest.remove(path);
+			latest.put(path, change);
+		}
+		List<Map<String, Object>> pending = new ArrayList<>(latest.values());
+		AtomicInteger next = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int idx = 0; idx < Math.min(parallelism, pending.size()); idx++) {
+			futures.add(fetchers.submit(() -> {
+				int index;
+				while ((index = next.getAndIncrement()) < pending.size()) {
+					apply(pending.get(index));
+				}
+				return null;
+			}));
+		}
+		Exception failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException ex) {
+				failure = failure == null && ex.getCause() instanceof Exception ? (Exception) ex.getCause() : failure;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/** Applies a single change of the primary */
+	private void apply(Map<String, Object> change) throws Exception {
+		String path = (String) change.get("path");
+		ArtifactRequest request = ArtifactRequest.parse(path);
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		try {
+			if (ChangeLog.Type.DELETED.name().equals(change.get("type"))) {
+				if (repository.deleteReplica(request)) {
+					repository.publishAndWait(RepositoryEvent.Type.DELETED, request, MIRROR_USER, primary.getUrl());
+				}
+			} else {
+				// a file removed from the primary after it was stored has a later deletion change
+				download(primary, request, path);
+			}
+		} catch (Exception ex) {
+			failedFiles.inc();
+			throw ex;
+		}
+		fetchedFiles.inc();
+	}
+
+	/** Internal method to download a file from the primary and store it in the repository */
+	private boolean download(PeerClient client, ArtifactRequest request, String path) throws Exception {
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		try (InputStream input = client.get(path)) {
+			if (input == null || !repository.storeReplica(request, input, null)) {
+				return false;
+			}
+		}
+		lastFetch = System.currentTimeMillis();
+		repository.publishAndWait(RepositoryEvent.Type.STORED, request, MIRROR_USER, client.getUrl());
+		return true;
+	}
+
+	/** Registers the last change of the primary applied */
+	private void acknowledge(long changeId) {
+		Operation.Update.from("MERGE INTO chantico_replication (replication_repository, replication_peer, replication_position, "
+						+ "replication_updated_on) KEY (replication_repository, replication_peer) VALUES (?, ?, ?, ?)",
+				ArtifactRepository.getInstance().getName(), primary.getUrl(), changeId, new Timestamp(System.currentTimeMillis())).execute();
+		position = changeId;
+	}
+}
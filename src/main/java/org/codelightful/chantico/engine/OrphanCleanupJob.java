@@ -0,0 +1,84 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.storage.Storage;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintenance job that removes what is left behind when an artifact is removed or an upload is interrupted: checksum
+ * and signature files whose file does not exist, and catalog records whose file does not exist. Files modified
+ * recently are never removed, since the checksums of an artifact being deployed may be uploaded before the artifact
+ */
+class OrphanCleanupJob extends MaintenanceJob {
+	/** Extensions of the files that only make sense next to the file they belong to */
+	private static final String[] COMPANION_EXTENSIONS = { ".md5", ".sha1", ".sha256", ".sha512", ".asc" };
+	/** Number of catalog records verified on every query */
+	private static final int CATALOG_PAGE = 500;
+	/** Minimum time in milliseconds since the last modification of an orphan file to remove it */
+	private final long minAgeMillis;
+
+	/**
+	 * @param repository Repository to maintain
+	 * @param budget Budget consumed by the storage operations of the job
+	 * @param minAgeMillis Minimum time in milliseconds since the last modification of an orphan file to remove it
+	 */
+	OrphanCleanupJob(ArtifactRepository repository, IoBudget budget, long minAgeMillis) {
+		super("orphan-cleanup", repository, budget);
+		this.minAgeMillis = minAgeMillis;
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		long now = System.currentTimeMillis();
+		walk(ROOT, (folder, entries, versionFolder) -> cleanFolder(entries, now));
+		cleanCatalog();
+	}
+
+	/** Removes the companion files of a folder whose file does not exist */
+	private void cleanFolder(List<Storage.Entry> entries, long now) throws Exception {
+		Set<String> fileNames = new HashSet<>();
+		for (Storage.Entry entry : entries) {
+			if (!entry.directory) {
+				fileNames.add(entry.key.getFileName().toString());
+			}
+		}
+		for (Storage.Entry entry : entries) {
+			if (entry.directory || now - entry.lastModified < minAgeMillis) {
+				continue;
+			}
+			String fileName = entry.key.getFileName().toString();
+			for (String extension : COMPANION_EXTENSIONS) {
+				if (fileName.endsWith(extension)) {
+					if (!fileNames.contains(fileName.substring(0, fileName.length() - extension.length()))) {
+						delete(entry);
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/** Removes the catalog records of the files that do not exist anymore */
+	private void cleanCatalog() throws Exception {
+		CatalogService catalog = CatalogService.getInstance();
+		long lastId = 0;
+		Map<Long, String> paths;
+		do {
+			paths = catalog.getPaths(repository.getName(), lastId, CATALOG_PAGE);
+			for (Map.Entry<Long, String> entry : paths.entrySet()) {
+				lastId = entry.getKey();
+				charge(0);
+				Path key = Paths.get(entry.getValue());
+				if (storage.stat(key) == null) {
+					logger.debug("Removing the catalog record of a missing file. key={}", key);
+					catalog.remove(repository.getName(), entry.getValue());
+				}
+			}
+		} while (paths.size() == CATALOG_PAGE);
+	}
+}
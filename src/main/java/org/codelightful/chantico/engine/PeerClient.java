@@ -0,0 +1,158 @@
+package org.codelightful.chantico.engine;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Client of another Chantico instance, used to push the replicated files and by the mirrors to read the change feed and
+ * the files of the primary. The connections are kept alive by the JDK between requests to the same peer
+ */
+class PeerClient {
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	/** Base URL of the peer without the trailing separator */
+	private final String url;
+	/** Name of the repository that sends the requests */
+	private final String source;
+	private final int timeoutMillis;
+	/** Token sent to authenticate the requests to the peer or null if it is not required */
+	private final String token;
+
+	/**
+	 * @param url Base URL of the peer (for example http://host:port)
+	 * @param source Name of the repository that sends the requests
+	 * @param timeoutMillis Timeout to connect and to wait for the responses
+	 */
+	PeerClient(String url, String source, int timeoutMillis) {
+		this(url, source, timeoutMillis, null);
+	}
+
+	/**
+	 * @param url Base URL of the peer (for example http://host:port)
+	 * @param source Name of the repository that sends the requests
+	 * @param timeoutMillis Timeout to connect and to wait for the responses
+	 * @param token Token sent to authenticate the requests to the peer (its replication.token for the pushed files,
+	 * its replication.feed.token for the change feed) or null if it is not required
+	 */
+	PeerClient(String url, String source, int timeoutMillis, String token) {
+		this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+		this.source = source;
+		this.timeoutMillis = timeoutMillis;
+		this.token = token == null || token.isEmpty() ? null : token;
+	}
+
+	String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Sends the content of a file
+	 * @param path Relative path of the file using / as separator
+	 * @param content Stream with the content of the file
+	 * @param size Number of bytes of the content
+	 * @param sha1 Hexadecimal SHA-1 checksum of the content
+	 * @return Status code of the response
+	 */
+	int put(String path, InputStream content, long size, String sha1) throws IOException {
+		HttpURLConnection connection = open(HttpMethod.PUT, path);
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(size);
+		connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM);
+		connection.setRequestProperty(ReplicationService.CHECKSUM_HEADER, sha1);
+		try (OutputStream output = connection.getOutputStream()) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = content.read(buffer)) >= 0) {
+				output.write(buffer, 0, read);
+			}
+		}
+		return complete(connection);
+	}
+
+	/**
+	 * Removes a file
+	 * @param path Relative path of the file using / as separator
+	 * @return Status code of the response
+	 */
+	int delete(String path) throws IOException {
+		return complete(open(HttpMethod.DELETE, path));
+	}
+
+	/**
+	 * Opens the content of a file
+	 * @param path Relative path of the file using / as separator
+	 * @return Stream with the content, which has to be closed, or null if the file does not exist
+	 * @throws IOException If the peer could not be reached or it has responded with an error
+	 */
+	InputStream get(String path) throws IOException {
+		HttpURLConnection connection = open(HttpMethod.GET, path);
+		int status = connection.getResponseCode();
+		if (status == 404) {
+			complete(connection);
+			return null;
+		} else if (status != 200) {
+			complete(connection);
+			throw new IOException("The peer has responded with the status " + status + " to the request of " + path);
+		}
+		return connection.getInputStream();
+	}
+
+	/**
+	 * Reads a page of the change feed
+	 * @param afterId Identifier of the last change already read
+	 * @param limit Maximum number of changes to read
+	 * @return Content of the feed page
+	 */
+	Map<String, Object> getChanges(long afterId, int limit) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url + "/api/changes?after=" + afterId + "&limit=" + limit).openConnection();
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		if (token != null) {
+			connection.setRequestProperty(ReplicationService.TOKEN_HEADER, token);
+		}
+		int status = connection.getResponseCode();
+		if (status != 200) {
+			complete(connection);
+			throw new IOException("The peer has responded with the status " + status + " to the request of the change feed");
+		}
+		try (InputStream input = connection.getInputStream()) {
+			return JSON_MAPPER.readValue(input, new TypeReference<Map<String, Object>>() {});
+		}
+	}
+
+	private HttpURLConnection open(String method, String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url + "/artifact/" + path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		connection.setRequestProperty(ReplicationService.REPLICA_HEADER, source);
+		if (token != null) {
+			connection.setRequestProperty(ReplicationService.TOKEN_HEADER, token);
+		}
+		return connection;
+	}
+
+	/** Reads the status and consumes the response body, so the connection can be reused */
+	private int complete(HttpURLConnection connection) throws IOException {
+		int status = connection.getResponseCode();
+		InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (body != null) {
+			try (InputStream input = body) {
+				byte[] buffer = new byte[1024];
+				while (input.read(buffer) >= 0) {
+					// discarded
+				}
+			}
+		}
+		return status;
+	}
+}
@@ -0,0 +1,276 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.FrequencySketch;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks how often every file is downloaded with a decaying count-min sketch (popularity.sketchWidth counters per row)
+ * and keeps the popularity.topSize most requested files as candidates for the top list. The sketch decides which file
+ * coordinates stay in the coordinate pool, and it is saved to popularity.dat in the home every
+ * popularity.snapshotMinutes along with the top files. At startup the saved top files are read in the background
+ * (up to popularity.warmup.count files and popularity.warmup.maxBytes bytes, at popularity.warmup.bytesPerSecond) so
+ * their coordinates and their content are cached before the clients request them
+ */
+public class PopularityTracker {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	private static PopularityTracker instance = new PopularityTracker();
+	private static final String SNAPSHOT_FILE = "popularity.dat";
+	/** Version of the layout of the snapshot file */
+	private static final int SNAPSHOT_VERSION = 1;
+	private volatile FrequencySketch sketch;
+	/** Files that may be in the top list with the hash of their path */
+	private final Map<Path, Integer> candidates = new ConcurrentHashMap<>();
+	/** Minimum estimate to become a candidate, the estimate of the last file of the top list when it was trimmed */
+	private volatile int threshold;
+	/** Resets of the sketch when the threshold was last adjusted */
+	private volatile int resets;
+	private final AtomicBoolean trimming = new AtomicBoolean();
+	private ScheduledExecutorService scheduler;
+
+	public static PopularityTracker getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Restores the last snapshot, starts the warm-up of the top files and schedules the snapshots. Nothing is tracked
+	 * when popularity.enabled is not set
+	 */
+	public synchronized void start() {
+		Configuration configuration = Configuration.getInstance();
+		if (scheduler != null || !configuration.getBoolean("popularity.enabled", true)) {
+			return;
+		}
+		int width = configuration.getInt("popularity.sketchWidth", 16384);
+		List<String> top = load(width);
+		if (sketch == null) {
+			sketch = new FrequencySketch(width);
+		}
+		ArtifactRequest.setAdmissionSketch(sketch);
+		MetricsRegistry.getInstance().gauge("chantico_popularity_candidates", "Number of files tracked as candidates for the top list",
+				candidates::size);
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "popularity");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		if (!top.isEmpty()) {
+			scheduler.execute(() -> warmUp(top));
+		}
+		long interval = Math.max(1, configuration.getLong("popularity.snapshotMinutes", 5));
+		scheduler.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.MINUTES);
+	}
+
+	/** Stops the snapshots, saving the current one */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			save();
+		}
+	}
+
+	/**
+	 * Registers a download of a file
+	 * @param request Object with the details for the artifact served
+	 */
+	public void record(ArtifactRequest request) {
+		FrequencySketch current = sketch;
+		if (current == null) {
+			return;
+		}
+		int estimate = current.increment(request.pathHash);
+		if (current.getResets() != resets) {
+			// the estimates have been halved
+			resets = current.getResets();
+			threshold >>>= 1;
+		}
+		if (estimate >= threshold && candidates.putIfAbsent(request.path, request.pathHash) == null
+				&& candidates.size() > 2 * getTopSize()) {
+			trim();
+		}
+	}
+
+	/**
+	 * Obtains the most downloaded files
+	 * @param limit Maximum number of files to return
+	 * @return Path and estimated downloads of every file, from the most downloaded one
+	 */
+	public List<Map<String, Object>> getTop(int limit) {
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (Map.Entry<Path, Integer> entry : sortCandidates()) {
+			if (result.size() >= limit) {
+				break;
+			}
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("path", toKey(entry.getKey()));
+			values.put("estimate", entry.getValue());
+			result.add(values);
+		}
+		return result;
+	}
+
+	/** Internal method to keep only the top files as candidates, raising the threshold to the estimate of the last one */
+	private void trim() {
+		if (!trimming.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<Map.Entry<Path, Integer>> sorted = sortCandidates();
+			int topSize = getTopSize();
+			for (int idx = topSize; idx < sorted.size(); idx++) {
+				candidates.remove(sorted.get(idx).getKey());
+			}
+			threshold = sorted.size() > topSize ? sorted.get(topSize - 1).getValue() : 0;
+		} finally {
+			trimming.set(false);
+		}
+	}
+
+	/** Obtains the candidates with their current estimates, from the most downloaded one */
+	private List<Map.Entry<Path, Integer>> sortCandidates() {
+		FrequencySketch current = sketch;
+		List<Map.Entry<Path, Integer>> sorted = new ArrayList<>();
+		if (current == null) {
+			return sorted;
+		}
+		for (Map.Entry<Path, Integer> entry : candidates.entrySet()) {
+			sorted.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), current.estimate(entry.getValue())));
+		}
+		sorted.sort((left, right) -> Integer.compare(right.getValue(), left.getValue()));
+		return sorted;
+	}
+
+	private int getTopSize() {
+		return Math.max(1, Configuration.getInstance().getInt("popularity.topSize", 100));
+	}
+
+	/**
+	 * Internal method to read the files of the last top list, so their coordinates are pooled and their content is in
+	 * the page cache of the operating system (and in the caches of the storage backend)
+	 */
+	private void warmUp(List<String> top) {
+		Configuration configuration = Configuration.getInstance();
+		int maxFiles = configuration.getInt("popularity.warmup.count", 100);
+		long maxBytes = configuration.getLong("popularity.warmup.maxBytes", 256L * 1024 * 1024);
+		IoBudget budget = new IoBudget(configuration.getLong("popularity.warmup.bytesPerSecond", 64L * 1024 * 1024));
+		Storage storage = ArtifactRepository.getInstance().getStorage();
+		long startTime = System.currentTimeMillis();
+		long bytes = 0;
+		int files = 0;
+		byte[] buffer = new byte[64 * 1024];
+		for (String key : top) {
+			if (files >= maxFiles || bytes >= maxBytes) {
+				break;
+			}
+			try {
+				ArtifactRequest request = ArtifactRequest.parse(key);
+				try (InputStream input = storage.openStream(request.path)) {
+					int read;
+					while (bytes < maxBytes && (read = input.read(buffer)) >= 0) {
+						budget.acquire(read);
+						bytes += read;
+					}
+				}
+				files++;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception ex) {
+				logger.debug("A popular file could not be warmed up. key={} cause={}", key, ex.getMessage());
+			}
+		}
+		logger.info("Popular files warmed up. files={} bytes={} time={}ms", files, bytes, System.currentTimeMillis() - startTime);
+	}
+
+	/** Internal method to write the sketch and the top files, replacing the previous snapshot atomically */
+	private void save() {
+		FrequencySketch current = sketch;
+		if (current == null) {
+			return;
+		}
+		File file = Configuration.getFileFromHome(SNAPSHOT_FILE);
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			List<Map.Entry<Path, Integer>> top = sortCandidates();
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				output.writeInt(SNAPSHOT_VERSION);
+				current.write(output);
+				output.writeInt(top.size());
+				for (Map.Entry<Path, Integer> entry : top) {
+					output.writeUTF(toKey(entry.getKey()));
+				}
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.debug("Popularity snapshot saved. files={}", top.size());
+		} catch (IOException ex) {
+			logger.error("The popularity snapshot could not be saved. file={} cause={}", file, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Internal method to restore the last snapshot
+	 * @param width Width of the sketch, the counters of a snapshot with a different width are discarded
+	 * @return Keys of the top files of the snapshot, from the most downloaded one
+	 */
+	private List<String> load(int width) {
+		List<String> top = new ArrayList<>();
+		File file = Configuration.getFileFromHome(SNAPSHOT_FILE);
+		if (!file.isFile()) {
+			return top;
+		}
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != SNAPSHOT_VERSION) {
+				logger.warn("The popularity snapshot has an unknown version and it is ignored. file={}", file);
+				return top;
+			}
+			sketch = FrequencySketch.read(input, width);
+			for (int count = input.readInt(); count > 0; count--) {
+				top.add(input.readUTF());
+			}
+			if (sketch != null) {
+				for (String key : top) {
+					ArtifactRequest request = ArtifactRequest.parse(key);
+					candidates.put(request.path, request.pathHash);
+				}
+			}
+			logger.info("Popularity snapshot restored. files={} sketch={}", top.size(), sketch != null);
+		} catch (Exception ex) {
+			logger.error("The popularity snapshot could not be read. file={} cause={}", file, ex.getMessage());
+		}
+		return top;
+	}
+
+	/** Obtains the key of a file using / as separator */
+	private static String toKey(Path path) {
+		return path.toString().replace(File.separatorChar, '/');
+	}
+}
@@ -0,0 +1,358 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.persistence.Operation;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the changes of the repository to other Chantico instances (replication.peers, a comma separated list of base
+ * URLs). Every peer has its own thread that reads the change log in batches (replication.batchSize) and sends the
+ * files of a batch in parallel (replication.parallelism) with their SHA-1 checksum, which the peer verifies before
+ * publishing the content. The position of the last batch acknowledged by a peer is kept in the chantico_replication
+ * table, so the replication resumes from it after a restart or a failure, and the changes acknowledged by all the peers
+ * are removed from the log. The peers share a secret (replication.token) that authenticates the files they push, a
+ * request identified as a replica without it is rejected.
+ *
+ * The mirrors pull the same changes from the feed (replication.feed.enabled) instead of receiving them
+ */
+public class ReplicationService {
+	private static final Logger logger = LoggerFactory.getLogger("replication");
+	private static ReplicationService instance = new ReplicationService();
+	/** Header that identifies the requests sent by the replication, with the name of the source repository */
+	public static final String REPLICA_HEADER = "X-Chantico-Replica";
+	/** Header with the SHA-1 checksum of the content sent by the replication */
+	public static final String CHECKSUM_HEADER = "X-Checksum-Sha1";
+	/** Header with the token of the replicas (replication.token) and of the reads of the change feed (replication.feed.token) */
+	public static final String TOKEN_HEADER = "X-Chantico-Token";
+	/** Maximum time to wait between the retries of a batch that has failed */
+	private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private final List<Peer> peers = new ArrayList<>();
+	private ExecutorService pushers;
+	private ScheduledExecutorService pruner;
+	/** Time the changes are kept for the mirrors that read the feed, zero when the feed is not enabled */
+	private long feedRetentionMillis;
+	private volatile boolean running;
+
+	public static ReplicationService getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts a thread for every configured peer and the periodic removal of the changes no longer needed, nothing is
+	 * done when there is no peer and the feed is not enabled
+	 */
+	public synchronized void start() {
+		Configuration configuration = Configuration.getInstance();
+		String peerUrls = configuration.getString("replication.peers", "").trim();
+		if (running || (peerUrls.isEmpty() && !configuration.getBoolean("replication.feed.enabled", false))) {
+			return;
+		}
+		// the repository is created on the first request otherwise, and it starts the change log
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		ChangeLog changeLog = ChangeLog.getInstance();
+		if (!changeLog.isEnabled()) {
+			return;
+		}
+		int batchSize = Math.max(1, configuration.getInt("replication.batchSize", 100));
+		int parallelism = Math.max(1, configuration.getInt("replication.parallelism", 4));
+		int timeoutMillis = (int) TimeUnit.SECONDS.toMillis(configuration.getInt("replication.timeoutSeconds", 30));
+		long pollMillis = Math.max(10, configuration.getLong("replication.pollMillis", 1000));
+		AtomicInteger threadCount = new AtomicInteger();
+		pushers = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "replication-push-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		feedRetentionMillis = configuration.getBoolean("replication.feed.enabled", false)
+				? TimeUnit.HOURS.toMillis(configuration.getLong("replication.feed.retentionHours", 168)) : 0;
+		pruner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replication-prune");
+			thread.setDaemon(true);
+			return thread;
+		});
+		pruner.scheduleWithFixedDelay(this::prune, 1, 1, TimeUnit.MINUTES);
+		running = true;
+		String token = configuration.getString("replication.token", "");
+		if (token.isEmpty() && !peerUrls.isEmpty()) {
+			logger.warn("No replication.token has been configured, the peers will reject the replicated files");
+		}
+		for (String url : peerUrls.split(",")) {
+			if (url.trim().isEmpty()) {
+				continue;
+			}
+			Peer peer = new Peer(new PeerClient(url.trim(), repository.getName(), timeoutMillis, token), repository.getName(),
+					batchSize, parallelism, pollMillis);
+			peers.add(peer);
+			peer.thread = new Thread(peer, "replication-" + peers.size());
+			peer.thread.setDaemon(true);
+			peer.thread.start();
+			logger.info("Replication started. peer={} position={} lastChange={}", peer.client.getUrl(), peer.position, changeLog.getLastId());
+		}
+	}
+
+	/** Stops the replication threads, the batches in progress are sent again when it is started */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (Peer peer : peers) {
+			peer.thread.interrupt();
+		}
+		pushers.shutdownNow();
+		pruner.shutdownNow();
+		peers.clear();
+	}
+
+	/**
+	 * Allows to determine if a request identified as a replica has been sent by a peer, comparing its token with the
+	 * replication.token in constant time. No request is trusted when the token is not configured
+	 * @param token Value of the token header of the request
+	 */
+	public boolean isTrustedPeer(String token) {
+		String expected = Configuration.getInstance().getString("replication.token", "");
+		return token != null && !expected.isEmpty()
+				&& MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Obtains the state of the replication to every peer */
+	public synchronized List<Map<String, Object>> getStatus() {
+		List<Map<String, Object>> status = new ArrayList<>();
+		for (Peer peer : peers) {
+			Map<String, Object> peerStatus = new LinkedHashMap<>();
+			peerStatus.put("url", peer.client.getUrl());
+			peerStatus.put("position", peer.position);
+			peerStatus.put("lagChanges", peer.getLagChanges());
+			peerStatus.put("lagSeconds", peer.getLagSeconds());
+			peerStatus.put("lastPush", peer.lastPush);
+			peerStatus.put("lastError", peer.lastError);
+			status.add(peerStatus);
+		}
+		return status;
+	}
+
+	/**
+	 * Removes from the log the changes acknowledged by all the peers, keeping the ones registered during the retention
+	 * of the feed (replication.feed.retentionHours) when it is enabled
+	 */
+	private synchronized void prune() {
+		try {
+			ChangeLog changeLog = ChangeLog.getInstance();
+			long position = changeLog.getLastId();
+			for (Peer peer : peers) {
+				position = Math.min(position, peer.position);
+			}
+			if (position > 0) {
+				changeLog.prune(position, System.currentTimeMillis() - feedRetentionMillis);
+			}
+		} catch (Exception ex) {
+			logger.error("An error has occurred trying to remove the old changes. cause={}", ex.getMessage());
+		}
+	}
+
+	/** Internal method to calculate the hexadecimal SHA-1 checksum of a file */
+	private static String sha1(Storage storage, Path key) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		try (InputStream input = storage.openStream(key)) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte value : digest.digest()) {
+			hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/** Replication to a single peer */
+	private class Peer implements Runnable {
+		private final PeerClient client;
+		private final String repository;
+		private final int batchSize;
+		private final int parallelism;
+		private final long pollMillis;
+		private final Counter pushedFiles;
+		private final Counter failedFiles;
+		private final Counter pushedBytes;
+		private Thread thread;
+		/** Identifier of the last change acknowledged by the peer */
+		private volatile long position;
+		/** Time the oldest change not acknowledged yet was registered or zero if the peer is up to date */
+		private volatile long pendingSince;
+		private volatile long lastPush;
+		private volatile String lastError;
+
+		private Peer(PeerClient client, String repository, int batchSize, int parallelism, long pollMillis) {
+			this.client = client;
+			this.repository = repository;
+			this.batchSize = batchSize;
+			this.parallelism = parallelism;
+			this.pollMillis = pollMillis;
+			Operation.Query.from("SELECT replication_position FROM chantico_replication WHERE replication_repository = ? "
+					+ "AND replication_peer = ?", repository, client.getUrl()).execute(rs -> position = rs.getLong(1));
+			MetricsRegistry registry = MetricsRegistry.getInstance();
+			String url = client.getUrl();
+			pushedFiles = registry.counter("chantico_replication_files_total", "Number of changes sent to the replication peers",
+					"peer", url, "result", "pushed");
+			failedFiles = registry.counter("chantico_replication_files_total", "Number of changes sent to the replication peers",
+					"peer", url, "result", "failed");
+			pushedBytes = registry.counter("chantico_replication_bytes_total", "Number of bytes sent to the replication peers", "peer", url);
+			registry.gauge("chantico_replication_lag_changes", "Number of changes not acknowledged by a replication peer",
+					this::getLagChanges, "peer", url);
+			registry.gauge("chantico_replication_lag_seconds", "Age of the oldest change not acknowledged by a replication peer",
+					this::getLagSeconds, "peer", url);
+		}
+
+		private double getLagChanges() {
+			return Math.max(0, ChangeLog.getInstance().getLastId() - position);
+		}
+
+		private double getLagSeconds() {
+			long since = pendingSince;
+			return since == 0 ? 0 : Math.max(0, System.currentTimeMillis() - since) / 1000d;
+		}
+
+		@Override
+		public void run() {
+			ChangeLog changeLog = ChangeLog.getInstance();
+			int failures = 0;
+			while (running) {
+				try {
+					List<ChangeLog.Change> changes = changeLog.read(position, batchSize);
+					if (changes.isEmpty()) {
+						pendingSince = 0;
+						changeLog.await(position, pollMillis);
+						continue;
+					}
+					pendingSince = changes.get(0).createdOn;
+					push(changes);
+					acknowledge(changes.get(changes.size() - 1).id);
+					failures = 0;
+					lastError = null;
+				} catch (InterruptedException ex) {
+					break;
+				} catch (Exception ex) {
+					if (!running) {
+						break;
+					}
+					failures++;
+					lastError = ex.getMessage();
+					long retryMillis = Math.min(MAX_RETRY_MILLIS, 500L << Math.min(failures, 10));
+					logger.warn("The replication to a peer has failed, it will be retried. peer={} position={} retryMillis={} cause={}",
+							client.getUrl(), position, retryMillis, ex.getMessage());
+					try {
+						Thread.sleep(retryMillis);
+					} catch (InterruptedException interrupted) {
+						break;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Sends a batch of changes in parallel. When a file has several changes in the batch only the last one is sent
+		 * @throws IOException If any change could not be sent, the whole batch is sent again
+		 */
+		private void push(List<ChangeLog.Change> changes) throws Exception {
+			Map<String, ChangeLog.Change> latest = new LinkedHashMap<>();
+			for (ChangeLog.Change change : changes) {
+				latest.remove(change.path);
+				latest.put(change.path, change);
+			}
+			List<ChangeLog.Change> pending = new ArrayList<>(latest.values());
+			AtomicInteger next = new AtomicInteger();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int idx = 0; idx < Math.min(parallelism, pending.size()); idx++) {
+				futures.add(pushers.submit(() -> {
+					int index;
+					while ((index = next.getAndIncrement()) < pending.size()) {
+						push(pending.get(index));
+					}
+					return null;
+				}));
+			}
+			Exception failure = null;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					failure = failure == null && ex.getCause() instanceof Exception ? (Exception) ex.getCause() : failure;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		/** Sends a single change to the peer */
+		private void push(ChangeLog.Change change) throws Exception {
+			Storage storage = ArtifactRepository.getInstance().getStorage();
+			int status;
+			try {
+				if (change.type == ChangeLog.Type.DELETED) {
+					status = client.delete(change.path);
+					if (status == 404) {
+						status = 200;
+					}
+				} else {
+					Path key = Paths.get(change.path);
+					Storage.Entry entry = storage.stat(key);
+					if (entry == null || entry.directory) {
+						// deleted after it was stored, the deletion is a later change
+						return;
+					}
+					String sha1 = sha1(storage, key);
+					try (InputStream input = storage.openStream(key)) {
+						status = client.put(change.path, input, entry.size, sha1);
+					}
+					if (status == 200) {
+						pushedBytes.add(entry.size);
+					}
+				}
+			} catch (Exception ex) {
+				failedFiles.inc();
+				throw ex;
+			}
+			if (status != 200) {
+				failedFiles.inc();
+				throw new IOException("The peer has rejected the change of " + change.path + " with the status " + status);
+			}
+			pushedFiles.inc();
+			lastPush = System.currentTimeMillis();
+		}
+
+		/** Registers the last change acknowledged by the peer */
+		private void acknowledge(long changeId) {
+			Operation.Update.from("MERGE INTO chantico_replication (replication_repository, replication_peer, replication_position, "
+							+ "replication_updated_on) KEY (replication_repository, replication_peer) VALUES (?, ?, ?, ?)", repository,
+					client.getUrl(), changeId, new Timestamp(System.currentTimeMillis())).execute();
+			position = changeId;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.storage.Storage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintenance job that keeps only the latest timestamped builds of every snapshot version. The files of a build are
+ * identified by the timestamp and build number that follow the version in their names (for example
+ * artifact-1.0-20200101.120000-3.jar), so all the files of a build (classifiers and checksums included) are kept or
+ * removed together
+ */
+class SnapshotRetentionJob extends MaintenanceJob {
+	/** Timestamp and build number that follow the base version in the name of a snapshot build file */
+	private static final Pattern BUILD_PATTERN = Pattern.compile("(\\d{8}\\.\\d{6})-(\\d+)");
+	/** Number of builds to keep for every snapshot version */
+	private final int keep;
+
+	/**
+	 * @param repository Repository to maintain
+	 * @param budget Budget consumed by the storage operations of the job
+	 * @param keep Number of builds to keep for every snapshot version
+	 */
+	SnapshotRetentionJob(ArtifactRepository repository, IoBudget budget, int keep) {
+		super("snapshot-retention", repository, budget);
+		this.keep = keep;
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		walk(ROOT, this::clean);
+	}
+
+	/** Removes the old builds of a snapshot version folder */
+	private void clean(Path folder, List<Storage.Entry> entries, boolean versionFolder) throws Exception {
+		String version = folder.getFileName() == null ? "" : folder.getFileName().toString();
+		if (!versionFolder || !isSnapshot(version)) {
+			return;
+		}
+		String prefix = folder.getParent().getFileName() + "-" + getBaseVersion(version) + "-";
+		// builds ordered from the newest to the oldest
+		Map<Integer, List<Storage.Entry>> builds = new TreeMap<>(Collections.reverseOrder());
+		for (Storage.Entry entry : entries) {
+			String fileName = entry.key.getFileName().toString();
+			if (entry.directory || !fileName.startsWith(prefix)) {
+				continue;
+			}
+			Matcher matcher = BUILD_PATTERN.matcher(fileName);
+			if (matcher.region(prefix.length(), fileName.length()).lookingAt()) {
+				builds.computeIfAbsent(Integer.parseInt(matcher.group(2)), key -> new ArrayList<>()).add(entry);
+			}
+		}
+		int count = 0;
+		for (List<Storage.Entry> buildFiles : builds.values()) {
+			if (++count <= keep) {
+				continue;
+			}
+			for (Storage.Entry entry : buildFiles) {
+				delete(entry);
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.storage.Storage;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Maintenance job that removes the versions that have not been stored or downloaded for a period of time. The last
+ * download of every file is taken from the catalog. Only snapshot versions are removed unless the release versions
+ * are explicitly included, since a build that depends on a removed release cannot be reproduced anymore
+ */
+class UnusedVersionPurgeJob extends MaintenanceJob {
+	/** Time in milliseconds without use after which a version is removed */
+	private final long maxIdleMillis;
+	/** Determines if the release versions are removed too */
+	private final boolean includeReleases;
+
+	/**
+	 * @param repository Repository to maintain
+	 * @param budget Budget consumed by the storage operations of the job
+	 * @param maxIdleMillis Time in milliseconds without use after which a version is removed
+	 * @param includeReleases Determines if the release versions are removed too
+	 */
+	UnusedVersionPurgeJob(ArtifactRepository repository, IoBudget budget, long maxIdleMillis, boolean includeReleases) {
+		super("unused-purge", repository, budget);
+		this.maxIdleMillis = maxIdleMillis;
+		this.includeReleases = includeReleases;
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		long now = System.currentTimeMillis();
+		walk(ROOT, (folder, entries, versionFolder) -> purge(folder, entries, versionFolder, now));
+	}
+
+	/** Removes the files of a version folder when the version has not been used recently */
+	private void purge(Path folder, List<Storage.Entry> entries, boolean versionFolder, long now) throws Exception {
+		if (!versionFolder || (!includeReleases && !isSnapshot(folder.getFileName().toString()))) {
+			return;
+		}
+		long lastUse = 0;
+		Storage.Entry anyFile = null;
+		for (Storage.Entry entry : entries) {
+			if (!entry.directory) {
+				lastUse = Math.max(lastUse, entry.lastModified);
+				anyFile = entry;
+			}
+		}
+		if (anyFile == null || now - lastUse <= maxIdleMillis) {
+			return;
+		}
+		charge(0);
+		ArtifactRequest request = ArtifactRequest.parse(anyFile.key.toString().replace(File.separatorChar, '/'));
+		lastUse = Math.max(lastUse, CatalogService.getInstance().getLastAccess(repository.getName(), request.group,
+				request.artifact, request.version));
+		if (now - lastUse <= maxIdleMillis) {
+			return;
+		}
+		logger.info("Removing an unused version. group={} artifact={} version={}", request.group, request.artifact, request.version);
+		for (Storage.Entry entry : entries) {
+			if (!entry.directory) {
+				delete(entry);
+			}
+		}
+	}
+}
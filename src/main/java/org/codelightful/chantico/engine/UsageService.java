@@ -0,0 +1,275 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.persistence.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the number of files and bytes used by the repository, by every group and by every artifact. The counters are
+ * updated in memory as the files are stored and deleted, so they can be queried and the quotas enforced without
+ * scanning the disk, and are written to the chantico_usage table periodically. The first time the table is empty
+ * the counters are calculated from the catalog.
+ *
+ * The quotas are configured in bytes for the whole repository (quota.repository.bytes), for every group
+ * (quota.group.bytes) and for a specific group (quota.group.bytes.[groupId]), zero meaning no quota
+ */
+public class UsageService {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	private static UsageService instance = new UsageService();
+	/** Key of the repository counter */
+	private static final String REPOSITORY_KEY = "";
+	/** Counters by scope and key */
+	private final Map<String, Usage> counters = new ConcurrentHashMap<>();
+	private final Writer writer;
+	private volatile String repository;
+	private ScheduledExecutorService flusher;
+
+	/** Levels the usage is accounted for */
+	public enum Scope {
+		REPOSITORY, GROUP, ARTIFACT
+	}
+
+	/** Functional interface implemented by the component that writes the counters */
+	@FunctionalInterface
+	interface Writer {
+		/**
+		 * Writes the values of some counters
+		 * @param repositoryName Name of the repository the counters belong to
+		 * @param usages Counters to write
+		 */
+		void write(String repositoryName, List<Usage> usages) throws Exception;
+	}
+
+	private UsageService() {
+		this(null, UsageService::writeCounters);
+	}
+
+	/**
+	 * @param repositoryName Name of the repository the counters belong to or null to set it when they are loaded
+	 * @param writer Component that writes the counters
+	 */
+	UsageService(String repositoryName, Writer writer) {
+		this.repository = repositoryName;
+		this.writer = writer;
+	}
+
+	public static UsageService getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Loads the counters of a repository and starts writing them periodically (usage.flushIntervalSeconds)
+	 * @param repositoryName Name of the repository
+	 */
+	synchronized void load(String repositoryName) {
+		if (repository != null) {
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		Operation.Query.from("SELECT usage_scope, usage_key, usage_files, usage_bytes FROM chantico_usage WHERE usage_repository = ?",
+				repositoryName).execute(rs -> {
+			Usage usage = getCounter(Scope.valueOf(rs.getString(1)), rs.getString(2));
+			usage.files.set(rs.getLong(3));
+			usage.bytes.set(rs.getLong(4));
+		});
+		if (counters.isEmpty()) {
+			Operation.Query.from("SELECT catalog_group, catalog_artifact, COUNT(*), SUM(catalog_size) FROM chantico_catalog "
+					+ "WHERE catalog_repository = ? GROUP BY catalog_group, catalog_artifact", repositoryName).execute(rs ->
+					add(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4)));
+			getCounter(Scope.REPOSITORY, REPOSITORY_KEY).dirty = true;
+		}
+		repository = repositoryName;
+		long interval = Configuration.getInstance().getLong("usage.flushIntervalSeconds", 10);
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "usage-flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "usage-flush-shutdown"));
+		logger.info("Usage counters loaded. repository={} counters={} time={}ms", repositoryName, counters.size(),
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Registers a change in the files of the repository
+	 * @param key Relative path of the file
+	 * @param files Change in the number of files (1 for a new file, -1 for a deleted file, 0 for a replaced file)
+	 * @param bytes Change in the number of bytes
+	 */
+	public void record(Path key, long files, long bytes) {
+		if (files == 0 && bytes == 0) {
+			return;
+		}
+		String group = null;
+		String artifact = null;
+		try {
+			ArtifactRequest request = ArtifactRequest.parse(key.toString().replace(File.separatorChar, '/'));
+			group = request.group;
+			artifact = request.artifact;
+		} catch (IllegalArgumentException ex) {
+			// files outside of the artifact structure only count for the repository
+		}
+		add(group, artifact, files, bytes);
+	}
+
+	/** Internal method to apply a change to the repository, group and artifact counters */
+	private void add(String group, String artifact, long files, long bytes) {
+		getCounter(Scope.REPOSITORY, REPOSITORY_KEY).add(files, bytes);
+		if (group != null) {
+			getCounter(Scope.GROUP, group).add(files, bytes);
+			if (artifact != null) {
+				getCounter(Scope.ARTIFACT, group + ":" + artifact).add(files, bytes);
+			}
+		}
+	}
+
+	private Usage getCounter(Scope scope, String key) {
+		return counters.computeIfAbsent(scope + "|" + key, ignored -> new Usage(scope, key));
+	}
+
+	/**
+	 * Obtains the usage of the repository, a group (groupId) or an artifact (groupId:artifactId)
+	 * @return Usage or null if nothing has been stored for the key
+	 */
+	public Usage getUsage(Scope scope, String key) {
+		return counters.get(scope + "|" + (scope == Scope.REPOSITORY ? REPOSITORY_KEY : key));
+	}
+
+	/**
+	 * Obtains the counters of a scope ordered by the number of bytes, from the biggest
+	 * @param scope Scope of the counters
+	 * @param prefix Prefix of the keys to include (for example the group followed by : to list its artifacts)
+	 * @param limit Maximum number of counters to return
+	 */
+	public List<Usage> getTop(Scope scope, String prefix, int limit) {
+		List<Usage> result = new ArrayList<>();
+		for (Usage usage : counters.values()) {
+			if (usage.scope == scope && usage.key.startsWith(prefix) && usage.files.get() > 0) {
+				result.add(usage);
+			}
+		}
+		result.sort(Comparator.comparingLong((Usage usage) -> usage.bytes.get()).reversed());
+		return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+	}
+
+	/**
+	 * Obtains the quota of the repository or a group
+	 * @return Number of bytes or zero if there is no quota
+	 */
+	public long getQuota(Scope scope, String key) {
+		Configuration configuration = Configuration.getInstance();
+		if (scope == Scope.REPOSITORY) {
+			return configuration.getLong("quota.repository.bytes", 0);
+		}
+		return configuration.getLong("quota.group.bytes." + key, configuration.getLong("quota.group.bytes", 0));
+	}
+
+	/**
+	 * Verifies that storing a file does not exceed the quotas of the repository and its group. Only the growth is
+	 * checked, so a file can always be replaced by another one that is not bigger
+	 * @param request File to store
+	 * @param bytes Number of bytes of the file to store
+	 * @param replacedBytes Number of bytes of the file being replaced (zero or negative for a new file)
+	 * @return Description of the exceeded quota or null if the file can be stored
+	 */
+	public String checkQuota(ArtifactRequest request, long bytes, long replacedBytes) {
+		long growth = bytes - Math.max(0, replacedBytes);
+		if (growth <= 0) {
+			return null;
+		}
+		String exceeded = checkQuota(Scope.REPOSITORY, REPOSITORY_KEY, growth);
+		if (exceeded == null && request.group != null) {
+			exceeded = checkQuota(Scope.GROUP, request.group, growth);
+		}
+		return exceeded;
+	}
+
+	private String checkQuota(Scope scope, String key, long bytes) {
+		long quota = getQuota(scope, key);
+		if (quota <= 0) {
+			return null;
+		}
+		Usage usage = getUsage(scope, key);
+		long used = usage == null ? 0 : usage.bytes.get();
+		if (used + bytes <= quota) {
+			return null;
+		}
+		return scope == Scope.REPOSITORY ? "repository quota exceeded: " + used + " of " + quota + " bytes used"
+				: "group " + key + " quota exceeded: " + used + " of " + quota + " bytes used";
+	}
+
+	/** Writes the counters modified since the last time they were written */
+	public void flush() {
+		String repositoryName = repository;
+		if (repositoryName == null) {
+			return;
+		}
+		List<Usage> modified = new ArrayList<>();
+		for (Usage usage : counters.values()) {
+			if (usage.dirty) {
+				// cleared before reading the values, so a concurrent change is written on the next flush
+				usage.dirty = false;
+				modified.add(usage);
+			}
+		}
+		if (modified.isEmpty()) {
+			return;
+		}
+		try {
+			writer.write(repositoryName, modified);
+		} catch (Exception ex) {
+			for (Usage usage : modified) {
+				usage.dirty = true;
+			}
+			logger.error("An error has occurred trying to write the usage counters. cause={}", ex.getMessage());
+		}
+	}
+
+	/** Internal method to write the values of some counters to the chantico_usage table */
+	private static void writeCounters(String repositoryName, List<Usage> usages) {
+		Operation.Batch batch = Operation.Batch.create();
+		for (Usage usage : usages) {
+			batch.add("MERGE INTO chantico_usage (usage_repository, usage_scope, usage_key, usage_files, usage_bytes) "
+							+ "KEY (usage_repository, usage_scope, usage_key) VALUES (?, ?, ?, ?, ?)", repositoryName,
+					usage.scope.name(), usage.key, usage.files.get(), usage.bytes.get());
+		}
+		batch.execute();
+	}
+
+	/** Number of files and bytes used by the repository, a group or an artifact */
+	public static class Usage {
+		public final Scope scope;
+		/** Empty for the repository, the group identifier for a group and group:artifact for an artifact */
+		public final String key;
+		public final AtomicLong files = new AtomicLong();
+		public final AtomicLong bytes = new AtomicLong();
+		/** Determines if the counter has changed since the last time it was written */
+		private volatile boolean dirty;
+
+		private Usage(Scope scope, String key) {
+			this.scope = scope;
+			this.key = key;
+		}
+
+		private void add(long fileCount, long byteCount) {
+			files.addAndGet(fileCount);
+			bytes.addAndGet(byteCount);
+			dirty = true;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.codelightful.chantico.engine;
 
 import org.codelightful.chantico.Chantico;
+import org.codelightful.chantico.metrics.RequestTrace;
 import org.codelightful.chantico.persistence.Operation;
 import org.codelightful.harpo.RSAUtil;
 
@@ -38,6 +39,7 @@ public class UserService {
                         userName.set(login);
                     }
                 });
+        RequestTrace.mark(RequestTrace.Phase.AUTH);
         return userName.get();
     }
 
@@ -0,0 +1,273 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.MavenVersion;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.model.VersionRange;
+import org.codelightful.chantico.persistence.Operation;
+import org.codelightful.chantico.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index with the versions of every artifact of a repository sorted in the Maven order, along with the latest
+ * timestamped build of every snapshot version. It is loaded from the catalog at startup and updated from the repository
+ * events, so the version lists, the ranges and the snapshots are resolved without reading any metadata file
+ */
+public class VersionIndex {
+	private static final Logger logger = LoggerFactory.getLogger("artifact");
+	/** Suffix of the snapshot versions */
+	private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+	/** Timestamp and build number of the files of a snapshot build (for example 20200130.101520-3) */
+	private static final Pattern SNAPSHOT_BUILD = Pattern.compile("-(\\d{8}\\.\\d{6})-(\\d+)");
+	/** Keyword resolved to the newest version, including the snapshots */
+	public static final String LATEST = "LATEST";
+	/** Keyword resolved to the newest release version */
+	public static final String RELEASE = "RELEASE";
+	private final String repository;
+	private final Storage storage;
+	/** Versions of every artifact keyed by group:artifact */
+	private final Map<String, ConcurrentNavigableMap<MavenVersion, Version>> artifacts = new ConcurrentHashMap<>();
+
+	/**
+	 * @param repository Name of the repository
+	 * @param storage Backend that keeps the content of the repository, used to verify the versions affected by a deletion
+	 */
+	VersionIndex(String repository, Storage storage) {
+		this.repository = repository;
+		this.storage = storage;
+		MetricsRegistry.getInstance().gauge("chantico_version_index_artifacts", "Number of artifacts in the version index",
+				artifacts::size, "repository", repository);
+	}
+
+	/** Loads the versions of the files registered in the catalog */
+	void load() {
+		long startTime = System.currentTimeMillis();
+		Operation.Query.from("SELECT catalog_group, catalog_artifact, catalog_version, catalog_file FROM chantico_catalog "
+				+ "WHERE catalog_repository = ? AND catalog_version IS NOT NULL", repository)
+				.execute(rs -> add(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+		logger.info("Version index loaded. repository={} artifacts={} time={}ms", repository, artifacts.size(),
+				System.currentTimeMillis() - startTime);
+	}
+
+	/** Applies a batch of repository events, executed by the event bus */
+	void consume(List<RepositoryEvent> events) throws Exception {
+		for (RepositoryEvent event : events) {
+			ArtifactRequest request = event.request;
+			if (request.version == null) {
+				continue;
+			}
+			if (event.type == RepositoryEvent.Type.STORED) {
+				add(request.group, request.artifact, request.version, request.fileName);
+			} else if (event.type == RepositoryEvent.Type.DELETED) {
+				refresh(request);
+			}
+		}
+	}
+
+	/**
+	 * Obtains the versions of an artifact
+	 * @param group Group of the artifact
+	 * @param artifact Identifier of the artifact
+	 * @return Versions from the oldest to the newest or null if the artifact does not exist
+	 */
+	public List<String> getVersions(String group, String artifact) {
+		ConcurrentNavigableMap<MavenVersion, Version> versions = artifacts.get(key(group, artifact));
+		if (versions == null) {
+			return null;
+		}
+		List<String> result = new ArrayList<>(versions.size());
+		for (MavenVersion version : versions.keySet()) {
+			result.add(version.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves a version specification of an artifact
+	 * @param group Group of the artifact
+	 * @param artifact Identifier of the artifact
+	 * @param specification LATEST, RELEASE, a version or a version range. The snapshots only match a range when any of
+	 *                      its bounds is a snapshot
+	 * @return Version resolved or null if no version matches
+	 * @throws IllegalArgumentException If the specification is not a valid range
+	 */
+	public Resolution resolve(String group, String artifact, String specification) {
+		ConcurrentNavigableMap<MavenVersion, Version> versions = artifacts.get(key(group, artifact));
+		if (versions == null) {
+			return null;
+		}
+		if (LATEST.equals(specification)) {
+			Map.Entry<MavenVersion, Version> latest = versions.lastEntry();
+			return latest == null ? null : latest.getValue().toResolution();
+		} else if (RELEASE.equals(specification)) {
+			return findLast(versions, null, false);
+		}
+		VersionRange range = VersionRange.parse(specification);
+		return findLast(versions, range, range.hasSnapshotBound());
+	}
+
+	/**
+	 * Obtains a summary of the artifacts sorted by group and artifact
+	 * @param after Key (group:artifact) of the last artifact of the previous page or null for the first page
+	 * @param limit Maximum number of artifacts to return
+	 */
+	public List<Summary> getArtifacts(String after, int limit) {
+		List<String> keys = new ArrayList<>();
+		for (String key : artifacts.keySet()) {
+			if (after == null || key.compareTo(after) > 0) {
+				keys.add(key);
+			}
+		}
+		keys.sort(null);
+		List<Summary> result = new ArrayList<>();
+		for (String key : keys) {
+			ConcurrentNavigableMap<MavenVersion, Version> versions = artifacts.get(key);
+			Map.Entry<MavenVersion, Version> latest = versions == null ? null : versions.lastEntry();
+			if (latest == null) {
+				continue;
+			}
+			Resolution release = findLast(versions, null, false);
+			int separator = key.indexOf(':');
+			result.add(new Summary(key.substring(0, separator), key.substring(separator + 1), latest.getKey().toString(),
+					release == null ? null : release.version, versions.size()));
+			if (result.size() >= limit) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/** Registers a file of a version */
+	private void add(String group, String artifact, String version, String fileName) {
+		if (group == null || artifact == null || version == null) {
+			return;
+		}
+		Version entry = artifacts.computeIfAbsent(key(group, artifact), key -> new ConcurrentSkipListMap<>())
+				.computeIfAbsent(new MavenVersion(version), key -> new Version(version));
+		if (version.endsWith(SNAPSHOT_SUFFIX) && fileName != null) {
+			entry.addBuild(artifact, fileName);
+		}
+	}
+
+	/** Verifies the version of a deleted file, removing it when it has no files left */
+	private void refresh(ArtifactRequest request) throws Exception {
+		String key = key(request.group, request.artifact);
+		ConcurrentNavigableMap<MavenVersion, Version> versions = artifacts.get(key);
+		if (versions == null) {
+			return;
+		}
+		Path versionFolder = request.path.getParent();
+		Version version = new Version(request.version);
+		boolean empty = true;
+		for (Storage.Entry entry : storage.list(versionFolder)) {
+			if (!entry.directory) {
+				empty = false;
+				if (request.version.endsWith(SNAPSHOT_SUFFIX)) {
+					version.addBuild(request.artifact, entry.key.getFileName().toString());
+				}
+			}
+		}
+		MavenVersion mavenVersion = new MavenVersion(request.version);
+		if (empty) {
+			versions.remove(mavenVersion);
+			artifacts.computeIfPresent(key, (k, current) -> current.isEmpty() ? null : current);
+		} else {
+			versions.put(mavenVersion, version);
+		}
+	}
+
+	private static Resolution findLast(ConcurrentNavigableMap<MavenVersion, Version> versions, VersionRange range,
+			boolean includeSnapshots) {
+		for (Map.Entry<MavenVersion, Version> entry : versions.descendingMap().entrySet()) {
+			MavenVersion version = entry.getKey();
+			if ((includeSnapshots || !version.isSnapshot()) && (range == null || range.contains(version))) {
+				return entry.getValue().toResolution();
+			}
+		}
+		return null;
+	}
+
+	private static String key(String group, String artifact) {
+		return group + ":" + artifact;
+	}
+
+	/** Version of an artifact with its latest snapshot build */
+	private static class Version {
+		private final String value;
+		/** Timestamp and build number of the latest build (for example 20200130.101520-3) or null */
+		private volatile String build;
+		private volatile long buildOrder;
+
+		private Version(String value) {
+			this.value = value;
+		}
+
+		/** Registers the build of a snapshot file when it is newer than the current one */
+		private synchronized void addBuild(String artifact, String fileName) {
+			String base = value.substring(0, value.length() - SNAPSHOT_SUFFIX.length());
+			String prefix = artifact + "-" + base;
+			if (!fileName.startsWith(prefix)) {
+				return;
+			}
+			Matcher matcher = SNAPSHOT_BUILD.matcher(fileName);
+			if (!matcher.find(prefix.length()) || matcher.start() != prefix.length()) {
+				return;
+			}
+			String timestamp = matcher.group(1);
+			long order = Long.parseLong(timestamp.replace(".", "")) * 100_000 + Math.min(99_999, Long.parseLong(matcher.group(2)));
+			if (order > buildOrder) {
+				buildOrder = order;
+				build = timestamp + "-" + matcher.group(2);
+			}
+		}
+
+		private Resolution toResolution() {
+			String latestBuild = build;
+			return new Resolution(value, latestBuild == null ? null
+					: value.substring(0, value.length() - SNAPSHOT_SUFFIX.length()) + "-" + latestBuild);
+		}
+	}
+
+	/** Version resolved */
+	public static class Resolution {
+		public final String version;
+		/** Timestamped version of the latest build when the version is a snapshot deployed with unique versions */
+		public final String snapshotVersion;
+
+		Resolution(String version, String snapshotVersion) {
+			this.version = version;
+			this.snapshotVersion = snapshotVersion;
+		}
+	}
+
+	/** Summary of the versions of an artifact */
+	public static class Summary {
+		public final String group;
+		public final String artifact;
+		/** Newest version, including the snapshots */
+		public final String latest;
+		/** Newest release version or null if there is none */
+		public final String release;
+		public final int versions;
+
+		Summary(String group, String artifact, String latest, String release, int versions) {
+			this.group = group;
+			this.artifact = artifact;
+			this.latest = latest;
+			this.release = release;
+			this.versions = versions;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.codelightful.chantico.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Monotonic counter backed by a striped adder so concurrent increments do not contend on a single field */
+public class Counter {
+	private final LongAdder value = new LongAdder();
+
+	Counter() {
+	}
+
+	/** Increments the counter by one */
+	public void inc() {
+		value.increment();
+	}
+
+	/**
+	 * Increments the counter by a specific amount
+	 * @param amount Amount to add (negative values are ignored)
+	 */
+	public void add(long amount) {
+		if (amount > 0) {
+			value.add(amount);
+		}
+	}
+
+	/** Obtains the current value of the counter */
+	public long get() {
+		return value.sum();
+	}
+}
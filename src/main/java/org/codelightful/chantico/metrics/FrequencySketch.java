@@ -0,0 +1,124 @@
+package org.codelightful.chantico.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-min sketch that estimates how often a key has been seen using a fixed amount of memory. Every key maps to a
+ * counter of each of the four rows and its estimate is the minimum of them; only the counters at that minimum are
+ * incremented, which reduces the overestimation caused by the collisions. When the number of increments reaches ten
+ * times the width every counter is halved, so the estimates decay and follow the recent popularity. The updates are
+ * lock free and an increment that races with another one may be lost, which is acceptable for an estimate
+ */
+public class FrequencySketch {
+	private static final int DEPTH = 4;
+	/** Odd multipliers that derive an independent index for every row from the same hash */
+	private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+	private final AtomicIntegerArray counters;
+	private final int width;
+	private final int sampleSize;
+	private final AtomicInteger additions = new AtomicInteger();
+	private volatile int resets;
+
+	/** @param width Number of counters of every row, rounded up to a power of two */
+	public FrequencySketch(int width) {
+		this.width = Integer.highestOneBit(Math.max(16, Math.min(width, 1 << 24)) - 1) << 1;
+		this.counters = new AtomicIntegerArray(DEPTH * this.width);
+		this.sampleSize = 10 * this.width;
+	}
+
+	/** Obtains the number of counters of every row */
+	public int getWidth() {
+		return width;
+	}
+
+	/** Obtains the number of times the counters have been halved */
+	public int getResets() {
+		return resets;
+	}
+
+	/**
+	 * Registers an occurrence of a key
+	 * @param hash Hash of the key
+	 * @return Estimated frequency of the key including this occurrence
+	 */
+	public int increment(int hash) {
+		int minimum = estimate(hash);
+		for (int row = 0; row < DEPTH; row++) {
+			int index = indexOf(hash, row);
+			if (counters.get(index) == minimum) {
+				counters.compareAndSet(index, minimum, minimum + 1);
+			}
+		}
+		if (additions.incrementAndGet() >= sampleSize) {
+			reset();
+		}
+		return minimum + 1;
+	}
+
+	/**
+	 * Estimates the frequency of a key, which is never lower than the real one since the last halving
+	 * @param hash Hash of the key
+	 */
+	public int estimate(int hash) {
+		int minimum = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			minimum = Math.min(minimum, counters.get(indexOf(hash, row)));
+		}
+		return minimum;
+	}
+
+	/** Halves every counter, only one thread does it when several ones reach the sample size at the same time */
+	private synchronized void reset() {
+		if (additions.get() < sampleSize) {
+			return;
+		}
+		for (int idx = 0; idx < counters.length(); idx++) {
+			counters.set(idx, counters.get(idx) >>> 1);
+		}
+		additions.set(additions.get() >>> 1);
+		resets++;
+	}
+
+	private int indexOf(int hash, int row) {
+		int index = hash * SEEDS[row];
+		index ^= index >>> 16;
+		return row * width + (index & (width - 1));
+	}
+
+	/** Writes the counters, so the sketch can be restored with {@link #read(DataInput)} */
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(width);
+		output.writeInt(additions.get());
+		for (int idx = 0; idx < counters.length(); idx++) {
+			output.writeInt(counters.get(idx));
+		}
+	}
+
+	/**
+	 * Restores a sketch written by {@link #write(DataOutput)}
+	 * @param input Stream to read the counters from
+	 * @param width Width expected, when the sketch has a different one it is read and discarded
+	 * @return Sketch restored or null if it has a different width
+	 */
+	public static FrequencySketch read(DataInput input, int width) throws IOException {
+		int storedWidth = input.readInt();
+		int storedAdditions = input.readInt();
+		FrequencySketch sketch = new FrequencySketch(width);
+		boolean matches = storedWidth == sketch.width;
+		for (int idx = 0; idx < DEPTH * storedWidth; idx++) {
+			int value = input.readInt();
+			if (matches) {
+				sketch.counters.set(idx, value);
+			}
+		}
+		if (!matches) {
+			return null;
+		}
+		sketch.additions.set(storedAdditions);
+		return sketch;
+	}
+}
@@ -0,0 +1,113 @@
+package org.codelightful.chantico.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non negative long values using log-linear buckets in the same way HDR histograms do: every power of
+ * two range is split in a fixed number of linear sub buckets, which keeps the relative error of any recorded value
+ * under 12.5% with a fixed memory footprint and a lock free record operation
+ */
+public class Histogram {
+	/** Number of bits used for the linear sub buckets inside of every power of two */
+	private static final int SUB_BUCKET_BITS = 3;
+	/** Number of linear sub buckets inside of every power of two */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	/** Highest power of two tracked, bigger values are recorded in the last bucket */
+	private static final int MAX_EXPONENT = 40;
+	/** Total number of buckets */
+	static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	public Histogram() {
+	}
+
+	/**
+	 * Records a single value
+	 * @param value Value to record (negative values are recorded as zero)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+	}
+
+	/** Obtains the number of recorded values */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/** Obtains the sum of all the recorded values */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Obtains the number of recorded values that are lower than a power of two
+	 * @param exponent Exponent of the power of two used as the exclusive upper limit
+	 */
+	public long getCountBelowPowerOfTwo(int exponent) {
+		int limit = exponent <= SUB_BUCKET_BITS ? Math.min(1 << exponent, BUCKET_COUNT) : bucketIndex(1L << Math.min(exponent, MAX_EXPONENT + 1));
+		long total = 0;
+		for (int idx = 0; idx < limit && idx < BUCKET_COUNT; idx++) {
+			total += buckets.get(idx);
+		}
+		return total;
+	}
+
+	/**
+	 * Obtains an approximation of the value at a specific percentile
+	 * @param percentile Percentile between 0 and 100
+	 * @return Upper limit of the bucket that contains the percentile or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+			counts[idx] = buckets.get(idx);
+			total += counts[idx];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(total * Math.min(100d, Math.max(0d, percentile)) / 100d));
+		long accumulated = 0;
+		for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+			accumulated += counts[idx];
+			if (accumulated >= target) {
+				return bucketUpperLimit(idx);
+			}
+		}
+		return bucketUpperLimit(BUCKET_COUNT - 1);
+	}
+
+	/** Internal method to obtain the bucket for a value */
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKET_COUNT - 1;
+		}
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/** Internal method to obtain the highest value that is recorded in a bucket */
+	static long bucketUpperLimit(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKET_COUNT;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (subBucket + 1) * width - 1;
+	}
+}
@@ -0,0 +1,186 @@
+package org.codelightful.chantico.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the metrics collected by the server. Metrics are grouped in families identified by name, every family
+ * contains one instance per combination of label values. The content can be exported using the Prometheus text format
+ */
+public class MetricsRegistry {
+	/** Content type of the Prometheus text exposition format */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	/** Exponents of the powers of two used as Prometheus buckets for the histograms (1 to ~67 million units) */
+	private static final int MIN_EXPORTED_EXPONENT = 0;
+	private static final int MAX_EXPORTED_EXPONENT = 26;
+	private static final MetricsRegistry instance = new MetricsRegistry();
+	/** Families sorted by name so the output is stable */
+	private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+	private MetricsRegistry() {
+	}
+
+	/** Obtains the singleton instance of the registry */
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Obtains (or creates) a counter
+	 * @param name Name of the metric
+	 * @param help Description of the metric
+	 * @param labels Pairs of label names and values
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) family(name, help, Type.COUNTER, 1d).metrics.computeIfAbsent(labelText(labels), key -> new Counter());
+	}
+
+	/**
+	 * Obtains (or creates) a histogram
+	 * @param name Name of the metric
+	 * @param help Description of the metric
+	 * @param scale Factor to convert the recorded values to the exported unit (for example 1e-6 for microseconds recorded
+	 *              as seconds)
+	 * @param labels Pairs of label names and values
+	 */
+	public Histogram histogram(String name, String help, double scale, String... labels) {
+		return (Histogram) family(name, help, Type.HISTOGRAM, scale).metrics.computeIfAbsent(labelText(labels), key -> new Histogram());
+	}
+
+	/**
+	 * Registers a gauge whose value is obtained from a supplier every time the metrics are exported. Registering the
+	 * same gauge again replaces the previous supplier
+	 * @param name Name of the metric
+	 * @param help Description of the metric
+	 * @param supplier Supplier of the current value
+	 * @param labels Pairs of label names and values
+	 */
+	public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+		family(name, help, Type.GAUGE, 1d).metrics.put(labelText(labels), supplier);
+	}
+
+	/** Internal method to obtain a family validating the type is consistent */
+	private Family family(String name, String help, Type type, double scale) {
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type, scale));
+		if (family.type != type) {
+			throw new IllegalArgumentException("The metric " + name + " is already registered as " + family.type);
+		}
+		return family;
+	}
+
+	/** Internal method to render the label pairs in the exposition format */
+	private static String labelText(String... labels) {
+		if (labels == null || labels.length == 0) {
+			return "";
+		}
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("The labels must be provided as name and value pairs");
+		}
+		StringBuilder text = new StringBuilder();
+		for (int idx = 0; idx < labels.length; idx += 2) {
+			if (idx > 0) {
+				text.append(',');
+			}
+			text.append(labels[idx]).append("=\"");
+			String value = labels[idx + 1] == null ? "" : labels[idx + 1];
+			for (int cdx = 0; cdx < value.length(); cdx++) {
+				char character = value.charAt(cdx);
+				if (character == '\\' || character == '"') {
+					text.append('\\').append(character);
+				} else if (character == '\n') {
+					text.append("\\n");
+				} else {
+					text.append(character);
+				}
+			}
+			text.append('"');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Writes all the metrics using the Prometheus text exposition format
+	 * @param writer Writer to send the content to
+	 */
+	public void write(Writer writer) throws IOException {
+		for (Family family : families.values()) {
+			writer.write("# HELP " + family.name + " " + family.help + "\n");
+			writer.write("# TYPE " + family.name + " " + family.type.name().toLowerCase() + "\n");
+			for (Map.Entry<String, Object> entry : new ConcurrentSkipListMap<>(family.metrics).entrySet()) {
+				String labels = entry.getKey();
+				Object metric = entry.getValue();
+				if (metric instanceof Counter) {
+					writeSample(writer, family.name, labels, ((Counter) metric).get());
+				} else if (metric instanceof DoubleSupplier) {
+					writeSample(writer, family.name, labels, ((DoubleSupplier) metric).getAsDouble());
+				} else if (metric instanceof Histogram) {
+					writeHistogram(writer, family, labels, (Histogram) metric);
+				}
+			}
+		}
+		writer.flush();
+	}
+
+	/** Internal method to write the lines that represent a histogram */
+	private void writeHistogram(Writer writer, Family family, String labels, Histogram histogram) throws IOException {
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		long count = histogram.getCount();
+		for (int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPORTED_EXPONENT; exponent++) {
+			String bucketLabels = prefix + "le=\"" + formatValue((1L << exponent) * family.scale) + "\"";
+			writeSample(writer, family.name + "_bucket", bucketLabels, histogram.getCountBelowPowerOfTwo(exponent));
+		}
+		writeSample(writer, family.name + "_bucket", prefix + "le=\"+Inf\"", count);
+		writeSample(writer, family.name + "_sum", labels, histogram.getSum() * family.scale);
+		writeSample(writer, family.name + "_count", labels, count);
+	}
+
+	/** Internal method to write a single sample line */
+	private void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(name);
+		if (!labels.isEmpty()) {
+			writer.write('{');
+			writer.write(labels);
+			writer.write('}');
+		}
+		writer.write(' ');
+		writer.write(formatValue(value));
+		writer.write('\n');
+	}
+
+	/** Internal method to format a numeric value */
+	private static String formatValue(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		} else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	/** Supported metric types */
+	private enum Type {
+		COUNTER, GAUGE, HISTOGRAM
+	}
+
+	/** Group of metrics sharing name, description and type */
+	private static class Family {
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final double scale;
+		/** Metric instances by rendered label text */
+		private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+		private Family(String name, String help, Type type, double scale) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.scale = scale;
+		}
+	}
+}
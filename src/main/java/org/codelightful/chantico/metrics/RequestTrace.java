@@ -0,0 +1,113 @@
+package org.codelightful.chantico.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timestamps of the phases of a sampled request. The trace is bound to the thread that serves the request, so any layer
+ * can mark a phase with {@link #mark(Phase)} without receiving the trace; marking a phase when the request is not
+ * sampled only costs a thread local lookup. Only the first mark of every phase is kept
+ */
+public class RequestTrace {
+	private static final ThreadLocal<RequestTrace> current = new ThreadLocal<>();
+	/** Marker of a phase that has not happened */
+	private static final long NOT_MARKED = -1;
+	public final String method;
+	public final String uri;
+	public final String client;
+	/** Time the request was accepted in milliseconds since the epoch */
+	public final long acceptedOn;
+	private final long startNanos;
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private volatile long totalNanos;
+	private volatile int status;
+
+	/** Phases of a request after it has been accepted, in the order they usually happen */
+	public enum Phase {
+		/** The user of the request has been identified or authenticated */
+		AUTH("auth"),
+		/** The path of the request has been parsed */
+		PARSE("parse"),
+		/** The file has been opened in the storage */
+		STORAGE_OPEN("storageOpen"),
+		/** The first byte of the content has been written to the client */
+		FIRST_BYTE("firstByte"),
+		/** The last byte of the content has been written to the client */
+		LAST_BYTE("lastByte");
+
+		/** Name of the phase in the reports */
+		private final String label;
+
+		Phase(String label) {
+			this.label = label;
+		}
+	}
+
+	RequestTrace(String method, String uri, String client) {
+		this.method = method;
+		this.uri = uri;
+		this.client = client;
+		this.acceptedOn = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+		for (int idx = 0; idx < phaseNanos.length; idx++) {
+			phaseNanos[idx] = NOT_MARKED;
+		}
+	}
+
+	/**
+	 * Marks a phase of the request served by the current thread, nothing is done if the request is not sampled
+	 * @param phase Phase that has just completed
+	 */
+	public static void mark(Phase phase) {
+		RequestTrace trace = current.get();
+		if (trace != null && trace.phaseNanos[phase.ordinal()] == NOT_MARKED) {
+			trace.phaseNanos[phase.ordinal()] = System.nanoTime() - trace.startNanos;
+		}
+	}
+
+	/** Binds a trace to the current thread */
+	static void bind(RequestTrace trace) {
+		current.set(trace);
+	}
+
+	/** Registers the completion of the request and unbinds the trace from the current thread */
+	void complete(int status) {
+		this.totalNanos = System.nanoTime() - startNanos;
+		this.status = status;
+		current.remove();
+	}
+
+	/** Obtains the total time of the request in nanoseconds */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/** Describes the trace with the time of every phase marked in milliseconds since the request was accepted */
+	public Map<String, Object> toMap() {
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("acceptedOn", acceptedOn);
+		values.put("method", method);
+		values.put("uri", uri);
+		values.put("client", client);
+		values.put("status", status);
+		values.put("totalMillis", toMillis(totalNanos));
+		Map<String, Object> phases = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			long nanos = phaseNanos[phase.ordinal()];
+			if (nanos != NOT_MARKED) {
+				phases.put(phase.label, toMillis(nanos));
+			}
+		}
+		values.put("phases", phases);
+		return values;
+	}
+
+	/** Converts nanoseconds to milliseconds keeping the microseconds */
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1000d) / 1000d;
+	}
+}
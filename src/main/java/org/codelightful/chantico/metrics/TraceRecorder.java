@@ -0,0 +1,189 @@
+package org.codelightful.chantico.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.codelightful.chantico.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the requests served (tracing.samplePercent) and keeps the slowest ones of the last tracing.windowMinutes
+ * with the breakdown of their phases, up to tracing.slowest traces. When tracing.file.enabled is set, the sampled
+ * requests slower than tracing.file.minMillis are also written as JSON lines to logs/traces.log in the home, which is
+ * rotated when it reaches tracing.file.maxBytes keeping tracing.file.maxFiles old files. The file is written by its own
+ * thread, so a slow disk never delays the requests (the traces are discarded when it cannot keep up)
+ */
+public class TraceRecorder {
+	private static final Logger logger = LoggerFactory.getLogger("server");
+	private static TraceRecorder instance = new TraceRecorder();
+	private static final String FILE_NAME = "traces.log";
+	/** Maximum number of traces waiting to be written to the file */
+	private static final int QUEUE_CAPACITY = 4096;
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	/** Slowest traces of the window, the fastest one is at the head so it is the first replaced */
+	private final PriorityQueue<RequestTrace> slowest = new PriorityQueue<>(Comparator.comparingLong(RequestTrace::getTotalNanos));
+	private final BlockingQueue<RequestTrace> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final Counter sampledTraces = MetricsRegistry.getInstance().counter("chantico_traces_total",
+			"Number of requests traced", "result", "sampled");
+	private final Counter droppedTraces = MetricsRegistry.getInstance().counter("chantico_traces_total",
+			"Number of requests traced", "result", "dropped");
+	private Thread writer;
+
+	public static TraceRecorder getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Decides if a request is sampled and, when it is, binds its trace to the current thread
+	 * @param method HTTP method of the request
+	 * @param uri Path of the request
+	 * @param client Address of the client
+	 * @return Trace of the request, which has to be finished, or null if the request is not sampled
+	 */
+	public RequestTrace start(String method, String uri, String client) {
+		int percent = getSamplePercent();
+		if (percent <= 0 || (percent < 100 && ThreadLocalRandom.current().nextInt(100) >= percent)) {
+			return null;
+		}
+		RequestTrace trace = new RequestTrace(method, uri, client);
+		RequestTrace.bind(trace);
+		return trace;
+	}
+
+	/**
+	 * Registers the completion of a sampled request
+	 * @param trace Trace of the request
+	 * @param status Status code of the response
+	 */
+	public void finish(RequestTrace trace, int status) {
+		trace.complete(status);
+		sampledTraces.inc();
+		Configuration configuration = Configuration.getInstance();
+		int capacity = Math.max(1, configuration.getInt("tracing.slowest", 50));
+		long windowStart = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(configuration.getLong("tracing.windowMinutes", 15));
+		synchronized (slowest) {
+			slowest.removeIf(slow -> slow.acceptedOn < windowStart);
+			while (slowest.size() >= capacity && slowest.peek().getTotalNanos() < trace.getTotalNanos()) {
+				slowest.poll();
+			}
+			if (slowest.size() < capacity) {
+				slowest.add(trace);
+			}
+		}
+		if (configuration.getBoolean("tracing.file.enabled", false)
+				&& trace.getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(configuration.getLong("tracing.file.minMillis", 0))) {
+			startWriter();
+			if (!pending.offer(trace)) {
+				droppedTraces.inc();
+			}
+		}
+	}
+
+	/** Obtains the percentage of the requests that are traced */
+	public int getSamplePercent() {
+		return Configuration.getInstance().getInt("tracing.samplePercent", 10);
+	}
+
+	/** Obtains the slowest traces of the window, from the slowest to the fastest */
+	public List<Map<String, Object>> getSlowest() {
+		long windowStart = System.currentTimeMillis()
+				- TimeUnit.MINUTES.toMillis(Configuration.getInstance().getLong("tracing.windowMinutes", 15));
+		List<RequestTrace> traces;
+		synchronized (slowest) {
+			slowest.removeIf(slow -> slow.acceptedOn < windowStart);
+			traces = new ArrayList<>(slowest);
+		}
+		traces.sort(Comparator.comparingLong(RequestTrace::getTotalNanos).reversed());
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (RequestTrace trace : traces) {
+			result.add(trace.toMap());
+		}
+		return result;
+	}
+
+	private synchronized void startWriter() {
+		if (writer == null) {
+			writer = new Thread(this::writeTraces, "trace-writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/** Internal method executed by the writer thread to append the traces to the file as they are finished */
+	private void writeTraces() {
+		File file = Configuration.getFileFromHome("logs", FILE_NAME);
+		file.getParentFile().mkdirs();
+		Writer output = null;
+		long size = file.length();
+		List<RequestTrace> batch = new ArrayList<>();
+		while (true) {
+			try {
+				batch.add(pending.take());
+				pending.drainTo(batch);
+				Configuration configuration = Configuration.getInstance();
+				long maxBytes = Math.max(1024, configuration.getLong("tracing.file.maxBytes", 10 * 1024 * 1024));
+				for (RequestTrace trace : batch) {
+					if (output == null) {
+						output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+					}
+					String line = JSON_MAPPER.writeValueAsString(trace.toMap()) + "\n";
+					output.write(line);
+					size += line.length();
+					if (size >= maxBytes) {
+						output.close();
+						output = null;
+						rotate(file, Math.max(1, configuration.getInt("tracing.file.maxFiles", 5)));
+						size = 0;
+					}
+				}
+				if (output != null) {
+					output.flush();
+				}
+			} catch (InterruptedException ex) {
+				break;
+			} catch (IOException ex) {
+				logger.error("An error has occurred trying to write the request traces. file={} cause={}", file, ex.getMessage());
+				if (output != null) {
+					try {
+						output.close();
+					} catch (IOException closeEx) {
+						// the file is opened again with the next trace
+					}
+					output = null;
+				}
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/** Renames the file to the first backup, shifting the existing backups and removing the oldest one */
+	private static void rotate(File file, int maxFiles) {
+		new File(file.getPath() + "." + maxFiles).delete();
+		for (int idx = maxFiles - 1; idx >= 1; idx--) {
+			File backup = new File(file.getPath() + "." + idx);
+			if (backup.exists() && !backup.renameTo(new File(file.getPath() + "." + (idx + 1)))) {
+				logger.warn("A backup of the request traces could not be renamed. file={}", backup);
+			}
+		}
+		if (!file.renameTo(new File(file.getPath() + ".1"))) {
+			logger.warn("The request traces could not be rotated. file={}", file);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.codelightful.chantico.model;
+
+/**
+ * DTO that represents an event recorded in the recent activity of a repository
+ */
+public class ActivityEvent {
+	/** Kind of activity recorded */
+	public enum Type {
+		UPLOAD, DOWNLOAD, MISS, DELETE, LOGIN
+	}
+
+	/** Position of the event in the activity log of the repository */
+	public final long sequence;
+	/** Kind of activity */
+	public final Type type;
+	/** Name of the repository */
+	public final String repo;
+	public final String group;
+	public final String artifact;
+	public final String version;
+	public final String fileName;
+	/** User that executed the operation (null for anonymous requests) */
+	public final String user;
+	/** Address of the client that executed the operation */
+	public final String client;
+	/** Time in milliseconds when the event was recorded */
+	public final long date;
+
+	public ActivityEvent(long sequence, Type type, String repo, ArtifactRequest request, String user, String client) {
+		this.sequence = sequence;
+		this.type = type;
+		this.repo = repo;
+		this.group = request == null ? null : request.group;
+		this.artifact = request == null ? null : request.artifact;
+		this.version = request == null ? null : request.version;
+		this.fileName = request == null ? null : request.fileName;
+		this.user = user;
+		this.client = client;
+		this.date = System.currentTimeMillis();
+	}
+}
@@ -1,27 +1,25 @@
 package org.codelightful.chantico.model;
 
+import org.codelightful.chantico.metrics.FrequencySketch;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * DTO that represents a request to extract or to store an artifact
  */
 public class ArtifactRequest {
-	/** Constant with the URI part that contains the artifact filename */
-	private static final String URI_PART_FILE_NAME = "fileName";
-	/** Constant with the URI part that contains the artifact version */
-	private static final String URI_PART_VERSION = "version";
-	/** Constant with the URI part that contains the artifact name */
-	private static final String URI_PART_ARTIFACT = "artifact";
-	/** Constant with the URI part that contains the artifact group */
-	private static final String URI_PART_GROUP = "group";
-	/** Array with the order in which the atifact is described in a request URI */
-	private static final String[] URI_PARTS = new String[] {
-			URI_PART_GROUP,
-			URI_PART_ARTIFACT,
-			URI_PART_VERSION,
-			URI_PART_FILE_NAME
-	};
+	/** Default number of coordinates kept in the file pool */
+	public static final int DEFAULT_POOL_SIZE = 8192;
+	/** Prefix of the metadata files, which are not located under a version folder */
+	private static final String METADATA_PREFIX = "maven-metadata";
+	/** Pool of the coordinates of the files requested recently, keyed by the whole path */
+	private static final CoordinatePool FILE_POOL = new CoordinatePool("coordinates", DEFAULT_POOL_SIZE);
+	/** Pool of the group and artifact values, keyed by the path of the artifact folder */
+	private static final CoordinatePool ARTIFACT_POOL = new CoordinatePool("artifact-coordinates", DEFAULT_POOL_SIZE / 4);
 
 	/** Contains the entire group hierarchy (separated by dots) */
 	public String group;
@@ -31,11 +29,17 @@ public class ArtifactRequest {
 	public String version;
 	/** Name of the file to extract */
 	public String fileName;
-	/** Array containing the separate hierarchy pieces of the group */
-	public String[] groupParts;
+	/** Unmodifiable list with the separate hierarchy pieces of the group (shared between the requests of the same group) */
+	public List<String> groupParts;
+	/** Path of the requested file relative to the repository root */
+	public Path path;
+	/** Hash of the request path, the same one used by the coordinate pool to identify the file */
+	public int pathHash;
 
 	/**
-	 * Creates an object representing the requests received to execute an artifact operation
+	 * Creates an object representing the requests received to execute an artifact operation. The path is decomposed
+	 * in a single pass and the resulting values are taken from a bounded pool, so requests for files that have been
+	 * requested recently do not create any string or path
  	 * @param path Resoyrce received in the request (is equivalent to the URI without the context part). For example:
 	 *             if the URI is /artifact/group/version/artifact/file and the context for the servlet is /artifact
 	 *             then the path for this method should be group/version/artifact/file
@@ -44,35 +48,112 @@ public class ArtifactRequest {
 	public static ArtifactRequest parse(String path) {
 		if (path == null || path.isEmpty()) {
 			throw new IllegalArgumentException("Unable to process an artifact request from a null or empty path");
-		} else if (path.startsWith("/")) {
-			path = path.substring(1);
 		}
-		String[] parsed = path.split("\\/");
+		int start = path.charAt(0) == '/' ? 1 : 0;
+		int end = path.length();
+		while (end > start && path.charAt(end - 1) == '/') {
+			end--;
+		}
+
+		Coordinate coordinate = FILE_POOL.get(path, start, end);
+		if (coordinate == null) {
+			coordinate = createCoordinate(path, start, end);
+			FILE_POOL.put(coordinate);
+		}
 
 		ArtifactRequest artifactRequest = new ArtifactRequest();
-		int partIndex = URI_PARTS.length;
-		for (int idx = parsed.length - 1; idx >= 0; idx--) {
-			partIndex --;
-			String partName = URI_PARTS[partIndex];
-			if (URI_PART_FILE_NAME.equals(partName)) {
-				artifactRequest.fileName = parsed[idx];
-				// the maven metadata URI does not contain a version since is a generic file for the package
-				if (artifactRequest.fileName.startsWith("maven-metadata")) {
-					partIndex--;
-				}
-			} else if (URI_PART_VERSION.equals(partName)) {
-				artifactRequest.version = parsed[idx];
-			} else if (URI_PART_ARTIFACT.equals(partName)) {
-				artifactRequest.artifact = parsed[idx];
-			} else if (URI_PART_GROUP.equals(partName)) {
-				artifactRequest.groupParts = new String[idx + 1];
-				for (int gdx=0; gdx <= idx; gdx++) {
-					artifactRequest.groupParts[gdx] = parsed[gdx];
-				}
-				artifactRequest.group = Arrays.stream(artifactRequest.groupParts).collect(Collectors.joining("."));
-				break;
+		artifactRequest.group = coordinate.group;
+		artifactRequest.groupParts = coordinate.groupParts;
+		artifactRequest.artifact = coordinate.artifact;
+		artifactRequest.version = coordinate.version;
+		artifactRequest.fileName = coordinate.fileName;
+		artifactRequest.path = coordinate.path;
+		artifactRequest.pathHash = coordinate.hash;
+		return artifactRequest;
+	}
+
+	/**
+	 * Changes the number of file coordinates kept in the pool. The pool is emptied when it is resized
+	 * @param size Maximum number of coordinates
+	 */
+	public static void setPoolSize(int size) {
+		FILE_POOL.resize(size);
+		ARTIFACT_POOL.resize(size / 4);
+	}
+
+	/**
+	 * Changes the sketch that decides which file coordinates are kept in the pool when they compete for a slot
+	 * @param sketch Frequencies keyed by {@link #pathHash} or null to always keep the latest coordinate
+	 */
+	public static void setAdmissionSketch(FrequencySketch sketch) {
+		FILE_POOL.setAdmission(sketch);
+	}
+
+	/**
+	 * Internal method to decompose a path region that is not available in the pool. The segments are identified from
+	 * the end: file name, version (not present for the metadata files), artifact and the group hierarchy
+	 */
+	private static Coordinate createCoordinate(String path, int start, int end) {
+		int separator = lastSeparator(path, start, end);
+		String fileName = path.substring(separator + 1, end);
+
+		String version = null;
+		if (separator >= start && !fileName.startsWith(METADATA_PREFIX)) {
+			int versionSeparator = lastSeparator(path, start, separator);
+			version = path.substring(versionSeparator + 1, separator);
+			separator = versionSeparator;
+		}
+
+		Path relativePath;
+		Coordinate artifactCoordinate = null;
+		if (separator >= start) {
+			artifactCoordinate = ARTIFACT_POOL.get(path, start, separator);
+			if (artifactCoordinate == null) {
+				artifactCoordinate = createArtifactCoordinate(path, start, separator);
+				ARTIFACT_POOL.put(artifactCoordinate);
 			}
+			relativePath = version == null ? artifactCoordinate.path.resolve(fileName)
+					: artifactCoordinate.path.resolve(version).resolve(fileName);
+		} else {
+			relativePath = version == null ? Paths.get(fileName) : Paths.get(version, fileName);
 		}
-		return artifactRequest;
+
+		return new Coordinate(path.substring(start, end),
+				artifactCoordinate == null ? null : artifactCoordinate.group,
+				artifactCoordinate == null ? null : artifactCoordinate.groupParts,
+				artifactCoordinate == null ? null : artifactCoordinate.artifact,
+				version, fileName, relativePath);
+	}
+
+	/** Internal method to decompose the region of a path that contains the group hierarchy and the artifact */
+	private static Coordinate createArtifactCoordinate(String path, int start, int end) {
+		int separator = lastSeparator(path, start, end);
+		String artifact = path.substring(separator + 1, end);
+		if (separator < start) {
+			return new Coordinate(artifact, null, null, artifact, null, null, Paths.get(artifact));
+		}
+
+		int partCount = 1;
+		for (int idx = start; idx < separator; idx++) {
+			if (path.charAt(idx) == '/') {
+				partCount++;
+			}
+		}
+		String[] groupParts = new String[partCount];
+		int partStart = start;
+		for (int partIndex = 0; partIndex < partCount; partIndex++) {
+			int partEnd = partIndex == partCount - 1 ? separator : path.indexOf('/', partStart);
+			groupParts[partIndex] = path.substring(partStart, partEnd);
+			partStart = partEnd + 1;
+		}
+		String group = path.substring(start, separator).replace('/', '.');
+		String key = path.substring(start, end);
+		return new Coordinate(key, group, Collections.unmodifiableList(Arrays.asList(groupParts)), artifact, null, null, Paths.get(key));
+	}
+
+	/** Internal method to obtain the index of the last separator inside of a region or start - 1 if there is none */
+	private static int lastSeparator(String path, int start, int end) {
+		int separator = path.lastIndexOf('/', end - 1);
+		return separator < start ? start - 1 : separator;
 	}
 }
@@ -0,0 +1,33 @@
+package org.codelightful.chantico.model;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Immutable set of values decomposed from a request path. Instances are shared through the coordinate pools so the
+ * strings and paths of the artifacts that are requested frequently are created only once
+ */
+final class Coordinate {
+	/** Path region the coordinate was created from (without the leading slash) */
+	final String key;
+	/** Hash of the key, calculated in the same way the pool calculates it for a path region */
+	final int hash;
+	final String group;
+	final List<String> groupParts;
+	final String artifact;
+	final String version;
+	final String fileName;
+	/** Relative path of the file (or of the artifact folder for the artifact level coordinates) */
+	final Path path;
+
+	Coordinate(String key, String group, List<String> groupParts, String artifact, String version, String fileName, Path path) {
+		this.key = key;
+		this.hash = CoordinatePool.hash(key, 0, key.length());
+		this.group = group;
+		this.groupParts = groupParts;
+		this.artifact = artifact;
+		this.version = version;
+		this.fileName = fileName;
+		this.path = path;
+	}
+}
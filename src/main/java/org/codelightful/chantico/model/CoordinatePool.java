@@ -0,0 +1,101 @@
+package org.codelightful.chantico.model;
+
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.FrequencySketch;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded pool of coordinates looked up by a region of a request path without creating any intermediate string. It
+ * works as a direct mapped cache: every key has a single slot and a new coordinate replaces the previous occupant, so
+ * the memory is bounded and both lookups and insertions are lock free. When an admission sketch is set, a coordinate
+ * only replaces an occupant that has not been requested more often, so a scan of rarely used files does not evict the
+ * popular ones
+ */
+final class CoordinatePool {
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter rejections;
+	private volatile AtomicReferenceArray<Coordinate> table;
+	/** Frequencies of the keys used to decide the replacements or null to always replace */
+	private volatile FrequencySketch admission;
+
+	/**
+	 * @param name Name used to identify the pool in the metrics
+	 * @param size Maximum number of coordinates, rounded up to a power of two
+	 */
+	CoordinatePool(String name, int size) {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		hits = registry.counter("chantico_cache_requests_total", "Number of cache lookups", "cache", name, "result", "hit");
+		misses = registry.counter("chantico_cache_requests_total", "Number of cache lookups", "cache", name, "result", "miss");
+		rejections = registry.counter("chantico_cache_rejections_total", "Number of entries not admitted in a cache", "cache", name);
+		resize(size);
+	}
+
+	/**
+	 * Replaces the pool with an empty one of a different size
+	 * @param size Maximum number of coordinates, rounded up to a power of two
+	 */
+	void resize(int size) {
+		int capacity = Integer.highestOneBit(Math.max(16, Math.min(size, 1 << 24)) - 1) << 1;
+		table = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * Obtains the coordinate registered for a region of a path
+	 * @param path Path that contains the key
+	 * @param start Index of the first character of the key
+	 * @param end Index after the last character of the key
+	 * @return Coordinate or null if the region is not in the pool
+	 */
+	Coordinate get(String path, int start, int end) {
+		AtomicReferenceArray<Coordinate> current = table;
+		int hash = hash(path, start, end);
+		Coordinate coordinate = current.get(hash & (current.length() - 1));
+		int length = end - start;
+		if (coordinate != null && coordinate.hash == hash && coordinate.key.length() == length
+				&& coordinate.key.regionMatches(0, path, start, length)) {
+			hits.inc();
+			return coordinate;
+		}
+		misses.inc();
+		return null;
+	}
+
+	/**
+	 * Changes the sketch used to decide if a coordinate replaces the occupant of its slot
+	 * @param sketch Frequencies keyed by the hash of the coordinates or null to always replace the occupant
+	 */
+	void setAdmission(FrequencySketch sketch) {
+		admission = sketch;
+	}
+
+	/**
+	 * Registers a coordinate replacing the coordinate that uses the same slot, unless the admission sketch estimates
+	 * that the occupant is more popular
+	 * @param coordinate Coordinate to register
+	 */
+	void put(Coordinate coordinate) {
+		AtomicReferenceArray<Coordinate> current = table;
+		int slot = coordinate.hash & (current.length() - 1);
+		FrequencySketch sketch = admission;
+		if (sketch != null) {
+			Coordinate occupant = current.get(slot);
+			if (occupant != null && occupant.hash != coordinate.hash && sketch.estimate(coordinate.hash) < sketch.estimate(occupant.hash)) {
+				rejections.inc();
+				return;
+			}
+		}
+		current.lazySet(slot, coordinate);
+	}
+
+	/** Calculates the hash of a region of a string (equivalent to String.hashCode with the bits spread) */
+	static int hash(String value, int start, int end) {
+		int hash = 0;
+		for (int idx = start; idx < end; idx++) {
+			hash = 31 * hash + value.charAt(idx);
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
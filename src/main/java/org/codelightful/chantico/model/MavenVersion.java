@@ -0,0 +1,246 @@
+package org.codelightful.chantico.model;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Version of an artifact ordered the same way Maven does. The version is split in numeric and qualifier items at every
+ * dot, hyphen and transition between digits and letters; the numbers are compared numerically and the well-known
+ * qualifiers follow the order alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; (release) &lt; sp, while
+ * the unknown qualifiers are newer than all of them and compared alphabetically. Trailing zeros and release qualifiers
+ * are ignored, so 1.0, 1.0.0 and 1-final are the same version
+ */
+public class MavenVersion implements Comparable<MavenVersion> {
+	/** Qualifiers with a known order, the empty one represents a release */
+	private static final List<String> QUALIFIERS = Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+	/** Position of the release qualifier, used to compare a qualifier with a missing item */
+	private static final String RELEASE_INDEX = String.valueOf(QUALIFIERS.indexOf(""));
+	private final String value;
+	private final ListItem items;
+
+	/** @param value Text of the version */
+	public MavenVersion(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Unable to parse a null version");
+		}
+		this.value = value;
+		this.items = parse(value);
+	}
+
+	/** Allows to determine if the version is a snapshot */
+	public boolean isSnapshot() {
+		return value.endsWith("-SNAPSHOT");
+	}
+
+	@Override
+	public int compareTo(MavenVersion other) {
+		return items.compareTo(other.items);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof MavenVersion && compareTo((MavenVersion) other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return items.toString().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+
+	/** Splits a version in its items, every hyphen and every transition between digits and letters opens a sub list */
+	private static ListItem parse(String version) {
+		version = version.toLowerCase(Locale.ENGLISH);
+		ListItem list = new ListItem();
+		ListItem root = list;
+		Deque<ListItem> stack = new ArrayDeque<>();
+		stack.push(list);
+		boolean digit = false;
+		int start = 0;
+		for (int idx = 0; idx < version.length(); idx++) {
+			char character = version.charAt(idx);
+			if (character == '.' || character == '-') {
+				list.add(idx == start ? IntItem.ZERO : parseItem(digit, version.substring(start, idx)));
+				start = idx + 1;
+				if (character == '-') {
+					list.add(list = new ListItem());
+					stack.push(list);
+				}
+			} else if (Character.isDigit(character)) {
+				if (!digit && idx > start) {
+					list.add(new StringItem(version.substring(start, idx), true));
+					start = idx;
+					list.add(list = new ListItem());
+					stack.push(list);
+				}
+				digit = true;
+			} else {
+				if (digit && idx > start) {
+					list.add(parseItem(true, version.substring(start, idx)));
+					start = idx;
+					list.add(list = new ListItem());
+					stack.push(list);
+				}
+				digit = false;
+			}
+		}
+		if (version.length() > start) {
+			list.add(parseItem(digit, version.substring(start)));
+		}
+		while (!stack.isEmpty()) {
+			stack.pop().normalize();
+		}
+		return root;
+	}
+
+	private static Item parseItem(boolean digit, String text) {
+		return digit ? new IntItem(text) : new StringItem(text, false);
+	}
+
+	/** Item of a version, a missing item is compared as null */
+	private interface Item {
+		int compareTo(Item item);
+
+		/** Allows to determine if the item is equivalent to a missing one */
+		boolean isNull();
+	}
+
+	private static class IntItem implements Item {
+		private static final IntItem ZERO = new IntItem("0");
+		private final BigInteger value;
+
+		private IntItem(String text) {
+			this.value = new BigInteger(text);
+		}
+
+		@Override
+		public int compareTo(Item item) {
+			if (item == null) {
+				return value.signum() == 0 ? 0 : 1;
+			} else if (item instanceof IntItem) {
+				return value.compareTo(((IntItem) item).value);
+			}
+			// numbers are newer than the qualifiers and than the sub lists
+			return 1;
+		}
+
+		@Override
+		public boolean isNull() {
+			return value.signum() == 0;
+		}
+
+		@Override
+		public String toString() {
+			return value.toString();
+		}
+	}
+
+	private static class StringItem implements Item {
+		private final String value;
+
+		/**
+		 * @param text Qualifier
+		 * @param followedByDigit Boolean value to determine if the qualifier is followed by a number, which makes the
+		 *                        single letters a, b and m aliases of alpha, beta and milestone
+		 */
+		private StringItem(String text, boolean followedByDigit) {
+			if (followedByDigit && text.length() == 1) {
+				text = text.equals("a") ? "alpha" : text.equals("b") ? "beta" : text.equals("m") ? "milestone" : text;
+			}
+			if (text.equals("ga") || text.equals("final") || text.equals("release")) {
+				text = "";
+			} else if (text.equals("cr")) {
+				text = "rc";
+			}
+			this.value = text;
+		}
+
+		/** Obtains a value that sorts the known qualifiers by their position and the unknown ones after them */
+		private static String comparable(String qualifier) {
+			int index = QUALIFIERS.indexOf(qualifier);
+			return index >= 0 ? String.valueOf(index) : QUALIFIERS.size() + "-" + qualifier;
+		}
+
+		@Override
+		public int compareTo(Item item) {
+			if (item == null) {
+				return comparable(value).compareTo(RELEASE_INDEX);
+			} else if (item instanceof StringItem) {
+				return comparable(value).compareTo(comparable(((StringItem) item).value));
+			}
+			return -1;
+		}
+
+		@Override
+		public boolean isNull() {
+			return value.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+	private static class ListItem extends ArrayList<Item> implements Item {
+		private static final long serialVersionUID = 1L;
+
+		/** Removes the trailing items equivalent to missing ones */
+		private void normalize() {
+			for (int idx = size() - 1; idx >= 0; idx--) {
+				Item item = get(idx);
+				if (item.isNull()) {
+					remove(idx);
+				} else if (!(item instanceof ListItem)) {
+					break;
+				}
+			}
+		}
+
+		@Override
+		public int compareTo(Item item) {
+			if (item == null) {
+				return isEmpty() ? 0 : get(0).compareTo(null);
+			} else if (item instanceof IntItem) {
+				return -1;
+			} else if (item instanceof StringItem) {
+				return 1;
+			}
+			Iterator<Item> left = iterator();
+			Iterator<Item> right = ((ListItem) item).iterator();
+			while (left.hasNext() || right.hasNext()) {
+				Item leftItem = left.hasNext() ? left.next() : null;
+				Item rightItem = right.hasNext() ? right.next() : null;
+				int result = leftItem == null ? (rightItem == null ? 0 : -rightItem.compareTo(null)) : leftItem.compareTo(rightItem);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public boolean isNull() {
+			return isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder("(");
+			for (Item item : this) {
+				text.append(text.length() > 1 ? "," : "").append(item);
+			}
+			return text.append(')').toString();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package org.codelightful.chantico.model;
+
+/**
+ * DTO that represents an operation executed over an artifact of a repository. It is published by the request thread
+ * and processed asynchronously by the consumers subscribed to the repository event bus
+ */
+public class RepositoryEvent {
+	/** Kind of operation */
+	public enum Type {
+		STORED, SERVED, MISSED, DELETED
+	}
+
+	/** Kind of operation */
+	public final Type type;
+	/** Name of the repository */
+	public final String repository;
+	/** Artifact involved in the operation */
+	public final ArtifactRequest request;
+	/** User that executed the operation (null for anonymous requests) */
+	public final String user;
+	/** Address of the client that executed the operation */
+	public final String client;
+	/** Time in milliseconds when the operation was executed */
+	public final long date;
+
+	public RepositoryEvent(Type type, String repository, ArtifactRequest request, String user, String client) {
+		this.type = type;
+		this.repository = repository;
+		this.request = request;
+		this.user = user;
+		this.client = client;
+		this.date = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,140 @@
+package org.codelightful.chantico.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maven version range, for example [1.0,2.0), (,1.5], [1.2] or several ranges separated by commas like [1,2),[3,4).
+ * A version without brackets is a soft requirement that only matches itself
+ */
+public class VersionRange {
+	private final List<Restriction> restrictions = new ArrayList<>();
+
+	private VersionRange() {
+	}
+
+	/**
+	 * Parses the specification of a range
+	 * @param specification Text of the range
+	 * @return Range parsed
+	 * @throws IllegalArgumentException If the specification is not valid
+	 */
+	public static VersionRange parse(String specification) {
+		if (specification == null || specification.trim().isEmpty()) {
+			throw new IllegalArgumentException("Unable to parse an empty version range");
+		}
+		VersionRange range = new VersionRange();
+		String remaining = specification.trim();
+		if (remaining.charAt(0) != '[' && remaining.charAt(0) != '(') {
+			MavenVersion version = new MavenVersion(remaining);
+			range.restrictions.add(new Restriction(version, true, version, true));
+			return range;
+		}
+		while (!remaining.isEmpty()) {
+			int end = indexOfClose(remaining);
+			if (end < 0) {
+				throw new IllegalArgumentException("Unbounded version range: " + specification);
+			}
+			range.restrictions.add(parseRestriction(remaining.substring(0, end + 1), specification));
+			remaining = remaining.substring(end + 1).trim();
+			if (remaining.startsWith(",")) {
+				remaining = remaining.substring(1).trim();
+				if (remaining.isEmpty()) {
+					throw new IllegalArgumentException("Invalid version range: " + specification);
+				}
+			} else if (!remaining.isEmpty()) {
+				throw new IllegalArgumentException("Invalid version range: " + specification);
+			}
+		}
+		return range;
+	}
+
+	/** Allows to determine if a version is inside of the range */
+	public boolean contains(MavenVersion version) {
+		for (Restriction restriction : restrictions) {
+			if (restriction.contains(version)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Allows to determine if any bound of the range is a snapshot, which makes the snapshots eligible */
+	public boolean hasSnapshotBound() {
+		for (Restriction restriction : restrictions) {
+			if ((restriction.lower != null && restriction.lower.isSnapshot())
+					|| (restriction.upper != null && restriction.upper.isSnapshot())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int indexOfClose(String text) {
+		for (int idx = 1; idx < text.length(); idx++) {
+			char character = text.charAt(idx);
+			if (character == ']' || character == ')') {
+				return idx;
+			} else if (character == '[' || character == '(') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private static Restriction parseRestriction(String text, String specification) {
+		boolean lowerInclusive = text.charAt(0) == '[';
+		boolean upperInclusive = text.charAt(text.length() - 1) == ']';
+		String content = text.substring(1, text.length() - 1).trim();
+		int separator = content.indexOf(',');
+		if (separator < 0) {
+			if (!lowerInclusive || !upperInclusive || content.isEmpty()) {
+				throw new IllegalArgumentException("Single version must be surrounded by []: " + specification);
+			}
+			MavenVersion version = new MavenVersion(content);
+			return new Restriction(version, true, version, true);
+		}
+		String lowerText = content.substring(0, separator).trim();
+		String upperText = content.substring(separator + 1).trim();
+		if (upperText.indexOf(',') >= 0) {
+			throw new IllegalArgumentException("Invalid version range: " + specification);
+		}
+		MavenVersion lower = lowerText.isEmpty() ? null : new MavenVersion(lowerText);
+		MavenVersion upper = upperText.isEmpty() ? null : new MavenVersion(upperText);
+		if (lower != null && upper != null && upper.compareTo(lower) < 0) {
+			throw new IllegalArgumentException("Range defies version ordering: " + specification);
+		}
+		return new Restriction(lower, lowerInclusive, upper, upperInclusive);
+	}
+
+	/** Single interval of a range, a null bound is unlimited */
+	private static class Restriction {
+		private final MavenVersion lower;
+		private final boolean lowerInclusive;
+		private final MavenVersion upper;
+		private final boolean upperInclusive;
+
+		private Restriction(MavenVersion lower, boolean lowerInclusive, MavenVersion upper, boolean upperInclusive) {
+			this.lower = lower;
+			this.lowerInclusive = lowerInclusive;
+			this.upper = upper;
+			this.upperInclusive = upperInclusive;
+		}
+
+		private boolean contains(MavenVersion version) {
+			if (lower != null) {
+				int comparison = lower.compareTo(version);
+				if (comparison > 0 || (comparison == 0 && !lowerInclusive)) {
+					return false;
+				}
+			}
+			if (upper != null) {
+				int comparison = upper.compareTo(version);
+				if (comparison < 0 || (comparison == 0 && !upperInclusive)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -1,13 +1,25 @@
 package org.codelightful.chantico.persistence;
 
+import org.codelightful.chantico.metrics.Histogram;
+import org.codelightful.chantico.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 public interface Operation {
+    /** Histogram with the time spent executing queries */
+    Histogram QUERY_DURATION = MetricsRegistry.getInstance().histogram("chantico_db_operation_duration_seconds",
+            "Time spent executing database operations", 1e-6, "type", "query");
+    /** Histogram with the time spent executing updates */
+    Histogram UPDATE_DURATION = MetricsRegistry.getInstance().histogram("chantico_db_operation_duration_seconds",
+            "Time spent executing database operations", 1e-6, "type", "update");
+
     /** Represents a persistent operation to retrieve data */
     class Query implements Operation {
         private static Logger logger = LoggerFactory.getLogger("persistence");
@@ -35,6 +47,7 @@ public interface Operation {
          * @param processor Instance to process the extracted records
          */
         public void execute(ResultProcessor processor) {
+            long startTime = System.nanoTime();
             try(Connection connection = PersistenceManager.getInstance().createConnection()) {
                 try(PreparedStatement stmt = connection.prepareStatement(this.sentence)) {
                     int parameterIndex = 0;
@@ -54,6 +67,8 @@ public interface Operation {
             } catch (Exception ex) {
                 logger.error("An error has occurred trying to execute a query sentence. query={} cause={}", this.sentence, ex.getMessage());
                 throw new RuntimeException("Error executing a query sentence", ex);
+            } finally {
+                QUERY_DURATION.record((System.nanoTime() - startTime) / 1000);
             }
         }
 
@@ -87,6 +102,7 @@ public interface Operation {
         }
 
         public int execute() {
+            long startTime = System.nanoTime();
             try(Connection connection = PersistenceManager.getInstance().createConnection()) {
                 PreparedStatement stmt = connection.prepareStatement(this.sentence);
                 int parameterIndex = 0;
@@ -99,6 +115,112 @@ public interface Operation {
             } catch (Exception ex) {
                 logger.error("An error has occurred trying to execute an update sentence. query={} cause={}", this.sentence, ex.getMessage());
                 throw new RuntimeException("Error executing an update sentence", ex);
+            } finally {
+                UPDATE_DURATION.record((System.nanoTime() - startTime) / 1000);
+            }
+        }
+
+        /**
+         * Executes an insert sentence on a table with an identity field
+         * @return Value generated for the identity field of the inserted record
+         */
+        public long executeForKey() {
+            long startTime = System.nanoTime();
+            try(Connection connection = PersistenceManager.getInstance().createConnection()) {
+                PreparedStatement stmt = connection.prepareStatement(this.sentence, Statement.RETURN_GENERATED_KEYS);
+                int parameterIndex = 0;
+                for(Object param : parameters) {
+                    parameterIndex++;
+                    stmt.setObject(parameterIndex, param);
+                }
+                stmt.executeUpdate();
+                try(ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new IllegalStateException("No key has been generated");
+                    }
+                    return keys.getLong(1);
+                }
+            } catch (Exception ex) {
+                logger.error("An error has occurred trying to execute an insert sentence. query={} cause={}", this.sentence, ex.getMessage());
+                throw new RuntimeException("Error executing an insert sentence", ex);
+            } finally {
+                UPDATE_DURATION.record((System.nanoTime() - startTime) / 1000);
+            }
+        }
+    }
+
+    /** Represents a set of updates executed in a single transaction */
+    class Batch implements Operation {
+        private static Logger logger = LoggerFactory.getLogger("persistence");
+        /** Sentences to be executed */
+        private final List<String> sentences = new ArrayList<>();
+        /** Parameters to bind in every sentence */
+        private final List<Object[]> parameters = new ArrayList<>();
+
+        private Batch() {}
+
+        /** Creates an empty batch */
+        public static Batch create() {
+            return new Batch();
+        }
+
+        /**
+         * Adds an update to the batch
+         * @param sentence String with the sentence to execute
+         * @param parameters Parameters to bind in the sentence
+         */
+        public Batch add(String sentence, Object... parameters) {
+            this.sentences.add(sentence);
+            this.parameters.add(parameters);
+            return this;
+        }
+
+        /** Allows to determine if the batch does not have any update */
+        public boolean isEmpty() {
+            return sentences.isEmpty();
+        }
+
+        /**
+         * Executes all the updates in the order they were added. Consecutive updates with the same sentence share a
+         * single prepared statement. If any update fails then none of them is applied
+         * @return Total number of records affected
+         */
+        public int execute() {
+            if (sentences.isEmpty()) {
+                return 0;
+            }
+            long startTime = System.nanoTime();
+            try(Connection connection = PersistenceManager.getInstance().createConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    int total = 0;
+                    int idx = 0;
+                    while (idx < sentences.size()) {
+                        String sentence = sentences.get(idx);
+                        try(PreparedStatement stmt = connection.prepareStatement(sentence)) {
+                            for (; idx < sentences.size() && sentences.get(idx).equals(sentence); idx++) {
+                                int parameterIndex = 0;
+                                for (Object param : parameters.get(idx)) {
+                                    parameterIndex++;
+                                    stmt.setObject(parameterIndex, param);
+                                }
+                                total += stmt.executeUpdate();
+                            }
+                        }
+                    }
+                    connection.commit();
+                    return total;
+                } catch (Exception ex) {
+                    connection.rollback();
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (Exception ex) {
+                logger.error("An error has occurred trying to execute a batch of updates. size={} cause={}", sentences.size(), ex.getMessage());
+                throw new RuntimeException("Error executing a batch of updates", ex);
+            } finally {
+                UPDATE_DURATION.record((System.nanoTime() - startTime) / 1000);
             }
         }
     }
@@ -1,6 +1,8 @@
 package org.codelightful.chantico.persistence;
 
 import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.h2.jdbcx.JdbcConnectionPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -15,15 +17,32 @@ import java.net.URL;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.LinkedList;
 import java.util.List;
 
 public class PersistenceManager {
     private static final Logger logger = LoggerFactory.getLogger("persistence");
+    /** Name of the table used to keep track of the schema versions applied to the database */
+    private static final String SCHEMA_TABLE = "chantico_schema";
+    /** Configuration entry with the maximum number of pooled connections */
+    private static final String POOL_SIZE_KEY = "database.pool.size";
+    private static final int DEFAULT_POOL_SIZE = 10;
     private static PersistenceManager instance;
+    /** Folder of the database or null to use the database folder of the home */
+    private final File dataFolder;
+    /** Pool of connections used by the persistent operations */
+    private volatile JdbcConnectionPool connectionPool;
 
     private PersistenceManager() {
+        this(null);
+    }
+
+    /** @param dataFolder Folder of the database or null to use the database folder of the home */
+    PersistenceManager(File dataFolder) {
+        this.dataFolder = dataFolder;
     }
 
     /** Allows to obtain a singleton instance for the persistent manager */
@@ -38,9 +57,38 @@ public class PersistenceManager {
         return instance;
     }
 
+    /** Obtains the connection pool, creating it on the first usage */
+    private JdbcConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            synchronized (this) {
+                if (connectionPool == null) {
+                    Configuration configuration = Configuration.getInstance();
+                    String url = "jdbc:h2:file:" + getDataFolder().getAbsolutePath() + ";IFEXISTS=TRUE";
+                    JdbcConnectionPool pool = JdbcConnectionPool.create(url, "", "");
+                    pool.setMaxConnections(configuration.getInt(POOL_SIZE_KEY, DEFAULT_POOL_SIZE));
+                    configuration.addListener((previous, current) -> {
+                        if (current.isModified(previous, POOL_SIZE_KEY)) {
+                            int poolSize = current.getInt(POOL_SIZE_KEY, DEFAULT_POOL_SIZE);
+                            logger.info("Changing the database connection pool size to {}", poolSize);
+                            pool.setMaxConnections(poolSize);
+                        }
+                    });
+
+                    MetricsRegistry registry = MetricsRegistry.getInstance();
+                    registry.gauge("chantico_db_pool_connections", "Connections of the database pool",
+                            pool::getActiveConnections, "state", "active");
+                    registry.gauge("chantico_db_pool_connections", "Connections of the database pool",
+                            pool::getMaxConnections, "state", "max");
+                    connectionPool = pool;
+                }
+            }
+        }
+        return connectionPool;
+    }
+
     /** Allows to obtain the folder where the database will be created */
     private File getDataFolder() {
-        return Configuration.getFileFromHome("database");
+        return dataFolder != null ? dataFolder : Configuration.getFileFromHome("database");
     }
 
     /**
@@ -48,42 +96,84 @@ public class PersistenceManager {
      * @param create Boolean flag to determine if the database is required to exist or if can be created
      */
     private Connection createConnection(boolean create) throws Exception {
-        File dataFolder = getDataFolder();
-        String url = "jdbc:h2:file:" + dataFolder.getAbsolutePath();
+        String url = "jdbc:h2:file:" + getDataFolder().getAbsolutePath();
         if (!create) {
             url += ";IFEXISTS=TRUE";
         }
         return DriverManager.getConnection(url);
     }
 
-    /** Creates a database connection to the data repository */
+    /** Creates a database connection to the data repository. The connection is taken from a pool and returned to it on close */
     public Connection createConnection() {
         try {
-            return createConnection(false);
+            return getConnectionPool().getConnection();
         } catch (Exception ex) {
             logger.error("An error has occurred trying to create the database connection: {}", ex.getMessage());
             throw new RuntimeException("Error opening the database connection", ex);
         }
     }
 
-    /** Creates the database */
-    public void createDatabase() {
-        List<String> sentenceList = getModelSentences();
-        if (sentenceList.isEmpty()) {
-            throw new RuntimeException("Unable to create the database because there are not sentences produced");
+    /**
+     * Creates the database objects or updates them to the version declared in the data model. Every version is recorded
+     * in the schema table once its sentences are executed. The database commits every DDL sentence on its own, so the
+     * sentences are idempotent and a version interrupted before being recorded is applied again on the next start.
+     * Finally, the unique indexes that could not be enforced on a previous start are made unique when possible
+     */
+    public void migrate() {
+        Document dataModelSpec = loadXMLDocument("data-model");
+        if (dataModelSpec == null) {
+            throw new RuntimeException("Unable to generate a data model because the main specification file was not found");
         }
+        int targetVersion = getVersion(dataModelSpec.getDocumentElement(), 1);
 
-        logger.info("Creating database objects");
         try(Connection conn = createConnection(true)) {
-            try(Statement stmt = conn.createStatement()) {
-                for(String sentence : sentenceList) {
-                    stmt.executeUpdate(sentence);
+            int currentVersion = getSchemaVersion(conn);
+            if (currentVersion >= targetVersion) {
+                logger.debug("The database schema is up to date. version={}", currentVersion);
+            }
+            for (int version = currentVersion + 1; version <= targetVersion; version++) {
+                List<String> sentenceList = getModelSentences(dataModelSpec, version);
+                logger.info("Applying database schema version {} ({} sentences)", version, sentenceList.size());
+                try(Statement stmt = conn.createStatement()) {
+                    for(String sentence : sentenceList) {
+                        logger.debug("Executing schema sentence: {}", sentence);
+                        stmt.executeUpdate(sentence);
+                    }
+                }
+                try(PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + SCHEMA_TABLE + " (schema_version, applied_on) VALUES (?, CURRENT_TIMESTAMP)")) {
+                    stmt.setInt(1, version);
+                    stmt.executeUpdate();
                 }
             }
+            enforceUniqueIndexes(conn, dataModelSpec, Math.max(currentVersion, targetVersion));
         } catch (Exception ex) {
-            logger.error("An error has occurred trying to create the database objects: {}", ex.getMessage());
-            throw new RuntimeException("Error creating the database objects", ex);
+            logger.error("An error has occurred trying to migrate the database objects: {}", ex.getMessage());
+            throw new RuntimeException("Error migrating the database objects", ex);
+        }
+    }
+
+    /**
+     * Obtains the version of the schema currently applied in the database, creating the table that keeps track of it
+     * when it does not exist. Databases created before the schema was versioned are considered to be on version 1
+     * @param conn Database connection
+     */
+    private int getSchemaVersion(Connection conn) throws Exception {
+        try(Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (schema_version INT NOT NULL PRIMARY KEY, applied_on TIMESTAMP NOT NULL)");
+            try(ResultSet rs = stmt.executeQuery("SELECT MAX(schema_version) FROM " + SCHEMA_TABLE)) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    return rs.getInt(1);
+                }
+            }
+            try(ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'CHANTICO_USERS'")) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    logger.info("An existing database without schema version has been found, it will be considered as version 1");
+                    stmt.executeUpdate("INSERT INTO " + SCHEMA_TABLE + " (schema_version, applied_on) VALUES (1, CURRENT_TIMESTAMP)");
+                    return 1;
+                }
+            }
         }
+        return 0;
     }
 
     /** Internal method to produce a XML document builder s*/
@@ -111,13 +201,29 @@ public class PersistenceManager {
         }
     }
 
-    /** Generates all the sentences to generate the data model based on the specification files */
-    private List<String> getModelSentences() {
-        Document dataModelSpec = loadXMLDocument("data-model");
-        if (dataModelSpec == null) {
-            throw new RuntimeException("Unable to generate a data model because the main specification file was not found");
+    /**
+     * Obtains the version declared on a model element
+     * @param element Element from the model specification
+     * @param defaultVersion Version to assume when the element does not declare it
+     */
+    private int getVersion(Element element, int defaultVersion) {
+        String version = element.getAttribute("version");
+        if (version == null || version.isEmpty()) {
+            return defaultVersion;
         }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Invalid version in the data model specification: " + version);
+        }
+    }
 
+    /**
+     * Generates the sentences required to move the data model to a specific version from the previous one
+     * @param dataModelSpec Main specification of the data model
+     * @param version Version to produce the sentences for it
+     */
+    private List<String> getModelSentences(Document dataModelSpec, int version) {
         NodeList dataObjectNodes = dataModelSpec.getElementsByTagName("object");
         int dataObjectCount = dataObjectNodes.getLength();
         if (dataObjectCount == 0) {
@@ -128,13 +234,25 @@ public class PersistenceManager {
         for (int idx=0; idx < dataObjectCount; idx++) {
             Element element = (Element) dataObjectNodes.item(idx);
             String objectName = element.getAttribute("name");
+            int objectVersion = getVersion(element, 1);
             if (objectName == null || objectName.isEmpty()) {
                 logger.error("The data model specification contains a database object without name");
-            } else {
-                String sentence = getObjectSentence(objectName);
-                if (sentence != null) {
+            } else if (objectVersion <= version) {
+                Document objectSpec = loadXMLDocument(objectName);
+                if (objectSpec == null) {
+                    logger.error("Unable to generate a database object because its specification file was not found. object={}", objectName);
+                    throw new RuntimeException("Missing specification for a database object: " + objectName);
+                }
+                if (objectVersion == version) {
+                    String sentence = getObjectSentence(objectName, objectSpec, version);
+                    if (sentence == null) {
+                        throw new RuntimeException("Unable to generate the sentence for a database object: " + objectName);
+                    }
                     sentenceList.add(sentence);
+                } else {
+                    sentenceList.addAll(getFieldSentences(objectName, objectSpec, objectVersion, version));
                 }
+                sentenceList.addAll(getIndexSentences(objectName, objectSpec, objectVersion, version));
             }
         }
         return sentenceList;
@@ -143,15 +261,11 @@ public class PersistenceManager {
     /**
      * Generates the SQL sentence for a specific database object
      * @param objectName Name of the object to produce the SQL sentence for it
+     * @param objectSpec Specification of the object
+     * @param version Version of the model being applied, fields introduced by later versions are excluded
      * @return SQL sentence or null if could not be produced
      */
-    private String getObjectSentence(String objectName) {
-        Document objectSpec = loadXMLDocument(objectName);
-        if (objectSpec == null) {
-            logger.error("Unable to generate a database object because its specification file was not found. object={}", objectName);
-            return null;
-        }
-
+    private String getObjectSentence(String objectName, Document objectSpec, int version) {
         NodeList fieldNodes = objectSpec.getElementsByTagName("field");
         int fieldCount = fieldNodes.getLength();
         if (fieldCount == 0) {
@@ -159,38 +273,190 @@ public class PersistenceManager {
             return null;
         }
 
-        StringBuilder sentence = new StringBuilder("CREATE TABLE ").append(objectName).append("(");
+        StringBuilder sentence = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(objectName).append("(");
+        int addedFields = 0;
         for(int idx=0; idx < fieldCount; idx++) {
             Element element = (Element) fieldNodes.item(idx);
-            if (idx > 0) {
+            if (getVersion(element, version) > version) {
+                continue;
+            }
+            if (addedFields > 0) {
                 sentence.append(", ");
             }
-
-            String fieldName = element.getAttribute("name");
-            if (fieldName == null || fieldName.isEmpty()) {
-                logger.error("Unable to create a database object because it does contain a field without name. object={}", objectName);
+            String fieldDefinition = getFieldDefinition(objectName, element);
+            if (fieldDefinition == null) {
                 return null;
             }
-            sentence.append(fieldName).append(" ");
+            sentence.append(fieldDefinition);
+            addedFields++;
+        }
+        sentence.append(")");
+        return sentence.toString();
+    }
 
-            String fieldType = element.getAttribute("type");
-            if (fieldType == null || fieldType.isEmpty()) {
-                logger.error("Unable to create a database object because it does contain a field without type. object={} field={}", objectName, fieldName);
-                return null;
+    /**
+     * Generates the sentences to add the fields introduced on a specific version to an existing database object
+     * @param objectName Name of the database object
+     * @param objectSpec Specification of the object
+     * @param objectVersion Version in which the object was created
+     * @param version Version of the model being applied
+     */
+    private List<String> getFieldSentences(String objectName, Document objectSpec, int objectVersion, int version) {
+        List<String> sentenceList = new LinkedList<>();
+        NodeList fieldNodes = objectSpec.getElementsByTagName("field");
+        for(int idx=0; idx < fieldNodes.getLength(); idx++) {
+            Element element = (Element) fieldNodes.item(idx);
+            if (getVersion(element, objectVersion) == version) {
+                String fieldDefinition = getFieldDefinition(objectName, element);
+                if (fieldDefinition == null) {
+                    throw new RuntimeException("Unable to generate the definition of a field for the object: " + objectName);
+                }
+                sentenceList.add("ALTER TABLE " + objectName + " ADD COLUMN IF NOT EXISTS " + fieldDefinition);
             }
-            sentence.append(fieldType).append(" ");
-            if ("IDENTITY".equals(fieldType)) {
-                sentence.append(" NOT NULL PRIMARY KEY ");
-            } else {
-                String nullable = element.getAttribute("nullable");
-                if ("true".equals(nullable)) {
-                    sentence.append(" NOT NULL ");
-                } else {
-                    sentence.append(" NULL ");
+        }
+        return sentenceList;
+    }
+
+    /**
+     * Generates the sentences to create the indexes introduced on a specific version for a database object. An unique
+     * index added to an existing object is created as a regular index, the existing rows could have duplicated values
+     * and the constraint is added afterwards by {@link #enforceUniqueIndexes(Connection, Document, int)}
+     * @param objectName Name of the database object
+     * @param objectSpec Specification of the object
+     * @param objectVersion Version in which the object was created
+     * @param version Version of the model being applied
+     */
+    private List<String> getIndexSentences(String objectName, Document objectSpec, int objectVersion, int version) {
+        List<String> sentenceList = new LinkedList<>();
+        NodeList indexNodes = objectSpec.getElementsByTagName("index");
+        for(int idx=0; idx < indexNodes.getLength(); idx++) {
+            Element element = (Element) indexNodes.item(idx);
+            if (getVersion(element, objectVersion) != version) {
+                continue;
+            }
+            String indexName = element.getAttribute("name");
+            String fields = element.getAttribute("fields");
+            if (indexName == null || indexName.isEmpty() || fields == null || fields.isEmpty()) {
+                logger.error("Unable to create an index because it does not have a name or fields. object={}", objectName);
+                throw new RuntimeException("Invalid index specification for the object: " + objectName);
+            }
+            String unique = "true".equals(element.getAttribute("unique")) && objectVersion == version ? "UNIQUE " : "";
+            sentenceList.add("CREATE " + unique + "INDEX IF NOT EXISTS " + indexName + " ON " + objectName + "(" + fields + ")");
+        }
+        return sentenceList;
+    }
+
+    /**
+     * Makes unique the indexes declared as unique that were created as regular indexes. An index stays as a regular one
+     * while the rows have duplicated values, which are reported, and it is checked again on the next start
+     * @param conn Database connection
+     * @param dataModelSpec Main specification of the data model
+     * @param version Version of the model applied to the database
+     */
+    private void enforceUniqueIndexes(Connection conn, Document dataModelSpec, int version) throws Exception {
+        NodeList dataObjectNodes = dataModelSpec.getElementsByTagName("object");
+        for (int idx=0; idx < dataObjectNodes.getLength(); idx++) {
+            Element objectElement = (Element) dataObjectNodes.item(idx);
+            String objectName = objectElement.getAttribute("name");
+            int objectVersion = getVersion(objectElement, 1);
+            if (objectName == null || objectName.isEmpty() || objectVersion > version) {
+                continue;
+            }
+            Document objectSpec = loadXMLDocument(objectName);
+            NodeList indexNodes = objectSpec == null ? null : objectSpec.getElementsByTagName("index");
+            for (int indexIdx=0; indexNodes != null && indexIdx < indexNodes.getLength(); indexIdx++) {
+                Element element = (Element) indexNodes.item(indexIdx);
+                String indexName = element.getAttribute("name");
+                String fields = element.getAttribute("fields");
+                if (!"true".equals(element.getAttribute("unique")) || getVersion(element, objectVersion) > version
+                        || !isRegularIndex(conn, objectName, indexName)) {
+                    continue;
                 }
+                if (hasDuplicates(conn, objectName, fields)) {
+                    logger.warn("The index {} is not unique because the rows of {} have duplicated values. Remove the duplicates " +
+                            "to enforce it on the next start", indexName, objectName);
+                    continue;
+                }
+                try(Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("DROP INDEX IF EXISTS " + indexName);
+                    stmt.executeUpdate("CREATE UNIQUE INDEX " + indexName + " ON " + objectName + "(" + fields + ")");
+                }
+                logger.info("The unique constraint of an index has been enforced. object={} index={}", objectName, indexName);
+            }
+        }
+    }
+
+    /**
+     * Determines if an index exists without the unique constraint
+     * @param conn Database connection
+     * @param objectName Name of the database object
+     * @param indexName Name of the index
+     */
+    private boolean isRegularIndex(Connection conn, String objectName, String indexName) throws Exception {
+        try(PreparedStatement stmt = conn.prepareStatement("SELECT MAX(NON_UNIQUE) FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = ? AND INDEX_NAME = ?")) {
+            stmt.setString(1, objectName.toUpperCase());
+            stmt.setString(2, indexName.toUpperCase());
+            try(ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Determines if the rows of a database object have duplicated values, reporting every one of them
+     * @param conn Database connection
+     * @param objectName Name of the database object
+     * @param fields Comma separated fields to check
+     */
+    private boolean hasDuplicates(Connection conn, String objectName, String fields) throws Exception {
+        boolean duplicates = false;
+        try(Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT " + fields + ", COUNT(*) FROM " + objectName + " GROUP BY " + fields + " HAVING COUNT(*) > 1")) {
+            int columnCount = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                StringBuilder values = new StringBuilder();
+                for (int column = 1; column < columnCount; column++) {
+                    values.append(column > 1 ? ", " : "").append('\'').append(rs.getString(column)).append('\'');
+                }
+                logger.warn("Duplicated values found in a database object. object={} fields={} values={} rows={}", objectName, fields,
+                        values, rs.getLong(columnCount));
+                duplicates = true;
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Generates the SQL definition of a single field
+     * @param objectName Name of the object that contains the field
+     * @param element Specification of the field
+     * @return SQL definition or null if could not be produced
+     */
+    private String getFieldDefinition(String objectName, Element element) {
+        StringBuilder sentence = new StringBuilder();
+        String fieldName = element.getAttribute("name");
+        if (fieldName == null || fieldName.isEmpty()) {
+            logger.error("Unable to create a database object because it does contain a field without name. object={}", objectName);
+            return null;
+        }
+        sentence.append(fieldName).append(" ");
+
+        String fieldType = element.getAttribute("type");
+        if (fieldType == null || fieldType.isEmpty()) {
+            logger.error("Unable to create a database object because it does contain a field without type. object={} field={}", objectName, fieldName);
+            return null;
+        }
+        sentence.append(fieldType).append(" ");
+        if ("IDENTITY".equals(fieldType)) {
+            sentence.append(" NOT NULL PRIMARY KEY ");
+        } else {
+            String nullable = element.getAttribute("nullable");
+            if ("true".equals(nullable)) {
+                sentence.append(" NOT NULL ");
+            } else {
+                sentence.append(" NULL ");
             }
         }
-        sentence.append(")");
         return sentence.toString();
     }
 }
@@ -3,6 +3,12 @@ package org.codelightful.chantico.servlet;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.codelightful.chantico.Chantico;
+import org.codelightful.chantico.engine.UserService;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.Histogram;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.metrics.RequestTrace;
+import org.codelightful.chantico.metrics.TraceRecorder;
 import org.slf4j.Logger;
 
 import javax.servlet.ServletException;
@@ -11,6 +17,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -19,6 +26,31 @@ import java.util.Base64;
 public abstract class AbstractServlet extends HttpServlet {
 	/** Constant with the name of the session attribute to store the authentication key */
 	protected static final String AUTH_SESSION_ATTRIBUTE = "chantico-auth";
+	/** Shared mapper used to write JSON responses (it is thread safe once configured) */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	/** Methods with their own metrics, the requests with any other method are recorded as OTHER */
+	private static final String[] METHODS = {"GET", "HEAD", "PUT", "POST", "DELETE", "OTHER"};
+	/** Counters of the requests served by method and status class (1xx to 5xx) */
+	private Counter[][] requestCounters;
+	/** Durations of the requests served by method */
+	private Histogram[] requestDurations;
+
+	/** Resolves the metrics of the servlet, so serving a request does not look them up in the registry */
+	@Override
+	public void init() throws ServletException {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		String endpoint = getEndpointName();
+		requestCounters = new Counter[METHODS.length][5];
+		requestDurations = new Histogram[METHODS.length];
+		for (int methodIdx = 0; methodIdx < METHODS.length; methodIdx++) {
+			for (int statusClass = 0; statusClass < 5; statusClass++) {
+				requestCounters[methodIdx][statusClass] = registry.counter("chantico_http_requests_total", "Number of HTTP requests served",
+						"endpoint", endpoint, "method", METHODS[methodIdx], "status", (statusClass + 1) + "xx");
+			}
+			requestDurations[methodIdx] = registry.histogram("chantico_http_request_duration_seconds", "Time spent serving HTTP requests",
+					1e-6, "endpoint", endpoint, "method", METHODS[methodIdx]);
+		}
+	}
 
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -52,6 +84,8 @@ public abstract class AbstractServlet extends HttpServlet {
 
 	/** Internal method with a common impelementation to serve all the requests */
 	private void serveRequest(HttpServletRequest request, HttpServletResponse response) {
+		long startTime = System.nanoTime();
+		RequestTrace trace = TraceRecorder.getInstance().start(request.getMethod(), request.getRequestURI(), request.getRemoteAddr());
 		try {
 			doServe(request, response);
 		} catch (Exception ex) {
@@ -61,7 +95,33 @@ public abstract class AbstractServlet extends HttpServlet {
 			}
 			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 			handleError(request, response);
+		} finally {
+			recordRequest(request, response, System.nanoTime() - startTime);
+			if (trace != null) {
+				TraceRecorder.getInstance().finish(trace, response.getStatus());
+			}
+		}
+	}
+
+	/** Internal method to record the metrics of a served request */
+	private void recordRequest(HttpServletRequest request, HttpServletResponse response, long elapsedNanos) {
+		if (requestCounters == null) {
+			return;
+		}
+		int methodIdx = getMethodIndex(request.getMethod());
+		int statusClass = Math.min(5, Math.max(1, response.getStatus() / 100)) - 1;
+		requestCounters[methodIdx][statusClass].inc();
+		requestDurations[methodIdx].record(elapsedNanos / 1000);
+	}
+
+	/** Obtains the position of a method in the metrics of the requests */
+	private static int getMethodIndex(String method) {
+		for (int idx = 0; idx < METHODS.length - 1; idx++) {
+			if (METHODS[idx].equals(method)) {
+				return idx;
+			}
 		}
+		return METHODS.length - 1;
 	}
 
 	protected abstract void doServe(HttpServletRequest request, HttpServletResponse response) throws Exception;
@@ -70,6 +130,9 @@ public abstract class AbstractServlet extends HttpServlet {
 
 	protected abstract Logger getLogger();
 
+	/** Obtains the name used to identify the requests served by the servlet in the metrics */
+	protected abstract String getEndpointName();
+
 	/**
 	 * Parses a JSON content received in the body
 	 * @param request HTTP rewquest
@@ -106,6 +169,24 @@ public abstract class AbstractServlet extends HttpServlet {
 		return null;
 	}
 
+	/**
+	 * Obtains a request parameter as a long
+	 * @param request HTTP request to obtain the parameter from it
+	 * @param parameterName Parameter name to obtain
+	 * @param defaultValue Value to return when the parameter is not present or is not a valid number
+	 */
+	protected long getLongParameter(HttpServletRequest request, String parameterName, long defaultValue) {
+		String parameterValue = request.getParameter(parameterName);
+		if (parameterValue != null && !parameterValue.isEmpty()) {
+			try {
+				return Long.parseLong(parameterValue);
+			} catch (Exception ex) {
+				getLogger().error("An error has occurred trying to parse a parameter as a long. parameter={} value={}", parameterName, parameterValue);
+			}
+		}
+		return defaultValue;
+	}
+
 	/**
 	 * Extracts the user from the authorization mechanism for a specific HTTP request
 	 * @param request HTTP request
@@ -120,7 +201,7 @@ public abstract class AbstractServlet extends HttpServlet {
 				throw new RuntimeException("Malformed authorization");
 			}
 			String authMethod = auth.substring(0, separator).trim().toLowerCase();
-			auth = auth.substring(separator);
+			auth = auth.substring(separator).trim();
 
 			if ("basic".equals(authMethod)) {
 				byte[] decodedAuth = Base64.getDecoder().decode(auth);
@@ -137,6 +218,21 @@ public abstract class AbstractServlet extends HttpServlet {
 		return null;
 	}
 
+	/**
+	 * Serializes an object as JSON and writes it as the response content
+	 * @param response HTTP response to write the content on it
+	 * @param content Object to serialize
+	 */
+	protected void writeJson(HttpServletResponse response, Object content) {
+		try {
+			response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+			response.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+			JSON_MAPPER.writeValue(response.getOutputStream(), content);
+		} catch (Exception ex) {
+			throw new RuntimeException("An error has occurred trying to write the JSON response", ex);
+		}
+	}
+
 	/** Class representing an authentication information obtained from a request */
 	public static class Authentication {
 		/** User name received in the request */
@@ -157,8 +253,55 @@ public abstract class AbstractServlet extends HttpServlet {
 		return null;
 	}
 
+	/**
+	 * Obtains the name of the user that executed a request, either from the authorization header or from the session.
+	 * The credentials are not validated, the value is only intended to identify the request
+	 * @param request HTTP request
+	 * @return User name or null for anonymous requests
+	 */
+	protected String getRequestUser(HttpServletRequest request) {
+		String user = null;
+		try {
+			Authentication authentication = getUser(request);
+			if (authentication != null) {
+				user = authentication.user;
+			}
+		} catch (Exception ex) {
+			getLogger().debug("Unable to identify the user of a request. uri={} cause={}", request.getRequestURI(), ex.getMessage());
+		}
+		if (user == null && request.getSession(false) != null) {
+			user = getCurrentUser(request);
+		}
+		RequestTrace.mark(RequestTrace.Phase.AUTH);
+		return user;
+	}
+
+	/**
+	 * Obtains the name of the user that executed a request only when it is authenticated, either by the session or by
+	 * the credentials of the authorization header, which are validated
+	 * @param request HTTP request
+	 * @return User name or null if the request is not authenticated
+	 */
+	protected String getAuthenticatedUser(HttpServletRequest request) {
+		String user = getCurrentUser(request);
+		if (user == null) {
+			try {
+				Authentication authentication = getUser(request);
+				if (authentication != null) {
+					user = UserService.getInstance().authenticate(authentication.user, authentication.password);
+				}
+			} catch (Exception ex) {
+				getLogger().debug("Unable to authenticate the user of a request. uri={} cause={}", request.getRequestURI(), ex.getMessage());
+			}
+		}
+		RequestTrace.mark(RequestTrace.Phase.AUTH);
+		return user;
+	}
+
 	/** Allows to determine if there is an user authenticated */
 	public boolean isAuthenticated(HttpServletRequest request) {
-		return getCurrentUser(request) != null;
+		boolean authenticated = getCurrentUser(request) != null;
+		RequestTrace.mark(RequestTrace.Phase.AUTH);
+		return authenticated;
 	}
 }
@@ -0,0 +1,202 @@
+package org.codelightful.chantico.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.codelightful.chantico.engine.ActivityLog;
+import org.codelightful.chantico.model.ActivityEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the recent activity to the connected clients using Server-Sent Events. A single background thread polls the
+ * activity logs and hands the new events to every subscriber, so the threads that record the activity never interact
+ * with the clients. The responses are written with non-blocking output: a subscriber only receives a new batch once
+ * the previous one has been written, so a slow client never delays the others and it is disconnected when it does
+ * not accept a batch for STALL_TIMEOUT_MILLIS
+ */
+class ActivityStream {
+	private static final Logger logger = LoggerFactory.getLogger("servlet-api");
+	/** Interval between polls of the activity logs */
+	private static final long POLL_INTERVAL_MILLIS = 250;
+	/** Number of polls without events after which a comment is sent to detect disconnected clients */
+	private static final int HEARTBEAT_POLLS = 60;
+	/** Maximum number of events sent to a subscriber on every poll */
+	private static final int BATCH_SIZE = 256;
+	/** Maximum time a subscriber can take to accept a batch before it is disconnected */
+	private static final long STALL_TIMEOUT_MILLIS = 30000;
+	private static final ActivityStream instance = new ActivityStream();
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private ScheduledExecutorService scheduler;
+
+	private ActivityStream() {
+	}
+
+	static ActivityStream getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts streaming the activity of a repository to the client that executed a request
+	 * @param request HTTP request, the Last-Event-ID header is used to resume a previous stream
+	 * @param response HTTP response
+	 * @param activityLog Activity log to stream
+	 */
+	void subscribe(HttpServletRequest request, HttpServletResponse response, ActivityLog activityLog) throws Exception {
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		response.setHeader("Cache-Control", "no-cache");
+		response.flushBuffer();
+
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0);
+		long lastSequence = activityLog.getNextSequence() - 1;
+		String lastEventId = request.getHeader("Last-Event-ID");
+		if (lastEventId != null && !lastEventId.isEmpty()) {
+			try {
+				lastSequence = Long.parseLong(lastEventId);
+			} catch (NumberFormatException ex) {
+				logger.debug("Ignoring an invalid Last-Event-ID header: {}", lastEventId);
+			}
+		}
+		Subscriber subscriber = new Subscriber(asyncContext, activityLog, lastSequence);
+		subscribers.add(subscriber);
+		asyncContext.getResponse().getOutputStream().setWriteListener(subscriber);
+		startPolling();
+	}
+
+	/** Internal method to start the background thread the first time a client subscribes */
+	private synchronized void startPolling() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "activity-stream");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Internal method that hands the new events to every subscriber that has written the previous ones */
+	private void poll() {
+		long now = System.currentTimeMillis();
+		for (Subscriber subscriber : subscribers) {
+			try {
+				if (subscriber.isWaiting()) {
+					if (subscriber.isStalled(now)) {
+						logger.debug("Closing a stalled activity stream");
+						close(subscriber);
+					}
+					continue;
+				}
+				List<ActivityEvent> events = subscriber.activityLog.getSince(subscriber.lastSequence, BATCH_SIZE);
+				StringBuilder messages = new StringBuilder();
+				if (events.isEmpty()) {
+					if (++subscriber.idlePolls < HEARTBEAT_POLLS) {
+						continue;
+					}
+					messages.append(": heartbeat\n\n");
+				}
+				for (ActivityEvent event : events) {
+					messages.append("id: ").append(event.sequence).append("\nevent: activity\ndata: ")
+							.append(mapper.writeValueAsString(event)).append("\n\n");
+					subscriber.lastSequence = event.sequence;
+				}
+				subscriber.idlePolls = 0;
+				subscriber.send(messages.toString().getBytes(StandardCharsets.UTF_8), now);
+			} catch (Exception ex) {
+				logger.debug("Closing an activity stream: {}", ex.getMessage());
+				close(subscriber);
+			}
+		}
+	}
+
+	/** Internal method to disconnect a client */
+	private void close(Subscriber subscriber) {
+		subscribers.remove(subscriber);
+		try {
+			subscriber.asyncContext.complete();
+		} catch (Exception ex) {
+			// the connection is already closed
+		}
+	}
+
+	/**
+	 * Client connected to the stream. Its output is non-blocking: the container notifies it when the output accepts
+	 * more content, and the content is only written from that notification or while the output is ready
+	 */
+	private class Subscriber implements WriteListener {
+		private final AsyncContext asyncContext;
+		private final ActivityLog activityLog;
+		/** Sequence of the last event handed to the client */
+		private long lastSequence;
+		/** Number of consecutive polls without events */
+		private int idlePolls;
+		/** Content waiting for the output to be ready (null when there is nothing to write) */
+		private byte[] pending;
+		/** Boolean value to determine if the content written has been flushed */
+		private boolean flushed = true;
+		/** Time in milliseconds when the content being written was handed to the subscriber (zero when it is idle) */
+		private long waitingSince;
+
+		private Subscriber(AsyncContext asyncContext, ActivityLog activityLog, long lastSequence) {
+			this.asyncContext = asyncContext;
+			this.activityLog = activityLog;
+			this.lastSequence = lastSequence;
+		}
+
+		/** Determines if the last content handed to the subscriber has not been written yet */
+		private synchronized boolean isWaiting() {
+			return waitingSince != 0;
+		}
+
+		/** Determines if the client has not accepted the last content for too long */
+		private synchronized boolean isStalled(long now) {
+			return waitingSince != 0 && now - waitingSince > STALL_TIMEOUT_MILLIS;
+		}
+
+		/** Hands content to the subscriber, which is written as soon as the output is ready */
+		private synchronized void send(byte[] content, long now) throws IOException {
+			pending = content;
+			waitingSince = now;
+			onWritePossible();
+		}
+
+		@Override
+		public synchronized void onWritePossible() throws IOException {
+			ServletOutputStream output = asyncContext.getResponse().getOutputStream();
+			while (output.isReady()) {
+				if (pending != null) {
+					output.write(pending);
+					pending = null;
+					flushed = false;
+				} else if (!flushed) {
+					output.flush();
+					flushed = true;
+				} else {
+					waitingSince = 0;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			logger.debug("Closing an activity stream: {}", cause.getMessage());
+			close(this);
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package org.codelightful.chantico.servlet;
+
+import org.codelightful.chantico.Chantico;
+import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.engine.IoBudget;
+import org.codelightful.chantico.engine.UserService;
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control in front of the artifact transfers, so a single client cannot starve the rest. Every request is
+ * assigned to a priority class and admitted only while:
+ * - The client (the authenticated user or, for the requests without valid credentials, the remote address) has less
+ *   than admission.perClient.maxConcurrent requests in progress, otherwise it is rejected with 429
+ * - The requests in progress are below the share of admission.maxConcurrent of its class (admission.share.[class] as a
+ *   percentage), otherwise it is rejected with 503. The lower classes have smaller shares, so under load the capacity
+ *   left is kept for the higher ones
+ * Both rejections are immediate and include a Retry-After header instead of queueing the request until it times out.
+ *
+ * The transfers of every client are also limited to admission.perClient.downloadBytesPerSecond and
+ * admission.perClient.uploadBytesPerSecond (zero for unlimited)
+ */
+public class AdmissionFilter implements Filter {
+	private static final Logger logger = LoggerFactory.getLogger("server");
+	/** Idle time after which the state of a client is discarded */
+	private static final long CLIENT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	/** Number of admissions between the removal of the idle clients */
+	private static final int CLEANUP_INTERVAL = 1024;
+	/** Time the result of the validation of some credentials is reused */
+	private static final long CREDENTIALS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	/** Maximum number of credentials validated kept, all of them are discarded when it is reached */
+	private static final int MAX_CREDENTIALS = 4096;
+	private final Authenticator authenticator;
+	/** Results of the validation of the authorization headers keyed by their digest */
+	private final Map<String, Credentials> credentials = new ConcurrentHashMap<>();
+	private final Map<String, Client> clients = new ConcurrentHashMap<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger[] inFlightByPriority = new AtomicInteger[Priority.values().length];
+	private final Counter[] clientRejections = new Counter[Priority.values().length];
+	private final Counter[] overloadRejections = new Counter[Priority.values().length];
+	private final AtomicInteger admissions = new AtomicInteger();
+
+	/** Classes of requests, from the highest priority to the lowest */
+	public enum Priority {
+		/** Requests of the web interface (with a session) */
+		INTERACTIVE(100),
+		/** Transfers of release versions */
+		RELEASE(90),
+		/** Transfers of snapshot versions */
+		SNAPSHOT(75),
+		/** Bulk uploads and batch resolves */
+		BULK(50);
+
+		/** Default percentage of the maximum concurrency the class can use */
+		private final int defaultShare;
+
+		Priority(int defaultShare) {
+			this.defaultShare = defaultShare;
+		}
+	}
+
+	/** Functional interface to validate the credentials of the requests */
+	@FunctionalInterface
+	interface Authenticator {
+		/** @return User name or null if the credentials are not valid */
+		String authenticate(String login, String password);
+	}
+
+	public AdmissionFilter() {
+		this(UserService.getInstance()::authenticate);
+	}
+
+	/** @param authenticator Component that validates the credentials of the authorization headers */
+	AdmissionFilter(Authenticator authenticator) {
+		this.authenticator = authenticator;
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		for (Priority priority : Priority.values()) {
+			String label = priority.name().toLowerCase();
+			AtomicInteger count = new AtomicInteger();
+			inFlightByPriority[priority.ordinal()] = count;
+			clientRejections[priority.ordinal()] = metrics.counter("chantico_admission_rejected_total",
+					"Number of requests rejected by the admission control", "reason", "client", "priority", label);
+			overloadRejections[priority.ordinal()] = metrics.counter("chantico_admission_rejected_total",
+					"Number of requests rejected by the admission control", "reason", "overload", "priority", label);
+			metrics.gauge("chantico_admission_in_flight", "Number of requests admitted in progress", count::get, "priority", label);
+		}
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) {
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+			throws IOException, ServletException {
+		Configuration configuration = Configuration.getInstance();
+		if (!configuration.getBoolean("admission.enabled", true)) {
+			chain.doFilter(servletRequest, servletResponse);
+			return;
+		}
+		HttpServletRequest request = (HttpServletRequest) servletRequest;
+		HttpServletResponse response = (HttpServletResponse) servletResponse;
+		Priority priority = classify(request.getMethod(), request.getRequestURI(), request.getSession(false) != null);
+		Client client = admit(getClientKey(request), priority);
+		if (client == null) {
+			reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, configuration.getInt("admission.retryAfterSeconds", 5));
+			return;
+		} else if (client == Client.REJECTED) {
+			reject(response, 429, 1);
+			return;
+		}
+		try {
+			client.download.setRate(configuration.getLong("admission.perClient.downloadBytesPerSecond", 0));
+			client.upload.setRate(configuration.getLong("admission.perClient.uploadBytesPerSecond", 0));
+			if (client.download.getRate() > 0) {
+				response = new ThrottledResponse(response, client.download);
+			}
+			if (client.upload.getRate() > 0) {
+				request = new ThrottledRequest(request, client.upload);
+			}
+			chain.doFilter(request, response);
+		} finally {
+			release(client, priority);
+		}
+	}
+
+	/**
+	 * Assigns a request to a priority class
+	 * @param method HTTP method of the request
+	 * @param uri Path of the request
+	 * @param interactive Boolean value to determine if the request comes from the web interface
+	 */
+	static Priority classify(String method, String uri, boolean interactive) {
+		if (interactive) {
+			return Priority.INTERACTIVE;
+		} else if (uri.startsWith(RestApiServlet.SERVLET_CONTEXT) || HttpMethod.POST.equals(method)) {
+			return Priority.BULK;
+		} else if (uri.contains("-SNAPSHOT")) {
+			return Priority.SNAPSHOT;
+		}
+		return Priority.RELEASE;
+	}
+
+	/**
+	 * Admits a request if the limits allow it
+	 * @param clientKey Identifier of the client that sends the request
+	 * @param priority Class of the request
+	 * @return State of the client, which has to be released when the request completes, {@link Client#REJECTED} if the
+	 * client has reached its limit or null if the server has no capacity left for the class of the request
+	 */
+	Client admit(String clientKey, Priority priority) {
+		Configuration configuration = Configuration.getInstance();
+		int perClient = Math.max(1, configuration.getInt("admission.perClient.maxConcurrent", 32));
+		boolean[] accepted = new boolean[1];
+		Client client = clients.compute(clientKey, (key, current) -> {
+			Client state = current == null ? new Client() : current;
+			synchronized (state) {
+				state.lastSeen = System.currentTimeMillis();
+				if (state.inFlight < perClient) {
+					state.inFlight++;
+					accepted[0] = true;
+				}
+			}
+			return state;
+		});
+		if (admissions.incrementAndGet() % CLEANUP_INTERVAL == 0) {
+			removeIdleClients();
+		}
+		if (!accepted[0]) {
+			clientRejections[priority.ordinal()].inc();
+			logger.debug("Request rejected, the client has reached its concurrency limit. client={} priority={}", clientKey, priority);
+			return Client.REJECTED;
+		}
+		int maxConcurrent = Math.max(1, configuration.getInt("admission.maxConcurrent", 200));
+		int share = configuration.getInt("admission.share." + priority.name().toLowerCase(), priority.defaultShare);
+		int limit = Math.max(1, (int) ((long) maxConcurrent * Math.min(100, share) / 100));
+		if (inFlight.incrementAndGet() > limit) {
+			inFlight.decrementAndGet();
+			releaseClient(client);
+			overloadRejections[priority.ordinal()].inc();
+			logger.debug("Request rejected, there is no capacity left for its class. client={} priority={} limit={}", clientKey,
+					priority, limit);
+			return null;
+		}
+		inFlightByPriority[priority.ordinal()].incrementAndGet();
+		return client;
+	}
+
+	/** Registers the completion of a request admitted */
+	void release(Client client, Priority priority) {
+		inFlightByPriority[priority.ordinal()].decrementAndGet();
+		inFlight.decrementAndGet();
+		releaseClient(client);
+	}
+
+	/** Obtains the number of requests admitted in progress */
+	int getInFlight() {
+		return inFlight.get();
+	}
+
+	private void releaseClient(Client client) {
+		synchronized (client) {
+			client.inFlight--;
+		}
+	}
+
+	/** Discards the state of the clients without requests in progress for a while */
+	private void removeIdleClients() {
+		long idleSince = System.currentTimeMillis() - CLIENT_IDLE_MILLIS;
+		for (String key : clients.keySet()) {
+			clients.computeIfPresent(key, (k, client) -> {
+				synchronized (client) {
+					return client.inFlight == 0 && client.lastSeen < idleSince ? null : client;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Obtains the identifier of the client of a request: the user authenticated by the session or by the credentials of
+	 * the authorization header, or the remote address when the request is not authenticated. The result of the
+	 * validation of the credentials is reused for a while, so they are not validated on every request
+	 */
+	String getClientKey(HttpServletRequest request) {
+		HttpSession session = request.getSession(false);
+		String sessionAuth = session == null ? null : (String) session.getAttribute(AbstractServlet.AUTH_SESSION_ATTRIBUTE);
+		if (sessionAuth != null) {
+			return "user:" + Chantico.decrypt(sessionAuth);
+		}
+		String auth = request.getHeader(HttpHeaders.AUTHORIZATION);
+		if (auth != null && auth.regionMatches(true, 0, "basic ", 0, 6)) {
+			String user = getCredentialsUser(auth);
+			if (user != null) {
+				return "user:" + user;
+			}
+		}
+		return "address:" + request.getRemoteAddr();
+	}
+
+	/** Obtains the user of a basic authorization header or null if its credentials are not valid */
+	private String getCredentialsUser(String auth) {
+		String digest;
+		try {
+			digest = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(auth.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not available", ex);
+		}
+		long now = System.currentTimeMillis();
+		Credentials validated = credentials.get(digest);
+		if (validated != null && now - validated.validatedOn < CREDENTIALS_TTL_MILLIS) {
+			return validated.user;
+		}
+		String user = null;
+		try {
+			String decoded = new String(Base64.getDecoder().decode(auth.substring(6).trim()), StandardCharsets.UTF_8);
+			int separator = decoded.indexOf(':');
+			if (separator > 0) {
+				user = authenticator.authenticate(decoded.substring(0, separator), decoded.substring(separator + 1));
+			}
+		} catch (RuntimeException ex) {
+			// malformed or not validated, the request is identified by its address and the servlet rejects it if needed
+			logger.debug("Unable to validate the credentials of a request. cause={}", ex.getMessage());
+		}
+		if (credentials.size() >= MAX_CREDENTIALS) {
+			credentials.clear();
+		}
+		credentials.put(digest, new Credentials(user, now));
+		return user;
+	}
+
+	private static void reject(HttpServletResponse response, int status, int retryAfterSeconds) throws IOException {
+		response.setStatus(status);
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfterSeconds)));
+		response.setContentType(MediaType.TEXT_PLAIN);
+		response.getWriter().write(status == 429 ? "too-many-requests" : "overloaded");
+	}
+
+	/** Result of the validation of an authorization header */
+	private static class Credentials {
+		/** User of the credentials or null if they are not valid */
+		private final String user;
+		private final long validatedOn;
+
+		private Credentials(String user, long validatedOn) {
+			this.user = user;
+			this.validatedOn = validatedOn;
+		}
+	}
+
+	/** State of a client, the number of requests in progress is updated under its monitor */
+	static class Client {
+		/** Marker returned when the client has reached its concurrency limit */
+		static final Client REJECTED = new Client();
+		private int inFlight;
+		private long lastSeen;
+		private final IoBudget download = new IoBudget(0);
+		private final IoBudget upload = new IoBudget(0);
+	}
+
+	/** Response that consumes the bytes written from the download budget of the client */
+	private static class ThrottledResponse extends HttpServletResponseWrapper {
+		private final IoBudget budget;
+		private ServletOutputStream output;
+
+		private ThrottledResponse(HttpServletResponse response, IoBudget budget) {
+			super(response);
+			this.budget = budget;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (output == null) {
+				ServletOutputStream delegate = super.getOutputStream();
+				output = new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						acquire(budget, 1);
+						delegate.write(b);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						acquire(budget, len);
+						delegate.write(b, off, len);
+					}
+
+					@Override
+					public void flush() throws IOException {
+						delegate.flush();
+					}
+
+					@Override
+					public void close() throws IOException {
+						delegate.close();
+					}
+
+					@Override
+					public boolean isReady() {
+						return delegate.isReady();
+					}
+
+					@Override
+					public void setWriteListener(WriteListener writeListener) {
+						delegate.setWriteListener(writeListener);
+					}
+				};
+			}
+			return output;
+		}
+	}
+
+	/** Request that consumes the bytes read from the upload budget of the client */
+	private static class ThrottledRequest extends HttpServletRequestWrapper {
+		private final IoBudget budget;
+		private ServletInputStream input;
+
+		private ThrottledRequest(HttpServletRequest request, IoBudget budget) {
+			super(request);
+			this.budget = budget;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (input == null) {
+				ServletInputStream delegate = super.getInputStream();
+				input = new ServletInputStream() {
+					@Override
+					public int read() throws IOException {
+						int value = delegate.read();
+						if (value >= 0) {
+							acquire(budget, 1);
+						}
+						return value;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						int read = delegate.read(b, off, len);
+						acquire(budget, read);
+						return read;
+					}
+
+					@Override
+					public void close() throws IOException {
+						delegate.close();
+					}
+
+					@Override
+					public boolean isFinished() {
+						return delegate.isFinished();
+					}
+
+					@Override
+					public boolean isReady() {
+						return delegate.isReady();
+					}
+
+					@Override
+					public void setReadListener(ReadListener readListener) {
+						delegate.setReadListener(readListener);
+					}
+				};
+			}
+			return input;
+		}
+	}
+
+	private static void acquire(IoBudget budget, long bytes) throws IOException {
+		try {
+			budget.acquire(bytes);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the transfer budget");
+		}
+	}
+}
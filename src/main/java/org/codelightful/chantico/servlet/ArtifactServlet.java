@@ -1,7 +1,15 @@
 package org.codelightful.chantico.servlet;
 
 import org.codelightful.chantico.engine.ArtifactRepository;
+import org.codelightful.chantico.engine.BulkImporter;
+import org.codelightful.chantico.engine.MirrorService;
+import org.codelightful.chantico.engine.PopularityTracker;
+import org.codelightful.chantico.engine.ReplicationService;
+import org.codelightful.chantico.engine.UsageService;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.metrics.RequestTrace;
 import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,25 +18,101 @@ import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ArtifactServlet extends AbstractServlet {
 	private static final Logger logger = LoggerFactory.getLogger("artifact");
 	/** Constant with the web context used for the artifact servlet */
 	public static final String SERVLET_CONTEXT = "/artifact/*";
+	/** Number of downloads being transferred at this moment */
+	private static final AtomicInteger activeDownloads = new AtomicInteger();
+	/** Number of uploads being transferred at this moment */
+	private static final AtomicInteger activeUploads = new AtomicInteger();
+	/** Status code (WebDAV) returned when an upload exceeds a quota */
+	static final int SC_INSUFFICIENT_STORAGE = 507;
+	/** Status code (WebDAV) returned when some of the files of a bulk upload could not be stored */
+	private static final int SC_MULTI_STATUS = 207;
+
+	static {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.gauge("chantico_transfers_in_flight", "Number of artifact transfers in progress", activeDownloads::get, "direction", "download");
+		registry.gauge("chantico_transfers_in_flight", "Number of artifact transfers in progress", activeUploads::get, "direction", "upload");
+	}
 
 	@Override
 	protected void doServe(HttpServletRequest request, HttpServletResponse response) throws Exception {
 		logger.trace("Request Received: method={} uri={}", request.getMethod(), request.getRequestURI());
+		if (MirrorService.getInstance().isEnabled() && !HttpMethod.GET.equals(request.getMethod())
+				&& !HttpMethod.HEAD.equals(request.getMethod())) {
+			logger.warn("A write request has been rejected by a read-only mirror. method={} uri={}", request.getMethod(), request.getRequestURI());
+			response.setHeader(HttpHeaders.ALLOW, HttpMethod.GET + ", " + HttpMethod.HEAD);
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		if (HttpMethod.POST.equals(request.getMethod())) {
+			activeUploads.incrementAndGet();
+			try {
+				serveBulkUpload(request, response);
+			} finally {
+				activeUploads.decrementAndGet();
+			}
+			return;
+		}
+		// only the peers that know the replication token can write without registering the changes
+		boolean replica = request.getHeader(ReplicationService.REPLICA_HEADER) != null;
+		if (replica && !HttpMethod.GET.equals(request.getMethod()) && !HttpMethod.HEAD.equals(request.getMethod())
+				&& !ReplicationService.getInstance().isTrustedPeer(request.getHeader(ReplicationService.TOKEN_HEADER))) {
+			logger.warn("A replica request without a valid token has been rejected. method={} uri={} remoteIp={}",
+					request.getMethod(), request.getRequestURI(), request.getRemoteAddr());
+			response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		String user = getRequestUser(request);
 		ArtifactRequest artifactRequest = getArtifactRequest(request);
+		RequestTrace.mark(RequestTrace.Phase.PARSE);
 
 		int responseStatus;
 		if (HttpMethod.HEAD.equals(request.getMethod())) {
-			responseStatus = retrieveArtifact(artifactRequest, null);
+			responseStatus = retrieveArtifact(artifactRequest, request, null);
 		} else if (HttpMethod.GET.equals(request.getMethod())) {
-			responseStatus = retrieveArtifact(artifactRequest, response);
+			activeDownloads.incrementAndGet();
+			try {
+				responseStatus = retrieveArtifact(artifactRequest, request, response);
+				RequestTrace.mark(RequestTrace.Phase.LAST_BYTE);
+			} finally {
+				activeDownloads.decrementAndGet();
+			}
+			publishEvent(responseStatus == HttpServletResponse.SC_OK ? RepositoryEvent.Type.SERVED : RepositoryEvent.Type.MISSED,
+					artifactRequest, request, user);
 		} else if (HttpMethod.PUT.equals(request.getMethod())) {
-			responseStatus = storeArtifact(artifactRequest, request);
+			activeUploads.incrementAndGet();
+			try {
+				responseStatus = storeArtifact(artifactRequest, request, replica);
+				RequestTrace.mark(RequestTrace.Phase.LAST_BYTE);
+			} finally {
+				activeUploads.decrementAndGet();
+			}
+			if (responseStatus == HttpServletResponse.SC_OK) {
+				publishEvent(RepositoryEvent.Type.STORED, artifactRequest, request, user);
+			}
+		} else if (HttpMethod.DELETE.equals(request.getMethod())) {
+			if (!replica && (user = getAuthenticatedUser(request)) == null) {
+				logger.warn("An unauthenticated delete request has been rejected. uri={} remoteIp={}", request.getRequestURI(),
+						request.getRemoteAddr());
+				response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"chantico\"");
+				response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+				return;
+			}
+			ArtifactRepository repository = ArtifactRepository.getInstance();
+			boolean deleted = replica ? repository.deleteReplica(artifactRequest) : repository.deleteArtifact(artifactRequest);
+			if (deleted) {
+				responseStatus = HttpServletResponse.SC_OK;
+				publishEvent(RepositoryEvent.Type.DELETED, artifactRequest, request, user);
+			} else {
+				responseStatus = HttpServletResponse.SC_NOT_FOUND;
+			}
 		} else {
 			logger.error("An invalid request method ({}) has been received. uri={}", request.getMethod(), request.getRequestURI());
 			responseStatus = HttpServletResponse.SC_BAD_REQUEST;
@@ -36,44 +120,154 @@ public class ArtifactServlet extends AbstractServlet {
 		response.setStatus(responseStatus);
 	}
 
+	/** Internal method to publish an operation executed over an artifact, so it is processed off the request thread */
+	private void publishEvent(RepositoryEvent.Type type, ArtifactRequest artifactRequest, HttpServletRequest request, String user) {
+		ArtifactRepository.getInstance().publish(type, artifactRequest, user, request.getRemoteAddr());
+	}
+
 	/**
 	 * Retrieves an artifact from the repository and writes its content to the response.  When the response is not
-	 * provided then only verifies if the artifact is available
+	 * provided then only verifies if the artifact is available. Artifacts kept compressed are sent without being
+	 * decompressed to the clients that accept gzip content. A mirror downloads from the primary the artifacts that it
+	 * does not have yet
 	 * @param artifactRequest Object representing the metadata for the requested artifact
+	 * @param request HTTP request
 	 * @param response HTTP response to write the content on it or null to do not write any content
 	 * @return HTTP status code to set in the response
 	 */
-	private int retrieveArtifact(ArtifactRequest artifactRequest, HttpServletResponse response) throws Exception{
+	private int retrieveArtifact(ArtifactRequest artifactRequest, HttpServletRequest request, HttpServletResponse response) throws Exception{
 		OutputStream output = null;
 		if (response != null) {
+			response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+			if (acceptsGzip(request) && ArtifactRepository.getInstance().retrieveCompressedArtifact(artifactRequest, () -> {
+				response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+				return response.getOutputStream();
+			})) {
+				return served(artifactRequest, response);
+			}
 			output = response.getOutputStream();
 		}
 		if (ArtifactRepository.getInstance().retrieveArtifact(artifactRequest, output)) {
-			return HttpServletResponse.SC_OK;
+			return served(artifactRequest, response);
+		}
+		if (MirrorService.getInstance().fetch(artifactRequest)
+				&& ArtifactRepository.getInstance().retrieveArtifact(artifactRequest, output)) {
+			return served(artifactRequest, response);
 		}
 		return HttpServletResponse.SC_NOT_FOUND;
 	}
 
 	/**
-	 * Internal method to handle the request to store an artifact into the repository
+	 * Internal method to register the download of a file in its popularity, returning the status of a served file. The
+	 * existence checks do not write any content, so they are not registered
+	 * @param response HTTP response the content was written to or null if only the existence of the file was verified
+	 */
+	private int served(ArtifactRequest artifactRequest, HttpServletResponse response) {
+		if (response != null) {
+			PopularityTracker.getInstance().record(artifactRequest);
+		}
+		return HttpServletResponse.SC_OK;
+	}
+
+	/** Allows to determine if the client accepts gzip content in the response */
+	private boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String encoding : acceptEncoding.split(",")) {
+			String[] parts = encoding.trim().split(";");
+			if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+				return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Internal method to handle the request to store an artifact into the repository. The upload is rejected with the
+	 * insufficient storage status when its content would exceed the quota of the repository or the group
 	 * @param artifactRequest The object with the description of the artifact to store
 	 * @param httpRequest The HTTP request containing the artifact data received from the client
+	 * @param replica Boolean value to determine if the content has been pushed by a trusted peer
 	 * @return HTTP status code to set in the response
 	 */
-	private int storeArtifact(ArtifactRequest artifactRequest, HttpServletRequest httpRequest) throws Exception {
+	private int storeArtifact(ArtifactRequest artifactRequest, HttpServletRequest httpRequest, boolean replica) throws Exception {
 		String contentType = httpRequest.getHeader(HttpHeaders.CONTENT_TYPE);
-		Integer contentLength = getIntegerHeader(httpRequest, HttpHeaders.CONTENT_LENGTH);
-			if (!MediaType.APPLICATION_OCTET_STREAM.equals(contentType)) {
+		long contentLength = httpRequest.getContentLengthLong();
+		if (!MediaType.APPLICATION_OCTET_STREAM.equals(contentType)) {
 			logger.error("An invalid content type ({}) has been received for a PUT request. uri={}", contentType, httpRequest.getRequestURI());
-		} else if (contentLength == null || contentLength == 0) {
+		} else if (contentLength <= 0) {
 			logger.error("An request without content has been received for a PUT request. uri={}", httpRequest.getRequestURI());
 		} else {
-			ArtifactRepository.getInstance().storeArtifact(artifactRequest, httpRequest.getInputStream());
+			String exceededQuota = UsageService.getInstance().checkQuota(artifactRequest, contentLength,
+					ArtifactRepository.getInstance().getArtifactSize(artifactRequest));
+			if (exceededQuota != null) {
+				logger.warn("An upload has been rejected by a quota. uri={} cause={}", httpRequest.getRequestURI(), exceededQuota);
+				return SC_INSUFFICIENT_STORAGE;
+			}
+			if (!replica) {
+				ArtifactRepository.getInstance().storeArtifact(artifactRequest, httpRequest.getInputStream());
+			} else if (!ArtifactRepository.getInstance().storeReplica(artifactRequest, httpRequest.getInputStream(),
+					httpRequest.getHeader(ReplicationService.CHECKSUM_HEADER))) {
+				logger.error("A replicated file has been discarded since it does not match its checksum. uri={} source={}",
+						httpRequest.getRequestURI(), httpRequest.getHeader(ReplicationService.REPLICA_HEADER));
+				return HttpServletResponse.SC_BAD_REQUEST;
+			}
 			return HttpServletResponse.SC_OK;
 		}
 		return HttpServletResponse.SC_BAD_REQUEST;
 	}
 
+	/**
+	 * Internal method to handle the request to store all the files of a ZIP or TAR archive laid out as a Maven
+	 * repository. The entries are relative to the folder of the request URI and the response lists the entries that
+	 * could not be stored, with the multi-status code when there is any
+	 * @param request HTTP request with the archive as content
+	 * @param response HTTP response to write the summary of the upload
+	 */
+	private void serveBulkUpload(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		BulkImporter.Format format = getArchiveFormat(request.getHeader(HttpHeaders.CONTENT_TYPE));
+		if (format == null) {
+			logger.error("An invalid content type ({}) has been received for a bulk upload. uri={}", request.getHeader(HttpHeaders.CONTENT_TYPE),
+					request.getRequestURI());
+			response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			return;
+		}
+		String uri = request.getRequestURI();
+		String prefix = uri.length() < SERVLET_CONTEXT.length() - 1 ? "" : uri.substring(SERVLET_CONTEXT.length() - 1);
+		BulkImporter.Result result;
+		try {
+			result = BulkImporter.getInstance().importArchive(format, prefix, request.getInputStream(), getRequestUser(request),
+					request.getRemoteAddr());
+		} catch (IOException ex) {
+			logger.error("A malformed archive has been received for a bulk upload. uri={} cause={}", uri, ex.getMessage());
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		response.setStatus(result.failures.isEmpty() ? HttpServletResponse.SC_OK : SC_MULTI_STATUS);
+		writeJson(response, result);
+	}
+
+	/** Obtains the archive format for the content type of a bulk upload or null if it is not supported */
+	private BulkImporter.Format getArchiveFormat(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		switch (contentType.split(";")[0].trim().toLowerCase()) {
+			case "application/zip":
+				return BulkImporter.Format.ZIP;
+			case "application/x-tar":
+				return BulkImporter.Format.TAR;
+			case "application/gzip":
+			case "application/x-gzip":
+			case "application/x-compressed-tar":
+				return BulkImporter.Format.TAR_GZIP;
+			default:
+				return null;
+		}
+	}
+
 	/**
 	 * Generates an object representing the requested artifact for an HTTP request
  	 * @param request HTTP request
@@ -96,4 +290,9 @@ public class ArtifactServlet extends AbstractServlet {
 	protected Logger getLogger() {
 		return logger;
 	}
+
+	@Override
+	protected String getEndpointName() {
+		return "artifact";
+	}
 }
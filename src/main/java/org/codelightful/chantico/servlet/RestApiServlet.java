@@ -2,17 +2,64 @@ package org.codelightful.chantico.servlet;
 
 import org.codelightful.chantico.Chantico;
 import org.codelightful.chantico.Configuration;
+import org.codelightful.chantico.engine.ActivityLog;
+import org.codelightful.chantico.engine.ArtifactRepository;
+import org.codelightful.chantico.engine.BatchResolver;
+import org.codelightful.chantico.engine.ChangeLog;
+import org.codelightful.chantico.engine.ChunkedUploadService;
+import org.codelightful.chantico.engine.DiagnosticsService;
+import org.codelightful.chantico.engine.MaintenanceService;
+import org.codelightful.chantico.engine.MavenIndexService;
+import org.codelightful.chantico.engine.MirrorService;
+import org.codelightful.chantico.engine.PopularityTracker;
+import org.codelightful.chantico.engine.ReplicationService;
+import org.codelightful.chantico.engine.UsageService;
 import org.codelightful.chantico.engine.UserService;
+import org.codelightful.chantico.engine.VersionIndex;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.codelightful.chantico.metrics.TraceRecorder;
+import org.codelightful.chantico.model.ActivityEvent;
+import org.codelightful.chantico.model.ArtifactRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class RestApiServlet extends AbstractServlet {
 	private static final Logger logger = LoggerFactory.getLogger("servlet-api");
 	/** Constant with the web context used for the API servlet */
 	public static final String SERVLET_CONTEXT = "/api/";
+	/** Number of activity events returned when the page size is not requested */
+	private static final int DEFAULT_ACTIVITY_PAGE = 50;
+	/** Maximum number of activity events returned in a single page */
+	private static final int MAX_ACTIVITY_PAGE = 500;
+	/** Number of groups or artifacts returned in the usage when the limit is not requested */
+	private static final int DEFAULT_USAGE_LIMIT = 20;
+	/** Number of changes returned by the change feed when the page size is not requested */
+	private static final int DEFAULT_CHANGES_PAGE = 500;
+	/** Maximum number of changes returned by the change feed in a single page */
+	private static final int MAX_CHANGES_PAGE = 5000;
+	/** Maximum number of artifacts of a batch resolve when it is not configured */
+	private static final int DEFAULT_MAX_RESOLVE = 1000;
+	/** Number of artifacts returned by the artifact list when the page size is not requested */
+	private static final int DEFAULT_ARTIFACTS_PAGE = 100;
+	/** Maximum number of artifacts returned by the artifact list in a single page */
+	private static final int MAX_ARTIFACTS_PAGE = 1000;
+	/** Number of files returned by the popular files when the limit is not requested */
+	private static final int DEFAULT_POPULAR_LIMIT = 20;
+	/** Duration of a flight recording when it is not requested */
+	private static final int DEFAULT_RECORDING_SECONDS = 60;
 
 	@Override
 	protected void doServe(HttpServletRequest request, HttpServletResponse response) throws Exception {
@@ -22,6 +69,56 @@ public class RestApiServlet extends AbstractServlet {
 			serveInitialize(request, response);
 		} else if(uri.equals("login")) {
 			serveLogin(request, response);
+		} else if(uri.equals("status")) {
+			serveStatus(response);
+		} else if(uri.equals("metrics")) {
+			serveMetrics(response);
+		} else if(uri.equals("activity")) {
+			serveActivity(request, response);
+		} else if(uri.equals("activity/stream")) {
+			serveActivityStream(request, response);
+		} else if(uri.equals("usage")) {
+			serveUsage(request, response);
+		} else if(uri.equals("maintenance")) {
+			serveMaintenance(request, response);
+		} else if(uri.equals("maintenance/run")) {
+			serveMaintenanceRun(request, response);
+		} else if(uri.equals("changes")) {
+			serveChanges(request, response);
+		} else if(uri.equals("replication")) {
+			serveReplication(request, response);
+		} else if(uri.equals("resolve")) {
+			serveResolve(request, response);
+		} else if(uri.equals("artifacts")) {
+			serveArtifacts(request, response);
+		} else if(uri.equals("versions")) {
+			serveVersions(request, response);
+		} else if(uri.equals("versions/resolve")) {
+			serveVersionResolve(request, response);
+		} else if(uri.equals("traces")) {
+			serveTraces(request, response);
+		} else if(uri.equals("diagnostics")) {
+			serveDiagnostics(request, response);
+		} else if(uri.equals("diagnostics/threads")) {
+			serveThreadDump(request, response);
+		} else if(uri.equals("diagnostics/recordings")) {
+			serveRecordings(request, response);
+		} else if(uri.equals("diagnostics/recordings/stop")) {
+			serveRecordingStop(request, response);
+		} else if(uri.equals("diagnostics/recordings/file")) {
+			serveRecordingFile(request, response);
+		} else if(uri.equals("popular")) {
+			servePopular(request, response);
+		} else if(uri.equals("index")) {
+			serveIndex(request, response);
+		} else if(uri.equals("index/consolidate")) {
+			serveIndexConsolidate(request, response);
+		} else if(uri.equals("uploads")) {
+			serveUploadCreate(request, response);
+		} else if(uri.startsWith("uploads/") && uri.endsWith("/complete")) {
+			serveUploadComplete(request, response, uri.substring("uploads/".length(), uri.length() - "/complete".length()));
+		} else if(uri.startsWith("uploads/")) {
+			serveUpload(request, response, uri.substring("uploads/".length()));
 		} else {
 			throw new IllegalArgumentException("Invalid API operation: " + uri);
 		}
@@ -36,6 +133,11 @@ public class RestApiServlet extends AbstractServlet {
 		return logger;
 	}
 
+	@Override
+	protected String getEndpointName() {
+		return "api";
+	}
+
 	/** Initializes the server for its first usage */
 	private void serveInitialize(HttpServletRequest request, HttpServletResponse response) throws Exception {
 		UserService userService = UserService.getInstance();
@@ -69,7 +171,539 @@ public class RestApiServlet extends AbstractServlet {
 			response.getWriter().write("unauthorized");
 		} else {
 			request.getSession(true).setAttribute(AUTH_SESSION_ATTRIBUTE, Chantico.encrypt(userName));
+			ArtifactRepository.getInstance().getActivityLog().record(ActivityEvent.Type.LOGIN, null, userName, request.getRemoteAddr());
 			response.getWriter().write("granted");
 		}
 	}
+
+	/** Reports the startup time and uptime of the server */
+	private void serveStatus(HttpServletResponse response) {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("startupMillis", Chantico.current().getStartupMillis());
+		status.put("uptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime());
+		writeJson(response, status);
+	}
+
+	/** Exports the server metrics in the Prometheus text format */
+	private void serveMetrics(HttpServletResponse response) throws Exception {
+		response.setHeader(HttpHeaders.CONTENT_TYPE, MetricsRegistry.CONTENT_TYPE);
+		MetricsRegistry.getInstance().write(response.getWriter());
+	}
+
+	/** Returns a page of the recent activity, from the newest to the oldest event */
+	private void serveActivity(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		ActivityLog activityLog = getActivityLog(request, response);
+		if (activityLog == null) {
+			return;
+		}
+		long before = getLongParameter(request, "before", -1);
+		int limit = (int) Math.max(1, Math.min(MAX_ACTIVITY_PAGE, getLongParameter(request, "limit", DEFAULT_ACTIVITY_PAGE)));
+		List<ActivityEvent> events = activityLog.getPage(before, limit);
+		Map<String, Object> page = new LinkedHashMap<>();
+		page.put("repository", activityLog.getRepository());
+		page.put("events", events);
+		page.put("next", events.size() < limit ? null : events.get(events.size() - 1).sequence);
+		writeJson(response, page);
+	}
+
+	/** Streams the recent activity as it happens using Server-Sent Events */
+	private void serveActivityStream(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		ActivityLog activityLog = getActivityLog(request, response);
+		if (activityLog != null) {
+			ActivityStream.getInstance().subscribe(request, response, activityLog);
+		}
+	}
+
+	/**
+	 * Reports the space used by the repository and its biggest groups or, when the group parameter is received, the
+	 * space used by the group and its biggest artifacts
+	 */
+	private void serveUsage(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		UsageService usageService = UsageService.getInstance();
+		int limit = (int) Math.max(1, getLongParameter(request, "limit", DEFAULT_USAGE_LIMIT));
+		String group = request.getParameter("group");
+		Map<String, Object> result = new LinkedHashMap<>();
+		List<Map<String, Object>> children = new ArrayList<>();
+		if (group == null || group.isEmpty()) {
+			result.put("repository", usageToMap(usageService, UsageService.Scope.REPOSITORY, ""));
+			for (UsageService.Usage usage : usageService.getTop(UsageService.Scope.GROUP, "", limit)) {
+				children.add(usageToMap(usageService, UsageService.Scope.GROUP, usage.key));
+			}
+			result.put("groups", children);
+		} else {
+			result.put("group", usageToMap(usageService, UsageService.Scope.GROUP, group));
+			for (UsageService.Usage usage : usageService.getTop(UsageService.Scope.ARTIFACT, group + ":", limit)) {
+				children.add(usageToMap(usageService, UsageService.Scope.ARTIFACT, usage.key));
+			}
+			result.put("artifacts", children);
+		}
+		writeJson(response, result);
+	}
+
+	/** Internal method to describe the usage of a key, including its quota when the scope allows it */
+	private Map<String, Object> usageToMap(UsageService usageService, UsageService.Scope scope, String key) {
+		UsageService.Usage usage = usageService.getUsage(scope, key);
+		Map<String, Object> result = new LinkedHashMap<>();
+		if (scope == UsageService.Scope.GROUP) {
+			result.put("group", key);
+		} else if (scope == UsageService.Scope.ARTIFACT) {
+			result.put("artifact", key.substring(key.indexOf(':') + 1));
+		}
+		result.put("files", usage == null ? 0 : usage.files.get());
+		result.put("bytes", usage == null ? 0 : usage.bytes.get());
+		if (scope != UsageService.Scope.ARTIFACT) {
+			long quota = usageService.getQuota(scope, key);
+			result.put("quota", quota > 0 ? quota : null);
+		}
+		return result;
+	}
+
+	/** Reports the state of the maintenance and the progress of its jobs */
+	private void serveMaintenance(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (requireAuthentication(request, response)) {
+			writeJson(response, MaintenanceService.getInstance().getStatus());
+		}
+	}
+
+	/** Starts a maintenance run, the response reports if it has been started or another run is in progress */
+	private void serveMaintenanceRun(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		} else if (!HttpMethod.POST.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("started", MaintenanceService.getInstance().trigger());
+		writeJson(response, result);
+	}
+
+	/**
+	 * Returns a page of the change feed read by the mirrors, with the changes after the identifier of the after
+	 * parameter. The request has to include the token of replication.feed.token when it is configured
+	 */
+	private void serveChanges(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		ChangeLog changeLog = ChangeLog.getInstance();
+		Configuration configuration = Configuration.getInstance();
+		if (!changeLog.isEnabled() || !configuration.getBoolean("replication.feed.enabled", false)) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String token = configuration.getString("replication.feed.token", "");
+		if (!token.isEmpty() && !token.equals(request.getHeader(ReplicationService.TOKEN_HEADER))) {
+			logger.warn("A request of the change feed has been rejected by its token. remoteIp={}", request.getRemoteAddr());
+			response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		long after = Math.max(0, getLongParameter(request, "after", 0));
+		int limit = (int) Math.max(1, Math.min(MAX_CHANGES_PAGE, getLongParameter(request, "limit", DEFAULT_CHANGES_PAGE)));
+		long lastChange = changeLog.getLastId();
+		Map<String, Object> page = new LinkedHashMap<>();
+		page.put("firstChange", changeLog.getFirstId());
+		page.put("lastChange", lastChange);
+		page.put("changes", after >= lastChange ? new ArrayList<>() : changeLog.read(after, limit));
+		writeJson(response, page);
+	}
+
+	/** Reports the last change registered and the state of the replication to every peer */
+	private void serveReplication(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		ChangeLog changeLog = ChangeLog.getInstance();
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("enabled", changeLog.isEnabled());
+		result.put("lastChange", changeLog.getLastId());
+		result.put("peers", ReplicationService.getInstance().getStatus());
+		result.put("mirror", MirrorService.getInstance().getStatus());
+		writeJson(response, result);
+	}
+
+	/**
+	 * Writes the artifacts of a list of coordinates received in the body ({"artifacts": [...]}) as a ZIP archive, with
+	 * a manifest of the files included and the ones that could not be found
+	 */
+	private void serveResolve(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!HttpMethod.POST.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		ResolveRequest resolveRequest = parseBody(request, ResolveRequest.class);
+		int maxArtifacts = Configuration.getInstance().getInt("resolve.maxArtifacts", DEFAULT_MAX_RESOLVE);
+		if (resolveRequest == null || resolveRequest.artifacts == null || resolveRequest.artifacts.isEmpty()
+				|| resolveRequest.artifacts.size() > maxArtifacts) {
+			logger.error("An invalid batch resolve request has been received. artifacts={} max={}",
+					resolveRequest == null || resolveRequest.artifacts == null ? 0 : resolveRequest.artifacts.size(), maxArtifacts);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		response.setHeader(HttpHeaders.CONTENT_TYPE, "application/zip");
+		response.setHeader("Content-Disposition", "attachment; filename=\"artifacts.zip\"");
+		BatchResolver.getInstance().resolve(resolveRequest.artifacts, response.getOutputStream(), getRequestUser(request),
+				request.getRemoteAddr());
+	}
+
+	/**
+	 * Returns a page of the artifacts of the repository sorted by group and artifact, with their latest version and
+	 * number of versions. The next page starts after the artifact of the after parameter (group:artifact)
+	 */
+	private void serveArtifacts(HttpServletRequest request, HttpServletResponse response) {
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		int limit = (int) Math.max(1, Math.min(MAX_ARTIFACTS_PAGE, getLongParameter(request, "limit", DEFAULT_ARTIFACTS_PAGE)));
+		List<VersionIndex.Summary> artifacts = repository.getVersionIndex().getArtifacts(request.getParameter("after"), limit);
+		Map<String, Object> page = new LinkedHashMap<>();
+		page.put("repository", repository.getName());
+		page.put("artifacts", artifacts);
+		page.put("next", artifacts.size() < limit ? null : artifacts.get(artifacts.size() - 1).group + ":"
+				+ artifacts.get(artifacts.size() - 1).artifact);
+		writeJson(response, page);
+	}
+
+	/** Returns the versions of the artifact of the group and artifact parameters, from the oldest to the newest */
+	private void serveVersions(HttpServletRequest request, HttpServletResponse response) {
+		String group = request.getParameter("group");
+		String artifact = request.getParameter("artifact");
+		VersionIndex versionIndex = ArtifactRepository.getInstance().getVersionIndex();
+		List<String> versions = group == null || artifact == null ? null : versionIndex.getVersions(group, artifact);
+		if (versions == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		VersionIndex.Resolution release = versionIndex.resolve(group, artifact, VersionIndex.RELEASE);
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("group", group);
+		result.put("artifact", artifact);
+		result.put("latest", versions.isEmpty() ? null : versions.get(versions.size() - 1));
+		result.put("release", release == null ? null : release.version);
+		result.put("versions", versions);
+		writeJson(response, result);
+	}
+
+	/**
+	 * Resolves the version parameter of an artifact, which can be LATEST, RELEASE, a version or a version range. The
+	 * snapshot versions are also resolved to the timestamped version of their latest build
+	 */
+	private void serveVersionResolve(HttpServletRequest request, HttpServletResponse response) {
+		String group = request.getParameter("group");
+		String artifact = request.getParameter("artifact");
+		String version = request.getParameter("version");
+		if (group == null || artifact == null || version == null) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		VersionIndex.Resolution resolution;
+		try {
+			resolution = ArtifactRepository.getInstance().getVersionIndex().resolve(group, artifact, version);
+		} catch (IllegalArgumentException ex) {
+			logger.error("An invalid version range has been received. group={} artifact={} cause={}", group, artifact, ex.getMessage());
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if (resolution == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		writeJson(response, resolution);
+	}
+
+	/** Reports the slowest requests sampled recently with the time of their phases */
+	private void serveTraces(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("samplePercent", TraceRecorder.getInstance().getSamplePercent());
+		result.put("slowest", TraceRecorder.getInstance().getSlowest());
+		writeJson(response, result);
+	}
+
+	/** Reports the usage of the heap, the garbage collectors, the direct buffers and the threads */
+	private void serveDiagnostics(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (requireAuthentication(request, response)) {
+			writeJson(response, DiagnosticsService.getInstance().getReport());
+		}
+	}
+
+	/** Returns a dump of the stack of every thread as plain text */
+	private void serveThreadDump(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (requireAuthentication(request, response)) {
+			response.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN);
+			response.getWriter().write(DiagnosticsService.getInstance().getThreadDump());
+		}
+	}
+
+	/**
+	 * Lists the flight recordings written and the ones in progress or, for a POST request, starts a recording with the
+	 * settings (default or profile) and the duration in seconds received as parameters
+	 */
+	private void serveRecordings(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		DiagnosticsService diagnostics = DiagnosticsService.getInstance();
+		Map<String, Object> result = new LinkedHashMap<>();
+		if (HttpMethod.POST.equals(request.getMethod())) {
+			String settings = request.getParameter("settings");
+			long duration = getLongParameter(request, "duration", DEFAULT_RECORDING_SECONDS);
+			try {
+				result.put("name", diagnostics.startRecording(settings == null ? "default" : settings, duration));
+			} catch (IllegalArgumentException ex) {
+				logger.error("An invalid flight recording request has been received. cause={}", ex.getMessage());
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+		} else {
+			result.put("active", diagnostics.getActiveRecordings());
+			result.put("recordings", diagnostics.getRecordings());
+		}
+		writeJson(response, result);
+	}
+
+	/** Stops the flight recording of the name parameter and writes its file */
+	private void serveRecordingStop(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		} else if (!HttpMethod.POST.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		try {
+			result.put("result", DiagnosticsService.getInstance().stopRecording(String.valueOf(request.getParameter("name"))));
+		} catch (IllegalArgumentException ex) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		writeJson(response, result);
+	}
+
+	/** Downloads the file of the flight recording of the name parameter */
+	private void serveRecordingFile(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		File file = DiagnosticsService.getInstance().getRecording(request.getParameter("name"));
+		if (file == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM);
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
+		response.setContentLengthLong(file.length());
+		Files.copy(file.toPath(), response.getOutputStream());
+	}
+
+	/** Returns the most downloaded files with their estimated number of downloads */
+	private void servePopular(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		int limit = (int) Math.max(1, getLongParameter(request, "limit", DEFAULT_POPULAR_LIMIT));
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("files", PopularityTracker.getInstance().getTop(limit));
+		writeJson(response, result);
+	}
+
+	/** Reports the state of the publication of the Maven index */
+	private void serveIndex(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		}
+		writeJson(response, MavenIndexService.getInstance().getStatus());
+	}
+
+	/** Requests the regeneration of the full Maven index */
+	private void serveIndexConsolidate(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (!requireAuthentication(request, response)) {
+			return;
+		} else if (!HttpMethod.POST.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("started", MavenIndexService.getInstance().consolidate());
+		writeJson(response, result);
+	}
+
+	/**
+	 * Creates a chunked upload session for the file of the path parameter with the number of bytes of the size parameter.
+	 * The session is rejected with the insufficient storage status when the file would exceed a quota
+	 */
+	private void serveUploadCreate(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		String user = requireUser(request, response);
+		if (user == null) {
+			return;
+		} else if (!HttpMethod.POST.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		} else if (MirrorService.getInstance().isEnabled()) {
+			logger.warn("An upload session has been rejected by a read-only mirror. remoteIp={}", request.getRemoteAddr());
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		String path = request.getParameter("path");
+		long size = getLongParameter(request, "size", -1);
+		if (path == null || path.isEmpty() || size <= 0) {
+			logger.error("An invalid upload session request has been received. path={} size={}", path, size);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		ArtifactRequest artifactRequest = ArtifactRequest.parse(path);
+		String exceededQuota = UsageService.getInstance().checkQuota(artifactRequest, size,
+				ArtifactRepository.getInstance().getArtifactSize(artifactRequest));
+		if (exceededQuota != null) {
+			logger.warn("An upload session has been rejected by a quota. path={} cause={}", path, exceededQuota);
+			response.setStatus(ArtifactServlet.SC_INSUFFICIENT_STORAGE);
+			return;
+		}
+		ChunkedUploadService.Session session;
+		try {
+			session = ChunkedUploadService.getInstance().create(artifactRequest, size, user, request.getRemoteAddr());
+		} catch (IllegalStateException ex) {
+			logger.warn("An upload session has been rejected. path={} cause={}", path, ex.getMessage());
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_CREATED);
+		response.setHeader(HttpHeaders.LOCATION, SERVLET_CONTEXT + "uploads/" + session.id);
+		writeJson(response, session.toMap());
+	}
+
+	/**
+	 * Completes an upload session with the checksum of the whole file in the sha1 or sha256 parameter. The session is
+	 * kept when some ranges are missing (conflict status) and it is discarded when the content does not match
+	 */
+	private void serveUploadComplete(HttpServletRequest request, HttpServletResponse response, String id) throws Exception {
+		String user = requireUser(request, response);
+		if (user == null) {
+			return;
+		} else if (!HttpMethod.POST.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		ChunkedUploadService uploads = ChunkedUploadService.getInstance();
+		ChunkedUploadService.Session session = uploads.get(id);
+		if (session == null || !session.isOwnedBy(user)) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String algorithm = request.getParameter("sha256") != null ? "SHA-256" : request.getParameter("sha1") != null ? "SHA-1" : null;
+		if (algorithm == null) {
+			logger.error("An upload session can not be completed without a checksum. id={}", id);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		String checksum = request.getParameter("SHA-256".equals(algorithm) ? "sha256" : "sha1");
+		ChunkedUploadService.Result result = uploads.complete(session, algorithm, checksum);
+		if (result == ChunkedUploadService.Result.INCOMPLETE) {
+			response.setStatus(HttpServletResponse.SC_CONFLICT);
+			writeJson(response, session.toMap());
+			return;
+		} else if (result == ChunkedUploadService.Result.MISMATCH) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("path", session.path);
+		values.put("size", session.size);
+		writeJson(response, values);
+	}
+
+	/**
+	 * Handles an upload session: PUT writes the content of the request at the position of the offset parameter, GET
+	 * reports the ranges received and missing, and DELETE discards the session. Only the user that created the session
+	 * can use it
+	 */
+	private void serveUpload(HttpServletRequest request, HttpServletResponse response, String id) throws Exception {
+		String user = requireUser(request, response);
+		if (user == null) {
+			return;
+		}
+		ChunkedUploadService uploads = ChunkedUploadService.getInstance();
+		ChunkedUploadService.Session session = uploads.get(id);
+		if (session == null || !session.isOwnedBy(user)) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		if (HttpMethod.PUT.equals(request.getMethod())) {
+			long offset = getLongParameter(request, "offset", -1);
+			try {
+				uploads.write(session, offset, request.getContentLengthLong(), request.getInputStream());
+			} catch (IllegalArgumentException ex) {
+				logger.error("An invalid chunk has been received. id={} cause={}", id, ex.getMessage());
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			} catch (IllegalStateException ex) {
+				logger.warn("A chunk has been received for a finished upload session. id={}", id);
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+		} else if (HttpMethod.DELETE.equals(request.getMethod())) {
+			if (!uploads.abort(session)) {
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+		} else if (!HttpMethod.GET.equals(request.getMethod())) {
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		writeJson(response, session.toMap());
+	}
+
+	/**
+	 * Validates that the request has been executed by an authenticated user, otherwise sets the unauthorized status
+	 * @return A boolean value to determine if the request can continue
+	 */
+	private boolean requireAuthentication(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (isAuthenticated(request)) {
+			return true;
+		}
+		response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+		response.getWriter().write("unauthorized");
+		return false;
+	}
+
+	/**
+	 * Obtains the user of a request authenticated either by the session or by the credentials of the authorization
+	 * header (as the writes of the artifact files), setting the unauthorized status when it is not authenticated
+	 * @return User name or null if the request is not authenticated
+	 */
+	private String requireUser(HttpServletRequest request, HttpServletResponse response) {
+		String user = getAuthenticatedUser(request);
+		if (user == null) {
+			logger.warn("An unauthenticated request has been rejected. uri={} remoteIp={}", request.getRequestURI(), request.getRemoteAddr());
+			response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"chantico\"");
+			response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+		}
+		return user;
+	}
+
+	/**
+	 * Obtains the activity log for the repository received in the repo parameter (the current repository when it is
+	 * not provided) or sets the not found status if the repository does not exist
+	 */
+	private ActivityLog getActivityLog(HttpServletRequest request, HttpServletResponse response) {
+		ArtifactRepository repository = ArtifactRepository.getInstance();
+		String repositoryName = request.getParameter("repo");
+		if (repositoryName != null && !repositoryName.isEmpty() && !repositoryName.equals(repository.getName())) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		return repository.getActivityLog();
+	}
+
+	/** Body of a batch resolve request */
+	public static class ResolveRequest {
+		/** Paths or Maven coordinates of the files to resolve */
+		public List<String> artifacts;
+	}
 }
@@ -155,4 +155,9 @@ public class StaticContentServlet extends AbstractServlet {
 	protected Logger getLogger() {
 		return logger;
 	}
+
+	@Override
+	protected String getEndpointName() {
+		return "static";
+	}
 }
@@ -0,0 +1,271 @@
+package org.codelightful.chantico.storage;
+
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.Histogram;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Storage that keeps the files with specific extensions compressed with gzip on another storage. A compressed file is
+ * kept next to the location of the original one with the {@link #SUFFIX} suffix and is decompressed as it is read,
+ * unless it is requested as gzip content with {@link #openGzipStream(Path)}.
+ *
+ * Files stored without compression (before it was enabled or with an extension that is not compressed anymore) are
+ * still served, so the list of extensions can be changed at any time
+ */
+public class CompressedStorage implements Storage {
+	/** Suffix of the compressed files, it is not a plain .gz to do not clash with artifacts that are gzip archives */
+	static final String SUFFIX = ".stored.gz";
+	private final Storage storage;
+	/** Extensions (lower case, without the dot) of the files compressed when they are stored */
+	private final Set<String> extensions = new HashSet<>();
+	private final Counter originalBytes;
+	private final Counter storedBytes;
+	private final Counter passThrough;
+	private final Histogram compressTime;
+	private final Histogram decompressTime;
+
+	/**
+	 * @param storage Storage that keeps the files
+	 * @param repository Name of the repository, used to report the metrics
+	 * @param extensions Extensions of the files to compress (an empty list to do not compress any new file)
+	 */
+	public CompressedStorage(Storage storage, String repository, Collection<String> extensions) {
+		this.storage = storage;
+		for (String extension : extensions) {
+			this.extensions.add(extension.trim().toLowerCase());
+		}
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		String bytesHelp = "Number of bytes of the compressed files before and after the compression";
+		originalBytes = registry.counter("chantico_compression_bytes_total", bytesHelp, "repository", repository, "size", "original");
+		storedBytes = registry.counter("chantico_compression_bytes_total", bytesHelp, "repository", repository, "size", "stored");
+		passThrough = registry.counter("chantico_compression_passthrough_total",
+				"Number of compressed files served without decompressing them", "repository", repository);
+		String timeHelp = "Time spent compressing and decompressing files";
+		compressTime = registry.histogram("chantico_compression_duration_seconds", timeHelp, 1e-6,
+				"repository", repository, "operation", "compress");
+		decompressTime = registry.histogram("chantico_compression_duration_seconds", timeHelp, 1e-6,
+				"repository", repository, "operation", "decompress");
+	}
+
+	/** Allows to determine if a file is compressed when it is stored */
+	boolean isCompressed(Path key) {
+		String fileName = key.getFileName().toString();
+		int dotIndex = fileName.lastIndexOf('.');
+		return dotIndex > 0 && extensions.contains(fileName.substring(dotIndex + 1).toLowerCase());
+	}
+
+	/** Obtains the key of the compressed version of a file */
+	private Path compressedKey(Path key) {
+		return key.resolveSibling(key.getFileName() + SUFFIX);
+	}
+
+	@Override
+	public Entry stat(Path key) throws IOException {
+		Path compressedKey = compressedKey(key);
+		if (isCompressed(key)) {
+			Entry entry = storage.stat(compressedKey);
+			return entry != null ? GzipSupport.uncompressedEntry(storage, entry, key) : storage.stat(key);
+		}
+		Entry entry = storage.stat(key);
+		return entry != null ? entry : GzipSupport.uncompressedEntry(storage, storage.stat(compressedKey), key);
+	}
+
+	@Override
+	public InputStream openStream(Path key) throws IOException {
+		if (isCompressed(key)) {
+			try {
+				return new DecompressingStream(storage.openStream(compressedKey(key)));
+			} catch (NoSuchFileException ex) {
+				return storage.openStream(key);
+			}
+		}
+		try {
+			return storage.openStream(key);
+		} catch (NoSuchFileException ex) {
+			return new DecompressingStream(storage.openStream(compressedKey(key)));
+		}
+	}
+
+	@Override
+	public InputStream openGzipStream(Path key) throws IOException {
+		try {
+			InputStream input = GzipSupport.openGzipContent(storage, compressedKey(key));
+			passThrough.inc();
+			return input;
+		} catch (NoSuchFileException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public SeekableByteChannel openChannel(Path key) throws IOException {
+		try {
+			return storage.openChannel(key);
+		} catch (NoSuchFileException ex) {
+			Entry entry = stat(key);
+			if (entry == null) {
+				throw ex;
+			}
+			Path compressedKey = compressedKey(key);
+			return new GzipSupport.StreamChannel(() -> new DecompressingStream(storage.openStream(compressedKey)), entry.size);
+		}
+	}
+
+	@Override
+	public int read(Path key, long position, ByteBuffer target) throws IOException {
+		try {
+			return storage.read(key, position, target);
+		} catch (NoSuchFileException ex) {
+			try (SeekableByteChannel channel = openChannel(key)) {
+				return GzipSupport.read(channel, position, target);
+			}
+		}
+	}
+
+	@Override
+	public Upload create(Path key) throws IOException {
+		boolean compressed = isCompressed(key);
+		Path uploadKey = compressed ? compressedKey(key) : key;
+		Path replacedKey = compressed ? key : compressedKey(key);
+		Upload upload = storage.create(uploadKey);
+		return new Upload() {
+			private CompressingStream output;
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				if (!compressed) {
+					return upload.getOutputStream();
+				} else if (output == null) {
+					output = new CompressingStream(upload.getOutputStream());
+				}
+				return output;
+			}
+
+			@Override
+			public void publish() throws IOException {
+				if (compressed) {
+					getOutputStream();
+					output.finish();
+				}
+				upload.publish();
+				// the file may have been stored before with the other format
+				storage.delete(replacedKey);
+				if (compressed) {
+					Entry entry = storage.stat(uploadKey);
+					originalBytes.add(output.originalSize);
+					storedBytes.add(entry == null ? 0 : entry.size);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				upload.close();
+			}
+		};
+	}
+
+	@Override
+	public boolean delete(Path key) throws IOException {
+		boolean deleted = storage.delete(key);
+		boolean deletedCompressed = storage.delete(compressedKey(key));
+		return deleted || deletedCompressed;
+	}
+
+	@Override
+	public List<Entry> list(Path folder) throws IOException {
+		Map<Path, Entry> entries = new LinkedHashMap<>();
+		for (Entry entry : storage.list(folder)) {
+			String fileName = entry.key.getFileName().toString();
+			if (!entry.directory && fileName.endsWith(SUFFIX)) {
+				Path key = entry.key.resolveSibling(fileName.substring(0, fileName.length() - SUFFIX.length()));
+				entries.putIfAbsent(key, GzipSupport.uncompressedEntry(storage, entry, key));
+			} else {
+				entries.put(entry.key, entry);
+			}
+		}
+		return new ArrayList<>(entries.values());
+	}
+
+	@Override
+	public void close() throws IOException {
+		storage.close();
+	}
+
+	/**
+	 * Gzip stream that measures the time spent compressing and the size of the original content, which is written in
+	 * the size member when it is finished
+	 */
+	private class CompressingStream extends GZIPOutputStream {
+		private long originalSize;
+		private long elapsedNanos;
+		private boolean finished;
+
+		private CompressingStream(OutputStream output) throws IOException {
+			super(output, GzipSupport.BUFFER_SIZE);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			long startTime = System.nanoTime();
+			super.write(buffer, offset, length);
+			elapsedNanos += System.nanoTime() - startTime;
+			originalSize += length;
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			long startTime = System.nanoTime();
+			super.finish();
+			GzipSupport.writeSizeMember(out, originalSize);
+			compressTime.record((elapsedNanos + System.nanoTime() - startTime) / 1000);
+		}
+	}
+
+	/** Gzip stream that measures the time spent decompressing */
+	private class DecompressingStream extends GZIPInputStream {
+		private long elapsedNanos;
+		private boolean closed;
+
+		private DecompressingStream(InputStream input) throws IOException {
+			super(input, GzipSupport.BUFFER_SIZE);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			long startTime = System.nanoTime();
+			int read = super.read(buffer, offset, length);
+			elapsedNanos += System.nanoTime() - startTime;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (!closed) {
+				closed = true;
+				decompressTime.record(elapsedNanos / 1000);
+			}
+		}
+	}
+}
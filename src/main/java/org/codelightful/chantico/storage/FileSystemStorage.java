@@ -0,0 +1,197 @@
+package org.codelightful.chantico.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Storage backend that keeps every file as a regular file under a root folder */
+public class FileSystemStorage implements Storage {
+	private static final Logger logger = LoggerFactory.getLogger("storage");
+	/** Prefix of the temporal files used while an upload is not published, they are never listed */
+	static final String TEMP_PREFIX = ".upload-";
+	private static final SecureRandom RANDOM = new SecureRandom();
+	/** Root folder of the storage */
+	private final Path root;
+
+	/** @param root Root folder of the storage, it is created if does not exist */
+	public FileSystemStorage(Path root) {
+		this.root = root.toAbsolutePath().normalize();
+		try {
+			Files.createDirectories(this.root);
+		} catch (IOException ex) {
+			logger.error("Unable to create the storage folder. location={} cause={}", this.root, ex.getMessage());
+			throw new RuntimeException("Unable to create the storage folder", ex);
+		}
+	}
+
+	/** Obtains the root folder of the storage */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Obtains the absolute path for a key, rejecting the keys that point outside the root folder
+	 * @param key Relative path of the file
+	 */
+	Path resolve(Path key) {
+		Path file = root.resolve(key).normalize();
+		if (!file.startsWith(root) || key.isAbsolute()) {
+			logger.error("A storage key outside the storage folder has been rejected. key={}", key);
+			throw new IllegalArgumentException("Invalid storage key: " + key);
+		}
+		return file;
+	}
+
+	@Override
+	public Entry stat(Path key) throws IOException {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+			return new Entry(key, attributes.isDirectory() ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis(),
+					attributes.isDirectory());
+		} catch (NoSuchFileException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public InputStream openStream(Path key) throws IOException {
+		return Files.newInputStream(resolve(key));
+	}
+
+	@Override
+	public SeekableByteChannel openChannel(Path key) throws IOException {
+		return FileChannel.open(resolve(key), StandardOpenOption.READ);
+	}
+
+	@Override
+	public int read(Path key, long position, ByteBuffer target) throws IOException {
+		try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+			int total = 0;
+			while (target.hasRemaining()) {
+				int read = channel.read(target, position + total);
+				if (read < 0) {
+					return total == 0 ? -1 : total;
+				}
+				total += read;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Creates the temporal file of an upload in the folder of the target file. It is created with the default
+	 * permissions of the process (not the owner only permissions of a temporal file), which are kept when it is
+	 * published
+	 */
+	@Override
+	public Upload create(Path key) throws IOException {
+		Path file = resolve(key);
+		Files.createDirectories(file.getParent());
+		while (true) {
+			Path tempFile = file.resolveSibling(TEMP_PREFIX + Long.toUnsignedString(RANDOM.nextLong(), 36) + ".tmp");
+			try {
+				Files.createFile(tempFile);
+				return new FileUpload(file, tempFile);
+			} catch (FileAlreadyExistsException ex) {
+				// another upload has the same name, a new one is generated
+			}
+		}
+	}
+
+	@Override
+	public boolean delete(Path key) throws IOException {
+		Path file = resolve(key);
+		if (!Files.deleteIfExists(file)) {
+			return false;
+		}
+		Path folder = file.getParent();
+		while (folder != null && !folder.equals(root)) {
+			try {
+				Files.delete(folder);
+			} catch (DirectoryNotEmptyException | NoSuchFileException ex) {
+				break;
+			}
+			folder = folder.getParent();
+		}
+		return true;
+	}
+
+	@Override
+	public List<Entry> list(Path folder) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		Path directory = resolve(folder);
+		if (!Files.isDirectory(directory)) {
+			return entries;
+		}
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+			for (Path child : children) {
+				if (child.getFileName().toString().startsWith(TEMP_PREFIX)) {
+					continue;
+				}
+				Entry entry = stat(root.relativize(child));
+				if (entry != null) {
+					entries.add(entry);
+				}
+			}
+		}
+		return entries;
+	}
+
+	/** Upload written to a temporal file of the target folder, which is renamed atomically when it is published */
+	private static class FileUpload implements Upload {
+		private final Path file;
+		private final Path tempFile;
+		private OutputStream output;
+		private boolean published;
+
+		private FileUpload(Path file, Path tempFile) {
+			this.file = file;
+			this.tempFile = tempFile;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			if (output == null) {
+				output = Files.newOutputStream(tempFile);
+			}
+			return output;
+		}
+
+		@Override
+		public void publish() throws IOException {
+			if (output != null) {
+				output.close();
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			published = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!published) {
+				if (output != null) {
+					output.close();
+				}
+				Files.deleteIfExists(tempFile);
+			}
+		}
+	}
+}
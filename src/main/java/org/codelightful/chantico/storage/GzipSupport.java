@@ -0,0 +1,291 @@
+package org.codelightful.chantico.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Helper methods shared by the storage backends that keep files compressed with gzip. The gzip trailer only holds the
+ * size of the content modulo 2^32, so the real size is written after the compressed content as an empty gzip member
+ * with the size in an extra field. The gzip readers decompress it as part of the content (it is empty) and it is
+ * removed from the content served as gzip as is
+ */
+final class GzipSupport {
+	/** Size of the buffers used to compress and decompress the content */
+	static final int BUFFER_SIZE = 64 * 1024;
+	/** Length of the empty member with the size of the content */
+	static final int SIZE_MEMBER_LENGTH = 34;
+	/** Identifier of the extra field with the size of the content */
+	private static final byte SIZE_FIELD_ID1 = 'C';
+	private static final byte SIZE_FIELD_ID2 = 'S';
+	/** Minimum length of a gzip member (header, empty deflate block and trailer) */
+	private static final int MIN_MEMBER_LENGTH = 20;
+
+	private GzipSupport() {}
+
+	/**
+	 * Writes the empty gzip member with the size of the content, it is written once the gzip stream is finished
+	 * @param output Stream with the compressed content
+	 * @param size Size of the uncompressed content
+	 */
+	static void writeSizeMember(OutputStream output, long size) throws IOException {
+		ByteBuffer member = ByteBuffer.allocate(SIZE_MEMBER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		// magic, deflate, extra field flag, no modification time, no compression flags, unknown operating system
+		member.put((byte) 0x1F).put((byte) 0x8B).put((byte) 8).put((byte) 4).putInt(0).put((byte) 0).put((byte) 0xFF);
+		member.putShort((short) 12).put(SIZE_FIELD_ID1).put(SIZE_FIELD_ID2).putShort((short) 8).putLong(size);
+		// empty final deflate block, CRC-32 and size of the empty content
+		member.put((byte) 3).put((byte) 0).putInt(0).putInt(0);
+		output.write(member.array());
+	}
+
+	/**
+	 * Obtains the size written after the compressed content of a file
+	 * @param storage Storage that contains the compressed file
+	 * @param entry Entry of the compressed file
+	 * @return Size of the uncompressed content or -1 if the file has no size member (it was stored without it)
+	 */
+	private static long readSizeMember(Storage storage, Storage.Entry entry) throws IOException {
+		if (entry.size < SIZE_MEMBER_LENGTH + MIN_MEMBER_LENGTH) {
+			return -1;
+		}
+		ByteBuffer member = ByteBuffer.allocate(SIZE_MEMBER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		if (storage.read(entry.key, entry.size - SIZE_MEMBER_LENGTH, member) < SIZE_MEMBER_LENGTH
+				|| member.get(0) != (byte) 0x1F || member.get(1) != (byte) 0x8B || member.get(3) != 4
+				|| member.get(12) != SIZE_FIELD_ID1 || member.get(13) != SIZE_FIELD_ID2) {
+			return -1;
+		}
+		return member.getLong(16);
+	}
+
+	/**
+	 * Replaces the size of an entry that holds gzip content with the size of the uncompressed content. It is taken
+	 * from the size member, or from the gzip trailer for the files stored without it (which holds the size modulo 2^32)
+	 * @param storage Storage that contains the compressed file
+	 * @param entry Entry of the compressed file
+	 * @param key Key to report in the resulting entry
+	 */
+	static Storage.Entry uncompressedEntry(Storage storage, Storage.Entry entry, Path key) throws IOException {
+		if (entry == null || entry.directory) {
+			return entry;
+		}
+		long size = readSizeMember(storage, entry);
+		if (size < 0) {
+			size = 0;
+			if (entry.size >= 4) {
+				ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+				storage.read(entry.key, entry.size - 4, trailer);
+				size = trailer.getInt(0) & 0xFFFFFFFFL;
+			}
+		}
+		return new Storage.Entry(key, size, entry.lastModified, false);
+	}
+
+	/**
+	 * Opens the gzip content of a compressed file without its size member, so it can be served as it is
+	 * @param storage Storage that contains the compressed file
+	 * @param key Key of the compressed file
+	 * @throws NoSuchFileException If the file does not exist
+	 */
+	static InputStream openGzipContent(Storage storage, Path key) throws IOException {
+		Storage.Entry entry = storage.stat(key);
+		if (entry == null || entry.directory) {
+			throw new NoSuchFileException(key.toString());
+		}
+		InputStream input = storage.openStream(key);
+		return readSizeMember(storage, entry) < 0 ? input : new LimitedStream(input, entry.size - SIZE_MEMBER_LENGTH);
+	}
+
+	/**
+	 * Copies the content from a stream to another one
+	 * @return Number of bytes copied
+	 */
+	static long copy(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long total = 0;
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Reads from a position of a channel until the buffer is full or the end of the content is reached
+	 * @return Number of bytes read or -1 if the position is at the end of the content
+	 */
+	static int read(SeekableByteChannel channel, long position, ByteBuffer target) throws IOException {
+		channel.position(position);
+		int total = 0;
+		while (target.hasRemaining()) {
+			int read = channel.read(target);
+			if (read < 0) {
+				return total == 0 ? -1 : total;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	/** Stream that ends after a number of bytes of another stream */
+	private static class LimitedStream extends FilterInputStream {
+		private long remaining;
+
+		private LimitedStream(InputStream input, long length) {
+			super(input);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int value = super.read();
+			if (value >= 0) {
+				remaining--;
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(Math.min(count, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/** Functional interface to open a stream with the uncompressed content */
+	@FunctionalInterface
+	interface StreamOpener {
+		InputStream open() throws IOException;
+	}
+
+	/**
+	 * Read only channel over content that can only be read sequentially. Moving forward skips the content and moving
+	 * backwards opens the stream again, so it is intended for mostly sequential readers
+	 */
+	static class StreamChannel implements SeekableByteChannel {
+		private final StreamOpener opener;
+		private final long size;
+		private InputStream input;
+		private long position;
+		/** Position of the underlying stream, it is moved to the channel position on the next read */
+		private long streamPosition;
+		private boolean open = true;
+
+		StreamChannel(StreamOpener opener, long size) throws IOException {
+			this.opener = opener;
+			this.size = size;
+			this.input = opener.open();
+		}
+
+		@Override
+		public int read(ByteBuffer target) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+			if (position < streamPosition) {
+				input.close();
+				input = opener.open();
+				streamPosition = 0;
+			}
+			while (streamPosition < position) {
+				long skipped = input.skip(position - streamPosition);
+				if (skipped <= 0) {
+					if (input.read() < 0) {
+						return -1;
+					}
+					skipped = 1;
+				}
+				streamPosition += skipped;
+			}
+			int read;
+			if (target.hasArray()) {
+				read = input.read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+				if (read > 0) {
+					target.position(target.position() + read);
+				}
+			} else {
+				byte[] buffer = new byte[Math.min(target.remaining(), BUFFER_SIZE)];
+				read = input.read(buffer);
+				if (read > 0) {
+					target.put(buffer, 0, read);
+				}
+			}
+			if (read > 0) {
+				position += read;
+				streamPosition += read;
+			}
+			return read;
+		}
+
+		@Override
+		public int write(ByteBuffer source) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() {
+			return position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) {
+			this.position = newPosition;
+			return this;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() throws IOException {
+			open = false;
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,692 @@
+package org.codelightful.chantico.storage;
+
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * Storage that keeps the small files packed into append-only segment files instead of one file per key, delegating
+ * the bigger files to another storage. Every record of a segment holds the key, the content and a checksum, and an
+ * in-memory index maps every key to the position of its latest content. The segments are memory-mapped, so serving a
+ * packed file does not execute any system call.
+ *
+ * On startup the segments are replayed in order to rebuild the index, and a segment that ends with an incomplete or
+ * corrupted record (for example after a crash while writing it) is truncated at the last valid record. Deletions are
+ * recorded as tombstones, and the segments that are mostly made of overwritten or deleted content are compacted in
+ * the background by copying their live records to the active segment
+ */
+public class PackedStorage implements Storage {
+	private static final Logger logger = LoggerFactory.getLogger("storage");
+	/** Value that starts every record */
+	private static final int MAGIC = 0x43504B31;
+	private static final byte FLAG_DATA = 0;
+	private static final byte FLAG_DELETED = 1;
+	/** Record header: magic (4), flags (1), key length (2), content length (4), last modified (8) and CRC32 (4) */
+	private static final int HEADER_SIZE = 23;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".pack";
+	private static final byte[] EMPTY = new byte[0];
+	/** Storage that keeps the files that are not packed */
+	private final Storage storage;
+	/** Folder with the segment files */
+	private final Path location;
+	/** Files smaller than this number of bytes are packed */
+	private final int threshold;
+	/** Size in bytes after which a new segment is started */
+	private final long segmentSize;
+	/** Segments whose live content is below this fraction of their size are compacted */
+	private final double compactRatio;
+	/** Location of the latest content of every packed key, the keys use / as separator */
+	private final ConcurrentSkipListMap<String, Record> index = new ConcurrentSkipListMap<>();
+	private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+	/** Lock that serializes the appends to the active segment and the updates of the index made by them */
+	private final Object writeLock = new Object();
+	private volatile Segment activeSegment;
+	private final Counter compactions = MetricsRegistry.getInstance().counter("chantico_pack_compactions_total",
+			"Number of pack segments compacted");
+	private final Compactor compactor;
+
+	/**
+	 * @param storage Storage for the files that are not packed
+	 * @param location Folder with the segment files, it is created if does not exist
+	 * @param threshold Files smaller than this number of bytes are packed
+	 * @param segmentSize Size in bytes after which a new segment is started
+	 * @param compactRatio Segments whose live content is below this fraction of their size are compacted
+	 * @param compactIntervalMillis Time between compactions (zero to do not execute them automatically)
+	 */
+	public PackedStorage(Storage storage, Path location, int threshold, long segmentSize, double compactRatio,
+						 long compactIntervalMillis) throws IOException {
+		this.storage = storage;
+		this.location = location.toAbsolutePath().normalize();
+		this.threshold = threshold;
+		this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE - HEADER_SIZE);
+		this.compactRatio = compactRatio;
+		Files.createDirectories(this.location);
+		recover();
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.gauge("chantico_pack_files", "Number of files kept in the pack segments", index::size);
+		registry.gauge("chantico_pack_segment_bytes", "Size of the pack segments", () -> {
+			long total = 0;
+			for (Segment segment : segments.values()) {
+				total += segment.size;
+			}
+			return total;
+		});
+		if (compactIntervalMillis > 0) {
+			compactor = new Compactor(compactIntervalMillis);
+			compactor.start();
+		} else {
+			compactor = null;
+		}
+	}
+
+	/** Rebuilds the index replaying the records of all the segments in the order they were written */
+	private void recover() throws IOException {
+		List<Integer> ids = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(location, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				try {
+					ids.add(Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException ex) {
+					logger.warn("An unknown file has been found in the pack folder. file={}", file);
+				}
+			}
+		}
+		Collections.sort(ids);
+		long startTime = System.currentTimeMillis();
+		for (int id : ids) {
+			Segment segment = new Segment(id, getSegmentFile(id));
+			segments.put(id, segment);
+			long validSize = replay(segment);
+			if (validSize < segment.size) {
+				logger.warn("A pack segment ends with an incomplete record, it will be truncated. segment={} size={} validSize={}",
+						id, segment.size, validSize);
+				segment.truncate(validSize);
+			}
+		}
+		activeSegment = ids.isEmpty() ? createSegment(1) : segments.get(ids.get(ids.size() - 1));
+		logger.info("Pack storage loaded. location={} segments={} files={} time={}ms", location, segments.size(), index.size(),
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Applies the records of a segment to the index
+	 * @return Size of the segment up to the last valid record
+	 */
+	private long replay(Segment segment) throws IOException {
+		if (segment.size == 0) {
+			return 0;
+		}
+		ByteBuffer buffer = segment.slice(0, (int) segment.size);
+		int position = 0;
+		while (position + HEADER_SIZE <= buffer.limit()) {
+			int keyLength = buffer.getShort(position + 5) & 0xFFFF;
+			int length = buffer.getInt(position + 7);
+			int recordSize = HEADER_SIZE + keyLength + length;
+			if (buffer.getInt(position) != MAGIC || length < 0 || position + (long) recordSize > buffer.limit()) {
+				break;
+			}
+			CRC32 crc = new CRC32();
+			ByteBuffer content = buffer.duplicate();
+			content.position(position + HEADER_SIZE).limit(position + recordSize);
+			crc.update(content);
+			if ((int) crc.getValue() != buffer.getInt(position + 19)) {
+				break;
+			}
+			String key = readKey(buffer, position + HEADER_SIZE, keyLength);
+			if (buffer.get(position + 4) == FLAG_DATA) {
+				index.put(key, new Record(segment.id, position, recordSize, length, buffer.getLong(position + 11)));
+			} else {
+				index.remove(key);
+			}
+			position += recordSize;
+		}
+		return position;
+	}
+
+	/** Obtains the key used in the index for a storage key */
+	private String getIndexKey(Path key) {
+		if (key.isAbsolute() || key.normalize().startsWith("..")) {
+			throw new IllegalArgumentException("Invalid storage key: " + key);
+		}
+		return key.toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Obtains the content of a packed file
+	 * @return Buffer with the content or null if the file is not packed
+	 */
+	private ByteBuffer getPacked(String indexKey) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			Record record = index.get(indexKey);
+			if (record == null) {
+				return null;
+			}
+			Segment segment = segments.get(record.segment);
+			try {
+				if (segment != null) {
+					return segment.slice(record.getContentOffset(), record.length);
+				}
+			} catch (ClosedChannelException ex) {
+				if (attempt > 2) {
+					throw ex;
+				}
+			}
+			// the segment has been compacted after the record was obtained
+		}
+	}
+
+	@Override
+	public Entry stat(Path key) throws IOException {
+		String indexKey = getIndexKey(key);
+		Record record = index.get(indexKey);
+		if (record != null) {
+			return new Entry(key, record.length, record.lastModified, false);
+		}
+		Entry entry = storage.stat(key);
+		if (entry == null && hasPackedChildren(indexKey)) {
+			return new Entry(key, 0, 0, true);
+		}
+		return entry;
+	}
+
+	@Override
+	public InputStream openStream(Path key) throws IOException {
+		ByteBuffer content = getPacked(getIndexKey(key));
+		return content != null ? new BufferInputStream(content) : storage.openStream(key);
+	}
+
+	@Override
+	public SeekableByteChannel openChannel(Path key) throws IOException {
+		ByteBuffer content = getPacked(getIndexKey(key));
+		return content != null ? new BufferChannel(content) : storage.openChannel(key);
+	}
+
+	@Override
+	public int read(Path key, long position, ByteBuffer target) throws IOException {
+		ByteBuffer content = getPacked(getIndexKey(key));
+		if (content == null) {
+			return storage.read(key, position, target);
+		}
+		if (position >= content.limit()) {
+			return -1;
+		}
+		content.position((int) position);
+		int length = Math.min(content.remaining(), target.remaining());
+		content.limit(content.position() + length);
+		target.put(content);
+		return length;
+	}
+
+	@Override
+	public Upload create(Path key) throws IOException {
+		return new PackedUpload(key, getIndexKey(key));
+	}
+
+	@Override
+	public boolean delete(Path key) throws IOException {
+		String indexKey = getIndexKey(key);
+		boolean deletedPacked;
+		synchronized (writeLock) {
+			deletedPacked = index.remove(indexKey) != null;
+			if (deletedPacked) {
+				append(FLAG_DELETED, indexKey, EMPTY, 0, System.currentTimeMillis());
+			}
+		}
+		boolean deleted = storage.delete(key);
+		return deletedPacked || deleted;
+	}
+
+	@Override
+	public List<Entry> list(Path folder) throws IOException {
+		Map<Path, Entry> entries = new LinkedHashMap<>();
+		for (Entry entry : storage.list(folder)) {
+			entries.put(entry.key, entry);
+		}
+		String indexKey = getIndexKey(folder);
+		String prefix = indexKey.isEmpty() ? "" : indexKey + "/";
+		String next = index.ceilingKey(prefix);
+		while (next != null && next.startsWith(prefix)) {
+			String remainder = next.substring(prefix.length());
+			int separator = remainder.indexOf('/');
+			if (separator < 0) {
+				Record record = index.get(next);
+				if (record != null) {
+					Path key = folder.resolve(remainder);
+					entries.put(key, new Entry(key, record.length, record.lastModified, false));
+				}
+				next = index.higherKey(next);
+			} else {
+				String child = remainder.substring(0, separator);
+				entries.putIfAbsent(folder.resolve(child), new Entry(folder.resolve(child), 0, 0, true));
+				// skip the rest of the child folder, '0' is the character after the separator
+				next = index.ceilingKey(prefix + child + '0');
+			}
+		}
+		return new ArrayList<>(entries.values());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (compactor != null) {
+			compactor.interrupt();
+		}
+		synchronized (writeLock) {
+			for (Segment segment : segments.values()) {
+				segment.channel.close();
+			}
+		}
+		storage.close();
+	}
+
+	/** Allows to determine if there is any packed file under a folder */
+	private boolean hasPackedChildren(String indexKey) {
+		String prefix = indexKey + "/";
+		String next = index.ceilingKey(prefix);
+		return next != null && next.startsWith(prefix);
+	}
+
+	/**
+	 * Compacts the segments whose live content is below the compaction ratio. The live records are copied to the
+	 * active segment and then the compacted segment is removed
+	 * @return Number of segments compacted
+	 */
+	public int compact() throws IOException {
+		Map<Integer, Long> liveBytes = new HashMap<>();
+		for (Record record : index.values()) {
+			liveBytes.merge(record.segment, (long) record.size, Long::sum);
+		}
+		List<Integer> ids = new ArrayList<>(segments.keySet());
+		Collections.sort(ids);
+		int count = 0;
+		for (int id : ids) {
+			Segment segment = segments.get(id);
+			if (segment == null || segment == activeSegment || liveBytes.getOrDefault(id, 0L) > segment.size * compactRatio) {
+				continue;
+			}
+			compactSegment(segment, id == ids.get(0));
+			compactions.inc();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the live records of a segment to the active segment and removes it
+	 * @param segment Segment to compact
+	 * @param oldest Determines if it is the oldest segment, whose tombstones can be discarded because there is no
+	 *               older record for them to hide
+	 */
+	private void compactSegment(Segment segment, boolean oldest) throws IOException {
+		long startTime = System.currentTimeMillis();
+		ByteBuffer buffer = segment.slice(0, (int) segment.size);
+		int position = 0;
+		while (position + HEADER_SIZE <= buffer.limit()) {
+			int keyLength = buffer.getShort(position + 5) & 0xFFFF;
+			int length = buffer.getInt(position + 7);
+			long lastModified = buffer.getLong(position + 11);
+			String key = readKey(buffer, position + HEADER_SIZE, keyLength);
+			synchronized (writeLock) {
+				Record current = index.get(key);
+				if (buffer.get(position + 4) == FLAG_DATA) {
+					if (current != null && current.segment == segment.id && current.position == position) {
+						byte[] content = new byte[length];
+						ByteBuffer source = buffer.duplicate();
+						source.position(position + HEADER_SIZE + keyLength);
+						source.get(content);
+						index.put(key, append(FLAG_DATA, key, content, length, lastModified));
+					}
+				} else if (!oldest && current == null) {
+					append(FLAG_DELETED, key, EMPTY, 0, lastModified);
+				}
+			}
+			position += HEADER_SIZE + keyLength + length;
+		}
+		synchronized (writeLock) {
+			segments.remove(segment.id);
+			segment.channel.close();
+		}
+		Files.deleteIfExists(segment.file);
+		logger.info("A pack segment has been compacted. segment={} size={} time={}ms", segment.id, segment.size,
+				System.currentTimeMillis() - startTime);
+	}
+
+	/** Obtains the number of segments, including the active one */
+	int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Appends a record to the active segment, starting a new segment when it is full. It must be invoked holding the
+	 * write lock
+	 * @return Record representing the appended content
+	 */
+	private Record append(byte flags, String key, byte[] content, int length, long lastModified) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		int recordSize = HEADER_SIZE + keyBytes.length + length;
+		ByteBuffer record = ByteBuffer.allocate(recordSize);
+		record.putInt(MAGIC).put(flags).putShort((short) keyBytes.length).putInt(length).putLong(lastModified).putInt(0);
+		record.put(keyBytes).put(content, 0, length);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), HEADER_SIZE, recordSize - HEADER_SIZE);
+		record.putInt(19, (int) crc.getValue());
+		record.flip();
+
+		Segment segment = activeSegment;
+		if (segment.size > 0 && segment.size + recordSize > segmentSize) {
+			segment = createSegment(segment.id + 1);
+			activeSegment = segment;
+		}
+		long position = segment.size;
+		while (record.hasRemaining()) {
+			segment.channel.write(record, position + record.position());
+		}
+		segment.size += recordSize;
+		return new Record(segment.id, (int) position, recordSize, length, lastModified);
+	}
+
+	/** Creates an empty segment */
+	private Segment createSegment(int id) throws IOException {
+		Segment segment = new Segment(id, getSegmentFile(id));
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private Path getSegmentFile(int id) {
+		return location.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+	}
+
+	private static String readKey(ByteBuffer buffer, int position, int length) {
+		byte[] keyBytes = new byte[length];
+		ByteBuffer source = buffer.duplicate();
+		source.position(position);
+		source.get(keyBytes);
+		return new String(keyBytes, StandardCharsets.UTF_8);
+	}
+
+	/** Position of a record in a segment */
+	private static class Record {
+		private final int segment;
+		/** Position of the record header */
+		private final int position;
+		/** Size of the whole record */
+		private final int size;
+		/** Size of the content */
+		private final int length;
+		private final long lastModified;
+
+		private Record(int segment, int position, int size, int length, long lastModified) {
+			this.segment = segment;
+			this.position = position;
+			this.size = size;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		private long getContentOffset() {
+			return position + size - length;
+		}
+	}
+
+	/** Segment file, mapped in memory up to the size it had the last time a record beyond the mapping was read */
+	private static class Segment {
+		private final int id;
+		private final Path file;
+		private final FileChannel channel;
+		/** Size of the segment, only modified while holding the write lock */
+		private volatile long size;
+		private volatile MappedByteBuffer mapped;
+
+		private Segment(int id, Path file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.size = channel.size();
+		}
+
+		/** Obtains a read only view of a region of the segment */
+		private ByteBuffer slice(long offset, int length) throws IOException {
+			MappedByteBuffer buffer = mapped;
+			if (buffer == null || offset + length > buffer.capacity()) {
+				synchronized (this) {
+					buffer = mapped;
+					if (buffer == null || offset + length > buffer.capacity()) {
+						buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+						mapped = buffer;
+					}
+				}
+			}
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit((int) offset + length).position((int) offset);
+			return slice.slice();
+		}
+
+		/** Removes the content after a position */
+		private void truncate(long newSize) throws IOException {
+			channel.truncate(newSize);
+			size = newSize;
+			mapped = null;
+		}
+	}
+
+	/** Upload kept in memory while it is smaller than the threshold and moved to the other storage when it is not */
+	private class PackedUpload implements Upload {
+		private final Path key;
+		private final String indexKey;
+		private final ExposedBuffer buffer = new ExposedBuffer();
+		private Upload spilled;
+		private final OutputStream output = new OutputStream() {
+			@Override
+			public void write(int value) throws IOException {
+				write(new byte[] { (byte) value }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] content, int offset, int length) throws IOException {
+				if (spilled == null && buffer.size() + length >= threshold) {
+					spilled = storage.create(key);
+					spilled.getOutputStream().write(buffer.content(), 0, buffer.size());
+				}
+				if (spilled != null) {
+					spilled.getOutputStream().write(content, offset, length);
+				} else {
+					buffer.write(content, offset, length);
+				}
+			}
+		};
+
+		private PackedUpload(Path key, String indexKey) {
+			this.key = key;
+			this.indexKey = indexKey;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return output;
+		}
+
+		@Override
+		public void publish() throws IOException {
+			if (spilled != null) {
+				spilled.publish();
+				synchronized (writeLock) {
+					if (index.remove(indexKey) != null) {
+						append(FLAG_DELETED, indexKey, EMPTY, 0, System.currentTimeMillis());
+					}
+				}
+			} else {
+				synchronized (writeLock) {
+					index.put(indexKey, append(FLAG_DATA, indexKey, buffer.content(), buffer.size(), System.currentTimeMillis()));
+				}
+				// the file may have been stored before without packing it
+				storage.delete(key);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (spilled != null) {
+				spilled.close();
+			}
+		}
+	}
+
+	/** Byte array stream that gives access to its buffer without copying it */
+	private static class ExposedBuffer extends ByteArrayOutputStream {
+		private byte[] content() {
+			return buf;
+		}
+	}
+
+	/** Input stream over the content of a buffer */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] target, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(target, offset, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long count) {
+			int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/** Read only channel over the content of a buffer */
+	private static class BufferChannel implements SeekableByteChannel {
+		private final ByteBuffer buffer;
+		private boolean open = true;
+
+		private BufferChannel(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read(ByteBuffer target) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int length = Math.min(buffer.remaining(), target.remaining());
+			ByteBuffer source = buffer.duplicate();
+			source.limit(source.position() + length);
+			target.put(source);
+			buffer.position(buffer.position() + length);
+			return length;
+		}
+
+		@Override
+		public int write(ByteBuffer source) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() {
+			return buffer.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) {
+			buffer.position((int) Math.min(newPosition, buffer.limit()));
+			return this;
+		}
+
+		@Override
+		public long size() {
+			return buffer.limit();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+
+	/** Background thread that compacts the segments periodically */
+	private class Compactor extends Thread {
+		private final long intervalMillis;
+
+		private Compactor(long intervalMillis) {
+			super("pack-compactor");
+			this.intervalMillis = intervalMillis;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				try {
+					Thread.sleep(intervalMillis);
+					compact();
+				} catch (InterruptedException ex) {
+					break;
+				} catch (Exception ex) {
+					logger.error("An error has occurred trying to compact the pack segments. cause={}", ex.getMessage());
+				}
+			}
+		}
+	}
+}
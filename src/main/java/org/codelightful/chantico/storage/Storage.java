@@ -0,0 +1,112 @@
+package org.codelightful.chantico.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Service provider interface implemented by the backends that keep the content of a repository. Files are identified
+ * by a key, which is a path relative to the root of the repository (for example org/group/artifact/1.0/artifact-1.0.jar)
+ */
+public interface Storage extends Closeable {
+	/**
+	 * Obtains the metadata of a file or folder
+	 * @param key Relative path of the file
+	 * @return Entry with the metadata or null if it does not exist
+	 */
+	Entry stat(Path key) throws IOException;
+
+	/**
+	 * Opens a stream to read the whole content of a file
+	 * @param key Relative path of the file
+	 * @throws java.nio.file.NoSuchFileException If the file does not exist
+	 */
+	InputStream openStream(Path key) throws IOException;
+
+	/**
+	 * Opens a stream with the content of a file compressed with gzip, only when the backend already keeps it that way
+	 * @param key Relative path of the file
+	 * @return Stream with the gzip content or null if the file is not kept compressed
+	 */
+	default InputStream openGzipStream(Path key) throws IOException {
+		return null;
+	}
+
+	/**
+	 * Opens a channel to read the content of a file from any position
+	 * @param key Relative path of the file
+	 * @throws java.nio.file.NoSuchFileException If the file does not exist
+	 */
+	SeekableByteChannel openChannel(Path key) throws IOException;
+
+	/**
+	 * Reads a region of a file without opening a channel for it
+	 * @param key Relative path of the file
+	 * @param position Position of the file to start reading from
+	 * @param target Buffer to read the content into, it is filled up to its remaining bytes or the end of the file
+	 * @return Number of bytes read or -1 if the position is at the end of the file
+	 */
+	int read(Path key, long position, ByteBuffer target) throws IOException;
+
+	/**
+	 * Starts writing a file. The content is not visible until it is published, so readers see either the previous
+	 * content or the whole new one
+	 * @param key Relative path of the file
+	 */
+	Upload create(Path key) throws IOException;
+
+	/**
+	 * Removes a file. The folders that are left empty are removed as well
+	 * @param key Relative path of the file
+	 * @return Boolean value to determine if the file existed
+	 */
+	boolean delete(Path key) throws IOException;
+
+	/**
+	 * Obtains the files and folders directly contained in a folder
+	 * @param folder Relative path of the folder (an empty path for the root)
+	 * @return List of entries, empty if the folder does not exist
+	 */
+	List<Entry> list(Path folder) throws IOException;
+
+	@Override
+	default void close() throws IOException {
+	}
+
+	/** Metadata of a stored file or folder */
+	class Entry {
+		/** Relative path of the file */
+		public final Path key;
+		/** Size in bytes of the content (0 for folders) */
+		public final long size;
+		/** Time in milliseconds of the last modification */
+		public final long lastModified;
+		/** Determines if the entry is a folder */
+		public final boolean directory;
+
+		public Entry(Path key, long size, long lastModified, boolean directory) {
+			this.key = key;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.directory = directory;
+		}
+	}
+
+	/** File being written that replaces the existing content atomically when it is published */
+	interface Upload extends Closeable {
+		/** Obtains the stream to write the content to */
+		OutputStream getOutputStream() throws IOException;
+
+		/** Makes the written content visible, replacing the previous one */
+		void publish() throws IOException;
+
+		/** Discards the written content if it has not been published */
+		@Override
+		void close() throws IOException;
+	}
+}
@@ -0,0 +1,430 @@
+package org.codelightful.chantico.storage;
+
+import org.codelightful.chantico.metrics.Counter;
+import org.codelightful.chantico.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Storage that keeps the recently used files on a fast tier and moves the files that have not been used for a while
+ * to a slower tier, where they are kept compressed with gzip. Writes always go to the fast tier, and a file of the
+ * slow tier is decompressed as it is read while a background thread promotes it back to the fast tier, so a read
+ * never waits for the promotion of a big file.
+ *
+ * The last access of every file is tracked in memory and saved to a state file on every demotion and on shutdown, so
+ * it survives the restarts. Files not accessed since the tracking started (the first time the storage was opened with
+ * the state file) are considered accessed at that time, so enabling the tiers never demotes the whole fast tier
+ */
+public class TieredStorage implements Storage {
+	private static final Logger logger = LoggerFactory.getLogger("storage");
+	/** Number of locks used to serialize the tier moves, the publications and the deletions of the same key */
+	private static final int LOCK_COUNT = 64;
+	/** Key of the root folder */
+	private static final Path ROOT_KEY = Paths.get("");
+	private final Storage hot;
+	private final Storage cold;
+	/** Time in milliseconds without access after which a file is demoted */
+	private final long demoteAfterMillis;
+	/** Version of the layout of the state file */
+	private static final int STATE_VERSION = 1;
+	/** Time in milliseconds of the last access of the files read since the tracking started */
+	private final Map<Path, Long> lastAccess = new ConcurrentHashMap<>();
+	/** File where the last access of the files is saved or null to keep it only in memory */
+	private final Path stateFile;
+	/** Time in milliseconds when the tracking of the last access started */
+	private long trackingSince = System.currentTimeMillis();
+	private final Object[] locks = new Object[LOCK_COUNT];
+	private final Counter demoted = MetricsRegistry.getInstance().counter("chantico_storage_tier_moves_total",
+			"Number of files moved between storage tiers", "direction", "demote");
+	private final Counter promoted = MetricsRegistry.getInstance().counter("chantico_storage_tier_moves_total",
+			"Number of files moved between storage tiers", "direction", "promote");
+	private final Demoter demoter;
+	/** Thread that promotes the files of the slow tier that have been read */
+	private final ExecutorService promoter;
+	/** Keys waiting to be promoted or being promoted */
+	private final Set<Path> promoting = ConcurrentHashMap.newKeySet();
+	/** Hook that saves the state when the JVM exits or null when there is no state file */
+	private final Thread shutdownHook;
+
+	/**
+	 * @param hot Fast tier with the recently used files
+	 * @param cold Slow tier with the compressed files
+	 * @param demoteAfterMillis Time without access after which a file is moved to the slow tier
+	 * @param demoteIntervalMillis Time between executions of the demotion (zero to do not execute it automatically)
+	 */
+	public TieredStorage(Storage hot, Storage cold, long demoteAfterMillis, long demoteIntervalMillis) {
+		this(hot, cold, demoteAfterMillis, demoteIntervalMillis, null);
+	}
+
+	/**
+	 * @param hot Fast tier with the recently used files
+	 * @param cold Slow tier with the compressed files
+	 * @param demoteAfterMillis Time without access after which a file is moved to the slow tier
+	 * @param demoteIntervalMillis Time between executions of the demotion (zero to do not execute it automatically)
+	 * @param stateFile File where the last access of the files is saved or null to keep it only in memory
+	 */
+	public TieredStorage(Storage hot, Storage cold, long demoteAfterMillis, long demoteIntervalMillis, Path stateFile) {
+		this.hot = hot;
+		this.cold = cold;
+		this.demoteAfterMillis = demoteAfterMillis;
+		this.stateFile = stateFile;
+		if (stateFile != null) {
+			loadState();
+			shutdownHook = new Thread(this::saveState, "storage-state-shutdown");
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		} else {
+			shutdownHook = null;
+		}
+		for (int idx = 0; idx < LOCK_COUNT; idx++) {
+			locks[idx] = new Object();
+		}
+		promoter = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "storage-promoter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (demoteIntervalMillis > 0) {
+			demoter = new Demoter(demoteIntervalMillis);
+			demoter.start();
+		} else {
+			demoter = null;
+		}
+	}
+
+	@Override
+	public Entry stat(Path key) throws IOException {
+		Entry entry = hot.stat(key);
+		if (entry != null) {
+			return entry;
+		}
+		return GzipSupport.uncompressedEntry(cold, cold.stat(key), key);
+	}
+
+	@Override
+	public InputStream openStream(Path key) throws IOException {
+		InputStream input;
+		try {
+			input = hot.openStream(key);
+		} catch (NoSuchFileException ex) {
+			input = openCold(key);
+		}
+		lastAccess.put(key, System.currentTimeMillis());
+		return input;
+	}
+
+	@Override
+	public SeekableByteChannel openChannel(Path key) throws IOException {
+		SeekableByteChannel channel;
+		try {
+			channel = hot.openChannel(key);
+		} catch (NoSuchFileException ex) {
+			Entry entry = stat(key);
+			if (entry == null) {
+				throw ex;
+			}
+			// the channel reads the fast tier once the file is promoted
+			channel = new GzipSupport.StreamChannel(() -> openStream(key), entry.size);
+		}
+		lastAccess.put(key, System.currentTimeMillis());
+		return channel;
+	}
+
+	@Override
+	public int read(Path key, long position, ByteBuffer target) throws IOException {
+		try {
+			int read = hot.read(key, position, target);
+			lastAccess.put(key, System.currentTimeMillis());
+			return read;
+		} catch (NoSuchFileException ex) {
+			try (SeekableByteChannel channel = openChannel(key)) {
+				return GzipSupport.read(channel, position, target);
+			}
+		}
+	}
+
+	@Override
+	public Upload create(Path key) throws IOException {
+		Upload upload = hot.create(key);
+		return new Upload() {
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				return upload.getOutputStream();
+			}
+
+			@Override
+			public void publish() throws IOException {
+				synchronized (lock(key)) {
+					upload.publish();
+					// the previous content may have been demoted
+					cold.delete(key);
+					lastAccess.put(key, System.currentTimeMillis());
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				upload.close();
+			}
+		};
+	}
+
+	@Override
+	public boolean delete(Path key) throws IOException {
+		synchronized (lock(key)) {
+			lastAccess.remove(key);
+			boolean deletedHot = hot.delete(key);
+			boolean deletedCold = cold.delete(key);
+			return deletedHot || deletedCold;
+		}
+	}
+
+	@Override
+	public List<Entry> list(Path folder) throws IOException {
+		Map<Path, Entry> entries = new LinkedHashMap<>();
+		for (Entry entry : hot.list(folder)) {
+			entries.put(entry.key, entry);
+		}
+		for (Entry entry : cold.list(folder)) {
+			if (!entries.containsKey(entry.key)) {
+				entries.put(entry.key, GzipSupport.uncompressedEntry(cold, entry, entry.key));
+			}
+		}
+		return new ArrayList<>(entries.values());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (demoter != null) {
+			demoter.interrupt();
+		}
+		promoter.shutdownNow();
+		if (shutdownHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException ex) {
+				// the JVM is already exiting, the hook is being executed
+			}
+		}
+		saveState();
+		hot.close();
+		cold.close();
+	}
+
+	/**
+	 * Moves to the slow tier all the files of the fast tier that have not been accessed recently
+	 * @return Number of files demoted
+	 */
+	public int demote() throws IOException {
+		saveState();
+		return demote(hot.list(ROOT_KEY), System.currentTimeMillis());
+	}
+
+	/** Internal method to demote the cold files of a list of entries, descending into the folders */
+	private int demote(List<Entry> entries, long now) throws IOException {
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.directory) {
+				count += demote(hot.list(entry.key), now);
+			} else if (now - getLastUse(entry) > demoteAfterMillis && demoteFile(entry, now)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Compresses a file into the slow tier and removes it from the fast tier. The file is kept in the fast tier if it
+	 * has been modified or accessed since it was listed
+	 * @return Boolean value to determine if the file has been demoted
+	 */
+	private boolean demoteFile(Entry entry, long now) throws IOException {
+		Path key = entry.key;
+		synchronized (lock(key)) {
+			Entry current = hot.stat(key);
+			if (current == null || current.lastModified != entry.lastModified || current.size != entry.size
+					|| now - getLastUse(current) <= demoteAfterMillis) {
+				return false;
+			}
+			try (Upload upload = cold.create(key); InputStream input = hot.openStream(key)) {
+				GZIPOutputStream output = new GZIPOutputStream(upload.getOutputStream(), GzipSupport.BUFFER_SIZE);
+				long size = GzipSupport.copy(input, output);
+				output.finish();
+				GzipSupport.writeSizeMember(upload.getOutputStream(), size);
+				upload.publish();
+			}
+			hot.delete(key);
+			lastAccess.remove(key);
+		}
+		demoted.inc();
+		logger.debug("A file has been demoted to the slow storage tier. key={} size={}", key, entry.size);
+		return true;
+	}
+
+	/**
+	 * Opens the decompressed content of a file of the slow tier and requests its promotion
+	 * @throws NoSuchFileException If the file does not exist in any tier
+	 */
+	private InputStream openCold(Path key) throws IOException {
+		InputStream input;
+		try {
+			input = cold.openStream(key);
+		} catch (NoSuchFileException ex) {
+			// promoted or stored again since the fast tier was checked
+			return hot.openStream(key);
+		}
+		try {
+			input = new GZIPInputStream(input, GzipSupport.BUFFER_SIZE);
+		} catch (IOException ex) {
+			input.close();
+			throw ex;
+		}
+		if (promoting.add(key)) {
+			try {
+				promoter.execute(() -> {
+					try {
+						promote(key);
+					} catch (Exception ex) {
+						logger.error("A file could not be promoted to the fast storage tier. key={} cause={}", key, ex.getMessage());
+					} finally {
+						promoting.remove(key);
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				promoting.remove(key);
+			}
+		}
+		return input;
+	}
+
+	/**
+	 * Decompresses a file of the slow tier into the fast tier. The content is decompressed without holding the lock
+	 * of the key, which is only held to publish it when the file has not been stored, deleted or replaced meanwhile
+	 */
+	private void promote(Path key) throws IOException {
+		Entry entry = cold.stat(key);
+		if (entry == null || hot.stat(key) != null) {
+			return;
+		}
+		try (Upload upload = hot.create(key); InputStream input = new GZIPInputStream(cold.openStream(key), GzipSupport.BUFFER_SIZE)) {
+			GzipSupport.copy(input, upload.getOutputStream());
+			synchronized (lock(key)) {
+				Entry current = cold.stat(key);
+				if (hot.stat(key) != null || current == null || current.lastModified != entry.lastModified || current.size != entry.size) {
+					return;
+				}
+				upload.publish();
+				cold.delete(key);
+			}
+		}
+		promoted.inc();
+		logger.debug("A file has been promoted to the fast storage tier. key={}", key);
+	}
+
+	/** Obtains the last time a file of the fast tier has been written or read */
+	private long getLastUse(Entry entry) {
+		return Math.max(entry.lastModified, lastAccess.getOrDefault(entry.key, trackingSince));
+	}
+
+	/** Internal method to restore the last access of the files from the state file */
+	private void loadState() {
+		if (!Files.isRegularFile(stateFile)) {
+			saveState();
+			return;
+		}
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+			if (input.readInt() != STATE_VERSION) {
+				logger.warn("The storage state file has an unknown version and it is ignored. file={}", stateFile);
+				return;
+			}
+			trackingSince = input.readLong();
+			for (int count = input.readInt(); count > 0; count--) {
+				lastAccess.put(Paths.get(input.readUTF()), input.readLong());
+			}
+			logger.info("Last access of the storage files restored. files={} trackingSince={}", lastAccess.size(), trackingSince);
+		} catch (IOException ex) {
+			logger.error("The storage state file could not be read. file={} cause={}", stateFile, ex.getMessage());
+		}
+	}
+
+	/** Internal method to save the last access of the files, replacing the previous state file atomically */
+	private synchronized void saveState() {
+		if (stateFile == null) {
+			return;
+		}
+		Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+		try {
+			Map<Path, Long> snapshot = new LinkedHashMap<>(lastAccess);
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				output.writeInt(STATE_VERSION);
+				output.writeLong(trackingSince);
+				output.writeInt(snapshot.size());
+				for (Map.Entry<Path, Long> entry : snapshot.entrySet()) {
+					output.writeUTF(entry.getKey().toString().replace(File.separatorChar, '/'));
+					output.writeLong(entry.getValue());
+				}
+			}
+			Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			logger.error("The storage state file could not be saved. file={} cause={}", stateFile, ex.getMessage());
+		}
+	}
+
+	/** Obtains the lock that serializes the operations over a key */
+	private Object lock(Path key) {
+		return locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
+	}
+
+	/** Background thread that demotes the files periodically */
+	private class Demoter extends Thread {
+		private final long intervalMillis;
+
+		private Demoter(long intervalMillis) {
+			super("storage-demoter");
+			this.intervalMillis = intervalMillis;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				try {
+					Thread.sleep(intervalMillis);
+					long startTime = System.currentTimeMillis();
+					int count = demote();
+					logger.info("Storage demotion completed. files={} time={}ms", count, System.currentTimeMillis() - startTime);
+				} catch (InterruptedException ex) {
+					break;
+				} catch (Exception ex) {
+					logger.error("An error has occurred trying to demote the storage files. cause={}", ex.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -121,24 +121,45 @@ Chantico = (function () {
 		});
 	};
 
-	/** Retrieves the information for a single repository */
+	/** Retrieves the information for a single repository with its artifacts and their latest version */
 	module.getRepository = function() {
 		return new RSVP.Promise(function (resolve, reject) {
-			resolve({
-				repo: { name: 'master', artifacts: 34, proxy: false, cache: true },
-				artifacts: [
-					{ id: 4564678979, group: 'org.delightful', artifact: 'harpo', latest: '2.1.0', versions: 34, cached: false },
-					{ id: 7897645646, group: 'org.spring', artifact: 'core', latest: '1.0', versions: 2, cached: true }
-				],
-				activity: [
-					{ repo: 'master', group: 'org.codelightful', artifact: 'harpo', version: '2.0.1', user: 'malcomx', date: 1580029320320 },
-					{ repo: 'master', group: 'org.codelightful', artifact: 'harpo', version: '2.0.2', user: 'hoboken', date: 1581029331200 },
-					{ repo: 'master', group: 'org.codelightful', artifact: 'harpo', version: '2.1', user: 'johndoe', date: 1581149671253 }
-				]
+			$.ajax({ type: 'GET', cache: false, url: '/api/artifacts', data: { limit: 1000 }, dataType: 'json', error: reject,
+				success: function (response) {
+					var artifacts = $.map(response.artifacts, function (artifact) {
+						return $.extend({ id: artifact.group + ':' + artifact.artifact, cached: false }, artifact);
+					});
+					resolve({
+						repo: { name: response.repository, artifacts: artifacts.length, proxy: false, cache: false },
+						artifacts: artifacts
+					});
+				}
 			});
 		});
 	}
 
+	/**
+	 * Retrieves the space used by the repository and its biggest groups
+	 * @param groupId Optional group to retrieve the space used by it and its biggest artifacts
+	 */
+	module.getUsage = function (groupId) {
+		return new RSVP.Promise(function (resolve, reject) {
+			var params = groupId ? { group: groupId } : {};
+			$.ajax({ type: 'GET', cache: false, url: '/api/usage', data: params, dataType: 'json', success: resolve, error: reject });
+		});
+	};
+
+	/** Formats a number of bytes as a readable size */
+	module.formatSize = function (bytes) {
+		var units = ['B', 'KB', 'MB', 'GB', 'TB'];
+		var idx = 0;
+		while (bytes >= 1024 && idx < units.length - 1) {
+			bytes /= 1024;
+			idx++;
+		}
+		return (idx == 0 ? bytes : bytes.toFixed(1)) + ' ' + units[idx];
+	};
+
 	/** Retrieves the information for a single artifact */
 	module.getArtifact = function () {
 		return new RSVP.Promise(function (resolve, reject) {
@@ -155,21 +176,34 @@ Chantico = (function () {
 		});
 	}
 
-	/** Extracts the list of existing activities */
-	module.getRecentActivity = function (containerId, repoId) {
+	/**
+	 * Loads the most recent activity into a container and keeps it updated with the live activity feed
+	 * @param containerId String with the selector of the container to render the activity into
+	 * @param repoName Optional name of the repository to display the activity for, the current one when not provided
+	 */
+	module.getRecentActivity = function (containerId, repoName) {
+		var params = { limit: 20 };
+		if (repoName) {
+			params.repo = repoName;
+		}
 		var promise = new RSVP.Promise(function (resolve, reject) {
-			// FIXME: invoke the server service
-			resolve([
-				{ repo: 'master', group: 'org.codelightful', artifact: 'serpent', version: '3.0.4', user: 'johndoe', date: 1573529320320 },
-				{ repo: 'relases', group: 'org.sprint', artifact: 'fabulous', version: '1.0-SNAPSHOT', user: 'amartino', date: 1574029320320 },
-				{ repo: 'alux', group: 'org.something', artifact: 'allure', version: '1.0.4', user: 'janedoe', date: 1578029320320 },
-				{ repo: 'master', group: 'org.codelightful', artifact: 'harpo', version: '2.0.1', user: 'malcomx', date: 1580029320320 },
-				{ repo: 'master', group: 'org.codelightful', artifact: 'harpo', version: '2.0.2', user: 'hoboken', date: 1581029331200 },
-				{ repo: 'master', group: 'org.codelightful', artifact: 'harpo', version: '2.1', user: 'johndoe', date: 1581149671253 },
-			]);
+			$.ajax({ type: 'GET', cache: false, url: '/api/activity', data: params, dataType: 'json', success: resolve, error: reject });
 		});
 		promise.then(function(response) {
-			renderRecentList(containerId, response);
+			module.renderRecentList(containerId, response.events);
+			if (typeof(EventSource) === 'undefined') {
+				return;
+			}
+			var streamUrl = '/api/activity/stream' + (repoName ? '?repo=' + encodeURIComponent(repoName) : '');
+			var source = new EventSource(streamUrl);
+			source.addEventListener('activity', function(evt) {
+				var container = $(containerId);
+				container.children('.notification:not(.artifact)').remove();
+				container.prepend(createRecentRow(JSON.parse(evt.data)));
+				container.children('.artifact').slice(params.limit).remove();
+			});
+		}, function() {
+			module.renderRecentList(containerId, []);
 		});
 	};
 
@@ -189,9 +223,13 @@ Chantico = (function () {
 	/** Internal method to create a row for recent activity */
 	function createRecentRow(entry) {
 		var row = $('<div class="notification artifact"></div>');
+		row.append('<div><b>Event:</b> ' + entry.type + '</div>');
 		row.append('<div><b>Repository:</b> ' + entry.repo + '</div>');
 		row.append('<div><b>Date:</b> ' + new Date(entry.date) + '</div>');
-		row.append('<div><b>Author:</b> ' + entry.user + '</div>');
+		row.append('<div><b>Author:</b> ' + (entry.user || 'anonymous') + '</div>');
+		if (!entry.artifact) {
+			return row;
+		}
 		var artifact = $('<div class="tags has-addons"><span class="tag is-primary">Artifact</span></div>');
 		artifact.append('<span class="tag is-dark">' + entry.group + '</span>');
 		artifact.append('<span class="tag is-black">' + entry.artifact + '</span>');
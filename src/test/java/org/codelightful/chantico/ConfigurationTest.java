@@ -0,0 +1,110 @@
+package org.codelightful.chantico;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@Test
+public class ConfigurationTest {
+    private Path folder;
+    private Path file;
+    private Configuration configuration;
+
+    @BeforeMethod
+    public void createConfiguration() throws Exception {
+        folder = Files.createTempDirectory("chantico-config");
+        file = folder.resolve("chantico.properties");
+        write("port=8080\nadmission.enabled=false\n");
+        configuration = new Configuration(file.toFile());
+        configuration.reload();
+    }
+
+    @AfterMethod
+    public void deleteFolder() throws Exception {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** Test that every listener is notified with both snapshots, even when another listener fails */
+    @Test
+    public void testListeners() {
+        Assert.assertEquals(configuration.getInt("port", 0), 8080);
+        Assert.assertFalse(configuration.getBoolean("admission.enabled", true));
+        List<String> notifications = new ArrayList<>();
+        configuration.addListener((previous, current) -> {
+            throw new IllegalStateException("failing listener");
+        });
+        Configuration.Listener listener = (previous, current) -> notifications.add(previous.getInt("port", 0) + "->"
+                + current.getInt("port", 0) + " modified=" + current.isModified(previous, "port"));
+        configuration.addListener(listener);
+
+        configuration.setValue("port", "9090");
+        configuration.setValue("other", "value");
+        Assert.assertEquals(notifications.size(), 2);
+        Assert.assertEquals(notifications.get(0), "8080->9090 modified=true");
+        Assert.assertEquals(notifications.get(1), "9090->9090 modified=false");
+        Assert.assertEquals(configuration.getInt("port", 0), 9090);
+
+        configuration.removeListener(listener);
+        configuration.setValue("port", null);
+        Assert.assertEquals(notifications.size(), 2);
+        Assert.assertEquals(configuration.getInt("port", 0), 0);
+    }
+
+    /** Test that reading the file again only publishes a snapshot when a value has changed */
+    @Test
+    public void testReload() throws Exception {
+        List<Configuration.Snapshot> snapshots = new ArrayList<>();
+        configuration.addListener((previous, current) -> snapshots.add(current));
+        configuration.reload();
+        Assert.assertTrue(snapshots.isEmpty());
+
+        write("port=8081\nadmission.enabled=false\n");
+        configuration.reload();
+        Assert.assertEquals(snapshots.size(), 1);
+        Assert.assertSame(configuration.getSnapshot(), snapshots.get(0));
+        Assert.assertEquals(configuration.getInt("port", 0), 8081);
+    }
+
+    /** Test that the watcher reloads the configuration when the file is modified */
+    @Test
+    public void testWatcher() throws Exception {
+        CountDownLatch changed = new CountDownLatch(1);
+        configuration.addListener((previous, current) -> {
+            if (current.isModified(previous, "port")) {
+                changed.countDown();
+            }
+        });
+        ConfigurationWatcher watcher = new ConfigurationWatcher(configuration);
+        watcher.start();
+        try {
+            // written until it is detected, the watcher registers the folder once it is running
+            for (int attempt = 0; attempt < 20 && changed.getCount() > 0; attempt++) {
+                write("port=7070\nadmission.enabled=false\n");
+                changed.await(500, TimeUnit.MILLISECONDS);
+            }
+            Assert.assertEquals(changed.getCount(), 0, "The modification has not been detected");
+            Assert.assertEquals(configuration.getInt("port", 0), 7070);
+        } finally {
+            watcher.interrupt();
+            watcher.join(5000);
+        }
+        Assert.assertFalse(watcher.isAlive());
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
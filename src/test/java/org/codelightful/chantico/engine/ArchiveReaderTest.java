@@ -0,0 +1,88 @@
+package org.codelightful.chantico.engine;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Test
+public class ArchiveReaderTest {
+    /** Test that the entries of a ZIP archive are read in order with their content */
+    @Test
+    public void testZip() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("org/x/"));
+            zip.putNextEntry(new ZipEntry("org/x/a/1.0/a-1.0.pom"));
+            zip.write("<project/>".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("org/x/a/1.0/a-1.0.jar"));
+            zip.write(new byte[5000]);
+        }
+        try (ArchiveReader reader = ArchiveReader.open(BulkImporter.Format.ZIP, new ByteArrayInputStream(archive.toByteArray()))) {
+            Assert.assertTrue(reader.next().directory);
+            Assert.assertEquals(reader.next().name, "org/x/a/1.0/a-1.0.pom");
+            Assert.assertEquals(read(reader.getContent()), "<project/>");
+            // the content that is not read is skipped
+            Assert.assertEquals(reader.next().name, "org/x/a/1.0/a-1.0.jar");
+            Assert.assertNull(reader.next());
+        }
+    }
+
+    /** Test that a TAR archive is read with the ustar prefix and the GNU long names, skipping the links */
+    @Test
+    public void testTar() throws Exception {
+        String longName = "org/example/" + new String(new char[120]).replace('\0', 'n') + "/1.0/file.pom";
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeEntry(archive, "././@LongLink", "", 'L', longName.getBytes(StandardCharsets.UTF_8));
+        writeEntry(archive, "truncated", "", '0', "long".getBytes(StandardCharsets.UTF_8));
+        writeEntry(archive, "a-1.0.jar", "org/x/a/1.0", '0', new byte[700]);
+        writeEntry(archive, "link", "", '2', new byte[0]);
+        writeEntry(archive, "a-1.0.pom", "org/x/a/1.0", '0', "pom".getBytes(StandardCharsets.UTF_8));
+        archive.write(new byte[1024]);
+
+        try (ArchiveReader reader = ArchiveReader.open(BulkImporter.Format.TAR, new ByteArrayInputStream(archive.toByteArray()))) {
+            ArchiveReader.Entry entry = reader.next();
+            Assert.assertEquals(entry.name, longName);
+            Assert.assertEquals(read(reader.getContent()), "long");
+            entry = reader.next();
+            Assert.assertEquals(entry.name, "org/x/a/1.0/a-1.0.jar");
+            Assert.assertEquals(entry.size, 700);
+            entry = reader.next();
+            Assert.assertEquals(entry.name, "org/x/a/1.0/a-1.0.pom");
+            Assert.assertEquals(read(reader.getContent()), "pom");
+            Assert.assertNull(reader.next());
+        }
+    }
+
+    private void writeEntry(ByteArrayOutputStream archive, String name, String prefix, char type, byte[] content) {
+        byte[] header = new byte[512];
+        copy(name, header, 0);
+        copy(String.format("%011o", content.length), header, 124);
+        header[156] = (byte) type;
+        copy("ustar", header, 257);
+        copy(prefix, header, 345);
+        archive.write(header, 0, header.length);
+        archive.write(content, 0, content.length);
+        archive.write(new byte[(512 - content.length % 512) % 512], 0, (512 - content.length % 512) % 512);
+    }
+
+    private void copy(String value, byte[] header, int offset) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private String read(InputStream input) throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            content.write(buffer, 0, read);
+        }
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
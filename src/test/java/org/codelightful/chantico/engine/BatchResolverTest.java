@@ -0,0 +1,26 @@
+package org.codelightful.chantico.engine;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class BatchResolverTest {
+    /** Test that the Maven coordinates are converted to the path of the file in the repository */
+    @Test
+    public void testCoordinates() {
+        Assert.assertEquals(BatchResolver.toPath("org.x:a:1.0"), "org/x/a/1.0/a-1.0.jar");
+        Assert.assertEquals(BatchResolver.toPath("org.x:a:pom:1.0"), "org/x/a/1.0/a-1.0.pom");
+        Assert.assertEquals(BatchResolver.toPath("org.x:a:jar:sources:1.0-SNAPSHOT"), "org/x/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT-sources.jar");
+        Assert.assertEquals(BatchResolver.toPath("/org/x/a/1.0/a-1.0.jar"), "org/x/a/1.0/a-1.0.jar");
+    }
+
+    /** Test that the coordinates that do not identify a file inside of the repository are rejected */
+    @Test
+    public void testInvalidCoordinates() {
+        Assert.assertNull(BatchResolver.toPath(""));
+        Assert.assertNull(BatchResolver.toPath("org.x:a"));
+        Assert.assertNull(BatchResolver.toPath("org.x::1.0"));
+        Assert.assertNull(BatchResolver.toPath("org.x:a/../b:1.0"));
+        Assert.assertNull(BatchResolver.toPath("org/x/../../etc/passwd"));
+    }
+}
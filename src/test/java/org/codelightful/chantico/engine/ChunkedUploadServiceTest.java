@@ -0,0 +1,213 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@Test
+public class ChunkedUploadServiceTest {
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+    private Path folder;
+    private ChunkedUploadService uploads;
+    /** Content of the last upload published */
+    private volatile byte[] published;
+    /** Latch the publisher waits for before storing the content */
+    private volatile CountDownLatch publishing = new CountDownLatch(0);
+
+    @BeforeMethod
+    public void createService() throws Exception {
+        folder = Files.createTempDirectory("chantico-uploads");
+        published = null;
+        uploads = new ChunkedUploadService(folder.toFile(), (session, input, algorithm, checksum) -> {
+            byte[] content = readAll(input);
+            try {
+                publishing.await(5, TimeUnit.SECONDS);
+                if (!toHex(MessageDigest.getInstance(algorithm).digest(content)).equals(checksum)) {
+                    return -1;
+                }
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            published = content;
+            return content.length;
+        });
+    }
+
+    @AfterMethod
+    public void deleteFolder() throws Exception {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /** Test that the overlapping and adjacent chunks are merged and that the chunks can arrive in any order */
+    @Test
+    public void testOverlappingAndOutOfOrderChunks() throws Exception {
+        ChunkedUploadService.Session session = create();
+        write(session, 15, 5);
+        write(session, 0, 5);
+        write(session, 3, 4);
+        Assert.assertEquals(ranges(session, "receivedRanges"), "[0-7, 15-20]");
+        Assert.assertEquals(ranges(session, "missingRanges"), "[7-15]");
+        write(session, 7, 8);
+        Assert.assertEquals(ranges(session, "receivedRanges"), "[0-20]");
+        Assert.assertEquals(session.getReceived(), CONTENT.length);
+
+        Assert.assertEquals(uploads.complete(session, "SHA-1", sha1(CONTENT)), ChunkedUploadService.Result.STORED);
+        Assert.assertEquals(published, CONTENT);
+        Assert.assertNull(uploads.get(session.id));
+        Assert.assertEquals(countFiles(), 0);
+    }
+
+    /** Test that a chunk that ends before its length keeps the bytes received, so only the rest has to be resent */
+    @Test
+    public void testShortChunk() throws Exception {
+        ChunkedUploadService.Session session = create();
+        try {
+            uploads.write(session, 2, 10, new ByteArrayInputStream(CONTENT, 2, 4));
+            Assert.fail("A short chunk must fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        Assert.assertEquals(session.getReceived(), 4);
+        Assert.assertEquals(ranges(session, "receivedRanges"), "[2-6]");
+        Assert.assertEquals(ranges(session, "missingRanges"), "[0-2, 6-20]");
+    }
+
+    /** Test that a session with missing ranges is kept and that a content that does not match is discarded */
+    @Test
+    public void testIncompleteAndMismatch() throws Exception {
+        ChunkedUploadService.Session session = create();
+        write(session, 0, 10);
+        Assert.assertEquals(uploads.complete(session, "SHA-1", sha1(CONTENT)), ChunkedUploadService.Result.INCOMPLETE);
+        Assert.assertSame(uploads.get(session.id), session);
+
+        write(session, 10, 10);
+        Assert.assertEquals(uploads.complete(session, "SHA-1", sha1("other".getBytes(StandardCharsets.UTF_8))),
+                ChunkedUploadService.Result.MISMATCH);
+        Assert.assertNull(published);
+        Assert.assertNull(uploads.get(session.id));
+        Assert.assertEquals(countFiles(), 0);
+    }
+
+    /** Test that a session being completed can not be aborted nor written, and that an aborted session is not stored */
+    @Test
+    public void testCompleteRacingWithAbort() throws Exception {
+        ChunkedUploadService.Session session = create();
+        write(session, 0, CONTENT.length);
+        publishing = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ChunkedUploadService.Result> result = executor.submit(() -> uploads.complete(session, "SHA-1", sha1(CONTENT)));
+            while (uploads.get(session.id) != null) {
+                Thread.sleep(10);
+            }
+            Assert.assertFalse(uploads.abort(session));
+            try {
+                write(session, 0, 5);
+                Assert.fail("A chunk of a completed session must be rejected");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+            publishing.countDown();
+            Assert.assertEquals(result.get(5, TimeUnit.SECONDS), ChunkedUploadService.Result.STORED);
+            Assert.assertEquals(published, CONTENT);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        published = null;
+        ChunkedUploadService.Session aborted = create();
+        write(aborted, 0, CONTENT.length);
+        Assert.assertTrue(uploads.abort(aborted));
+        Assert.assertEquals(uploads.complete(aborted, "SHA-1", sha1(CONTENT)), ChunkedUploadService.Result.MISMATCH);
+        Assert.assertNull(published);
+        Assert.assertEquals(countFiles(), 0);
+    }
+
+    /** Test that the sessions without recent activity are discarded with their temporary files */
+    @Test
+    public void testExpiry() throws Exception {
+        ChunkedUploadService.Session session = create();
+        write(session, 0, 5);
+        Assert.assertEquals(countFiles(), 1);
+        uploads.expire(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+        Assert.assertSame(uploads.get(session.id), session);
+
+        uploads.expire(System.currentTimeMillis() + 1);
+        Assert.assertNull(uploads.get(session.id));
+        Assert.assertEquals(countFiles(), 0);
+        try {
+            write(session, 5, 5);
+            Assert.fail("A chunk of an expired session must be rejected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    private ChunkedUploadService.Session create() throws IOException {
+        return uploads.create(ArtifactRequest.parse("/org/sample/lib/1.0/lib-1.0.jar"), CONTENT.length, "user", "127.0.0.1");
+    }
+
+    private void write(ChunkedUploadService.Session session, int offset, int length) throws IOException {
+        uploads.write(session, offset, length, new ByteArrayInputStream(CONTENT, offset, length));
+    }
+
+    /** Describes the ranges of a session as start-end pairs */
+    @SuppressWarnings("unchecked")
+    private static String ranges(ChunkedUploadService.Session session, String name) {
+        StringBuilder text = new StringBuilder("[");
+        for (long[] range : (List<long[]>) session.toMap().get(name)) {
+            text.append(text.length() > 1 ? ", " : "").append(range[0]).append('-').append(range[1]);
+        }
+        return text.append(']').toString();
+    }
+
+    private int countFiles() {
+        File[] files = folder.toFile().listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static String sha1(byte[] content) throws Exception {
+        return toHex(MessageDigest.getInstance("SHA-1").digest(content));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder text = new StringBuilder();
+        for (byte value : bytes) {
+            text.append(String.format("%02x", value));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class EventBusTest {
+    /** Test that the events published while the queue is full are discarded with the drop newest policy */
+    @Test
+    public void testDropNewest() throws Exception {
+        Assert.assertEquals(publishToBlockedConsumer(EventBus.OverflowPolicy.DROP_NEWEST), Arrays.asList("0", "1", "2"));
+    }
+
+    /** Test that the events waiting in a full queue are replaced by the new ones with the drop oldest policy */
+    @Test
+    public void testDropOldest() throws Exception {
+        Assert.assertEquals(publishToBlockedConsumer(EventBus.OverflowPolicy.DROP_OLDEST), Arrays.asList("0", "3", "4"));
+    }
+
+    /** Test that a producer that is not allowed to wait never blocks on the full queue of a consumer with the block policy */
+    @Test
+    public void testBlockDoesNotWaitForRequestThreads() throws Exception {
+        EventBus eventBus = new EventBus("test");
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        eventBus.subscribe("no-wait", 1, 1, EventBus.OverflowPolicy.BLOCK, events -> {
+            consuming.countDown();
+            release.await();
+        });
+        eventBus.publish(event(0));
+        Assert.assertTrue(consuming.await(5, TimeUnit.SECONDS));
+        long startTime = System.currentTimeMillis();
+        for (int idx = 1; idx <= 10; idx++) {
+            eventBus.publish(event(idx));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 1000);
+        release.countDown();
+        eventBus.shutdown();
+    }
+
+    /** Test that the events published by a producer that can not wait are never lost with the block policy */
+    @Test
+    public void testBlockNeverDropsEvents() throws Exception {
+        EventBus eventBus = new EventBus("test");
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(50);
+        eventBus.subscribe("no-loss", 2, 4, EventBus.OverflowPolicy.BLOCK, events -> {
+            consuming.countDown();
+            release.await();
+            for (RepositoryEvent event : events) {
+                received.add(event.client);
+                done.countDown();
+            }
+        });
+        eventBus.publish(event(0));
+        Assert.assertTrue(consuming.await(5, TimeUnit.SECONDS));
+        for (int idx = 1; idx < 50; idx++) {
+            eventBus.publish(event(idx));
+        }
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        eventBus.shutdown();
+        for (int idx = 0; idx < 50; idx++) {
+            Assert.assertEquals(received.get(idx), String.valueOf(idx));
+        }
+    }
+
+    /** Test that only the kinds of events a consumer is subscribed to are delivered to it */
+    @Test
+    public void testTypeFilter() throws Exception {
+        EventBus eventBus = new EventBus("test");
+        List<RepositoryEvent.Type> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        eventBus.subscribe("filtered", 10, 10, EventBus.OverflowPolicy.BLOCK, EnumSet.of(RepositoryEvent.Type.DELETED), events -> {
+            for (RepositoryEvent event : events) {
+                received.add(event.type);
+                done.countDown();
+            }
+        });
+        eventBus.publish(event(0));
+        eventBus.publish(new RepositoryEvent(RepositoryEvent.Type.DELETED, "test", null, null, "1"));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        eventBus.shutdown();
+        Assert.assertEquals(received, Collections.singletonList(RepositoryEvent.Type.DELETED));
+    }
+
+    /** Test that the events waiting in the queue are delivered in order and in batches */
+    @Test
+    public void testBatchesKeepTheOrder() throws Exception {
+        EventBus eventBus = new EventBus("test");
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        eventBus.subscribe("batches", 1000, 16, EventBus.OverflowPolicy.BLOCK, events -> {
+            batchSizes.add(events.size());
+            for (RepositoryEvent event : events) {
+                received.add(event.client);
+                done.countDown();
+            }
+        });
+        for (int idx = 0; idx < 100; idx++) {
+            eventBus.publish(event(idx));
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        eventBus.shutdown();
+        for (int idx = 0; idx < 100; idx++) {
+            Assert.assertEquals(received.get(idx), String.valueOf(idx));
+        }
+        for (int batchSize : batchSizes) {
+            Assert.assertTrue(batchSize <= 16, "batchSize=" + batchSize);
+        }
+    }
+
+    /**
+     * Publishes an event, waits until the consumer is processing it and publishes four more events to a queue with
+     * room for two of them
+     * @return Identifiers of the events received by the consumer
+     */
+    private List<String> publishToBlockedConsumer(EventBus.OverflowPolicy policy) throws Exception {
+        EventBus eventBus = new EventBus("test");
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        eventBus.subscribe("overflow-" + policy, 2, 10, policy, events -> {
+            consuming.countDown();
+            release.await();
+            for (RepositoryEvent event : events) {
+                received.add(event.client);
+                done.countDown();
+            }
+        });
+        eventBus.publish(event(0));
+        Assert.assertTrue(consuming.await(5, TimeUnit.SECONDS));
+        for (int idx = 1; idx <= 4; idx++) {
+            eventBus.publish(event(idx));
+        }
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        eventBus.shutdown();
+        return new ArrayList<>(received);
+    }
+
+    /** Creates an event identified by the client field */
+    private RepositoryEvent event(int id) {
+        return new RepositoryEvent(RepositoryEvent.Type.SERVED, "test", null, null, String.valueOf(id));
+    }
+}
@@ -0,0 +1,32 @@
+package org.codelightful.chantico.engine;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class IoBudgetTest {
+    /** Test that the burst is served immediately and the bytes above it wait for the rate */
+    @Test
+    public void testRateLimit() throws Exception {
+        IoBudget budget = new IoBudget(100_000);
+        long startTime = System.nanoTime();
+        budget.acquire(100_000);
+        Assert.assertTrue(System.nanoTime() - startTime < 50_000_000L);
+
+        startTime = System.nanoTime();
+        budget.acquire(20_000);
+        budget.acquire(20_000);
+        Assert.assertTrue(System.nanoTime() - startTime >= 350_000_000L);
+    }
+
+    /** Test that a budget without rate never waits */
+    @Test
+    public void testUnlimited() throws Exception {
+        IoBudget budget = new IoBudget(0);
+        long startTime = System.nanoTime();
+        for (int idx = 0; idx < 1000; idx++) {
+            budget.acquire(1_000_000_000L);
+        }
+        Assert.assertTrue(System.nanoTime() - startTime < 100_000_000L);
+    }
+}
@@ -0,0 +1,84 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.storage.Storage;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+@Test
+public class MavenIndexServiceTest {
+    /** Test that the classifier and the extension are obtained from the release and snapshot file names */
+    @Test
+    public void testParseFileName() {
+        Assert.assertEquals(MavenIndexService.parseFileName("lib", "1.0", "lib-1.0.jar"), new String[]{null, "jar"});
+        Assert.assertEquals(MavenIndexService.parseFileName("lib", "1.0", "lib-1.0-sources.jar"), new String[]{"sources", "jar"});
+        Assert.assertEquals(MavenIndexService.parseFileName("lib", "1.0", "lib-1.0-bin.tar.gz"), new String[]{"bin", "tar.gz"});
+        Assert.assertEquals(MavenIndexService.parseFileName("lib", "1.0-SNAPSHOT", "lib-1.0-20200130.101520-3.pom"),
+                new String[]{null, "pom"});
+        Assert.assertEquals(MavenIndexService.parseFileName("lib", "1.0-SNAPSHOT", "lib-1.0-20200130.101520-3-tests.jar"),
+                new String[]{"tests", "jar"});
+        Assert.assertNull(MavenIndexService.parseFileName("lib", "1.0", "other-1.0.jar"));
+        Assert.assertNull(MavenIndexService.parseFileName("lib", "1.0", "lib-1.0"));
+        Assert.assertNull(MavenIndexService.parseFileName("lib", "1.0-SNAPSHOT", "lib-1.0-latest.jar"));
+    }
+
+    /** Test that the main file of a version is the one that is not the pom and that the latest snapshot build is used */
+    @Test
+    public void testDescribe() throws Exception {
+        List<Storage.Entry> files = Arrays.asList(entry("lib-1.0-20200130.101520-1.pom", 10, 1000),
+                entry("lib-1.0-20200130.101520-1.jar", 20, 1000), entry("lib-1.0-20200131.080000-2.jar", 30, 2000),
+                entry("lib-1.0-20200131.080000-2.jar.asc", 1, 2000), entry("lib-1.0-20200131.080000-2-sources.jar", 40, 2000),
+                entry("maven-metadata.xml", 1, 2000));
+        List<MavenIndexWriter.Artifact> artifacts = MavenIndexService.describe(null, "org.sample", "lib", "1.0-SNAPSHOT", files);
+        Assert.assertEquals(artifacts.size(), 2);
+        Assert.assertEquals(artifacts.get(0).getUinfo(), "org.sample|lib|1.0-SNAPSHOT|NA");
+        Assert.assertEquals(artifacts.get(0).getInfo(), "jar|2000|30|1|0|1|jar");
+        Assert.assertEquals(artifacts.get(1).getUinfo(), "org.sample|lib|1.0-SNAPSHOT|sources|jar");
+    }
+
+    /** Test the layout of the documents written to the index */
+    @Test
+    public void testWriter() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MavenIndexWriter writer = new MavenIndexWriter(output, 1234, "default");
+        MavenIndexWriter.Artifact artifact = new MavenIndexWriter.Artifact("org.sample", "lib", "1.0", null, "pom");
+        artifact.packaging = "pom";
+        writer.writeArtifact(artifact, 5678);
+        writer.writeDeletion("org.sample|lib|0.9|NA", 5678);
+        writer.close();
+
+        DataInputStream input = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())));
+        Assert.assertEquals(input.readByte(), 1);
+        Assert.assertEquals(input.readLong(), 1234);
+        Assert.assertEquals(readDocument(input), Arrays.asList("DESCRIPTOR=NexusIndex", "IDXINFO=1.0|default"));
+        Assert.assertEquals(readDocument(input), Arrays.asList("u=org.sample|lib|1.0|NA", "m=5678", "i=pom|0|0|0|0|0|pom"));
+        Assert.assertEquals(readDocument(input), Arrays.asList("del=org.sample|lib|0.9|NA", "m=5678"));
+        Assert.assertEquals(readDocument(input), Arrays.asList("allGroups=allGroups", "allGroupsList=org.sample"));
+        Assert.assertEquals(readDocument(input), Arrays.asList("rootGroups=rootGroups", "rootGroupsList=org"));
+        Assert.assertEquals(input.read(), -1);
+    }
+
+    private static Storage.Entry entry(String fileName, long size, long lastModified) {
+        return new Storage.Entry(Paths.get("org", "sample", "lib", "1.0-SNAPSHOT", fileName), size, lastModified, false);
+    }
+
+    private static List<String> readDocument(DataInputStream input) throws Exception {
+        String[] fields = new String[input.readInt()];
+        for (int idx = 0; idx < fields.length; idx++) {
+            input.readByte();
+            String name = input.readUTF();
+            byte[] value = new byte[input.readInt()];
+            input.readFully(value);
+            fields[idx] = name + "=" + new String(value, StandardCharsets.UTF_8);
+        }
+        return Arrays.asList(fields);
+    }
+}
@@ -0,0 +1,58 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.codelightful.chantico.model.RepositoryEvent;
+import org.codelightful.chantico.storage.FileSystemStorage;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+@Test
+public class MetadataGeneratorTest {
+    private Path folder;
+    private FileSystemStorage storage;
+
+    @BeforeMethod
+    public void createStorage() throws Exception {
+        folder = Files.createTempDirectory("chantico-metadata");
+        storage = new FileSystemStorage(folder);
+    }
+
+    @AfterMethod
+    public void deleteStorage() throws Exception {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /** Test that the files without a group are skipped and the rest of the batch is still processed */
+    @Test
+    public void testFilesWithoutGroup() throws Exception {
+        Path pom = folder.resolve(Paths.get("org", "sample", "lib", "1.0", "lib-1.0.pom"));
+        Files.createDirectories(pom.getParent());
+        Files.write(pom, "<project/>".getBytes(StandardCharsets.UTF_8));
+
+        new MetadataGenerator(storage).consume(Arrays.asList(event(RepositoryEvent.Type.STORED, "/1.0/x.pom"),
+                event(RepositoryEvent.Type.DELETED, "/lib/1.0/lib-1.0.jar"),
+                event(RepositoryEvent.Type.STORED, "/org/sample/lib/1.0/lib-1.0.pom")));
+
+        String metadata = new String(Files.readAllBytes(folder.resolve(Paths.get("org", "sample", "lib", "maven-metadata.xml"))),
+                StandardCharsets.UTF_8);
+        Assert.assertTrue(metadata.contains("<groupId>org.sample</groupId>"), metadata);
+        Assert.assertTrue(metadata.contains("<version>1.0</version>"), metadata);
+        Assert.assertFalse(Files.exists(folder.resolve(Paths.get("lib", "maven-metadata.xml"))));
+    }
+
+    private static RepositoryEvent event(RepositoryEvent.Type type, String path) {
+        return new RepositoryEvent(type, "test", ArtifactRequest.parse(path), null, null);
+    }
+}
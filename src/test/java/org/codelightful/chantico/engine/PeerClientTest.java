@@ -0,0 +1,96 @@
+package org.codelightful.chantico.engine;
+
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Test
+public class PeerClientTest {
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public void startPeer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/artifact/", exchange -> {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (InputStream input = exchange.getRequestBody()) {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    content.write(buffer, 0, read);
+                }
+            }
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " "
+                    + exchange.getRequestHeaders().getFirst(ReplicationService.REPLICA_HEADER) + " "
+                    + exchange.getRequestHeaders().getFirst(ReplicationService.CHECKSUM_HEADER) + " "
+                    + exchange.getRequestHeaders().getFirst(ReplicationService.TOKEN_HEADER) + " "
+                    + new String(content.toByteArray(), StandardCharsets.UTF_8));
+            boolean missing = exchange.getRequestURI().getPath().contains("missing");
+            byte[] body = "GET".equals(exchange.getRequestMethod()) && !missing ? "jar".getBytes(StandardCharsets.UTF_8) : new byte[0];
+            exchange.sendResponseHeaders(missing ? 404 : 200, body.length == 0 ? -1 : body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/api/changes", exchange -> {
+            boolean authorized = "token".equals(exchange.getRequestHeaders().getFirst(ReplicationService.TOKEN_HEADER));
+            byte[] body = ("{\"firstChange\":1,\"lastChange\":5,\"query\":\"" + exchange.getRequestURI().getQuery() + "\",\"changes\":[]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(authorized ? 200 : 401, authorized ? body.length : -1);
+            if (authorized) {
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public void stopPeer() {
+        server.stop(0);
+    }
+
+    /** Test that the files are sent to the artifact endpoint of the peer identified as replicas with the shared token */
+    @Test
+    public void testPush() throws Exception {
+        PeerClient client = new PeerClient("http://127.0.0.1:" + server.getAddress().getPort() + "/", "dc1", 5000, "secret");
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(client.put("org/x/a/1.0/a-1.0.jar", new ByteArrayInputStream(content), content.length, "abc"), 200);
+        Assert.assertEquals(client.delete("org/x/a/1.0/a-1.0.pom"), 200);
+        Assert.assertEquals(client.delete("org/x/missing/1.0/missing-1.0.pom"), 404);
+        Assert.assertEquals(requests.get(0), "PUT /artifact/org/x/a/1.0/a-1.0.jar dc1 abc secret content");
+        Assert.assertEquals(requests.get(1), "DELETE /artifact/org/x/a/1.0/a-1.0.pom dc1 null secret ");
+    }
+
+    /** Test that the files and the change feed of a primary are read by a mirror */
+    @Test
+    public void testRead() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        PeerClient client = new PeerClient(url, "mirror", 5000, "token");
+        try (InputStream input = client.get("org/x/a/1.0/a-1.0.jar")) {
+            Assert.assertEquals(input.read(new byte[10]), 3);
+        }
+        Assert.assertNull(client.get("org/x/missing/1.0/missing-1.0.jar"));
+        Map<String, Object> feed = client.getChanges(3, 10);
+        Assert.assertEquals(feed.get("lastChange"), 5);
+        Assert.assertEquals(feed.get("query"), "after=3&limit=10");
+        try {
+            new PeerClient(url, "mirror", 5000).getChanges(0, 10);
+            Assert.fail("The feed should require the token");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("401"));
+        }
+    }
+}
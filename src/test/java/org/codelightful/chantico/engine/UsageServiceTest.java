@@ -0,0 +1,106 @@
+package org.codelightful.chantico.engine;
+
+import org.codelightful.chantico.model.ArtifactRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+@Test
+public class UsageServiceTest {
+    private static final Path JAR = Paths.get("org", "sample", "lib", "1.0", "lib-1.0.jar");
+    private static final Path POM = Paths.get("org", "sample", "lib", "1.0", "lib-1.0.pom");
+    private static final Path OTHER = Paths.get("org", "sample", "tool", "2.0", "tool-2.0.jar");
+
+    /** Test that the repository, group and artifact counters follow the files stored, replaced and deleted */
+    @Test
+    public void testCounters() {
+        UsageService usage = new UsageService("test", (repository, usages) -> { });
+        usage.record(JAR, 1, 100);
+        usage.record(POM, 1, 10);
+        usage.record(OTHER, 1, 500);
+        usage.record(JAR, 0, 50);
+        usage.record(POM, -1, -10);
+        usage.record(Paths.get("robots.txt"), 1, 5);
+
+        assertUsage(usage.getUsage(UsageService.Scope.REPOSITORY, null), 3, 655);
+        assertUsage(usage.getUsage(UsageService.Scope.GROUP, "org.sample"), 2, 650);
+        assertUsage(usage.getUsage(UsageService.Scope.ARTIFACT, "org.sample:lib"), 1, 150);
+        assertUsage(usage.getUsage(UsageService.Scope.ARTIFACT, "org.sample:tool"), 1, 500);
+        List<UsageService.Usage> top = usage.getTop(UsageService.Scope.ARTIFACT, "org.sample:", 10);
+        Assert.assertEquals(top.size(), 2);
+        Assert.assertEquals(top.get(0).key, "org.sample:tool");
+        Assert.assertEquals(usage.getTop(UsageService.Scope.ARTIFACT, "org.sample:", 1).size(), 1);
+    }
+
+    /** Test that only the counters modified are written and that they are written again after a failure */
+    @Test
+    public void testFlush() {
+        List<String> written = new ArrayList<>();
+        boolean[] failing = new boolean[1];
+        UsageService usage = new UsageService("test", (repository, usages) -> {
+            Assert.assertEquals(repository, "test");
+            if (failing[0]) {
+                throw new IllegalStateException("database unavailable");
+            }
+            for (UsageService.Usage counter : usages) {
+                written.add(counter.scope + ":" + counter.key + "=" + counter.bytes.get());
+            }
+        });
+        usage.record(JAR, 1, 100);
+        usage.flush();
+        Assert.assertEquals(written.size(), 3);
+        Assert.assertTrue(written.contains("ARTIFACT:org.sample:lib=100"), written.toString());
+
+        written.clear();
+        usage.flush();
+        Assert.assertTrue(written.isEmpty());
+
+        usage.record(OTHER, 1, 500);
+        failing[0] = true;
+        usage.flush();
+        failing[0] = false;
+        usage.flush();
+        Assert.assertEquals(written.size(), 3);
+        Assert.assertTrue(written.contains("REPOSITORY:=600"), written.toString());
+        Assert.assertTrue(written.contains("GROUP:org.sample=600"), written.toString());
+        Assert.assertTrue(written.contains("ARTIFACT:org.sample:tool=500"), written.toString());
+    }
+
+    /** Test that the quotas only limit the growth, so a file can be replaced while the quota is full */
+    @Test
+    public void testQuota() {
+        UsageService usage = new UsageService("test", (repository, usages) -> { }) {
+            @Override
+            public long getQuota(Scope scope, String key) {
+                return scope == Scope.REPOSITORY ? 2000 : "org.sample".equals(key) ? 1000 : 0;
+            }
+        };
+        usage.record(JAR, 1, 900);
+        ArtifactRequest jar = ArtifactRequest.parse("/org/sample/lib/1.0/lib-1.0.jar");
+        ArtifactRequest other = ArtifactRequest.parse("/org/sample/tool/2.0/tool-2.0.jar");
+        ArtifactRequest unlimited = ArtifactRequest.parse("/com/example/app/1.0/app-1.0.jar");
+
+        Assert.assertNull(usage.checkQuota(other, 100, -1));
+        Assert.assertNotNull(usage.checkQuota(other, 101, -1));
+        Assert.assertNull(usage.checkQuota(jar, 1000, 900));
+        Assert.assertNull(usage.checkQuota(jar, 500, 900));
+        String exceeded = usage.checkQuota(jar, 1001, 900);
+        Assert.assertNotNull(exceeded);
+        Assert.assertTrue(exceeded.startsWith("group org.sample"), exceeded);
+
+        Assert.assertNull(usage.checkQuota(unlimited, 1100, 0));
+        exceeded = usage.checkQuota(unlimited, 1101, 0);
+        Assert.assertNotNull(exceeded);
+        Assert.assertTrue(exceeded.startsWith("repository"), exceeded);
+    }
+
+    private static void assertUsage(UsageService.Usage usage, long files, long bytes) {
+        Assert.assertNotNull(usage);
+        Assert.assertEquals(usage.files.get(), files);
+        Assert.assertEquals(usage.bytes.get(), bytes);
+    }
+}
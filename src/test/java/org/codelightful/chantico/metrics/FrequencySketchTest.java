@@ -0,0 +1,63 @@
+package org.codelightful.chantico.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+@Test
+public class FrequencySketchTest {
+    /** Test that the estimates are never lower than the real frequencies and that the popular keys stand out */
+    @Test
+    public void testEstimates() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int key = 0; key < 2000; key++) {
+            sketch.increment(key);
+        }
+        for (int count = 0; count < 50; count++) {
+            sketch.increment(-1);
+        }
+        Assert.assertTrue(sketch.estimate(-1) >= 50);
+        Assert.assertTrue(sketch.estimate(-1) > sketch.estimate(7));
+        for (int key = 0; key < 2000; key++) {
+            Assert.assertTrue(sketch.estimate(key) >= 1, "key=" + key);
+        }
+        Assert.assertEquals(sketch.getResets(), 0);
+    }
+
+    /** Test that the counters are halved once the number of increments reaches ten times the width */
+    @Test
+    public void testDecay() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int count = 0; count < 159; count++) {
+            sketch.increment(42);
+        }
+        Assert.assertEquals(sketch.estimate(42), 159);
+        sketch.increment(42);
+        Assert.assertEquals(sketch.getResets(), 1);
+        Assert.assertEquals(sketch.estimate(42), 80);
+    }
+
+    /** Test that a sketch is restored with the same estimates and discarded when its width does not match */
+    @Test
+    public void testReadWrite() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int count = 0; count < 10; count++) {
+            sketch.increment(count % 3);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+
+        FrequencySketch restored = FrequencySketch.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 64);
+        Assert.assertNotNull(restored);
+        for (int key = 0; key < 3; key++) {
+            Assert.assertEquals(restored.estimate(key), sketch.estimate(key));
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Assert.assertNull(FrequencySketch.read(input, 128));
+        Assert.assertEquals(input.read(), -1);
+    }
+}
@@ -0,0 +1,39 @@
+package org.codelightful.chantico.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class HistogramTest {
+    /** Test that every value is recorded in a bucket whose upper limit is not lower than the value */
+    @Test
+    public void testBucketLimitsContainTheValues() {
+        for (long value = 0; value < 100_000; value += 7) {
+            int index = Histogram.bucketIndex(value);
+            Assert.assertTrue(Histogram.bucketUpperLimit(index) >= value, "value=" + value);
+            Assert.assertTrue(index == 0 || Histogram.bucketUpperLimit(index - 1) < value, "value=" + value);
+        }
+    }
+
+    /** Test the scenario when the percentiles are requested from a uniform distribution */
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        Assert.assertEquals(histogram.getCount(), 10_000);
+        Assert.assertEquals(histogram.getSum(), 50_005_000);
+        Assert.assertEquals(histogram.getValueAtPercentile(50), 5_000, 5_000 * 0.125);
+        Assert.assertEquals(histogram.getValueAtPercentile(99), 9_900, 9_900 * 0.125);
+        Assert.assertEquals(histogram.getCountBelowPowerOfTwo(10), 1_023);
+    }
+
+    /** Test the scenario when nothing has been recorded */
+    @Test
+    public void testEmptyHistogram() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(histogram.getValueAtPercentile(99.9), 0);
+        Assert.assertEquals(histogram.getCountBelowPowerOfTwo(20), 0);
+    }
+}
@@ -0,0 +1,33 @@
+package org.codelightful.chantico.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+@Test
+public class RequestTraceTest {
+    /** Test that only the phases marked while the trace is bound are reported, keeping their first mark */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPhases() throws Exception {
+        RequestTrace.mark(RequestTrace.Phase.AUTH);
+        RequestTrace trace = new RequestTrace("GET", "/artifact/org/sample/lib/1.0/lib-1.0.jar", "127.0.0.1");
+        RequestTrace.bind(trace);
+        RequestTrace.mark(RequestTrace.Phase.PARSE);
+        Thread.sleep(20);
+        RequestTrace.mark(RequestTrace.Phase.FIRST_BYTE);
+        Thread.sleep(20);
+        RequestTrace.mark(RequestTrace.Phase.FIRST_BYTE);
+        trace.complete(200);
+        RequestTrace.mark(RequestTrace.Phase.LAST_BYTE);
+
+        Map<String, Object> values = trace.toMap();
+        Map<String, Object> phases = (Map<String, Object>) values.get("phases");
+        Assert.assertEquals(values.get("status"), 200);
+        Assert.assertEquals(phases.keySet().toString(), "[parse, firstByte]");
+        double firstByte = (Double) phases.get("firstByte");
+        Assert.assertTrue(firstByte >= 20 && firstByte < 40, "firstByte=" + firstByte);
+        Assert.assertTrue((Double) values.get("totalMillis") >= 40);
+    }
+}
@@ -3,6 +3,8 @@ package org.codelightful.chantico.model;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.nio.file.Paths;
+
 @Test
 public class ArtifactRequestTest {
     /** Test the scenario when the method parse is invoked with a null URI */
@@ -27,10 +29,10 @@ public class ArtifactRequestTest {
         Assert.assertEquals(request.artifact, "artifact-name");
         Assert.assertEquals(request.group, "org.company.package");
         Assert.assertNotNull(request.groupParts);
-        Assert.assertEquals(request.groupParts.length, 3);
-        Assert.assertEquals(request.groupParts[0], "org");
-        Assert.assertEquals(request.groupParts[1], "company");
-        Assert.assertEquals(request.groupParts[2], "package");
+        Assert.assertEquals(request.groupParts.size(), 3);
+        Assert.assertEquals(request.groupParts.get(0), "org");
+        Assert.assertEquals(request.groupParts.get(1), "company");
+        Assert.assertEquals(request.groupParts.get(2), "package");
     }
 
     /** Test the scenario when a file without version (a package descriptor) URI is received */
@@ -43,9 +45,50 @@ public class ArtifactRequestTest {
         Assert.assertEquals(request.artifact, "artifact-name");
         Assert.assertEquals(request.group, "org.company.package");
         Assert.assertNotNull(request.groupParts);
-        Assert.assertEquals(request.groupParts.length, 3);
-        Assert.assertEquals(request.groupParts[0], "org");
-        Assert.assertEquals(request.groupParts[1], "company");
-        Assert.assertEquals(request.groupParts[2], "package");
+        Assert.assertEquals(request.groupParts.size(), 3);
+        Assert.assertEquals(request.groupParts.get(0), "org");
+        Assert.assertEquals(request.groupParts.get(1), "company");
+        Assert.assertEquals(request.groupParts.get(2), "package");
+    }
+
+    /** Test that the path relative to the repository is resolved for versioned and non versioned files */
+    @Test
+    public void testParseResolvesRelativePath() {
+        ArtifactRequest request = ArtifactRequest.parse("/org/company/package/artifact-name/1.0-VERSION/artifact-file.pom");
+        Assert.assertEquals(request.path, Paths.get("org", "company", "package", "artifact-name", "1.0-VERSION", "artifact-file.pom"));
+        request = ArtifactRequest.parse("org/company/package/artifact-name/maven-metadata.xml");
+        Assert.assertEquals(request.path, Paths.get("org", "company", "package", "artifact-name", "maven-metadata.xml"));
+    }
+
+    /** Test that requests for the same artifact share the values taken from the coordinate pool */
+    @Test
+    public void testParseReusesPooledValues() {
+        ArtifactRequest first = ArtifactRequest.parse("/org/pooled/artifact-name/2.0/artifact-name-2.0.jar");
+        ArtifactRequest second = ArtifactRequest.parse("/org/pooled/artifact-name/2.0/artifact-name-2.0.jar");
+        ArtifactRequest sibling = ArtifactRequest.parse("/org/pooled/artifact-name/2.0/artifact-name-2.0.pom");
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(second.fileName, first.fileName);
+        Assert.assertSame(second.path, first.path);
+        Assert.assertSame(sibling.group, first.group);
+        Assert.assertSame(sibling.groupParts, first.groupParts);
+        Assert.assertEquals(sibling.fileName, "artifact-name-2.0.pom");
+        Assert.assertEquals(sibling.group, "org.pooled");
+    }
+
+    /** Test that the group parts shared through the coordinate pool can not be modified by a request */
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testGroupPartsAreUnmodifiable() {
+        ArtifactRequest.parse("/org/shared/artifact-name/1.0/artifact-name-1.0.jar").groupParts.set(0, "com");
+    }
+
+    /** Test the scenario when the path does not contain a group */
+    @Test
+    public void testParseWithoutGroup() {
+        ArtifactRequest request = ArtifactRequest.parse("/artifact-name/1.0/artifact-file.jar/");
+        Assert.assertEquals(request.fileName, "artifact-file.jar");
+        Assert.assertEquals(request.version, "1.0");
+        Assert.assertEquals(request.artifact, "artifact-name");
+        Assert.assertNull(request.group);
+        Assert.assertNull(request.groupParts);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package org.codelightful.chantico.model;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@Test
+public class MavenVersionTest {
+    /** Test that the versions are sorted in the same order Maven does */
+    @Test
+    public void testOrder() {
+        List<String> expected = Arrays.asList("1.0-alpha-1", "1.0-alpha-2", "1.0-beta1", "1.0-m1", "1.0-rc1", "1.0-SNAPSHOT",
+                "1.0", "1.0-sp", "1.0-whatever", "1.0.1", "1.2", "1.10", "2.0-RC1", "2.0", "10.0");
+        List<MavenVersion> versions = new ArrayList<>();
+        for (String value : expected) {
+            versions.add(new MavenVersion(value));
+        }
+        Collections.shuffle(versions);
+        Collections.sort(versions);
+        List<String> sorted = new ArrayList<>();
+        for (MavenVersion version : versions) {
+            sorted.add(version.toString());
+        }
+        Assert.assertEquals(sorted, expected);
+    }
+
+    /** Test that the trailing zeros and the release qualifiers are ignored */
+    @Test
+    public void testEquivalent() {
+        Assert.assertEquals(new MavenVersion("1.0"), new MavenVersion("1"));
+        Assert.assertEquals(new MavenVersion("1.0.0"), new MavenVersion("1-final"));
+        Assert.assertEquals(new MavenVersion("1.0-ga"), new MavenVersion("1.0.RELEASE"));
+        Assert.assertEquals(new MavenVersion("1.0-cr1"), new MavenVersion("1.0-rc1"));
+        Assert.assertTrue(new MavenVersion("1.0-SNAPSHOT").isSnapshot());
+    }
+
+    /** Test the versions matched by the ranges */
+    @Test
+    public void testRange() {
+        VersionRange range = VersionRange.parse("[1.0,2.0)");
+        Assert.assertTrue(range.contains(new MavenVersion("1.0")));
+        Assert.assertTrue(range.contains(new MavenVersion("1.9.9")));
+        Assert.assertFalse(range.contains(new MavenVersion("2.0")));
+        Assert.assertFalse(range.contains(new MavenVersion("0.9")));
+
+        range = VersionRange.parse("(,1.5],[3,)");
+        Assert.assertTrue(range.contains(new MavenVersion("1.5")));
+        Assert.assertFalse(range.contains(new MavenVersion("2.0")));
+        Assert.assertTrue(range.contains(new MavenVersion("3.1")));
+        Assert.assertFalse(range.hasSnapshotBound());
+
+        Assert.assertTrue(VersionRange.parse("[1.2]").contains(new MavenVersion("1.2.0")));
+        Assert.assertFalse(VersionRange.parse("1.2").contains(new MavenVersion("1.3")));
+        Assert.assertTrue(VersionRange.parse("[1.0-SNAPSHOT,)").hasSnapshotBound());
+    }
+
+    /** Test that the invalid ranges are rejected */
+    @Test
+    public void testInvalidRange() {
+        for (String specification : Arrays.asList("[1.0", "(1.0)", "[2.0,1.0]", "[1,2,3]", "[1,2),", "")) {
+            try {
+                VersionRange.parse(specification);
+                Assert.fail("The range should be rejected: " + specification);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
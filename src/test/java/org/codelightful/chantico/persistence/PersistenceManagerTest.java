@@ -0,0 +1,112 @@
+package org.codelightful.chantico.persistence;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+@Test
+public class PersistenceManagerTest {
+    private Path folder;
+    private String url;
+
+    @BeforeMethod
+    public void createFolder() throws Exception {
+        folder = Files.createTempDirectory("chantico-database");
+        url = "jdbc:h2:file:" + folder.resolve("database").toAbsolutePath();
+    }
+
+    @AfterMethod
+    public void deleteFolder() throws Exception {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /** Test that a version 1 database keeps its users and gets the unique email index */
+    @Test
+    public void testMigrateVersion1() throws Exception {
+        createVersion1("a@b.c", "d@e.f");
+        new PersistenceManager(folder.resolve("database").toFile()).migrate();
+
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            Assert.assertEquals(queryInt(stmt, "SELECT MAX(schema_version) FROM chantico_schema"), 6);
+            Assert.assertEquals(queryInt(stmt, "SELECT COUNT(*) FROM chantico_users"), 2);
+            Assert.assertEquals(queryInt(stmt, "SELECT COUNT(*) FROM chantico_catalog"), 0);
+            try {
+                stmt.executeUpdate("INSERT INTO chantico_users (user_email, user_name, user_password) VALUES ('a@b.c', 'Other', 'x')");
+                Assert.fail("The email index must be unique");
+            } catch (SQLException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test that the migration does not fail when the existing users have duplicated emails and that the email index is
+     * made unique on a later start once the duplicates are removed
+     */
+    @Test
+    public void testMigrateDuplicatedEmails() throws Exception {
+        createVersion1("a@b.c", "a@b.c", "", "");
+        new PersistenceManager(folder.resolve("database").toFile()).migrate();
+
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            Assert.assertEquals(queryInt(stmt, "SELECT MAX(schema_version) FROM chantico_schema"), 6);
+            Assert.assertEquals(queryInt(stmt, "SELECT COUNT(*) FROM chantico_users"), 4);
+            Assert.assertEquals(queryInt(stmt,
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'IDX_USERS_EMAIL' AND NON_UNIQUE"), 1);
+            stmt.executeUpdate("DELETE FROM chantico_users WHERE user_id IN (2, 4)");
+        }
+        new PersistenceManager(folder.resolve("database").toFile()).migrate();
+
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            Assert.assertEquals(queryInt(stmt,
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'IDX_USERS_EMAIL' AND NOT NON_UNIQUE"), 1);
+        }
+    }
+
+    /** Test that a version whose sentences were executed but not recorded is applied again without failing */
+    @Test
+    public void testMigrateInterruptedVersion() throws Exception {
+        createVersion1("a@b.c");
+        new PersistenceManager(folder.resolve("database").toFile()).migrate();
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM chantico_schema WHERE schema_version > 1");
+        }
+        new PersistenceManager(folder.resolve("database").toFile()).migrate();
+
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            Assert.assertEquals(queryInt(stmt, "SELECT MAX(schema_version) FROM chantico_schema"), 6);
+            Assert.assertEquals(queryInt(stmt, "SELECT COUNT(*) FROM chantico_users"), 1);
+        }
+    }
+
+    /** Creates a database as it was before the schema was versioned with a user for every email */
+    private void createVersion1(String... emails) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE chantico_users(user_id IDENTITY NOT NULL PRIMARY KEY, user_email VARCHAR(20) NOT NULL, " +
+                    "user_name VARCHAR(100) NOT NULL, user_password VARCHAR(300) NOT NULL)");
+            for (String email : emails) {
+                stmt.executeUpdate("INSERT INTO chantico_users (user_email, user_name, user_password) VALUES ('" + email + "', 'User', 'x')");
+            }
+        }
+    }
+
+    private static int queryInt(Statement stmt, String query) throws Exception {
+        try (ResultSet rs = stmt.executeQuery(query)) {
+            Assert.assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+}
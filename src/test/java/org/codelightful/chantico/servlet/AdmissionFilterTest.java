@@ -0,0 +1,117 @@
+package org.codelightful.chantico.servlet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Test
+public class AdmissionFilterTest {
+    /** Test the priority class assigned to the requests */
+    @Test
+    public void testClassify() {
+        Assert.assertEquals(AdmissionFilter.classify("GET", "/artifact/org/sample/lib/1.0/lib-1.0.jar", false),
+                AdmissionFilter.Priority.RELEASE);
+        Assert.assertEquals(AdmissionFilter.classify("PUT", "/artifact/org/sample/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar", false),
+                AdmissionFilter.Priority.SNAPSHOT);
+        Assert.assertEquals(AdmissionFilter.classify("POST", "/artifact/org/sample", false), AdmissionFilter.Priority.BULK);
+        Assert.assertEquals(AdmissionFilter.classify("POST", "/api/resolve", false), AdmissionFilter.Priority.BULK);
+        Assert.assertEquals(AdmissionFilter.classify("GET", "/artifact/org/sample/lib/1.0-SNAPSHOT/", true),
+                AdmissionFilter.Priority.INTERACTIVE);
+    }
+
+    /** Test that only the valid credentials identify the client by its user and that their validation is reused */
+    @Test
+    public void testClientKey() {
+        AtomicInteger validations = new AtomicInteger();
+        AdmissionFilter filter = new AdmissionFilter((login, password) -> {
+            validations.incrementAndGet();
+            return "secret".equals(password) ? login : null;
+        });
+        Assert.assertEquals(filter.getClientKey(request("10.0.0.1", null)), "address:10.0.0.1");
+        Assert.assertEquals(filter.getClientKey(request("10.0.0.1", basic("alice", "secret"))), "user:alice");
+        Assert.assertEquals(filter.getClientKey(request("10.0.0.2", basic("alice", "secret"))), "user:alice");
+        Assert.assertEquals(filter.getClientKey(request("10.0.0.3", basic("alice", "guess"))), "address:10.0.0.3");
+        Assert.assertEquals(filter.getClientKey(request("10.0.0.4", "Basic %%%")), "address:10.0.0.4");
+        Assert.assertEquals(validations.get(), 2);
+    }
+
+    /** Test that a client over its concurrency limit is rejected while the other clients are still admitted */
+    @Test
+    public void testPerClientFairness() {
+        AdmissionFilter filter = new AdmissionFilter((login, password) -> null);
+        List<AdmissionFilter.Client> admitted = new ArrayList<>();
+        for (int count = 0; count < 32; count++) {
+            admitted.add(admit(filter, "user:greedy", AdmissionFilter.Priority.RELEASE));
+        }
+        Assert.assertSame(filter.admit("user:greedy", AdmissionFilter.Priority.RELEASE), AdmissionFilter.Client.REJECTED);
+        Assert.assertEquals(filter.getInFlight(), 32);
+        AdmissionFilter.Client other = admit(filter, "user:other", AdmissionFilter.Priority.RELEASE);
+
+        filter.release(admitted.remove(0), AdmissionFilter.Priority.RELEASE);
+        admitted.add(admit(filter, "user:greedy", AdmissionFilter.Priority.RELEASE));
+        for (AdmissionFilter.Client client : admitted) {
+            filter.release(client, AdmissionFilter.Priority.RELEASE);
+        }
+        filter.release(other, AdmissionFilter.Priority.RELEASE);
+        Assert.assertEquals(filter.getInFlight(), 0);
+    }
+
+    /**
+     * Test that a class over its share of the capacity is rejected immediately instead of queued, that the capacity
+     * left is kept for the higher classes and that the next request is admitted once a request completes
+     */
+    @Test
+    public void testOverloadRejection() {
+        AdmissionFilter filter = new AdmissionFilter((login, password) -> null);
+        List<AdmissionFilter.Client> admitted = new ArrayList<>();
+        for (int count = 0; count < 100; count++) {
+            admitted.add(admit(filter, "address:10.0.0." + count, AdmissionFilter.Priority.BULK));
+        }
+        long startTime = System.nanoTime();
+        Assert.assertNull(filter.admit("address:10.0.1.1", AdmissionFilter.Priority.BULK));
+        Assert.assertTrue(System.nanoTime() - startTime < 1000000000L, "A rejection must not wait for capacity");
+        Assert.assertEquals(filter.getInFlight(), 100);
+        AdmissionFilter.Client release = admit(filter, "address:10.0.1.1", AdmissionFilter.Priority.RELEASE);
+
+        filter.release(admitted.remove(0), AdmissionFilter.Priority.BULK);
+        Assert.assertNull(filter.admit("address:10.0.1.2", AdmissionFilter.Priority.BULK));
+        filter.release(release, AdmissionFilter.Priority.RELEASE);
+        admitted.add(admit(filter, "address:10.0.1.2", AdmissionFilter.Priority.BULK));
+        for (AdmissionFilter.Client client : admitted) {
+            filter.release(client, AdmissionFilter.Priority.BULK);
+        }
+        Assert.assertEquals(filter.getInFlight(), 0);
+    }
+
+    private static AdmissionFilter.Client admit(AdmissionFilter filter, String clientKey, AdmissionFilter.Priority priority) {
+        AdmissionFilter.Client client = filter.admit(clientKey, priority);
+        Assert.assertNotNull(client, "The request of " + clientKey + " must be admitted");
+        Assert.assertNotSame(client, AdmissionFilter.Client.REJECTED, "The request of " + clientKey + " must be admitted");
+        return client;
+    }
+
+    private static String basic(String user, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static HttpServletRequest request(String address, String authorization) {
+        return (HttpServletRequest) Proxy.newProxyInstance(AdmissionFilterTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRemoteAddr":
+                            return address;
+                        case "getHeader":
+                            return "Authorization".equalsIgnoreCase((String) args[0]) ? authorization : null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
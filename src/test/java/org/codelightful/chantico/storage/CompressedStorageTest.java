@@ -0,0 +1,139 @@
+package org.codelightful.chantico.storage;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+@Test
+public class CompressedStorageTest {
+    private static final Path POM = Paths.get("org", "group", "artifact", "1.0", "artifact-1.0.pom");
+    private static final Path JAR = Paths.get("org", "group", "artifact", "1.0", "artifact-1.0.jar");
+    private Path folder;
+    private FileSystemStorage files;
+    private CompressedStorage storage;
+
+    @BeforeMethod
+    public void createStorage() throws Exception {
+        folder = Files.createTempDirectory("chantico-compressed");
+        files = new FileSystemStorage(folder);
+        storage = new CompressedStorage(files, "test", Arrays.asList("pom", "xml"));
+    }
+
+    @AfterMethod
+    public void deleteStorage() throws Exception {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /** Test that the eligible files are kept compressed and are served either decompressed or as gzip content */
+    @Test
+    public void testCompressedFile() throws Exception {
+        byte[] content = repeat("<dependency></dependency>\n", 200);
+        write(storage, POM, content);
+
+        Assert.assertNull(files.stat(POM));
+        Assert.assertTrue(files.stat(Paths.get(POM + CompressedStorage.SUFFIX)).size < content.length);
+        Assert.assertEquals(storage.stat(POM).size, content.length);
+        Assert.assertEquals(storage.list(POM.getParent()).get(0).key, POM);
+        Assert.assertEquals(read(storage.openStream(POM)), content);
+        try (InputStream gzip = storage.openGzipStream(POM)) {
+            Assert.assertEquals(read(new GZIPInputStream(gzip)), content);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(11);
+        Assert.assertEquals(storage.read(POM, 26, buffer), 11);
+        Assert.assertEquals(new String(buffer.array(), StandardCharsets.UTF_8), "<dependency");
+    }
+
+    /** Test that the files with other extensions are kept as they are */
+    @Test
+    public void testUncompressedFile() throws Exception {
+        byte[] content = repeat("jar", 100);
+        write(storage, JAR, content);
+        Assert.assertEquals(files.stat(JAR).size, content.length);
+        Assert.assertNull(storage.openGzipStream(JAR));
+        Assert.assertEquals(read(storage.openStream(JAR)), content);
+    }
+
+    /** Test that the compressed files are still served when the compression is disabled */
+    @Test
+    public void testCompressionDisabledLater() throws Exception {
+        byte[] content = repeat("<project/>", 10);
+        write(storage, POM, content);
+        CompressedStorage disabled = new CompressedStorage(files, "test", Collections.emptyList());
+        Assert.assertEquals(read(disabled.openStream(POM)), content);
+
+        byte[] newContent = repeat("<project></project>", 10);
+        write(disabled, POM, newContent);
+        Assert.assertNull(disabled.openGzipStream(POM));
+        Assert.assertEquals(read(storage.openStream(POM)), newContent);
+        Assert.assertTrue(storage.delete(POM));
+        Assert.assertNull(storage.stat(POM));
+    }
+
+    /**
+     * Test that the size of a compressed file is taken from its size member instead of the gzip trailer, which only
+     * holds it modulo 2^32, and that the member is not served as part of the gzip content
+     */
+    @Test
+    public void testSizeMember() throws Exception {
+        byte[] content = repeat("<project/>", 10);
+        long size = 5L * 1024 * 1024 * 1024 + content.length;
+        try (Storage.Upload upload = files.create(Paths.get(POM + CompressedStorage.SUFFIX))) {
+            GZIPOutputStream output = new GZIPOutputStream(upload.getOutputStream());
+            output.write(content);
+            output.finish();
+            GzipSupport.writeSizeMember(upload.getOutputStream(), size);
+            upload.publish();
+        }
+        Assert.assertEquals(storage.stat(POM).size, size);
+        Assert.assertEquals(read(storage.openStream(POM)), content);
+        byte[] gzip = read(storage.openGzipStream(POM));
+        Assert.assertEquals(gzip.length, files.stat(Paths.get(POM + CompressedStorage.SUFFIX)).size - GzipSupport.SIZE_MEMBER_LENGTH);
+        Assert.assertEquals(read(new GZIPInputStream(new ByteArrayInputStream(gzip))), content);
+    }
+
+    private void write(Storage target, Path key, byte[] content) throws Exception {
+        try (Storage.Upload upload = target.create(key)) {
+            upload.getOutputStream().write(content);
+            upload.publish();
+        }
+    }
+
+    private byte[] read(InputStream input) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream source = input) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = source.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int idx = 0; idx < count; idx++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package org.codelightful.chantico.storage;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+@Test
+public class FileSystemStorageTest {
+    /** Test that a published file has the same permissions as a file created by the process, not owner only ones */
+    @Test
+    public void testPublishedPermissions() throws Exception {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            throw new SkipException("The file system does not support POSIX permissions");
+        }
+        Path folder = Files.createTempDirectory("chantico-filesystem");
+        try {
+            FileSystemStorage storage = new FileSystemStorage(folder);
+            Path key = Paths.get("org", "sample", "lib", "1.0", "lib-1.0.pom");
+            try (Storage.Upload upload = storage.create(key)) {
+                upload.getOutputStream().write("<project/>".getBytes(StandardCharsets.UTF_8));
+                upload.publish();
+            }
+            Set<PosixFilePermission> expected = Files.getPosixFilePermissions(Files.createFile(folder.resolve("reference")));
+            Assert.assertEquals(Files.getPosixFilePermissions(storage.resolve(key)), expected);
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.codelightful.chantico.storage;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Test
+public class PackedStorageTest {
+    private static final Path POM = Paths.get("org", "group", "artifact", "1.0", "artifact-1.0.pom");
+    private static final Path SHA1 = Paths.get("org", "group", "artifact", "1.0", "artifact-1.0.pom.sha1");
+    private static final Path JAR = Paths.get("org", "group", "artifact", "1.0", "artifact-1.0.jar");
+    private Path folder;
+    private FileSystemStorage files;
+
+    @BeforeMethod
+    public void createFolder() throws Exception {
+        folder = Files.createTempDirectory("chantico-packed");
+        files = new FileSystemStorage(folder.resolve("files"));
+    }
+
+    @AfterMethod
+    public void deleteFolder() throws Exception {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private PackedStorage open(long segmentSize) throws Exception {
+        return new PackedStorage(files, folder.resolve("packs"), 1024, segmentSize, 0.5, 0);
+    }
+
+    /** Test that the small files are packed, the big ones are stored in the other storage and both are listed */
+    @Test
+    public void testPackedAndRegularFiles() throws Exception {
+        PackedStorage storage = open(1024 * 1024);
+        byte[] pom = repeat("<project/>", 20);
+        byte[] jar = repeat("jar", 1000);
+        write(storage, POM, pom);
+        write(storage, JAR, jar);
+
+        Assert.assertNull(files.stat(POM));
+        Assert.assertEquals(files.stat(JAR).size, jar.length);
+        Assert.assertEquals(storage.stat(POM).size, pom.length);
+        Assert.assertTrue(storage.stat(POM.getParent()).directory);
+        Assert.assertEquals(read(storage.openStream(POM)), pom);
+        Assert.assertEquals(read(storage.openStream(JAR)), jar);
+
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        Assert.assertEquals(storage.read(POM, 11, buffer), 9);
+        Assert.assertEquals(new String(buffer.array(), StandardCharsets.UTF_8), "project/>");
+
+        List<Path> keys = storage.list(POM.getParent()).stream().map(entry -> entry.key).sorted().collect(Collectors.toList());
+        Assert.assertEquals(keys.size(), 2);
+        Assert.assertTrue(keys.contains(POM) && keys.contains(JAR));
+        Storage.Entry group = storage.list(Paths.get("org")).get(0);
+        Assert.assertEquals(group.key, Paths.get("org", "group"));
+        Assert.assertTrue(group.directory);
+
+        // a packed file that grows beyond the threshold is moved out of the pack
+        write(storage, POM, jar);
+        Assert.assertEquals(files.stat(POM).size, jar.length);
+        Assert.assertEquals(read(storage.openStream(POM)), jar);
+        storage.close();
+    }
+
+    /** Test that the index is rebuilt on startup, honoring deletions and discarding an incomplete last record */
+    @Test
+    public void testRecovery() throws Exception {
+        PackedStorage storage = open(1024 * 1024);
+        write(storage, POM, repeat("<project/>", 2));
+        write(storage, SHA1, repeat("a", 40));
+        Assert.assertTrue(storage.delete(POM));
+        storage.close();
+
+        Path segment;
+        try (Stream<Path> paths = Files.list(folder.resolve("packs"))) {
+            segment = paths.findFirst().get();
+        }
+        long size = Files.size(segment);
+        Files.write(segment, new byte[] { 0x43, 0x50, 0x4B, 0x31, 0, 0, 4 }, StandardOpenOption.APPEND);
+
+        storage = open(1024 * 1024);
+        Assert.assertNull(storage.stat(POM));
+        Assert.assertEquals(read(storage.openStream(SHA1)), repeat("a", 40));
+        Assert.assertEquals(Files.size(segment), size);
+        storage.close();
+    }
+
+    /** Test that the segments with mostly replaced content are compacted keeping the latest content */
+    @Test
+    public void testCompaction() throws Exception {
+        PackedStorage storage = open(512);
+        for (int idx = 0; idx < 20; idx++) {
+            write(storage, POM, repeat("<project>" + idx + "</project>", 5));
+        }
+        write(storage, SHA1, repeat("b", 40));
+        int segments = storage.getSegmentCount();
+        Assert.assertTrue(segments > 2);
+        Assert.assertTrue(storage.compact() > 0);
+        Assert.assertTrue(storage.getSegmentCount() < segments);
+        Assert.assertEquals(read(storage.openStream(POM)), repeat("<project>19</project>", 5));
+        storage.close();
+
+        storage = open(512);
+        Assert.assertEquals(read(storage.openStream(POM)), repeat("<project>19</project>", 5));
+        Assert.assertEquals(read(storage.openStream(SHA1)), repeat("b", 40));
+        storage.close();
+    }
+
+    private void write(Storage target, Path key, byte[] content) throws Exception {
+        try (Storage.Upload upload = target.create(key)) {
+            upload.getOutputStream().write(content);
+            upload.publish();
+        }
+    }
+
+    private byte[] read(InputStream input) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream source = input) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = source.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int idx = 0; idx < count; idx++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package org.codelightful.chantico.storage;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+@Test
+public class TieredStorageTest {
+    private static final Path KEY = Paths.get("org", "group", "artifact", "1.0", "artifact-1.0.pom");
+    private Path folder;
+    private FileSystemStorage hot;
+    private FileSystemStorage cold;
+    private TieredStorage storage;
+
+    @BeforeMethod
+    public void createStorage() throws Exception {
+        folder = Files.createTempDirectory("chantico-storage");
+        hot = new FileSystemStorage(folder.resolve("hot"));
+        cold = new FileSystemStorage(folder.resolve("cold"));
+        // every file is old enough to be demoted
+        storage = new TieredStorage(hot, cold, -1, 0);
+    }
+
+    @AfterMethod
+    public void deleteStorage() throws Exception {
+        storage.close();
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /** Test that a demoted file is kept compressed, is served from the slow tier and is promoted back in the background */
+    @Test
+    public void testDemoteAndPromote() throws Exception {
+        byte[] content = repeat("<project></project>\n", 500);
+        write(KEY, content);
+
+        Assert.assertEquals(storage.demote(), 1);
+        Assert.assertNull(hot.stat(KEY));
+        Assert.assertTrue(cold.stat(KEY).size < content.length);
+        Assert.assertEquals(storage.stat(KEY).size, content.length);
+        Assert.assertEquals(storage.list(KEY.getParent()).size(), 1);
+
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        Assert.assertEquals(storage.read(KEY, 20, buffer), 9);
+        Assert.assertEquals(new String(buffer.array(), StandardCharsets.UTF_8), "<project>");
+        Assert.assertEquals(read(KEY), content);
+        for (int attempt = 0; attempt < 100 && cold.stat(KEY) != null; attempt++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(hot.stat(KEY).size, content.length);
+        Assert.assertNull(cold.stat(KEY));
+        Assert.assertEquals(read(KEY), content);
+    }
+
+    /** Test that the last access of the files and the start of the tracking survive a restart */
+    @Test
+    public void testLastAccessSurvivesRestart() throws Exception {
+        Path stateFile = folder.resolve("storage-access.dat");
+        Path unread = KEY.resolveSibling("artifact-1.0.jar");
+        storage.close();
+        storage = new TieredStorage(hot, cold, 1000, 0, stateFile);
+        write(KEY, repeat("read", 10));
+        write(unread, repeat("unread", 10));
+        FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - 3600000);
+        Files.setLastModifiedTime(folder.resolve("hot").resolve(KEY), modified);
+        Files.setLastModifiedTime(folder.resolve("hot").resolve(unread), modified);
+        Assert.assertEquals(storage.demote(), 0);
+        Thread.sleep(1200);
+        read(KEY);
+        storage.close();
+
+        storage = new TieredStorage(hot, cold, 1000, 0, stateFile);
+        Assert.assertEquals(storage.demote(), 1);
+        Assert.assertNotNull(hot.stat(KEY));
+        Assert.assertNull(hot.stat(unread));
+        Assert.assertNotNull(cold.stat(unread));
+    }
+
+    /** Test that storing a file that has been demoted replaces the compressed copy */
+    @Test
+    public void testStoreReplacesDemotedFile() throws Exception {
+        write(KEY, repeat("old", 100));
+        storage.demote();
+        byte[] content = repeat("new", 10);
+        write(KEY, content);
+        Assert.assertNull(cold.stat(KEY));
+        Assert.assertEquals(read(KEY), content);
+        Assert.assertTrue(storage.delete(KEY));
+        Assert.assertNull(storage.stat(KEY));
+        Assert.assertFalse(Files.exists(folder.resolve("hot").resolve("org")));
+    }
+
+    /** Test the positional reads and that the content is not visible until the upload is published */
+    @Test
+    public void testPositionalReadAndUnpublishedUpload() throws Exception {
+        write(KEY, "0123456789".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        Assert.assertEquals(storage.read(KEY, 3, buffer), 4);
+        Assert.assertEquals(new String(buffer.array(), StandardCharsets.UTF_8), "3456");
+
+        try (Storage.Upload upload = storage.create(KEY)) {
+            upload.getOutputStream().write(1);
+        }
+        Assert.assertEquals(storage.stat(KEY).size, 10);
+        Assert.assertEquals(storage.list(KEY.getParent()).size(), 1);
+    }
+
+    /** Test that the keys pointing outside the storage folder are rejected */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testKeyOutsideTheStorage() throws Exception {
+        hot.stat(Paths.get("org", "..", "..", "cold"));
+    }
+
+    private void write(Path key, byte[] content) throws Exception {
+        try (Storage.Upload upload = storage.create(key)) {
+            upload.getOutputStream().write(content);
+            upload.publish();
+        }
+    }
+
+    private byte[] read(Path key) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = storage.openStream(key)) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int idx = 0; idx < count; idx++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}